@@ -65,4 +65,8 @@ dependencies {
     implementation("org.jsoup:jsoup:1.15.4")
     implementation("com.squareup.okhttp3:okhttp:4.10.0")
     implementation("com.google.code.gson:gson:2.8.8")
+
+    // Local unit test libraries (real org.json on the JVM and a stand-in HTTP server)
+    testImplementation("org.json:json:20231013")
+    testImplementation("com.squareup.okhttp3:mockwebserver:4.10.0")
 }
@@ -0,0 +1,264 @@
+package com.example.getfit.adapter;
+
+import android.app.Instrumentation;
+
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.getfit.util.FirebaseUtil;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.WriteBatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks against the Firestore emulator that {@link FirestoreAdapter} decodes each version of a
+ * document once, folds a burst of snapshots into fewer updates, pins a page once the next one is
+ * loaded, and keeps the rows of a released page as placeholders until it is read again.
+ * <p>
+ * Firestore's queries and snapshots can only be created by the SDK, so the adapter reads a real
+ * query. Every test writes to its own collection, so earlier runs don't show up.
+ * </p>
+ * <p>
+ * Needs the Firebase Emulator Suite running on the host ({@code firebase emulators:start}) with the
+ * Auth and Firestore emulators on their default ports.
+ * </p>
+ */
+@RunWith(AndroidJUnit4.class)
+public class FirestoreAdapterEmulatorTest {
+
+    private static final long TIMEOUT_MS = 15_000;
+    private static final String FIELD_RANK = "rank";
+    private static final String FIELD_NAME = "name";
+
+    private final Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+    private final ArrayList<RankAdapter> adapters = new ArrayList<>();
+    private CollectionReference collection;
+
+    /**
+     * Shows the rank of each document and counts what the adapter decodes and dispatches.
+     */
+    private static class RankAdapter extends FirestoreAdapter<Long, RecyclerView.ViewHolder> {
+        final ConcurrentHashMap<String, AtomicInteger> decodes = new ConcurrentHashMap<>();
+        final AtomicInteger dispatches = new AtomicInteger();
+
+        RankAdapter(CollectionReference collection, int pageSize) {
+            super(collection.orderBy(FIELD_RANK), Long.class, pageSize);
+        }
+
+        @Override
+        protected Long decode(DocumentSnapshot snapshot) {
+            decodes.computeIfAbsent(snapshot.getId(), id -> new AtomicInteger()).incrementAndGet();
+            return snapshot.getLong(FIELD_RANK);
+        }
+
+        @Override
+        protected void onDataChanged() {
+            dispatches.incrementAndGet();
+        }
+
+        int decodesOf(String id) {
+            AtomicInteger count = decodes.get(id);
+            return count != null ? count.get() : 0;
+        }
+    }
+
+    @BeforeClass
+    public static void connectToEmulators() {
+        FirebaseUtil.useEmulators();
+    }
+
+    @Before
+    public void signUp() throws Exception {
+        String email = "adapter-" + UUID.randomUUID() + "@example.com";
+        Tasks.await(FirebaseUtil.getAuth().createUserWithEmailAndPassword(email, "password123"),
+                TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        collection = FirebaseUtil.getFirestore().collection("adapter-" + UUID.randomUUID());
+    }
+
+    @After
+    public void tearDown() {
+        instrumentation.runOnMainSync(() -> {
+            for (RankAdapter adapter : adapters) {
+                adapter.stopListening();
+            }
+        });
+    }
+
+    @Test
+    public void versions_areDecodedOnce() throws Exception {
+        seed(0, 10, 20, 30, 40);
+        RankAdapter adapter = startAdapter(20);
+        await(() -> ranks(adapter).size() == 5);
+
+        // Scrolling and snapshots of other documents don't decode a document again
+        adapter.onViewportChanged(0, 4);
+        adapter.onViewportChanged(2, 4);
+        Tasks.await(collection.document(id(20)).update(FIELD_NAME, "changed"), TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        await(() -> adapter.decodesOf(id(20)) == 2);
+
+        for (int rank : new int[]{0, 10, 30, 40}) {
+            assertEquals(1, adapter.decodesOf(id(rank)));
+        }
+        assertEquals(list(0L, 10L, 20L, 30L, 40L), ranks(adapter));
+    }
+
+    @Test
+    public void burstOfWrites_isDispatchedInFewerUpdates() throws Exception {
+        RankAdapter adapter = startAdapter(20);
+        await(() -> adapter.dispatches.get() > 0);
+        int before = adapter.dispatches.get();
+
+        // Local writes raise their snapshots right away, well within one burst of each other
+        int writes = 20;
+        for (int rank = 0; rank < writes; rank++) {
+            collection.document(id(rank)).set(document(rank));
+        }
+        await(() -> ranks(adapter).size() == writes);
+
+        assertTrue("each write was dispatched on its own", adapter.dispatches.get() - before < writes);
+        List<Long> expected = new ArrayList<>();
+        for (long rank = 0; rank < writes; rank++) {
+            expected.add(rank);
+        }
+        assertEquals(expected, ranks(adapter));
+    }
+
+    @Test
+    public void pinnedPage_growsInsteadOfLosingADocument() throws Exception {
+        seed(0, 10, 20, 30, 40, 50, 60, 70, 80, 90);
+        RankAdapter adapter = startAdapter(5);
+        // The first page is full, so the next one is loaded right away and the first is pinned
+        await(() -> ranks(adapter).size() == 10);
+
+        // The first page is pinned at 40, so 15 goes into it instead of falling between the pages
+        Tasks.await(collection.document(id(15)).set(document(15)), TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        await(() -> ranks(adapter).size() == 11);
+        assertEquals(list(0L, 10L, 15L, 20L, 30L, 40L, 50L, 60L, 70L, 80L, 90L), ranks(adapter));
+    }
+
+    @Test
+    public void releasedPage_keepsItsRowsAsPlaceholders() throws Exception {
+        int documents = 40;
+        int[] seeded = new int[documents];
+        for (int i = 0; i < documents; i++) {
+            seeded[i] = i * 10;
+        }
+        seed(seeded);
+        RankAdapter adapter = startAdapter(5);
+
+        // Scroll to the end, so the first pages are far enough away to be released
+        await(() -> onMain(adapter::getItemCount) >= 10);
+        while (onMain(adapter::getItemCount) < documents) {
+            int rows = onMain(adapter::getItemCount);
+            adapter.onViewportChanged(rows - 2, rows - 1);
+            await(() -> onMain(adapter::getItemCount) > rows);
+        }
+        adapter.onViewportChanged(documents - 2, documents - 1);
+        await(() -> onMain(() -> adapter.isPlaceholder(0)));
+
+        // The released rows are still counted, so the rows on screen keep their positions
+        assertEquals(documents, (int) onMain(adapter::getItemCount));
+        assertNull(onMain(() -> adapter.getItem(0)));
+        assertEquals(Long.valueOf((documents - 1) * 10), onMain(() -> adapter.getItem(documents - 1)));
+
+        // Scrolling back reads the page again and replaces its placeholders in place
+        adapter.onViewportChanged(0, 2);
+        await(() -> !onMain(() -> adapter.isPlaceholder(0)));
+        assertEquals(documents, (int) onMain(adapter::getItemCount));
+        assertEquals(Long.valueOf(0), onMain(() -> adapter.getItem(0)));
+        assertEquals(2, adapter.decodesOf(id(0)));
+    }
+
+    private RankAdapter startAdapter(int pageSize) {
+        RankAdapter adapter = new RankAdapter(collection, pageSize);
+        adapters.add(adapter);
+        instrumentation.runOnMainSync(adapter::startListening);
+        return adapter;
+    }
+
+    /**
+     * Writes one document per rank in a single batch.
+     */
+    private void seed(int... ranks) throws Exception {
+        WriteBatch batch = FirebaseUtil.getFirestore().batch();
+        for (int rank : ranks) {
+            batch.set(collection.document(id(rank)), document(rank));
+        }
+        Tasks.await(batch.commit(), TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private static Map<String, Object> document(long rank) {
+        Map<String, Object> data = new HashMap<>();
+        data.put(FIELD_RANK, rank);
+        data.put(FIELD_NAME, id(rank));
+        return data;
+    }
+
+    private static String id(long rank) {
+        return "rank-" + rank;
+    }
+
+    private static List<Long> list(Long... ranks) {
+        List<Long> list = new ArrayList<>();
+        Collections.addAll(list, ranks);
+        return list;
+    }
+
+    /**
+     * Returns the ranks on screen, skipping placeholders.
+     */
+    private List<Long> ranks(RankAdapter adapter) {
+        return onMain(() -> {
+            List<Long> ranks = new ArrayList<>();
+            for (int i = 0; i < adapter.getItemCount(); i++) {
+                if (!adapter.isPlaceholder(i)) {
+                    ranks.add(adapter.getItem(i));
+                }
+            }
+            return ranks;
+        });
+    }
+
+    /**
+     * Reads the adapter on the main thread, where its rows are swapped.
+     */
+    private <V> V onMain(Supplier<V> read) {
+        AtomicReference<V> value = new AtomicReference<>();
+        instrumentation.runOnMainSync(() -> value.set(read.get()));
+        return value.get();
+    }
+
+    /**
+     * Waits until a condition holds, failing after {@link #TIMEOUT_MS}.
+     */
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            assertTrue("The adapter didn't update in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(50);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.example.getfit.util;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.getfit.models.User;
+import com.google.android.gms.tasks.Tasks;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the user data operations against the Firestore and Auth emulators: the user document
+ * write of a signup, {@link UserManager#fetchUserData()} and the profile updates, each called from
+ * {@value #THREADS} threads at once. Every test seeds its own users.
+ * <p>
+ * The latencies and operation counts go to a JSON report, {@value #REPORT_FILE} in the app's
+ * external files directory (pull it with {@code adb pull
+ * /sdcard/Android/data/com.example.getfit/files/firestore-benchmark.json}), and to logcat under the
+ * tag {@value #TAG}, so runs before and after a storage or caching change can be compared.
+ * </p>
+ * <p>
+ * Needs the Firebase Emulator Suite running on the host ({@code firebase emulators:start}) with the
+ * Auth and Firestore emulators on their default ports and rules that let a signed in user write
+ * other users' documents, as the emulator's default rules do.
+ * </p>
+ */
+@RunWith(AndroidJUnit4.class)
+public class FirestoreBenchmarkEmulatorTest {
+
+    private static final String TAG = "FirestoreBenchmark";
+    private static final String REPORT_FILE = "firestore-benchmark.json";
+    private static final long TIMEOUT_MS = 60_000;
+
+    private static final int THREADS = 8;
+    private static final int SIGNUPS = 100;
+    private static final int USERS = 5;
+    private static final int FETCHES_PER_USER = 200;
+    private static final int UPDATES = 100;
+
+    private static final JSONObject report = new JSONObject();
+
+    private final ScheduledExecutorService executor = StatsStore.newWriterThread();
+    private final ExecutorService callers = Executors.newFixedThreadPool(THREADS);
+
+    /**
+     * The latencies of one kind of operation.
+     */
+    private static final class Latencies {
+        private final ArrayList<Long> nanos = new ArrayList<>();
+
+        synchronized void add(long latencyNanos) {
+            nanos.add(latencyNanos);
+        }
+
+        synchronized JSONObject toJson() throws JSONException {
+            long[] sorted = new long[nanos.size()];
+            long total = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = nanos.get(i);
+                total += sorted[i];
+            }
+            Arrays.sort(sorted);
+            JSONObject json = new JSONObject();
+            json.put("count", sorted.length);
+            json.put("meanMs", sorted.length == 0 ? 0 : total / 1e6 / sorted.length);
+            json.put("p50Ms", percentile(sorted, 0.50));
+            json.put("p95Ms", percentile(sorted, 0.95));
+            json.put("p99Ms", percentile(sorted, 0.99));
+            json.put("maxMs", sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6);
+            return json;
+        }
+
+        private static double percentile(long[] sorted, double fraction) {
+            return sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1, fraction * sorted.length)] / 1e6;
+        }
+    }
+
+    /**
+     * An operation timed by {@link #runConcurrently(int, Latencies, Operation)}.
+     */
+    private interface Operation {
+        void run(int index) throws Exception;
+    }
+
+    @BeforeClass
+    public static void connectToEmulators() throws JSONException {
+        FirebaseUtil.useEmulators();
+        JSONObject config = new JSONObject();
+        config.put("threads", THREADS);
+        config.put("signups", SIGNUPS);
+        config.put("users", USERS);
+        config.put("fetchesPerUser", FETCHES_PER_USER);
+        config.put("updates", UPDATES);
+        config.put("cacheSizeBytes", FirebaseUtil.CACHE_SIZE_BYTES);
+        config.put("coalesceMs", UserManager.COALESCE_MS);
+        report.put("timestampMillis", System.currentTimeMillis());
+        report.put("config", config);
+    }
+
+    @After
+    public void tearDown() {
+        callers.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    @AfterClass
+    public static void writeReport() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        File file = new File(context.getExternalFilesDir(null), REPORT_FILE);
+        try (Writer writer = new FileWriter(file)) {
+            writer.write(report.toString(2));
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + file, e);
+        }
+        Log.i(TAG, report.toString());
+    }
+
+    @Test
+    public void signupWrites_underConcurrentLoad() throws Exception {
+        UserManager userManager = newUserManager();
+        Latencies latencies = new Latencies();
+
+        long wallNanos = runConcurrently(SIGNUPS, latencies, index -> {
+            String uid = "benchmark-" + UUID.randomUUID();
+            Tasks.await(userManager.createUserDocument(uid, new User("Benchmark " + index, uid + "@example.com",
+                    0, 0, "", 0)), TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        });
+
+        JSONObject section = new JSONObject();
+        section.put("writes", SIGNUPS);
+        section.put("wallMs", wallNanos / 1e6);
+        section.put("writesPerSecond", SIGNUPS / (wallNanos / 1e9));
+        section.put("latency", latencies.toJson());
+        report.put("signupWrite", section);
+    }
+
+    @Test
+    public void fetchUserData_firstAndCachedFetches() throws Exception {
+        FirestoreReadMetrics metrics = FirebaseUtil.getReadMetrics();
+        int cacheReads = metrics.getReadCount(true);
+        int serverReads = metrics.getReadCount(false);
+        Latencies first = new Latencies();
+        Latencies cached = new Latencies();
+        int documentReads = 0;
+
+        for (int user = 0; user < USERS; user++) {
+            seedUser(user);
+            // A new session of the signed in user
+            UserManager userManager = newUserManager();
+            long begin = System.nanoTime();
+            Tasks.await(userManager.fetchUserData(), TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            first.add(System.nanoTime() - begin);
+
+            // Screens asking for the user from several threads
+            runConcurrently(FETCHES_PER_USER, cached, index ->
+                    Tasks.await(userManager.fetchUserData(), TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            assertEquals(1, userManager.getFetchCount());
+            documentReads += userManager.getFetchCount();
+        }
+
+        JSONObject section = new JSONObject();
+        section.put("fetches", USERS * (FETCHES_PER_USER + 1));
+        section.put("documentReads", documentReads);
+        section.put("readsFromCache", metrics.getReadCount(true) - cacheReads);
+        section.put("readsFromServer", metrics.getReadCount(false) - serverReads);
+        section.put("firstFetchLatency", first.toJson());
+        section.put("cachedFetchLatency", cached.toJson());
+        report.put("fetchUserData", section);
+    }
+
+    @Test
+    public void profileUpdates_underConcurrentLoad() throws Exception {
+        seedUser(0);
+        UserManager userManager = newUserManager();
+        Tasks.await(userManager.fetchUserData(), TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        Latencies latencies = new Latencies();
+
+        long wallNanos = runConcurrently(UPDATES, latencies, index -> {
+            // Alternating between the settings and the bio data screens
+            if (index % 2 == 0) {
+                Tasks.await(userManager.updateUserSettingsData("Benchmark", 60 + index % 40, 70, "Medium"),
+                        TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } else {
+                Tasks.await(userManager.updateUserBioData(175, 60 + index % 40, 70, "Medium"),
+                        TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            }
+        });
+        assertTrue(userManager.getWriteCount() > 0);
+        assertTrue(userManager.getWriteCount() <= UPDATES);
+
+        JSONObject section = new JSONObject();
+        section.put("updates", UPDATES);
+        section.put("writes", userManager.getWriteCount());
+        section.put("wallMs", wallNanos / 1e6);
+        section.put("latency", latencies.toJson());
+        report.put("profileUpdates", section);
+    }
+
+    /**
+     * Creates and signs in a new account with a user document, as a signup does.
+     */
+    private void seedUser(int index) throws Exception {
+        String email = "benchmark-" + UUID.randomUUID() + "@example.com";
+        String uid = Tasks.await(FirebaseUtil.getAuth().createUserWithEmailAndPassword(email, "password123"),
+                TIMEOUT_MS, TimeUnit.MILLISECONDS).getUser().getUid();
+        Tasks.await(newUserManager().createUserDocument(uid, new User("Benchmark " + index, email, 175, 70, "Medium", 65)),
+                TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs an operation a number of times from {@value #THREADS} threads and times every call.
+     *
+     * @return the time until all calls completed, in nanoseconds
+     */
+    private long runConcurrently(int count, Latencies latencies, Operation operation) throws Exception {
+        List<Future<?>> calls = new ArrayList<>();
+        long begin = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            calls.add(callers.submit(() -> {
+                long start = System.nanoTime();
+                operation.run(index);
+                latencies.add(System.nanoTime() - start);
+                return null;
+            }));
+        }
+        for (Future<?> call : calls) {
+            // Rethrows the failure of a call
+            call.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+        return System.nanoTime() - begin;
+    }
+
+    private UserManager newUserManager() {
+        return new UserManager(FirebaseUtil.getAuth(), FirebaseUtil.getFirestore(), executor, UserManager.COALESCE_MS);
+    }
+}
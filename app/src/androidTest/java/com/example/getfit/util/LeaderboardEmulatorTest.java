@@ -0,0 +1,200 @@
+package com.example.getfit.util;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.Source;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks against the Firestore emulator that {@link Leaderboard} publishes a burst of points in one
+ * debounced write, keeps the top of the board in order from the listener's changes and stops
+ * listening once the day's reads are spent.
+ * <p>
+ * Every test puts its users above everyone written by earlier runs, by giving them points from the
+ * current time, so the board only shows this test's users.
+ * </p>
+ * <p>
+ * Needs the Firebase Emulator Suite running on the host ({@code firebase emulators:start}) with the
+ * Auth and Firestore emulators on their default ports.
+ * </p>
+ */
+@RunWith(AndroidJUnit4.class)
+public class LeaderboardEmulatorTest {
+
+    private static final long DEBOUNCE_MS = 200;
+    private static final long TIMEOUT_MS = 15_000;
+    private static final int SIZE = 3;
+
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    private final ScheduledExecutorService executor = StatsStore.newWriterThread();
+    private final StatsClock clock = new StatsClock(System::currentTimeMillis, TimeZone.getDefault());
+    private final ArrayList<Leaderboard> leaderboards = new ArrayList<>();
+    private String uid;
+
+    @BeforeClass
+    public static void connectToEmulators() {
+        FirebaseUtil.useEmulators();
+    }
+
+    @Before
+    public void signUp() throws Exception {
+        String email = "leaderboard-" + UUID.randomUUID() + "@example.com";
+        uid = Tasks.await(FirebaseUtil.getAuth().createUserWithEmailAndPassword(email, "password123"),
+                TIMEOUT_MS, TimeUnit.MILLISECONDS).getUser().getUid();
+    }
+
+    @After
+    public void tearDown() {
+        for (Leaderboard leaderboard : leaderboards) {
+            leaderboard.attach(null);
+        }
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void points_arePublishedInOneDebouncedWrite() throws Exception {
+        StatsJournal journal = new StatsJournal(new File(context.getCacheDir(), "journal-" + UUID.randomUUID()), 1024, clock);
+        StatsTotals totals = new StatsTotals();
+        journal.addListener(totals);
+        Leaderboard leaderboard = newLeaderboard(totals, 100);
+        journal.addListener(leaderboard);
+        leaderboard.attach(uid);
+
+        for (int i = 0; i < 50; i++) {
+            journal.append(StatsJournal.EVENT_POINTS, 2, 0, StatsJournal.REASON_OTHER);
+        }
+        await(() -> Long.valueOf(100).equals(points(uid)));
+        assertEquals(1, leaderboard.getWriteCount());
+
+        // Nothing changed, so nothing is written
+        Tasks.await(leaderboard.flush(), TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertEquals(1, leaderboard.getWriteCount());
+    }
+
+    @Test
+    public void board_followsChangesWithoutQueryingAgain() throws Exception {
+        long base = System.currentTimeMillis();
+        String first = seed(base + 30);
+        String second = seed(base + 20);
+        String third = seed(base + 10);
+        Leaderboard leaderboard = newLeaderboard(new StatsTotals(), 100);
+        Leaderboard.OnBoardChangedListener listener = board -> { };
+        leaderboard.addOnBoardChangedListener(listener);
+
+        await(() -> uids(leaderboard.getBoard()).equals(Arrays.asList(first, second, third)));
+        assertEquals(SIZE, leaderboard.getReadsToday());
+
+        // The third overtakes everyone; only that entry is read again
+        Map<String, Object> change = new HashMap<>();
+        change.put(Leaderboard.FIELD_POINTS, base + 40);
+        Tasks.await(FirebaseUtil.getFirestore().collection(Leaderboard.COLLECTION).document(third).update(change),
+                TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        await(() -> uids(leaderboard.getBoard()).equals(Arrays.asList(third, first, second)));
+        assertEquals(SIZE + 1, leaderboard.getReadsToday());
+
+        leaderboard.removeOnBoardChangedListener(listener);
+        assertFalse(leaderboard.isLive());
+    }
+
+    @Test
+    public void spentReads_leaveTheCachedBoard() throws Exception {
+        long base = System.currentTimeMillis();
+        String first = seed(base + 20);
+        String second = seed(base + 10);
+        Leaderboard leaderboard = newLeaderboard(new StatsTotals(), SIZE);
+        leaderboard.addOnBoardChangedListener(board -> { });
+
+        // The first snapshot reads the whole board and spends the day's reads
+        await(() -> !leaderboard.isLive());
+        List<String> board = uids(leaderboard.getBoard());
+        assertEquals(Arrays.asList(first, second), board.subList(0, 2));
+
+        // A screen shown later today doesn't listen again
+        leaderboard.addOnBoardChangedListener(shown -> { });
+        assertFalse(leaderboard.isLive());
+        assertEquals(board, uids(leaderboard.getBoard()));
+    }
+
+    private Leaderboard newLeaderboard(StatsTotals totals, int readsPerDay) {
+        UserManager userManager = new UserManager(FirebaseUtil.getAuth(), FirebaseUtil.getFirestore(), executor,
+                UserManager.COALESCE_MS);
+        Leaderboard leaderboard = new Leaderboard(totals, userManager, FirebaseUtil.getFirestore(),
+                context.getSharedPreferences("leaderboard-" + UUID.randomUUID(), Context.MODE_PRIVATE), clock,
+                executor, SIZE, DEBOUNCE_MS, readsPerDay);
+        leaderboards.add(leaderboard);
+        return leaderboard;
+    }
+
+    /**
+     * Writes a leaderboard entry for a new user.
+     *
+     * @return the user's id
+     */
+    private static String seed(long points) throws Exception {
+        String seededUid = "leaderboard-" + UUID.randomUUID();
+        Map<String, Object> data = new HashMap<>();
+        data.put(Leaderboard.FIELD_NAME, seededUid);
+        data.put(Leaderboard.FIELD_POINTS, points);
+        Tasks.await(FirebaseUtil.getFirestore().collection(Leaderboard.COLLECTION).document(seededUid).set(data),
+                TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        return seededUid;
+    }
+
+    /**
+     * Reads a user's published points from the server.
+     *
+     * @return the points, or null if none were published yet or the read failed
+     */
+    private static Long points(String uid) {
+        try {
+            DocumentSnapshot snapshot = Tasks.await(FirebaseUtil.getFirestore().collection(Leaderboard.COLLECTION)
+                    .document(uid).get(Source.SERVER), TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            return snapshot.getLong(Leaderboard.FIELD_POINTS);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static List<String> uids(List<Leaderboard.Entry> board) {
+        List<String> uids = new ArrayList<>();
+        for (Leaderboard.Entry entry : board) {
+            uids.add(entry.getUid());
+        }
+        return uids;
+    }
+
+    /**
+     * Waits until a condition holds, failing after {@link #TIMEOUT_MS}.
+     */
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            assertTrue("The leaderboard didn't update in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(50);
+        }
+    }
+}
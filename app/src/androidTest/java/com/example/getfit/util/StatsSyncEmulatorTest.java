@@ -0,0 +1,153 @@
+package com.example.getfit.util;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.android.gms.tasks.Tasks;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * Syncs several simulated devices through the Firestore emulator and checks that their totals
+ * converge, that bursts of changes are written in a few debounced writes, and that a device signing
+ * in later catches up from the counters alone.
+ * <p>
+ * Needs the Firebase Emulator Suite running on the host ({@code firebase emulators:start}) with the
+ * Auth and Firestore emulators on their default ports.
+ * </p>
+ */
+@RunWith(AndroidJUnit4.class)
+public class StatsSyncEmulatorTest {
+
+    private static final long DEBOUNCE_MS = 200;
+    private static final long TIMEOUT_MS = 15_000;
+
+    private String uid;
+
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    private final ScheduledExecutorService executor = StatsStore.newWriterThread();
+    private final ArrayList<StatsSync> syncs = new ArrayList<>();
+
+    /**
+     * One simulated device: a journal of its own, its totals and its sync.
+     */
+    private class Device {
+        final StatsJournal journal;
+        final StatsTotals totals = new StatsTotals();
+        final StatsSync sync;
+
+        Device(String deviceId) throws Exception {
+            journal = new StatsJournal(new File(context.getCacheDir(), "journal-" + UUID.randomUUID()), 1024,
+                    new StatsClock(System::currentTimeMillis, TimeZone.getDefault()));
+            journal.addListener(totals);
+            sync = new StatsSync(totals, FirebaseUtil.getFirestore(), deviceId, executor, DEBOUNCE_MS);
+            journal.addListener(sync);
+            sync.attach(uid);
+            syncs.add(sync);
+        }
+
+        void addPoints(int points) {
+            journal.append(StatsJournal.EVENT_POINTS, points, 0, StatsJournal.REASON_OTHER);
+        }
+
+        void addCalories(int calories) {
+            journal.append(StatsJournal.EVENT_CALORIES, calories, 0, 0);
+        }
+
+        int calories() {
+            return totals.getCalories(journal.getClock().today());
+        }
+    }
+
+    @BeforeClass
+    public static void connectToEmulators() {
+        FirebaseUtil.useEmulators();
+    }
+
+    @Before
+    public void signUp() throws Exception {
+        // A new user per test, so every test starts from an empty document
+        String email = "stats-" + UUID.randomUUID() + "@example.com";
+        uid = Tasks.await(FirebaseUtil.getAuth().createUserWithEmailAndPassword(email, "password123"),
+                TIMEOUT_MS, TimeUnit.MILLISECONDS).getUser().getUid();
+    }
+
+    @After
+    public void tearDown() {
+        for (StatsSync sync : syncs) {
+            sync.attach(null);
+        }
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void devices_convergeThroughFirestore() throws Exception {
+        Device phone = new Device("phone-" + UUID.randomUUID());
+        Device tablet = new Device("tablet-" + UUID.randomUUID());
+
+        phone.addPoints(20);
+        phone.addCalories(600);
+        tablet.addPoints(30);
+        tablet.addCalories(250);
+
+        await(() -> phone.totals.getTotalPoints() == 50 && tablet.totals.getTotalPoints() == 50
+                && phone.calories() == 850 && tablet.calories() == 850);
+
+        // A reset on one device clears the total it saw on every device
+        phone.journal.append(StatsJournal.EVENT_POINTS_REMOVED, phone.totals.getTotalPoints(), 0, 0);
+        await(() -> phone.totals.getTotalPoints() == 0 && tablet.totals.getTotalPoints() == 0);
+    }
+
+    @Test
+    public void bursts_areDebouncedIntoFewWrites() throws Exception {
+        Device phone = new Device("phone-" + UUID.randomUUID());
+        Device tablet = new Device("tablet-" + UUID.randomUUID());
+
+        for (int i = 0; i < 500; i++) {
+            phone.addPoints(1);
+        }
+        await(() -> tablet.totals.getTotalPoints() == 500);
+        assertTrue("writes: " + phone.sync.getWriteCount(), phone.sync.getWriteCount() <= 3);
+    }
+
+    @Test
+    public void newDevice_catchesUpFromCounters() throws Exception {
+        Device phone = new Device("phone-" + UUID.randomUUID());
+        for (int i = 0; i < 1_000; i++) {
+            phone.addCalories(1);
+        }
+        Tasks.await(phone.sync.flush(), TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        // Its journal is empty, so whatever it shows came from the counters in the document
+        Device tablet = new Device("tablet-" + UUID.randomUUID());
+        await(() -> tablet.calories() == 1_000 && tablet.totals.getTotalPoints() == phone.totals.getTotalPoints());
+        assertEquals(0, tablet.journal.size());
+    }
+
+    /**
+     * Waits until a condition holds, failing after {@link #TIMEOUT_MS}.
+     */
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Devices didn't converge in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(50);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.example.getfit.util;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.example.getfit.models.User;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks against the Firestore emulator that {@link UserManager} reads the user document once per
+ * session, shares one fetch between concurrent callers, answers later fetches from its cache,
+ * follows changes made elsewhere through its snapshot listener and never lets an older snapshot
+ * replace a newer one. Profile updates are checked to send only the changed fields, to coalesce
+ * quick edits into one write and to skip edits that change nothing, and a new session to show the
+ * cached user data before the server answers.
+ * <p>
+ * Needs the Firebase Emulator Suite running on the host ({@code firebase emulators:start}) with the
+ * Auth and Firestore emulators on their default ports.
+ * </p>
+ */
+@RunWith(AndroidJUnit4.class)
+public class UserManagerEmulatorTest {
+
+    private static final long TIMEOUT_MS = 15_000;
+    private static final long COALESCE_MS = 200;
+
+    private final ScheduledExecutorService executor = StatsStore.newWriterThread();
+    private DocumentReference document;
+
+    @BeforeClass
+    public static void connectToEmulators() {
+        FirebaseUtil.useEmulators();
+    }
+
+    @Before
+    public void signUp() throws Exception {
+        // A new user per test, as SignupActivity creates them
+        String email = "user-" + UUID.randomUUID() + "@example.com";
+        String uid = Tasks.await(FirebaseUtil.getAuth().createUserWithEmailAndPassword(email, "password123"),
+                TIMEOUT_MS, TimeUnit.MILLISECONDS).getUser().getUid();
+        document = FirebaseUtil.getFirestore().collection("users").document(uid);
+        Tasks.await(document.set(new User("Cy", email, 180, 80, "Medium", 75)), TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void fetches_readTheDocumentOnce() throws Exception {
+        UserManager userManager = newUserManager();
+
+        // Screens starting and resuming, each asking for the user
+        for (int i = 0; i < 50; i++) {
+            User user = Tasks.await(userManager.fetchUserData(), TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            assertEquals("Cy", user.getName());
+            assertEquals(80, user.getWeight());
+        }
+        assertEquals(1, userManager.getFetchCount());
+    }
+
+    @Test
+    public void newSession_readsFromTheCacheFirst() throws Exception {
+        // The first session brings the document into the local cache
+        UserManager first = newUserManager();
+        Tasks.await(first.fetchUserData(), TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        first.attach(null);
+
+        FirestoreReadMetrics metrics = FirebaseUtil.getReadMetrics();
+        int cacheReads = metrics.getReadCount(true);
+        int serverReads = metrics.getReadCount(false);
+        UserManager second = newUserManager();
+        assertEquals("Cy", Tasks.await(second.fetchUserData(), TIMEOUT_MS, TimeUnit.MILLISECONDS).getName());
+
+        // Served from the cache, then confirmed by the server
+        assertEquals(cacheReads + 1, metrics.getReadCount(true));
+        await(() -> metrics.getReadCount(false) == serverReads + 1);
+        System.out.println("Firestore reads: " + metrics);
+    }
+
+    @Test
+    public void concurrentFetches_shareOneTask() throws Exception {
+        UserManager userManager = newUserManager();
+
+        // Several screens starting at once, before anything is cached
+        int threads = 16;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Task<User>> tasks = new CopyOnWriteArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                    tasks.add(userManager.fetchUserData());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        User first = Tasks.await(tasks.get(0), TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        for (Task<User> task : tasks) {
+            // The same snapshot for everyone
+            assertSame(first, Tasks.await(task, TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        }
+        assertEquals(threads, tasks.size());
+        assertEquals(1, userManager.getFetchCount());
+    }
+
+    @Test
+    public void staleSnapshots_dontReplaceNewerOnes() throws Exception {
+        UserManager userManager = newUserManager();
+        User fetched = Tasks.await(userManager.fetchUserData(), TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        String uid = FirebaseUtil.getAuth().getCurrentUser().getUid();
+
+        // A write issued before a newer snapshot arrived completes last
+        long writeVersion = userManager.nextVersion();
+        User newer = new User("Newer", fetched.getEmail(), 180, 78, "High", 75);
+        assertTrue(userManager.publish(new UserManager.UserSnapshot(uid, userManager.nextVersion(), newer)));
+        User stale = new User("Stale", fetched.getEmail(), 180, 80, "Medium", 75);
+        assertFalse(userManager.publish(new UserManager.UserSnapshot(uid, writeVersion, stale)));
+        assertSame(newer, userManager.getCurrentUser());
+
+        // Nor does a snapshot of another user
+        assertFalse(userManager.publish(new UserManager.UserSnapshot("someone-else", userManager.nextVersion(), stale)));
+        assertSame(newer, userManager.getCurrentUser());
+    }
+
+    @Test
+    public void remoteChanges_reachTheCacheAndListeners() throws Exception {
+        UserManager userManager = newUserManager();
+        Tasks.await(userManager.fetchUserData(), TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        CopyOnWriteArrayList<String> names = new CopyOnWriteArrayList<>();
+        userManager.addOnUserChangedListener(user -> names.add(user.getName()));
+        assertEquals("Cy", names.get(0));
+
+        // Another device renames the user
+        Map<String, Object> change = new HashMap<>();
+        change.put("name", "Cyclone");
+        Tasks.await(document.update(change), TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        await(() -> names.contains("Cyclone"));
+        assertEquals("Cyclone", userManager.getCurrentUser().getName());
+        assertEquals("Cyclone", Tasks.await(userManager.fetchUserData(), TIMEOUT_MS, TimeUnit.MILLISECONDS).getName());
+        assertEquals(1, userManager.getFetchCount());
+    }
+
+    @Test
+    public void signOut_dropsTheCache() throws Exception {
+        UserManager userManager = newUserManager();
+        Tasks.await(userManager.fetchUserData(), TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        userManager.attach(null);
+        assertNull(userManager.getCurrentUser());
+
+        // Signing in again reads the document again
+        Tasks.await(userManager.fetchUserData(), TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertEquals(2, userManager.getFetchCount());
+    }
+
+    @Test
+    public void updates_sendOnlyChangedFields() throws Exception {
+        UserManager userManager = newUserManager();
+        Tasks.await(userManager.fetchUserData(), TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        Tasks.await(userManager.updateUserSettingsData("Cy", 78, 75, "Medium"), TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertEquals(1, userManager.getWriteCount());
+        assertEquals(Collections.singletonMap(UserManager.FIELD_WEIGHT, (Object) 78), userManager.getLastWrittenFields());
+
+        // The rest of the document is untouched
+        User stored = UserManager.toUser(Tasks.await(document.get(), TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(78, stored.getWeight());
+        assertEquals(180, stored.getHeight());
+        assertEquals("Cy", stored.getName());
+    }
+
+    @Test
+    public void quickEdits_areCoalescedIntoOneWrite() throws Exception {
+        UserManager userManager = newUserManager();
+        Tasks.await(userManager.fetchUserData(), TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        // Bio data and settings saved in quick succession, the weight edited twice
+        Task<Void> bio = userManager.updateUserBioData(182, 79, 75, "Medium");
+        Task<Void> settings = userManager.updateUserSettingsData("Cy", 77, 72, "High");
+        Tasks.await(settings, TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertTrue(bio.isSuccessful());
+
+        assertEquals(1, userManager.getWriteCount());
+        Map<String, Object> expected = new HashMap<>();
+        expected.put(UserManager.FIELD_HEIGHT, 182);
+        expected.put(UserManager.FIELD_WEIGHT, 77);
+        expected.put(UserManager.FIELD_TARGET_WEIGHT, 72);
+        expected.put(UserManager.FIELD_INTENSITY_LEVEL, "High");
+        assertEquals(expected, userManager.getLastWrittenFields());
+        await(() -> userManager.getCurrentUser().getWeight() == 77);
+    }
+
+    @Test
+    public void unchangedEdits_areNotWritten() throws Exception {
+        UserManager userManager = newUserManager();
+        Tasks.await(userManager.fetchUserData(), TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        Tasks.await(userManager.updateUserSettingsData("Cy", 80, 75, "Medium"), TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        Tasks.await(userManager.updateUserBioData(180, 80, 75, "Medium"), TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertEquals(0, userManager.getWriteCount());
+    }
+
+    @Test
+    public void updates_workBeforeTheUserIsCached() throws Exception {
+        // Nothing fetched yet, so every edited field is sent
+        UserManager userManager = newUserManager();
+        Tasks.await(userManager.updateUserSettingsData("Cy", 81, 75, "Medium"), TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertEquals(1, userManager.getWriteCount());
+        assertEquals(4, userManager.getLastWrittenFields().size());
+        assertEquals(81, UserManager.toUser(Tasks.await(document.get(), TIMEOUT_MS, TimeUnit.MILLISECONDS)).getWeight());
+    }
+
+    private UserManager newUserManager() {
+        return new UserManager(FirebaseUtil.getAuth(), FirebaseUtil.getFirestore(), executor, COALESCE_MS);
+    }
+
+    /**
+     * Waits until a condition holds, failing after {@link #TIMEOUT_MS}.
+     */
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            assertTrue("The change didn't arrive in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(50);
+        }
+    }
+}
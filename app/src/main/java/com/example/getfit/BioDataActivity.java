@@ -36,15 +36,13 @@ public class BioDataActivity extends AppCompatActivity {
     private Spinner intensitySpinner;
     private Button submitButton;
     private TextView userGreeting;
-    private UserStats userStats; // Reference to UserStats for saving calorie range
     private String selectedIntensity;
 
     /**
      * Called when the activity is created. Initializes the UI elements and sets up listeners.
      * <p>
-     * Sets up the intensity level spinner, fetches user data to display on the screen, and initializes
-     * the UserStats for storing calorie data. It also sets up the submit button's click listener to
-     * handle user input and data submission.
+     * Sets up the intensity level spinner and fetches user data to display on the screen. It also sets
+     * up the submit button's click listener to handle user input and data submission.
      * </p>
      *
      * @param savedInstanceState The saved state of the activity, if any.
@@ -70,9 +68,6 @@ public class BioDataActivity extends AppCompatActivity {
         intensitySpinner.setAdapter(adapter);
         setUserDataOnScreen();
 
-        // Initialize UserStats to save the calorie range
-        userStats = new UserStats(this);
-
         // Set up the submit button click listener
         submitButton.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -93,13 +88,11 @@ public class BioDataActivity extends AppCompatActivity {
 
                     // Calculate and save the calorie goal range
                     int[] calorieRange = calculateDailyCalorieGoalRange(weight, height, targetWeight, selectedIntensity);
+                    UserStats userStats = UserStats.getInstance(BioDataActivity.this);
                     userStats.saveDailyCalorieGoalRange(calorieRange[0], calorieRange[1]);
 
-                    updateUserData(weight, height, targetWeight, selectedIntensity);
-
-                    // Reset total calories and points
-                    userStats.resetTotalCalories(); // Reset total calories
-                    userStats.resetPoints(); // Reset points
+                    updateUserData(height, weight, targetWeight, selectedIntensity);
+                    userStats.logWeight(weight);
 
                     // Proceed to the next activity
                     Toast.makeText(BioDataActivity.this, "Data Submitted!", Toast.LENGTH_SHORT).show();
@@ -180,7 +173,7 @@ public class BioDataActivity extends AppCompatActivity {
      */
     private void updateUserData(int height, int weight, int targetWeight, String intensityLevel) {
         UserManager.getInstance(BioDataActivity.this)
-                .updateUserBioData("DUMMY DATA BECAUSE WE WONT CHANGE THE NAME", height, weight, targetWeight, intensityLevel)
+                .updateUserBioData(height, weight, targetWeight, intensityLevel)
                 .addOnSuccessListener(new OnSuccessListener<Void>() {
                     @Override
                     public void onSuccess(Void aVoid) {
@@ -223,4 +216,14 @@ public class BioDataActivity extends AppCompatActivity {
                     }
                 });
     }
+
+    /**
+     * Called when the activity is paused. Writes any pending stats changes to disk right away,
+     * since the process may be killed while the app is in the background.
+     */
+    @Override
+    protected void onPause() {
+        super.onPause();
+        UserStats.getInstance(this).flush();
+    }
 }
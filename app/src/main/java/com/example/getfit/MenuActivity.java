@@ -31,7 +31,6 @@ public class MenuActivity extends AppCompatActivity {
     private RecyclerView recyclerView;
     private MenuAdapter menuAdapter;
     private Button backButton;
-    private UserStats userStats;  // UserStats object to track total calories
 
     /**
      * Called when the activity is created. Initializes the RecyclerView, back button, and user stats.
@@ -56,9 +55,6 @@ public class MenuActivity extends AppCompatActivity {
             startActivity(intent);
         });
 
-        // Initialize the userStats object using SharedPreferences
-        userStats = new UserStats(MenuActivity.this);
-
         // Retrieve the slug passed from the previous activity
         String slug = getIntent().getStringExtra("slug");
         Log.d("MenuActivity", "Slug received: " + slug);
@@ -75,8 +71,9 @@ public class MenuActivity extends AppCompatActivity {
                         menuAdapter = new MenuAdapter(MenuActivity.this, menuItems, new MenuAdapter.OnItemClickListener() {
                             @Override
                             public void onItemClick(MenuItem menuItem) {
-                                // Add the calories of the clicked menu item to the user's total
-                                userStats.addCalories(menuItem.getTotalCal());
+                                // Add the calories of the clicked menu item to the signed in user's total
+                                UserStats userStats = UserStats.getInstance(MenuActivity.this);
+                                userStats.addCalories(menuItem);
                                 // Display a Toast message with the updated total calories
                                 Toast.makeText(MenuActivity.this, "Total Calories: " + userStats.getTotalCalories(), Toast.LENGTH_SHORT).show();
                             }
@@ -91,4 +88,14 @@ public class MenuActivity extends AppCompatActivity {
             });
         }).start();
     }
+
+    /**
+     * Called when the activity is paused. Writes any pending stats changes to disk right away,
+     * since the process may be killed while the app is in the background.
+     */
+    @Override
+    protected void onPause() {
+        super.onPause();
+        UserStats.getInstance(this).flush();
+    }
 }
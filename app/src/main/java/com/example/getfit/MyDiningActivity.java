@@ -16,6 +16,7 @@ import com.example.getfit.adapter.DiningCenterAdapter;
 import com.example.getfit.models.DiningCenter;
 import com.example.getfit.models.UserStats;
 import com.example.getfit.util.DiningCenterFetcher;
+import com.example.getfit.util.StatsTrends;
 
 import java.util.List;
 
@@ -31,7 +32,7 @@ public class MyDiningActivity extends AppCompatActivity {
     private Button backBtn;
     private TextView calorieCountTxt;
     private TextView goalRangeTxt; // Single TextView for the goal range
-    private UserStats userStats;
+    private TextView averageCaloriesTxt; // The 7- and 30-day calorie averages
 
     /**
      * Initializes the activity, sets up the RecyclerView to display dining centers,
@@ -50,7 +51,7 @@ public class MyDiningActivity extends AppCompatActivity {
         backBtn = findViewById(R.id.back_btn);
         calorieCountTxt = findViewById(R.id.calorieCountTextView);
         goalRangeTxt = findViewById(R.id.goalRangeTextView); // Initialize the single goal range TextView
-        userStats = new UserStats(MyDiningActivity.this);
+        averageCaloriesTxt = findViewById(R.id.averageCaloriesTextView);
 
         // Set back button listener to navigate to MyHealthActivity
         backBtn.setOnClickListener(new View.OnClickListener() {
@@ -90,28 +91,47 @@ public class MyDiningActivity extends AppCompatActivity {
         // Update calorie count and goal range display
         updateCalorieCount();
         updateGoalRange();
+        updateAverageCalories();
 
-        // Add points if the current calories are within the goal range
-        userStats.addPointsForCalorieRange(userStats.getTotalCalories(), 30);
+        // Points for staying within the goal range are awarded by the points rules once the day is over
     }
 
     /**
      * Updates the TextView displaying the total calories consumed by the user.
      */
     private void updateCalorieCount() {
-        int totalCalories = userStats.getTotalCalories();  // Get the current total calories
+        int totalCalories = UserStats.getInstance(this).getTotalCalories();  // Get the current total calories
         calorieCountTxt.setText("Total Calories: " + totalCalories);  // Update the TextView with the total calorie count
     }
 
+    /**
+     * Updates the TextView displaying the average daily calories of the last 7 and 30 days.
+     */
+    private void updateAverageCalories() {
+        StatsTrends trends = StatsTrends.getInstance(this);  // Kept in memory, no disk access
+        averageCaloriesTxt.setText("7-day avg: " + Math.round(trends.getAverageCalories(StatsTrends.WEEK))
+                + " kcal, 30-day avg: " + Math.round(trends.getAverageCalories(StatsTrends.MONTH)) + " kcal");
+    }
+
     /**
      * Updates the TextView displaying the user's daily calorie goal range.
      */
     private void updateGoalRange() {
-        int[] calorieRange = userStats.getDailyCalorieGoalRange();  // Get the calorie goal range (lower and upper bounds)
+        int[] calorieRange = UserStats.getInstance(this).getDailyCalorieGoalRange();  // Get the calorie goal range (lower and upper bounds)
         int lowerBound = calorieRange[0];
         int upperBound = calorieRange[1];
 
         // Set the goal range as a single string in the TextView
         goalRangeTxt.setText("Goal Range: " + lowerBound + " - " + upperBound);
     }
+
+    /**
+     * Called when the activity is paused. Writes any pending stats changes to disk right away,
+     * since the process may be killed while the app is in the background.
+     */
+    @Override
+    protected void onPause() {
+        super.onPause();
+        UserStats.getInstance(this).flush();
+    }
 }
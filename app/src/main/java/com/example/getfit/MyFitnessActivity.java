@@ -2,8 +2,11 @@ package com.example.getfit;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.View;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.Toast;
 
 import androidx.activity.EdgeToEdge;
@@ -14,12 +17,18 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.example.getfit.adapter.ExerciseAdapter;
 import com.example.getfit.models.Exercise;
 import com.example.getfit.models.User;
+import com.example.getfit.models.UserStats;
+import com.example.getfit.util.ExerciseColumnStore;
+import com.example.getfit.util.ExerciseRanker;
+import com.example.getfit.util.ExerciseSearchIndex;
 import com.example.getfit.util.UserManager;
 import com.example.getfit.util.WorkoutParser;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 
 import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * The {@link MyFitnessActivity} class is responsible for managing the user's fitness-related data
@@ -27,14 +36,33 @@ import java.util.ArrayList;
  * navigation to other activities such as adding new workouts or viewing the user's health data.
  * <p>
  * This activity fetches the user's data, displays filtered workout routines based on the user's
- * intensity level and weight goals, and provides navigation options through buttons.
+ * intensity level and weight goals, lets the user search the exercise catalog, and provides
+ * navigation options through buttons.
  */
 public class MyFitnessActivity extends AppCompatActivity {
 
+    // Number of ranked workouts kept; the adapter pages through them as the user scrolls
+    private static final int WORKOUT_RANK_LIMIT = 200;
+    // Number of search results shown
+    private static final int SEARCH_RESULT_LIMIT = 50;
+    // Time the user must stop typing before the catalog is searched
+    private static final long SEARCH_DEBOUNCE_MILLIS = 150;
+
     private RecyclerView workoutRecyclerView;
     private ExerciseAdapter workoutAdapter;
     private Button backButton; // Declare the back button
     private Button addBtn;
+    private EditText searchEditText;
+    private ExerciseColumnStore rankedWorkouts = new ExerciseColumnStore();  // Shown while the search box is empty
+
+    // Searches run here so typing never waits for the index, which syncs also write to
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "exercise-search");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Runnable searchRunnable = this::showWorkouts;
+    private int searchGeneration;  // Only the newest search may update the list; main thread only
 
     /**
      * Called when the activity is created. Initializes UI components, sets up the RecyclerView,
@@ -54,10 +82,39 @@ public class MyFitnessActivity extends AppCompatActivity {
         workoutAdapter = new ExerciseAdapter(MyFitnessActivity.this, new ArrayList<>()); // Initialize the adapter with an empty list
         workoutRecyclerView.setAdapter(workoutAdapter);
 
+        // Load the next page of workouts when the user scrolls near the end of the list
+        workoutRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+                if (dy > 0 && layoutManager.findLastVisibleItemPosition() >= workoutAdapter.getItemCount() - 5) {
+                    recyclerView.post(() -> workoutAdapter.loadNextPage());
+                }
+            }
+        });
+
         // Initialize back button
         backButton = findViewById(R.id.backButton);
         addBtn = findViewById(R.id.addWorkoutButton);
 
+        // Search the exercise catalog once the user pauses typing
+        searchEditText = findViewById(R.id.workoutSearchEditText);
+        searchEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                searchEditText.removeCallbacks(searchRunnable);
+                searchEditText.postDelayed(searchRunnable, SEARCH_DEBOUNCE_MILLIS);
+            }
+        });
+
         backButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
@@ -74,12 +131,13 @@ public class MyFitnessActivity extends AppCompatActivity {
             }
         });
 
-        setUserDataOnScreen();
+        // The user data and the workouts are displayed in onResume, which always follows
     }
 
     /**
-     * Called when the activity is resumed. This ensures the user's data is fetched and displayed
-     * whenever the activity is brought back into focus.
+     * Called when the activity is resumed. This ensures the user's data is displayed whenever the
+     * activity is brought back into focus; it comes from the UserManager's cache, so this doesn't
+     * read the user document again.
      */
     @Override
     protected void onResume() {
@@ -87,6 +145,26 @@ public class MyFitnessActivity extends AppCompatActivity {
         setUserDataOnScreen();
     }
 
+    /**
+     * Called when the activity is paused. Writes the points earned from completed exercises to disk
+     * right away, since the process may be killed while the app is in the background.
+     */
+    @Override
+    protected void onPause() {
+        super.onPause();
+        UserStats.getInstance(this).flush();
+    }
+
+    /**
+     * Called when the activity is destroyed. Drops a pending search and stops the search thread.
+     */
+    @Override
+    protected void onDestroy() {
+        searchEditText.removeCallbacks(searchRunnable);
+        searchExecutor.shutdownNow();
+        super.onDestroy();
+    }
+
     /**
      * Fetches the user's data and displays it on the screen. If successful, the workouts
      * are fetched and filtered based on the user's preferences.
@@ -112,39 +190,77 @@ public class MyFitnessActivity extends AppCompatActivity {
     }
 
     /**
-     * Fetches the workouts based on the user's preferences and updates the RecyclerView with
-     * the filtered workout list.
+     * Displays the locally stored workouts right away, then syncs only the catalog changes from the
+     * server and refreshes the RecyclerView with the merged list of remote and user-added workouts.
      *
      * @param user the current user whose data and preferences are used to filter workouts
      */
     private void fetchAndDisplayWorkouts(User user) {
-        // Call the WorkoutParser to fetch workouts
-        WorkoutParser.fetchWorkouts(new WorkoutParser.WorkoutCallback() {
-            @Override
-            public void onSuccess(ArrayList<Exercise> exercises) {
-                // Filter exercises by the user's intensity level and weight goals
-                ArrayList<Exercise> filteredExercises = WorkoutParser.filterByIntensity(exercises, user);
-
-                // Update the RecyclerView with the filtered exercises on the main thread
-                runOnUiThread(new Runnable() {
+        // Show the last synced catalog as soon as it is loaded, while the delta is fetched
+        WorkoutParser.getStoredExercises(this)
+                .addOnSuccessListener(this, new OnSuccessListener<ExerciseColumnStore>() {
                     @Override
-                    public void run() {
-                        // Update the adapter with the filtered list of exercises
-                        workoutAdapter.updateExerciseList(filteredExercises); // Use the new method to update data
+                    public void onSuccess(ExerciseColumnStore storedExercises) {
+                        if (storedExercises.size() > 0) {
+                            displayWorkouts(storedExercises, user);
+                        }
                     }
                 });
-            }
 
-            @Override
-            public void onError(String errorMessage) {
-                // Handle errors
-                runOnUiThread(new Runnable() {
+        // Fetch only what changed since the last sync; listeners run on the main thread
+        WorkoutParser.getAllExercises(this)
+                .addOnSuccessListener(this, new OnSuccessListener<ExerciseColumnStore>() {
+                    @Override
+                    public void onSuccess(ExerciseColumnStore exercises) {
+                        displayWorkouts(exercises, user);
+                    }
+                })
+                .addOnFailureListener(this, new OnFailureListener() {
                     @Override
-                    public void run() {
-                        Toast.makeText(MyFitnessActivity.this, "Error: " + errorMessage, Toast.LENGTH_LONG).show();
+                    public void onFailure(Exception e) {
+                        Toast.makeText(MyFitnessActivity.this, "Error: " + e.getMessage(), Toast.LENGTH_LONG).show();
                     }
                 });
-            }
+    }
+
+    /**
+     * Filters and ranks the given workouts for the user and updates the RecyclerView with the result.
+     *
+     * @param exercises the full workout catalog
+     * @param user      the current user whose data and preferences are used to filter workouts
+     */
+    private void displayWorkouts(ExerciseColumnStore exercises, User user) {
+        // Filter the catalog rows by the user's intensity level and weight goals
+        int[] filteredRows = WorkoutParser.filterByIntensity(exercises, user);
+
+        // Rank the filtered rows for this user and copy only the best ones into their own store;
+        // the adapter only materializes the rows it binds
+        rankedWorkouts = exercises.select(ExerciseRanker.getInstance(MyFitnessActivity.this)
+                .topK(exercises, filteredRows, user, WORKOUT_RANK_LIMIT));
+
+        showWorkouts();
+    }
+
+    /**
+     * Updates the RecyclerView with the search results if the user typed a query, or with the
+     * ranked workouts otherwise. The search runs on the search thread; its results are dropped if
+     * the query changed in the meantime.
+     */
+    private void showWorkouts() {
+        final String query = searchEditText.getText().toString();
+        final int generation = ++searchGeneration;
+        if (query.trim().isEmpty()) {
+            workoutAdapter.updateExerciseStore(rankedWorkouts); // Use the new method to update data
+            return;
+        }
+
+        searchExecutor.execute(() -> {
+            ArrayList<Exercise> results = ExerciseSearchIndex.getInstance().search(query, SEARCH_RESULT_LIMIT);
+            runOnUiThread(() -> {
+                if (generation == searchGeneration) {
+                    workoutAdapter.updateExerciseList(results);
+                }
+            });
         });
     }
 }
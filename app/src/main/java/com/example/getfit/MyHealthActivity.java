@@ -14,17 +14,23 @@ import androidx.appcompat.app.AppCompatActivity;
 
 import com.example.getfit.models.User;
 import com.example.getfit.models.UserStats;
+import com.example.getfit.util.AchievementRule;
+import com.example.getfit.util.Achievements;
+import com.example.getfit.util.Leaderboard;
+import com.example.getfit.util.StatsTrends;
 import com.example.getfit.util.UserManager;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.firebase.auth.FirebaseAuth;
 
+import java.util.List;
 import java.util.Random;
 
 /**
  * The MyHealthActivity displays the user's health dashboard, including navigation buttons
  * for fitness and dining sections, a check-in button to earn points, and the ability to sign out.
- * It also shows a personalized greeting, a random motivational quote, and the user's accumulated points.
+ * It also shows a personalized greeting, a random motivational quote, the user's accumulated points
+ * and the leaderboard of the users with the most points.
  *
  * This activity interacts with the UserStats class to manage points and check-ins,
  * and uses FirebaseAuth to handle user sign-out.
@@ -37,8 +43,20 @@ public class MyHealthActivity extends AppCompatActivity {
     private TextView userGreeting;
     private TextView motivationalQuote;
     private TextView pointsTextView;  // Displays the total points of the user
+    private TextView trendsTextView;  // Displays the calorie averages and the weight trend
+    private TextView leaderboardTextView;  // Displays the users with the most points
     private ImageButton checkInButton;
-    private UserStats userStats;  // Manages user's points and check-in data
+    private Achievements achievements;  // The streaks and badges the unlock listener was added to
+
+    // Announces badges unlocked while this screen is shown, for example by a check-in
+    private final Achievements.OnUnlockListener unlockListener = achievement -> runOnUiThread(() ->
+            Toast.makeText(MyHealthActivity.this, "Achievement unlocked: " + achievement.getTitle(), Toast.LENGTH_LONG).show());
+
+    // Keeps the greeting up to date, for example after the name was changed in the settings
+    private final UserManager.OnUserChangedListener userListener = user -> userGreeting.setText("Hello " + user.getName());
+
+    // Keeps the leaderboard up to date while this screen is shown
+    private final Leaderboard.OnBoardChangedListener boardListener = board -> runOnUiThread(() -> updateLeaderboardText(board));
 
     /**
      * Called when the activity is created. It sets up the user interface, including buttons,
@@ -51,14 +69,15 @@ public class MyHealthActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_myhealth);
 
-        // Initialize UserStats and UI components
-        userStats = new UserStats(this);
+        // Initialize UI components; the user's stats are looked up on each use, as the user may change
         myFitnessButton = findViewById(R.id.myhealth_myfitness_btn);
         myDiningButton = findViewById(R.id.myhealth_mydining_btn);
         signOutButton = findViewById(R.id.signout_button);
         userGreeting = findViewById(R.id.greeting_text);
         motivationalQuote = findViewById(R.id.motivational_quote_text);
         pointsTextView = findViewById(R.id.points_text);
+        trendsTextView = findViewById(R.id.trends_text);
+        leaderboardTextView = findViewById(R.id.leaderboard_text);
         checkInButton = findViewById(R.id.check_in_button);
 
         // Display the points and set up the check-in functionality
@@ -67,16 +86,16 @@ public class MyHealthActivity extends AppCompatActivity {
         checkInButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                if (!userStats.hasCheckedInToday()) {
-                    // Add 20 points for a successful check-in
-                    userStats.addPoints(20);
-                    userStats.updateCheckInDate();
-
+                // Check in; the points rules decide what a check-in is worth, and a second one today earns nothing
+                int points = UserStats.getInstance(MyHealthActivity.this).checkIn();
+                if (points > 0) {
                     // Update the points display
                     updatePointsText();
 
                     // Optionally save the points in Firestore or other persistent storage
-                    Toast.makeText(MyHealthActivity.this, "You've earned 20 points for today!", Toast.LENGTH_SHORT).show();
+                    int streak = Achievements.getInstance(MyHealthActivity.this).getStreak(AchievementRule.KIND_CHECK_IN_STREAK);
+                    Toast.makeText(MyHealthActivity.this, "You've earned " + points + " points for today! Check-in streak: "
+                            + streak + (streak == 1 ? " day" : " days"), Toast.LENGTH_SHORT).show();
                 } else {
                     Toast.makeText(MyHealthActivity.this, "You've already checked in today!", Toast.LENGTH_SHORT).show();
                 }
@@ -129,8 +148,22 @@ public class MyHealthActivity extends AppCompatActivity {
     @Override
     protected void onResume() {
         super.onResume();
-        // Refresh user data each time the activity is resumed
-        setUserDataOnScreen();
+        // Follow the cached user data while the activity is shown instead of fetching it again
+        UserManager.getInstance(this).addOnUserChangedListener(userListener);
+        updateTrendsText();
+        achievements = Achievements.getInstance(this);
+        achievements.addOnUnlockListener(unlockListener);
+        Leaderboard.getInstance(this).addOnBoardChangedListener(boardListener);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        achievements.removeOnUnlockListener(unlockListener);
+        Leaderboard.getInstance(this).removeOnBoardChangedListener(boardListener);
+        UserManager.getInstance(this).removeOnUserChangedListener(userListener);
+        // Write any pending stats changes to disk before the app may be killed in the background
+        UserStats.getInstance(this).flush();
     }
 
     /**
@@ -187,6 +220,36 @@ public class MyHealthActivity extends AppCompatActivity {
      * Updates the points display on the screen.
      */
     private void updatePointsText() {
-        pointsTextView.setText("Points: " + userStats.getTotalPoints());
+        pointsTextView.setText("Points: " + UserStats.getInstance(this).getTotalPoints());
+    }
+
+    /**
+     * Updates the calorie averages and the weight trend on the screen. The trends are kept in
+     * memory, so this doesn't block the UI thread.
+     */
+    private void updateTrendsText() {
+        StatsTrends trends = StatsTrends.getInstance(this);
+        String text = "7-day avg: " + Math.round(trends.getAverageCalories(StatsTrends.WEEK)) + " kcal, 30-day avg: "
+                + Math.round(trends.getAverageCalories(StatsTrends.MONTH)) + " kcal";
+        double weightTrend = trends.getWeightTrend();
+        if (!Double.isNaN(weightTrend)) {
+            text += "\nWeight trend: " + Math.round(weightTrend * 10) / 10.0 + " kg";
+        }
+        trendsTextView.setText(text);
+    }
+
+    /**
+     * Updates the leaderboard display on the screen.
+     *
+     * @param board the users with the most points, best first
+     */
+    private void updateLeaderboardText(List<Leaderboard.Entry> board) {
+        StringBuilder text = new StringBuilder("Leaderboard");
+        for (int i = 0; i < board.size(); i++) {
+            Leaderboard.Entry entry = board.get(i);
+            String name = entry.getName() != null ? entry.getName() : "Anonymous";
+            text.append('\n').append(i + 1).append(". ").append(name).append(": ").append(entry.getPoints()).append(" points");
+        }
+        leaderboardTextView.setText(text);
     }
 }
@@ -11,10 +11,10 @@ import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.example.getfit.models.User;
+import com.example.getfit.util.UserManager;
 import com.example.getfit.viewmodel.MainActivityViewModel;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.UserProfileChangeRequest;
-import com.google.firebase.firestore.FirebaseFirestore;
 
 /**
  * SignupActivity is the activity that allows users to create a new account in the application.
@@ -34,7 +34,6 @@ public class SignupActivity extends AppCompatActivity {
     private Button goToLogin;
 
     private FirebaseAuth mAuth;
-    private FirebaseFirestore db;  // Firestore instance
     private MainActivityViewModel mViewModel;
 
     /**
@@ -50,7 +49,6 @@ public class SignupActivity extends AppCompatActivity {
         setContentView(R.layout.activity_signup);
 
         mAuth = FirebaseAuth.getInstance();
-        db = FirebaseFirestore.getInstance();  // Initialize Firestore
 
         // Initialize the views
         nameEditText = findViewById(R.id.signup_name_edt);
@@ -86,9 +84,8 @@ public class SignupActivity extends AppCompatActivity {
                                             String userId = FirebaseAuth.getInstance().getCurrentUser().getUid();
                                             User user = new User(name, netID, 0, 0, "", 0); // Create a User object
 
-                                            db.collection("users") // Reference to the 'users' collection
-                                                    .document(userId)
-                                                    .set(user)
+                                            UserManager.getInstance(SignupActivity.this)
+                                                    .createUserDocument(userId, user)
                                                     .addOnCompleteListener(storeTask -> {
                                                         if (storeTask.isSuccessful()) {
                                                             // Navigate to BioDataActivity on successful signup and data save
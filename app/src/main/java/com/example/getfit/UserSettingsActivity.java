@@ -12,6 +12,7 @@ import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.example.getfit.models.User;
+import com.example.getfit.models.UserStats;
 import com.example.getfit.util.UserManager;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
@@ -95,8 +96,8 @@ public class UserSettingsActivity extends AppCompatActivity {
     }
 
     /**
-     * Saves the updated user data back to Firebase. It reads the updated data from the UI,
-     * creates a new `User` object with the new values, and then updates the user settings in Firebase.
+     * Saves the updated user data back to Firebase. It reads the updated data from the UI and
+     * updates the user settings in Firebase; only the fields that changed are written.
      * Upon successful save, a success message is displayed and the activity is closed.
      * If the save operation fails, an error message is shown.
      */
@@ -106,12 +107,11 @@ public class UserSettingsActivity extends AppCompatActivity {
         int targetWeight = Integer.parseInt(editTargetWeight.getText().toString().trim());
         String intensityLevel = spinnerIntensity.getSelectedItem().toString();
 
-        // Create a User object with the new data
-        User updatedUser = new User(name, UserManager.getInstance(this).getCurrentUser().getEmail(),
-                UserManager.getInstance(this).getCurrentUser().getHeight(), weight, intensityLevel, targetWeight);
+        // Log the weight for the weight trend; saving again on the same day replaces the day's entry
+        UserStats.getInstance(this).logWeight(weight);
 
         // Save the updated user data to Firebase
-        UserManager.getInstance(this).updateUserSettingsData(name, updatedUser.getHeight(), weight, targetWeight, intensityLevel)
+        UserManager.getInstance(this).updateUserSettingsData(name, weight, targetWeight, intensityLevel)
                 .addOnSuccessListener(new OnSuccessListener<Void>() {
                     @Override
                     public void onSuccess(Void aVoid) {
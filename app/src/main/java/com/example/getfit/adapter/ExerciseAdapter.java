@@ -12,6 +12,10 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.example.getfit.R;
 import com.example.getfit.models.Exercise;
 import com.example.getfit.models.UserStats;
+import com.example.getfit.util.ExerciseColumnStore;
+import com.example.getfit.util.ExerciseRanker;
+import com.example.getfit.util.StatsJournal;
+import com.example.getfit.util.WorkoutParser;
 
 import java.util.ArrayList;
 
@@ -19,12 +23,20 @@ import java.util.ArrayList;
  * The {@link ExerciseAdapter} is a RecyclerView adapter responsible for displaying a list of
  * {@link Exercise} items in a RecyclerView. It binds the exercise data to the respective views
  * and handles user interaction, such as adding points to the user's stats when an exercise is clicked.
+ * <p>
+ * The exercises are held in an {@link ExerciseColumnStore} rather than as a list of objects. An
+ * {@link Exercise} is only materialized when its row is bound, and rows are exposed to the
+ * RecyclerView a page at a time through {@link #loadNextPage()}.
+ * </p>
  */
 public class ExerciseAdapter extends RecyclerView.Adapter<ExerciseAdapter.WorkoutViewHolder> {
 
-    private ArrayList<Exercise> exerciseList;
+    // Number of rows exposed to the RecyclerView per page
+    public static final int PAGE_SIZE = 20;
+
+    private ExerciseColumnStore exerciseStore;
+    private int loadedCount;  // Number of rows currently exposed to the RecyclerView
     private Context context;
-    private UserStats userStats;
 
     /**
      * Constructor to initialize the adapter with the context and a list of exercises.
@@ -34,8 +46,8 @@ public class ExerciseAdapter extends RecyclerView.Adapter<ExerciseAdapter.Workou
      */
     public ExerciseAdapter(Context context, ArrayList<Exercise> exerciseList) {
         this.context = context;
-        this.exerciseList = exerciseList;
-        this.userStats = new UserStats(context); // Initialize the UserStats
+        this.exerciseStore = ExerciseColumnStore.fromExercises(exerciseList);
+        this.loadedCount = Math.min(PAGE_SIZE, exerciseStore.size());
     }
 
     /**
@@ -52,14 +64,15 @@ public class ExerciseAdapter extends RecyclerView.Adapter<ExerciseAdapter.Workou
     }
 
     /**
-     * Called to bind data to a view holder. This method sets the exercise data to the respective TextViews.
+     * Called to bind data to a view holder. This method materializes the exercise of the bound row
+     * and sets its data to the respective TextViews.
      *
      * @param holder   the view holder to bind the data to
      * @param position the position of the exercise item in the list
      */
     @Override
     public void onBindViewHolder(WorkoutViewHolder holder, int position) {
-        Exercise exercise = exerciseList.get(position);
+        Exercise exercise = exerciseStore.get(position);
         holder.nameTextView.setText(exercise.getName());
         holder.muscleGroupTextView.setText(exercise.getMuscleGroup());
         holder.typeTextView.setText(exercise.getType());
@@ -69,22 +82,32 @@ public class ExerciseAdapter extends RecyclerView.Adapter<ExerciseAdapter.Workou
 
         // Set OnClickListener on the item to add points
         holder.itemView.setOnClickListener(v -> {
-            // Add a point when the exercise item is clicked
-            userStats.addPoints(1);
-            // Display a message to the user
-            Toast.makeText(context, "1 point added to your stats!", Toast.LENGTH_SHORT).show();
+            // Record the workout; the points rules award points for it once per exercise and day.
+            // User-added exercises all have id 0, so they are told apart by their name instead
+            long subject = exercise.getId() != 0 ? exercise.getId()
+                    : StatsJournal.subjectOf(WorkoutParser.exerciseKey(exercise));
+            // The signed in user's stats, looked up on each click since the user may have changed
+            int points = UserStats.getInstance(context).completeWorkout(subject);
+            // Record the completion so the ranking adapts to the user's history, even without points
+            ExerciseRanker.getInstance(context).recordCompletion(exercise);
+            if (points > 0) {
+                // Display a message to the user
+                Toast.makeText(context, points + (points == 1 ? " point" : " points") + " added to your stats!", Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(context, "You already got a point for this exercise today!", Toast.LENGTH_SHORT).show();
+            }
         });
     }
 
     /**
-     * Returns the size of the exercise list. This is used by the RecyclerView to determine
+     * Returns the number of rows loaded so far. This is used by the RecyclerView to determine
      * how many items are in the data set.
      *
-     * @return the size of the exercise list
+     * @return the number of loaded exercises
      */
     @Override
     public int getItemCount() {
-        return exerciseList.size();
+        return loadedCount;
     }
 
     /**
@@ -94,10 +117,35 @@ public class ExerciseAdapter extends RecyclerView.Adapter<ExerciseAdapter.Workou
      * @param newExerciseList the new list of exercises to display
      */
     public void updateExerciseList(ArrayList<Exercise> newExerciseList) {
-        this.exerciseList = newExerciseList;
+        updateExerciseStore(ExerciseColumnStore.fromExercises(newExerciseList));
+    }
+
+    /**
+     * Replaces the displayed exercises with the rows of a column store and shows its first page.
+     *
+     * @param newExerciseStore the exercises to display
+     */
+    public void updateExerciseStore(ExerciseColumnStore newExerciseStore) {
+        this.exerciseStore = newExerciseStore;
+        this.loadedCount = Math.min(PAGE_SIZE, newExerciseStore.size());
         notifyDataSetChanged();  // Notify the adapter that the data has changed
     }
 
+    /**
+     * Exposes the next page of rows to the RecyclerView, if there is one.
+     *
+     * @return true if more rows were loaded
+     */
+    public boolean loadNextPage() {
+        int previousCount = loadedCount;
+        loadedCount = Math.min(exerciseStore.size(), loadedCount + PAGE_SIZE);
+        if (loadedCount == previousCount) {
+            return false;
+        }
+        notifyItemRangeInserted(previousCount, loadedCount - previousCount);
+        return true;
+    }
+
     /**
      * ViewHolder class to hold the views for each exercise item. This helps in recycling
      * views and improving performance.
@@ -15,76 +15,236 @@ package com.example.getfit.adapter;
  * limitations under the License.
  */
 
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.ViewGroup;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.firebase.firestore.DocumentChange;
 import com.google.firebase.firestore.DocumentSnapshot;
-import com.google.firebase.firestore.EventListener;
 import com.google.firebase.firestore.FirebaseFirestoreException;
 import com.google.firebase.firestore.ListenerRegistration;
 import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QuerySnapshot;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
- * RecyclerView adapter for displaying the results of a Firestore {@link Query}.
+ * RecyclerView adapter for displaying the results of a Firestore {@link Query} as model objects,
+ * loaded page by page.
  *
- * Note that this class forgoes some efficiency to gain simplicity. For example, the result of
- * {@link DocumentSnapshot#toObject(Class)} is not cached so the same object may be deserialized
- * many times as the user scrolls.
+ * The query is read in pages of {@code pageSize} documents with {@code limit} and {@code startAfter}
+ * cursors. The last page is open ended; once the page after it is loaded it is pinned between its
+ * first and last document with {@code endAt}, so a document inserted into it makes the page grow
+ * instead of pushing a document into a gap between pages. Only the pages within
+ * {@value #LISTEN_MARGIN_PAGES} page of the rows on screen keep a snapshot listener; pages further
+ * away keep their rows without following changes, and pages more than
+ * {@value #RELEASE_DISTANCE_PAGES} pages away are released and read again when they come back into
+ * view. A released page keeps its row count and shows placeholder rows, see
+ * {@link #isPlaceholder(int)}, so the rows after it and the scroll position don't move. The next page is requested as soon as the last row on screen is within a page of the end,
+ * so scrolling rarely reaches rows that aren't loaded yet. Adapters shown in a RecyclerView with a
+ * {@link LinearLayoutManager} follow the scroll position themselves; others are told about it with
+ * {@link #onViewportChanged(int, int)}.
  *
- * See the adapter classes in FirebaseUI (https://github.com/firebase/FirebaseUI-Android/tree/master/firestore) for a
- * more efficient implementation of a Firestore RecyclerView Adapter.
+ * Snapshots are delivered to a background thread. There each document is decoded once per
+ * version: the adapter numbers the versions of a document itself, bumping the number whenever a
+ * {@link DocumentChange} reports the document as added with different data or modified, and keeps
+ * the decoded object until a newer version replaces it. Scrolling and unchanged documents never
+ * decode again.
+ *
+ * Snapshots arriving within {@value #BURST_MS} ms of each other are folded into one update: the
+ * background thread diffs the new list against the one on screen with {@link DiffUtil} and the main
+ * thread only swaps the list and dispatches the consolidated changes, so large collections and
+ * bursts of writes don't stall the UI.
+ *
+ * @param <T>  the model class the documents are decoded to
+ * @param <VH> the view holder class
  */
-public abstract class FirestoreAdapter<VH extends RecyclerView.ViewHolder>
-        extends RecyclerView.Adapter<VH> implements EventListener<QuerySnapshot> {
+public abstract class FirestoreAdapter<T, VH extends RecyclerView.ViewHolder>
+        extends RecyclerView.Adapter<VH> {
 
     private static final String TAG = "Firestore Adapter";
 
+    public static final int DEFAULT_PAGE_SIZE = 20;
+    // Snapshots arriving within this long of each other are dispatched as one diff
+    static final long BURST_MS = 16;
+    // Pages this close to the rows on screen keep their listeners
+    static final int LISTEN_MARGIN_PAGES = 1;
+    // Pages further away than this from the rows on screen are released
+    static final int RELEASE_DISTANCE_PAGES = 3;
+
+    // Shared by all adapters; paging, decoding and diffing never run on the main thread
+    private static final ScheduledExecutorService BACKGROUND = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "firestore-adapter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * A decoded document: the snapshot, its version and the model object decoded from it.
+     */
+    private static final class Item<T> {
+        final String key;
+        final String id;
+        final long version;
+        final DocumentSnapshot snapshot;
+        final T model;
+
+        Item(String key, String id, long version, DocumentSnapshot snapshot, T model) {
+            this.key = key;
+            this.id = id;
+            this.version = version;
+            this.snapshot = snapshot;
+            this.model = model;
+        }
+    }
+
+    /**
+     * One page of the query, between the last document of the previous page and its own last
+     * document. Background thread only.
+     */
+    private static final class Page {
+        final int id;
+        final DocumentSnapshot start;  // The last document of the previous page, null for the first page
+        DocumentSnapshot end;  // The last document of the page once it is pinned, null for the open last page
+        ListenerRegistration registration;
+        List<DocumentSnapshot> documents;  // Null until loaded and after the page is released
+        int releasedRows;  // The rows of a released page, shown as placeholders until it is read again
+
+        Page(int id, DocumentSnapshot start) {
+            this.id = id;
+            this.start = start;
+        }
+    }
+
+    private final Class<T> mModelClass;
+    private final int mPageSize;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
     private Query mQuery;
-    private ListenerRegistration mRegistration;
+    private boolean mListening;
+    // Bumped on the main thread whenever the adapter stops listening, to drop late results
+    private volatile int mGeneration;
+
+    // The items on screen, main thread only
+    private List<Item<T>> mSnapshots = Collections.emptyList();
+
+    private final RecyclerView.OnScrollListener mScrollListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+            if (recyclerView.getLayoutManager() instanceof LinearLayoutManager) {
+                LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+                onViewportChanged(layoutManager.findFirstVisibleItemPosition(),
+                        layoutManager.findLastVisibleItemPosition());
+            }
+        }
+    };
+
+    // Background thread only
+    private Query mPagedQuery;
+    private final ArrayList<Page> mPages = new ArrayList<>();
+    private int mNextPageId;
+    private int mFirstVisible;
+    private int mLastVisible;
+    private final HashMap<String, Item<T>> mDecoded = new HashMap<>();
+    private final HashMap<String, Long> mVersions = new HashMap<>();
+    private long mNextVersion;
+    private List<Item<T>> mDiffBase = Collections.emptyList();
+    private ScheduledFuture<?> mPendingDiff;
 
-    private ArrayList<DocumentSnapshot> mSnapshots = new ArrayList<>();
+    /**
+     * Creates an adapter for a query, loaded in pages of {@value #DEFAULT_PAGE_SIZE} documents.
+     *
+     * @param query      the query whose results are shown; it must be ordered for the page cursors
+     * @param modelClass the class the documents are decoded to by {@link #decode(DocumentSnapshot)}
+     */
+    public FirestoreAdapter(Query query, Class<T> modelClass) {
+        this(query, modelClass, DEFAULT_PAGE_SIZE);
+    }
 
-    public FirestoreAdapter(Query query) {
+    /**
+     * Creates an adapter for a query.
+     *
+     * @param query      the query whose results are shown; it must be ordered for the page cursors
+     * @param modelClass the class the documents are decoded to by {@link #decode(DocumentSnapshot)}
+     * @param pageSize   the number of documents read per page
+     */
+    public FirestoreAdapter(Query query, Class<T> modelClass, int pageSize) {
         mQuery = query;
+        mModelClass = modelClass;
+        mPageSize = pageSize;
     }
 
     public void startListening() {
-        // TODO(developer): Implement
-        if (mQuery != null && mRegistration == null) {
-            mRegistration = mQuery.addSnapshotListener(this);
+        if (mQuery != null && !mListening) {
+            mListening = true;
+            final int generation = mGeneration;
+            final Query query = mQuery;
+            BACKGROUND.execute(() -> startPaging(generation, query));
         }
     }
 
     public void stopListening() {
-        if (mRegistration != null) {
-            mRegistration.remove();
-            mRegistration = null;
-        }
+        mListening = false;
 
-        mSnapshots.clear();
+        // Forget everything, including results that are still on their way
+        mGeneration++;
+        BACKGROUND.execute(this::resetBackgroundState);
+        mSnapshots = Collections.emptyList();
         notifyDataSetChanged();
     }
 
     public void setQuery(Query query) {
-        // Stop listening
+        // Stop listening and clear existing data
         stopListening();
 
-        // Clear existing data
-        mSnapshots.clear();
-        notifyDataSetChanged();
-
         // Listen to new query
         mQuery = query;
         startListening();
     }
 
+    /**
+     * Tells the adapter which rows are on screen, so it can listen to the pages around them,
+     * release the pages far from them and load the next page in time.
+     *
+     * @param firstVisible the position of the first row on screen
+     * @param lastVisible  the position of the last row on screen
+     */
+    public void onViewportChanged(int firstVisible, int lastVisible) {
+        final int generation = mGeneration;
+        BACKGROUND.execute(() -> {
+            if (generation != mGeneration) {
+                return;
+            }
+            mFirstVisible = Math.max(firstVisible, 0);
+            mLastVisible = Math.max(lastVisible, mFirstVisible);
+            updateWindow(generation);
+        });
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        recyclerView.addOnScrollListener(mScrollListener);
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        recyclerView.removeOnScrollListener(mScrollListener);
+    }
+
     @NonNull
     @Override
     public VH onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -102,69 +262,321 @@ public abstract class FirestoreAdapter<VH extends RecyclerView.ViewHolder>
     }
 
     protected DocumentSnapshot getSnapshot(int index) {
-        return mSnapshots.get(index);
+        return mSnapshots.get(index).snapshot;
+    }
+
+    /**
+     * Checks whether a row is a placeholder for a document of a released page that is being read
+     * again. Placeholders have neither a snapshot nor a model.
+     *
+     * @param index the position of the row
+     * @return true if the row is a placeholder
+     */
+    protected boolean isPlaceholder(int index) {
+        return mSnapshots.get(index).snapshot == null;
+    }
+
+    /**
+     * Returns the model object of a row, decoded once per version of its document.
+     *
+     * @param index the position of the row
+     * @return the decoded document, or null for a placeholder
+     */
+    protected T getItem(int index) {
+        return mSnapshots.get(index).model;
+    }
+
+    /**
+     * Decodes a document into a model object. Called on a background thread, once per version of
+     * each document.
+     *
+     * @param snapshot the document
+     * @return the model object
+     */
+    protected T decode(DocumentSnapshot snapshot) {
+        return snapshot.toObject(mModelClass);
     }
 
     protected void onError(FirebaseFirestoreException e) {};
 
     protected void onDataChanged() {}
 
-    //TODO: The @Override part of this method caused an error, I'm not 100% sure why
-    // Add this method
-    public void onEvent(QuerySnapshot documentSnapshots,
-                        FirebaseFirestoreException e) {
+    /**
+     * Starts reading the query from its first page. Runs on the background thread.
+     */
+    private void startPaging(int generation, Query query) {
+        if (generation != mGeneration) {
+            return;
+        }
+        resetBackgroundState();
+        mPagedQuery = query;
+        mFirstVisible = 0;
+        mLastVisible = 0;
+        Page first = new Page(mNextPageId++, null);
+        mPages.add(first);
+        attach(generation, first);
+    }
+
+    /**
+     * Starts listening to a page. Runs on the background thread.
+     */
+    private void attach(int generation, Page page) {
+        if (page.registration != null) {
+            return;
+        }
+        Query pageQuery = page.start != null ? mPagedQuery.startAfter(page.start) : mPagedQuery;
+        pageQuery = page.end != null ? pageQuery.endAt(page.end) : pageQuery.limit(mPageSize);
+        // Events carry the registration they came from, so those of a replaced listener are dropped
+        final ListenerRegistration[] attached = new ListenerRegistration[1];
+        attached[0] = pageQuery.addSnapshotListener(BACKGROUND,
+                (snapshot, e) -> onEvent(generation, page, attached[0], snapshot, e));
+        page.registration = attached[0];
+    }
+
+    private void detach(Page page) {
+        if (page.registration != null) {
+            page.registration.remove();
+            page.registration = null;
+        }
+    }
+
+    /**
+     * Notes which documents of a page changed and schedules a diff at the end of the burst. Runs on
+     * the background thread.
+     */
+    private void onEvent(int generation, Page page, ListenerRegistration registration,
+                         QuerySnapshot documentSnapshots, FirebaseFirestoreException e) {
+        if (generation != mGeneration || registration != page.registration) {
+            // A late event of a listener that was detached, or replaced when the page was pinned
+            return;
+        }
         // Handle errors
         if (e != null) {
-            Log.w(TAG, "onEvent:error", e); return;
+            Log.w(TAG, "onEvent:error", e);
+            mMainHandler.post(() -> {
+                if (generation == mGeneration) {
+                    onError(e);
+                }
+            });
+            return;
+        }
+        // A new version for every modified document and for added ones whose data differs from the
+        // copy the page already had, so its cached model is stale
+        HashMap<String, DocumentSnapshot> previous = new HashMap<>();
+        if (page.documents != null) {
+            for (DocumentSnapshot document : page.documents) {
+                previous.put(document.getId(), document);
+            }
         }
-        // Dispatch the event
         for (DocumentChange change : documentSnapshots.getDocumentChanges()) {
-            // Snapshot of the changed document
-            DocumentSnapshot snapshot = change.getDocument();
-            switch (change.getType()) {
-                case ADDED:
-                    // TODO: handle document added
-                    onDocumentAdded(change);
-                    break;
-
-                case MODIFIED:
-                    // TODO: handle document modified
-                    onDocumentModified(change);
-                    break;
-
-                case REMOVED:
-                    // TODO: handle document removed
-                    onDocumentRemoved(change);
-                    break;
+            DocumentSnapshot document = change.getDocument();
+            String key = key(page, document.getId());
+            if (change.getType() == DocumentChange.Type.REMOVED) {
+                mVersions.remove(key);
+                mDecoded.remove(key);
+            } else if (change.getType() == DocumentChange.Type.MODIFIED || !mVersions.containsKey(key)
+                    || previous.get(document.getId()) == null
+                    || !Objects.equals(previous.get(document.getId()).getData(), document.getData())) {
+                mVersions.put(key, ++mNextVersion);
+            }
+        }
+        page.documents = documentSnapshots.getDocuments();
+        loadNextPageIfNeeded(generation);
+        scheduleDiff(generation);
+    }
+
+    /**
+     * Attaches the listeners of the pages around the rows on screen, detaches the others and
+     * releases the pages far away. Runs on the background thread.
+     */
+    private void updateWindow(int generation) {
+        if (mPages.isEmpty()) {
+            return;
+        }
+        int firstPage = pageAt(mFirstVisible);
+        int lastPage = pageAt(mLastVisible);
+        boolean released = false;
+        for (int i = 0; i < mPages.size(); i++) {
+            Page page = mPages.get(i);
+            int distance = i < firstPage ? firstPage - i : Math.max(i - lastPage, 0);
+            if (distance <= LISTEN_MARGIN_PAGES) {
+                attach(generation, page);
+            } else {
+                detach(page);
+                if (distance > RELEASE_DISTANCE_PAGES && page.documents != null) {
+                    forget(page);
+                    page.releasedRows = page.documents.size();
+                    page.documents = null;
+                    released = true;
+                }
             }
         }
-        onDataChanged();
+        loadNextPageIfNeeded(generation);
+        if (released) {
+            scheduleDiff(generation);
+        }
     }
-    protected void onDocumentAdded(DocumentChange change)
-    {
-        mSnapshots.add(change.getNewIndex(), change.getDocument());
-        notifyItemInserted(change.getNewIndex());
+
+    /**
+     * Appends the next page when the last row on screen is within a page of the end of the loaded
+     * rows and the last page is full. Runs on the background thread.
+     */
+    private void loadNextPageIfNeeded(int generation) {
+        Page last = mPages.get(mPages.size() - 1);
+        if (last.documents == null || last.documents.size() < mPageSize
+                || mLastVisible + mPageSize < rowCount()) {
+            // Not loaded yet, the end of the query, or far enough ahead
+            return;
+        }
+        // Pin the last page, so the pages after it start where it ends
+        last.end = last.documents.get(last.documents.size() - 1);
+        if (last.registration != null) {
+            detach(last);
+            attach(generation, last);
+        }
+        Page next = new Page(mNextPageId++, last.end);
+        mPages.add(next);
+        attach(generation, next);
     }
-    protected void onDocumentModified(DocumentChange change)
-    {
-        if (change.getOldIndex() == change.getNewIndex())
-        {
-            // Item changed but remained in same position
-            mSnapshots.set(change.getOldIndex(), change.getDocument());
-            notifyItemChanged(change.getOldIndex());
+
+    /**
+     * Returns the index of the page a row belongs to, the last page for rows past the end.
+     */
+    private int pageAt(int position) {
+        int rows = 0;
+        for (int i = 0; i < mPages.size(); i++) {
+            rows += rowsOf(mPages.get(i));
+            if (position < rows) {
+                return i;
+            }
         }
-        else
-        {
-            // Item changed and changed position
-            mSnapshots.remove(change.getOldIndex());
-            mSnapshots.add(change.getNewIndex(), change.getDocument());
-            notifyItemMoved(change.getOldIndex(), change.getNewIndex());
+        return mPages.size() - 1;
+    }
+
+    private int rowCount() {
+        int rows = 0;
+        for (Page page : mPages) {
+            rows += rowsOf(page);
         }
+        return rows;
     }
-    protected void onDocumentRemoved(DocumentChange change) {
-        mSnapshots.remove(change.getOldIndex());
-        notifyItemRemoved(change.getOldIndex());
+
+    /**
+     * Returns the rows a page takes up: its documents, or its placeholders once it is released.
+     */
+    private static int rowsOf(Page page) {
+        return page.documents != null ? page.documents.size() : page.releasedRows;
     }
-}
 
+    private void scheduleDiff(int generation) {
+        if (mPendingDiff == null) {
+            mPendingDiff = BACKGROUND.schedule(() -> dispatchLatest(generation), BURST_MS, TimeUnit.MILLISECONDS);
+        }
+    }
 
+    /**
+     * Decodes what changed in the loaded pages, diffs them against the list on screen and hands the
+     * result to the main thread. Runs on the background thread.
+     */
+    private void dispatchLatest(int generation) {
+        mPendingDiff = null;
+        if (generation != mGeneration) {
+            return;
+        }
+        final List<Item<T>> items = new ArrayList<>(rowCount());
+        for (Page page : mPages) {
+            if (page.documents == null) {
+                // Placeholders hold the released page's rows; document ids never contain a slash
+                for (int i = 0; i < page.releasedRows; i++) {
+                    items.add(new Item<>(key(page, "#" + i), page.id + "/" + i, 0, null, null));
+                }
+                continue;
+            }
+            for (DocumentSnapshot document : page.documents) {
+                String id = document.getId();
+                String key = key(page, id);
+                Long version = mVersions.get(key);
+                if (version == null) {
+                    version = ++mNextVersion;
+                    mVersions.put(key, version);
+                }
+                Item<T> item = mDecoded.get(key);
+                if (item == null || item.version != version) {
+                    item = new Item<>(key, id, version, document, decode(document));
+                    mDecoded.put(key, item);
+                }
+                items.add(item);
+            }
+        }
+
+        final List<Item<T>> oldItems = mDiffBase;
+        final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldItems.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return items.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return oldItems.get(oldPosition).id.equals(items.get(newPosition).id);
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                return oldItems.get(oldPosition).version == items.get(newPosition).version;
+            }
+        });
+        mDiffBase = items;
+
+        // Dispatch the event
+        mMainHandler.post(() -> {
+            if (generation != mGeneration) {
+                return;
+            }
+            mSnapshots = items;
+            diff.dispatchUpdatesTo(FirestoreAdapter.this);
+            onDataChanged();
+        });
+    }
+
+    /**
+     * Drops the decoded documents of a page. Runs on the background thread.
+     */
+    private void forget(Page page) {
+        if (page.documents == null) {
+            return;
+        }
+        for (DocumentSnapshot document : page.documents) {
+            String key = key(page, document.getId());
+            mVersions.remove(key);
+            mDecoded.remove(key);
+        }
+    }
+
+    private static String key(Page page, String id) {
+        return page.id + "/" + id;
+    }
+
+    /**
+     * Detaches every page and drops the decoded documents and the pending diff. Runs on the
+     * background thread.
+     */
+    private void resetBackgroundState() {
+        for (Page page : mPages) {
+            detach(page);
+        }
+        mPages.clear();
+        if (mPendingDiff != null) {
+            mPendingDiff.cancel(false);
+            mPendingDiff = null;
+        }
+        mDecoded.clear();
+        mVersions.clear();
+        mDiffBase = Collections.emptyList();
+    }
+}
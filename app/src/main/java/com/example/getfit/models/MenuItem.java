@@ -2,12 +2,16 @@ package com.example.getfit.models;
 
 /**
  * The MenuItem class represents a menu item at a dining center. It contains
- * information about the name of the item and its total calorie count.
+ * information about the name of the item, its total calorie count and, where the dining
+ * center reports them, its macronutrients.
  */
 public class MenuItem {
 
     private String name;  // Name of the menu item
     private int totalCal; // Total calories in the menu item
+    private int totalProtein; // Grams of protein, 0 if not reported
+    private int totalCarbs; // Grams of carbohydrates, 0 if not reported
+    private int totalFat; // Grams of fat, 0 if not reported
 
     /**
      * Constructor for the MenuItem class.
@@ -17,8 +21,24 @@ public class MenuItem {
      * @param totalCal the total calorie count for the menu item
      */
     public MenuItem(String name, int totalCal) {
+        this(name, totalCal, 0, 0, 0);
+    }
+
+    /**
+     * Constructor for a menu item with known macronutrients.
+     *
+     * @param name         the name of the menu item
+     * @param totalCal     the total calorie count for the menu item
+     * @param totalProtein the grams of protein in the menu item
+     * @param totalCarbs   the grams of carbohydrates in the menu item
+     * @param totalFat     the grams of fat in the menu item
+     */
+    public MenuItem(String name, int totalCal, int totalProtein, int totalCarbs, int totalFat) {
         this.name = name;
         this.totalCal = totalCal;
+        this.totalProtein = totalProtein;
+        this.totalCarbs = totalCarbs;
+        this.totalFat = totalFat;
     }
 
     /**
@@ -38,4 +58,31 @@ public class MenuItem {
     public int getTotalCal() {
         return totalCal;
     }
+
+    /**
+     * Gets the grams of protein in the menu item.
+     *
+     * @return the grams of protein, or 0 if not reported
+     */
+    public int getTotalProtein() {
+        return totalProtein;
+    }
+
+    /**
+     * Gets the grams of carbohydrates in the menu item.
+     *
+     * @return the grams of carbohydrates, or 0 if not reported
+     */
+    public int getTotalCarbs() {
+        return totalCarbs;
+    }
+
+    /**
+     * Gets the grams of fat in the menu item.
+     *
+     * @return the grams of fat, or 0 if not reported
+     */
+    public int getTotalFat() {
+        return totalFat;
+    }
 }
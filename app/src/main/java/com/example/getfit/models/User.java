@@ -1,19 +1,25 @@
 package com.example.getfit.models;
 
+import java.util.Objects;
+
 /**
  * The User class represents the data of a user in the application. It contains
  * details such as the user's name, height, weight, intensity level, email,
  * and target weight. This class is designed to work with user data, especially
  * in contexts like fitness tracking and goal setting.
+ * <p>
+ * A User is immutable, so one instance can be cached and shared between threads; a change to the
+ * user's data is a new User.
+ * </p>
  */
-public class User {
+public final class User {
 
-    private String name;            // The name of the user
-    private int height;             // The height of the user in centimeters
-    private int weight;             // The weight of the user in kilograms
-    private String intensityLevel;  // The user's exercise intensity level (e.g., low, medium, high)
-    private String email;           // The user's email address
-    private int targetWeight;       // The user's target weight for fitness goals
+    private final String name;            // The name of the user
+    private final int height;             // The height of the user in centimeters
+    private final int weight;             // The weight of the user in kilograms
+    private final String intensityLevel;  // The user's exercise intensity level (e.g., low, medium, high)
+    private final String email;           // The user's email address
+    private final int targetWeight;       // The user's target weight for fitness goals
 
     /**
      * Constructor to initialize the User object with provided values.
@@ -43,15 +49,6 @@ public class User {
         return name;
     }
 
-    /**
-     * Sets the name of the user.
-     *
-     * @param name the name of the user
-     */
-    public void setName(String name) {
-        this.name = name;
-    }
-
     /**
      * Gets the height of the user in centimeters.
      *
@@ -61,15 +58,6 @@ public class User {
         return height;
     }
 
-    /**
-     * Sets the height of the user in centimeters.
-     *
-     * @param height the height of the user
-     */
-    public void setHeight(int height) {
-        this.height = height;
-    }
-
     /**
      * Gets the weight of the user in kilograms.
      *
@@ -79,15 +67,6 @@ public class User {
         return weight;
     }
 
-    /**
-     * Sets the weight of the user in kilograms.
-     *
-     * @param weight the weight of the user
-     */
-    public void setWeight(int weight) {
-        this.weight = weight;
-    }
-
     /**
      * Gets the intensity level of the user's workout (e.g., low, medium, high).
      *
@@ -97,15 +76,6 @@ public class User {
         return intensityLevel;
     }
 
-    /**
-     * Sets the intensity level of the user's workout (e.g., low, medium, high).
-     *
-     * @param intensity_level the intensity level of the user's workout
-     */
-    public void setIntensityLevel(String intensity_level) {
-        this.intensityLevel = intensity_level;
-    }
-
     /**
      * Gets the email address of the user.
      *
@@ -115,15 +85,6 @@ public class User {
         return email;
     }
 
-    /**
-     * Sets the email address of the user.
-     *
-     * @param email the email address of the user
-     */
-    public void setEmail(String email) {
-        this.email = email;
-    }
-
     /**
      * Gets the target weight of the user.
      *
@@ -134,11 +95,27 @@ public class User {
     }
 
     /**
-     * Sets the target weight of the user.
+     * Compares the data of two users.
      *
-     * @param target_weight the target weight that the user aims to achieve
+     * @param o the object to compare with
+     * @return true if o is a User with the same data
      */
-    public void setTargetWeight(int target_weight) {
-        this.targetWeight = target_weight;
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof User)) {
+            return false;
+        }
+        User user = (User) o;
+        return height == user.height && weight == user.weight && targetWeight == user.targetWeight
+                && Objects.equals(name, user.name) && Objects.equals(email, user.email)
+                && Objects.equals(intensityLevel, user.intensityLevel);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, email, height, weight, intensityLevel, targetWeight);
     }
 }
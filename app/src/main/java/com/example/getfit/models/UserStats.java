@@ -1,49 +1,115 @@
 package com.example.getfit.models;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
+import com.example.getfit.util.Leaderboard;
+import com.example.getfit.util.PointsEngine;
+import com.example.getfit.util.PointsLedger;
+import com.example.getfit.util.PointsRule;
+import com.example.getfit.util.StatsClock;
+import com.example.getfit.util.StatsJournal;
+import com.example.getfit.util.StatsPartitions;
+import com.example.getfit.util.StatsStore;
+import com.example.getfit.util.StatsSync;
+import com.example.getfit.util.StatsTotals;
 
 /**
  * UserStats is a class that manages the user's statistics, including their calorie intake, points, and daily calorie goal range.
  * It provides functionality to track, update, and reset the total calories and points, as well as check if the user is within their calorie goal range.
- * The class also handles the logic for resetting values at midnight and managing the check-in status for the user.
+ * The class also handles the logic for starting a new calorie count each day and managing the check-in status for the user.
+ * <p>
+ * Every change is appended as an event to the {@link StatsJournal}, and the totals are a view of the
+ * journal kept in memory by {@link StatsTotals}, so the full history is kept while reads stay
+ * free of I/O. The calorie goal range lives in the shared {@link StatsStore}, which writes it to
+ * disk in the background; activities that change stats call {@link #flush()} from {@code onPause}.
+ * </p>
+ * <p>
+ * Days are epoch days from the journal's {@link StatsClock}, so finding out whether a new day has
+ * started is an int comparison, and it stays correct over New Year and after several days away.
+ * </p>
+ * <p>
+ * Points and calories are shared between the user's devices by {@link StatsSync}. A reset
+ * removes the total seen at that moment, so points earned on another device at the same time
+ * are kept. The point total is also published to the {@link Leaderboard}.
+ * </p>
+ * <p>
+ * The screens record what the user did, such as {@link #checkIn()} or
+ * {@link #completeWorkout(long)}, and the {@link PointsEngine} awards the points the
+ * {@link PointsRule#DEFAULT_RULES} grant for it, including those that only count once a day.
+ * </p>
+ * <p>
+ * Each account that signs in on the device has its own stats, kept apart by
+ * {@link StatsPartitions}; {@link #getInstance(Context)} returns those of the signed in user, so
+ * a new account starts from zero without resetting anyone else's. An instance is safe to use from
+ * any thread. Every update is a single append, and the journal appends and applies events to the
+ * totals one at a time, so concurrent updates are never lost. Reads are lock-free, and each
+ * one sees the totals either before or after a given update, never halfway through it.
+ * </p>
  */
 public class UserStats {
 
-    private static final String PREFS_NAME = "userStatsPrefs";
-    private static final String KEY_TOTAL_CALORIES = "totalCalories";
-    private static final String KEY_LAST_RESET_TIMESTAMP = "lastResetTimestamp";
-    private static final String KEY_POINTS = "total_points";
-    private static final String KEY_LAST_CHECK_IN_DATE = "last_check_in_date";
     private static final String KEY_CALORIE_GOAL_LOWER = "calorieGoalLower";
     private static final String KEY_CALORIE_GOAL_UPPER = "calorieGoalUpper";
-    private SharedPreferences sharedPreferences;
+
+    private final StatsStore statsStore;
+    private final StatsJournal journal;
+    private final StatsTotals totals;
+    private final StatsClock clock;
+    private final StatsSync sync;
+    private final PointsEngine engine;
 
     /**
-     * Constructor for the UserStats class.
-     * Initializes the SharedPreferences object to manage user data.
+     * Returns the stats of the signed in user, so every screen updates and reads the same stats.
      *
-     * @param context the context used to access SharedPreferences
+     * @param context the context used to open the journal and SharedPreferences on first use
+     * @return the signed in user's UserStats
      */
-    public UserStats(Context context) {
-        sharedPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    public static UserStats getInstance(Context context) {
+        return StatsPartitions.getInstance(context).current().getUserStats();
+    }
+
+    /**
+     * Constructor for the UserStats class on top of given stores, for example a journal with a
+     * controlled clock in tests. The stats aren't synced with other devices.
+     *
+     * @param statsStore the store holding the calorie goal range
+     * @param journal    the journal changes are appended to; its clock decides what today is
+     * @param totals     the totals of that journal
+     */
+    public UserStats(StatsStore statsStore, StatsJournal journal, StatsTotals totals) {
+        this(statsStore, journal, totals, null, new PointsLedger(journal));
+    }
+
+    /**
+     * Constructor for the UserStats class on top of one user's stores, as their
+     * {@link StatsPartitions.Partition} opens them.
+     *
+     * @param statsStore the store holding the calorie goal range
+     * @param journal    the journal changes are appended to; its clock decides what today is
+     * @param totals     the totals of that journal
+     * @param sync       the sync publishing the totals to the user's other devices, or null
+     * @param ledger     the ledger of that journal
+     */
+    public UserStats(StatsStore statsStore, StatsJournal journal, StatsTotals totals, StatsSync sync,
+                     PointsLedger ledger) {
+        this.statsStore = statsStore;
+        this.journal = journal;
+        this.totals = totals;
+        this.clock = journal.getClock();
+        this.sync = sync;
+        this.engine = new PointsEngine(journal, totals, ledger, PointsRule.DEFAULT_RULES, this::isWithinCalorieGoalRange);
     }
 
     /**
      * Saves the user's daily calorie goal range (lower and upper bounds).
+     * Both bounds change together, so a reader never sees one bound without the other.
      *
      * @param lowerBound the lower bound of the calorie goal range
      * @param upperBound the upper bound of the calorie goal range
      */
-    public void saveDailyCalorieGoalRange(int lowerBound, int upperBound) {
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        editor.putInt(KEY_CALORIE_GOAL_LOWER, lowerBound);
-        editor.putInt(KEY_CALORIE_GOAL_UPPER, upperBound);
-        editor.apply();
+    public synchronized void saveDailyCalorieGoalRange(int lowerBound, int upperBound) {
+        statsStore.putInt(KEY_CALORIE_GOAL_LOWER, lowerBound);
+        statsStore.putInt(KEY_CALORIE_GOAL_UPPER, upperBound);
     }
 
     /**
@@ -65,65 +131,57 @@ public class UserStats {
      *
      * @return an array of integers where the first element is the lower bound and the second element is the upper bound
      */
-    public int[] getDailyCalorieGoalRange() {
-        int lowerBound = sharedPreferences.getInt(KEY_CALORIE_GOAL_LOWER, 0);
-        int upperBound = sharedPreferences.getInt(KEY_CALORIE_GOAL_UPPER, 0);
+    public synchronized int[] getDailyCalorieGoalRange() {
+        int lowerBound = statsStore.getInt(KEY_CALORIE_GOAL_LOWER, 0);
+        int upperBound = statsStore.getInt(KEY_CALORIE_GOAL_UPPER, 0);
         return new int[]{lowerBound, upperBound};
     }
 
     /**
-     * Adds points to the user's total points if their total calories are within the daily calorie goal range.
-     *
-     * @param totalCalories the total calories consumed by the user
-     * @param points        the number of points to be added
-     */
-    public void addPointsForCalorieRange(int totalCalories, int points) {
-        if (isWithinCalorieGoalRange(totalCalories)) {
-            addPoints(points);
-        }
-    }
-
-    /**
-     * Retrieves the current total calories consumed by the user.
-     * Resets the calorie count if it's a new day (after midnight).
+     * Retrieves the total calories consumed by the user today.
+     * Calories added on earlier days don't count, so the count starts at zero after midnight.
      *
      * @return the total calories consumed by the user
      */
     public int getTotalCalories() {
-        if (isMidnightPassed()) {
-            resetCalories();
-        }
-        return sharedPreferences.getInt(KEY_TOTAL_CALORIES, 0);
+        return totals.getCalories(today());
     }
 
     /**
      * Adds a specified number of calories to the user's total calories.
-     * Resets the calorie count if it's a new day (after midnight).
      *
      * @param calories the number of calories to add
      */
     public void addCalories(int calories) {
-        if (isMidnightPassed()) {
-            resetCalories();
-        }
+        addCalories(calories, 0);
+    }
 
-        int currentTotal = getTotalCalories();
-        int newTotal = currentTotal + calories;
+    /**
+     * Adds the calories of a specific item to the user's total calories.
+     *
+     * @param calories the number of calories to add
+     * @param itemId   the id of the eaten item, for example {@link StatsJournal#subjectOf(String)} of a menu item name
+     */
+    public void addCalories(int calories, long itemId) {
+        engine.record(StatsJournal.EVENT_CALORIES, calories, itemId, 0);
+    }
 
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        editor.putInt(KEY_TOTAL_CALORIES, newTotal);
-        editor.putLong(KEY_LAST_RESET_TIMESTAMP, System.currentTimeMillis());
-        editor.apply();
+    /**
+     * Adds the calories and macronutrients of an eaten menu item to today's totals.
+     *
+     * @param menuItem the eaten menu item
+     */
+    public void addCalories(MenuItem menuItem) {
+        engine.record(StatsJournal.EVENT_CALORIES, menuItem.getTotalCal(),
+                StatsJournal.subjectOf(menuItem.getName()),
+                StatsJournal.packMacros(menuItem.getTotalProtein(), menuItem.getTotalCarbs(), menuItem.getTotalFat()));
     }
 
     /**
-     * Resets the user's calorie count to zero and updates the reset timestamp.
+     * Resets the user's calorie count for today to zero.
      */
     public void resetCalories() {
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        editor.putInt(KEY_TOTAL_CALORIES, 0);
-        editor.putLong(KEY_LAST_RESET_TIMESTAMP, System.currentTimeMillis());
-        editor.apply();
+        engine.record(StatsJournal.EVENT_CALORIES_REMOVED, getTotalCalories(), 0, 0);
     }
 
     /**
@@ -132,7 +190,7 @@ public class UserStats {
      * @return the total points of the user
      */
     public int getTotalPoints() {
-        return sharedPreferences.getInt(KEY_POINTS, 0);
+        return totals.getTotalPoints();
     }
 
     /**
@@ -141,45 +199,50 @@ public class UserStats {
      * @param points the number of points to add
      */
     public void addPoints(int points) {
-        int currentPoints = getTotalPoints();
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        editor.putInt(KEY_POINTS, currentPoints + points);
-        editor.apply();
+        addPoints(points, StatsJournal.REASON_OTHER, 0);
     }
 
     /**
-     * Checks if it is a new day (midnight has passed since the last calorie reset).
+     * Adds points to the user's total points, recording why they were awarded.
      *
-     * @return true if midnight has passed, false otherwise
+     * @param points  the number of points to add
+     * @param reason  one of the {@code StatsJournal.REASON_} constants
+     * @param subject what the points were awarded for, for example an exercise id, or 0
      */
-    private boolean isMidnightPassed() {
-        long currentTime = System.currentTimeMillis();
-        long lastResetTime = sharedPreferences.getLong(KEY_LAST_RESET_TIMESTAMP, 0);
-
-        if (lastResetTime == 0) {
-            return true;
-        }
-
-        Calendar currentCalendar = Calendar.getInstance();
-        Calendar lastResetCalendar = Calendar.getInstance();
-        lastResetCalendar.setTimeInMillis(lastResetTime);
+    public void addPoints(int points, int reason, long subject) {
+        engine.record(StatsJournal.EVENT_POINTS, points, subject, reason);
+    }
 
-        if (currentCalendar.get(Calendar.YEAR) > lastResetCalendar.get(Calendar.YEAR) ||
-                currentCalendar.get(Calendar.DAY_OF_YEAR) > lastResetCalendar.get(Calendar.DAY_OF_YEAR)) {
-            return true;
+    /**
+     * Records that the user checked in today, unless they already did.
+     *
+     * @return the points the check-in earned, 0 if the user had already checked in today
+     */
+    public int checkIn() {
+        if (hasCheckedInToday()) {
+            return 0;
         }
+        return engine.record(StatsJournal.EVENT_CHECK_IN, 0, 0, 0);
+    }
 
-        return false;
+    /**
+     * Records that the user completed an exercise.
+     *
+     * @param exerciseId the id of the completed exercise, or for an exercise without an id a
+     *                   {@link StatsJournal#subjectOf(String) subject} derived from its name
+     * @return the points the workout earned, 0 if it earned none, for example because the exercise was already completed today
+     */
+    public int completeWorkout(long exerciseId) {
+        return engine.record(StatsJournal.EVENT_WORKOUT, 0, exerciseId, 0);
     }
 
     /**
-     * Updates the check-in date to today's date.
+     * Records the user's weight, for the weight trend.
+     *
+     * @param kilograms the weight in kilograms
      */
-    public void updateCheckInDate() {
-        String currentDate = new SimpleDateFormat("yyyy-MM-dd").format(new Date());
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        editor.putString(KEY_LAST_CHECK_IN_DATE, currentDate);
-        editor.apply();
+    public void logWeight(int kilograms) {
+        engine.record(StatsJournal.EVENT_WEIGHT, kilograms * 1000, 0, 0);
     }
 
     /**
@@ -188,31 +251,33 @@ public class UserStats {
      * @return true if the user has checked in today, false otherwise
      */
     public boolean hasCheckedInToday() {
-        if (getTotalPoints() == 0) {
-            return false;
-        }
-
-        String lastCheckInDate = sharedPreferences.getString(KEY_LAST_CHECK_IN_DATE, "");
-        String currentDate = new SimpleDateFormat("yyyy-MM-dd").format(new Date());
+        return totals.hasCheckedIn(today());
+    }
 
-        return currentDate.equals(lastCheckInDate);
+    /**
+     * Resets the user's points to zero.
+     */
+    public void resetPoints() {
+        engine.record(StatsJournal.EVENT_POINTS_REMOVED, getTotalPoints(), 0, 0);
     }
 
     /**
-     * Resets the user's total calories to zero.
+     * Writes pending changes to disk on the background thread right away. Called from
+     * {@code onPause}, since the process may be killed while the app is in the background.
      */
-    public void resetTotalCalories() {
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        editor.putInt(KEY_TOTAL_CALORIES, 0);
-        editor.apply();
+    public void flush() {
+        statsStore.flush();
+        if (sync != null) {
+            sync.flush();
+        }
     }
 
     /**
-     * Resets the user's points to zero.
+     * Returns today's local epoch day.
+     *
+     * @return the number of days since 1970-01-01 in the clock's time zone
      */
-    public void resetPoints() {
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        editor.putInt(KEY_POINTS, 0);
-        editor.apply();
+    private int today() {
+        return clock.today();
     }
 }
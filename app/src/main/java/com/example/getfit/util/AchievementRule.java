@@ -0,0 +1,97 @@
+package com.example.getfit.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An {@link AchievementRule} declares a badge: what is counted and how much of it unlocks the
+ * badge, for example "checked in on 7 days in a row". Like {@link PointsRule}s, achievement rules
+ * are plain data, evaluated by {@link Achievements}.
+ */
+public final class AchievementRule {
+
+    // What a rule counts
+    /** Consecutive days with a check-in. */
+    public static final int KIND_CHECK_IN_STREAK = 0;
+    /** Consecutive days that ended with calories in the goal range, judged by the points rules. */
+    public static final int KIND_CALORIE_STREAK = 1;
+    /** Workouts that earned points, at most one per exercise and day. */
+    public static final int KIND_WORKOUT_COUNT = 2;
+    static final int KIND_COUNT = 3;
+
+    /**
+     * The badges of the app.
+     */
+    public static final List<AchievementRule> DEFAULT_RULES = Collections.unmodifiableList(Arrays.asList(
+            new AchievementRule("check_in_7", "7-day check-in streak", KIND_CHECK_IN_STREAK, 7),
+            new AchievementRule("check_in_30", "30-day check-in streak", KIND_CHECK_IN_STREAK, 30),
+            new AchievementRule("calories_5", "5 days in your calorie range", KIND_CALORIE_STREAK, 5),
+            new AchievementRule("calories_14", "14 days in your calorie range", KIND_CALORIE_STREAK, 14),
+            new AchievementRule("workouts_10", "10 workouts", KIND_WORKOUT_COUNT, 10),
+            new AchievementRule("workouts_100", "100 workouts", KIND_WORKOUT_COUNT, 100)));
+
+    private final String id;
+    private final String title;
+    private final int kind;
+    private final int target;
+
+    /**
+     * Declares an achievement.
+     *
+     * @param id     a stable id; the saved progress is keyed by it
+     * @param title  the title shown to the user
+     * @param kind   one of the KIND_ constants
+     * @param target the streak length or count that unlocks the achievement
+     */
+    public AchievementRule(String id, String title, int kind, int target) {
+        if (kind < 0 || kind >= KIND_COUNT || target <= 0 || id.indexOf(';') >= 0 || id.indexOf(':') >= 0) {
+            throw new IllegalArgumentException("Invalid achievement " + id);
+        }
+        this.id = id;
+        this.title = title;
+        this.kind = kind;
+        this.target = target;
+    }
+
+    /**
+     * Returns the id of the achievement.
+     *
+     * @return the id
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Returns the title shown to the user.
+     *
+     * @return the title
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Returns what the achievement counts.
+     *
+     * @return one of the KIND_ constants
+     */
+    public int getKind() {
+        return kind;
+    }
+
+    /**
+     * Returns the streak length or count that unlocks the achievement.
+     *
+     * @return the target
+     */
+    public int getTarget() {
+        return target;
+    }
+
+    @Override
+    public String toString() {
+        return "AchievementRule{" + id + ", kind=" + kind + ", target=" + target + "}";
+    }
+}
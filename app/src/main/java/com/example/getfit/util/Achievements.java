@@ -0,0 +1,352 @@
+package com.example.getfit.util;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The {@link Achievements} are the streaks and badges of the user, evaluated from the events of
+ * the {@link StatsJournal} as they are appended.
+ * <p>
+ * Each {@link AchievementRule} is a small state machine of four ints: the last day it counted,
+ * its current streak or count, its best streak and the day it was unlocked. An event only advances
+ * the rules of the kind it feeds, so the cost of an event is the number of those rules and history
+ * is never scanned again. Check-ins feed the check-in streaks, the day-end dining points of the
+ * {@link PointsEngine} feed the calorie streaks (their subject is the day that ended in range), and
+ * exercise points feed the workout counts.
+ * </p>
+ * <p>
+ * When the first event of a new day arrives, the state of the finished days is saved as a
+ * snapshot in the {@link StatsStore}. On a cold start the snapshot is restored and only the days
+ * after it are replayed, which the journal finds by binary search, instead of the whole history.
+ * Without a usable snapshot, for example after the rules changed, the whole journal is replayed
+ * once.
+ * </p>
+ * <p>
+ * Updates are serialized by the journal and on this object; reads may come from any thread.
+ * </p>
+ */
+public class Achievements implements StatsJournal.EventListener {
+
+    static final String KEY_SNAPSHOT = "achievementsSnapshot";
+    private static final String SNAPSHOT_VERSION = "1";
+    private static final int NO_DAY = StatsCounters.NO_DAY;
+
+    /**
+     * Callback for achievements that were just unlocked.
+     */
+    public interface OnUnlockListener {
+        /**
+         * Called when an achievement is unlocked, on the thread that appended the event and while
+         * the journal is locked, so implementations should only hand the news over to the UI.
+         *
+         * @param achievement the unlocked achievement
+         */
+        void onUnlocked(AchievementRule achievement);
+    }
+
+    private final StatsStore store;
+    private final StatsClock clock;
+    private final AchievementRule[] rules;
+    private final HashMap<String, Integer> indexById = new HashMap<>();
+    // The indexes of the rules of each kind
+    private final int[][] rulesByKind;
+    private final CopyOnWriteArrayList<OnUnlockListener> unlockListeners = new CopyOnWriteArrayList<>();
+
+    // The state of each rule, guarded by this
+    private final int[] lastDay;
+    private final int[] progress;
+    private final int[] best;
+    private final int[] unlockedDay;
+    private int day = NO_DAY;
+    private boolean live;
+    private String latestSnapshot;
+    // Events delivered while catching up with the journal, for tests and benchmarks
+    private int replayedEvents;
+
+    /**
+     * Restores the achievements from their snapshot and follows the journal from there.
+     *
+     * @param journal the journal to follow
+     * @param store   the store the snapshot is kept in
+     * @param rules   the achievements, each with its own id
+     * @throws IllegalArgumentException if two rules share an id
+     */
+    public Achievements(StatsJournal journal, StatsStore store, List<AchievementRule> rules) {
+        this.store = store;
+        this.clock = journal.getClock();
+        this.rules = rules.toArray(new AchievementRule[0]);
+
+        int[] counts = new int[AchievementRule.KIND_COUNT];
+        for (int i = 0; i < this.rules.length; i++) {
+            if (indexById.put(this.rules[i].getId(), i) != null) {
+                throw new IllegalArgumentException("Two achievements share the id " + this.rules[i].getId());
+            }
+            counts[this.rules[i].getKind()]++;
+        }
+        rulesByKind = new int[AchievementRule.KIND_COUNT][];
+        for (int kind = 0; kind < rulesByKind.length; kind++) {
+            rulesByKind[kind] = new int[counts[kind]];
+            counts[kind] = 0;
+        }
+        for (int i = 0; i < this.rules.length; i++) {
+            int kind = this.rules[i].getKind();
+            rulesByKind[kind][counts[kind]++] = i;
+        }
+
+        lastDay = new int[this.rules.length];
+        progress = new int[this.rules.length];
+        best = new int[this.rules.length];
+        unlockedDay = new int[this.rules.length];
+        Arrays.fill(lastDay, NO_DAY);
+        Arrays.fill(unlockedDay, NO_DAY);
+
+        synchronized (journal) {
+            int fromDay = restore(store.getString(KEY_SNAPSHOT, null));
+            journal.addListener(this, fromDay);
+            synchronized (this) {
+                live = true;
+                if (latestSnapshot != null) {
+                    store.putString(KEY_SNAPSHOT, latestSnapshot);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the achievements of the signed in user, so every screen reads the same ones. They
+     * are restored and caught up with the journal the first time they are asked for.
+     *
+     * @param context the context used to open the journal and the store
+     * @return the signed in user's Achievements
+     */
+    public static Achievements getInstance(Context context) {
+        return StatsPartitions.getInstance(context).current().getAchievements();
+    }
+
+    /**
+     * Advances the rules the event feeds. Called under the journal's lock.
+     */
+    @Override
+    public synchronized void onEvent(int type, long timeMillis, int epochDay, int amount, long subject, int detail) {
+        if (!live) {
+            replayedEvents++;
+        }
+        if (epochDay != day) {
+            // Everything up to the previous day is final now
+            if (day != NO_DAY) {
+                latestSnapshot = snapshot(day);
+                if (live) {
+                    store.putString(KEY_SNAPSHOT, latestSnapshot);
+                }
+            }
+            day = epochDay;
+        }
+        switch (type) {
+            case StatsJournal.EVENT_CHECK_IN:
+                advance(AchievementRule.KIND_CHECK_IN_STREAK, epochDay, epochDay);
+                break;
+            case StatsJournal.EVENT_POINTS:
+                if (detail == StatsJournal.REASON_DINING_GOAL) {
+                    // Day-end points are awarded on the next day and name the finished day
+                    advance(AchievementRule.KIND_CALORIE_STREAK, (int) subject, epochDay);
+                } else if (detail == StatsJournal.REASON_EXERCISE && amount > 0) {
+                    advance(AchievementRule.KIND_WORKOUT_COUNT, epochDay, epochDay);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Returns the current progress of an achievement: the length of a streak that is still going,
+     * or the count so far.
+     *
+     * @param id the id of the achievement
+     * @return the progress, 0 for a broken streak or an unknown id
+     */
+    public synchronized int getProgress(String id) {
+        Integer index = indexById.get(id);
+        return index == null ? 0 : currentProgress(index);
+    }
+
+    /**
+     * Returns the best streak or the count of an achievement so far.
+     *
+     * @param id the id of the achievement
+     * @return the best progress, 0 for an unknown id
+     */
+    public synchronized int getBest(String id) {
+        Integer index = indexById.get(id);
+        return index == null ? 0 : best[index];
+    }
+
+    /**
+     * Returns the current streak of a kind, for example how many days in a row the user checked in.
+     *
+     * @param kind {@link AchievementRule#KIND_CHECK_IN_STREAK} or {@link AchievementRule#KIND_CALORIE_STREAK}
+     * @return the streak, 0 if it is broken or no achievement counts that kind
+     */
+    public synchronized int getStreak(int kind) {
+        return rulesByKind[kind].length == 0 ? 0 : currentProgress(rulesByKind[kind][0]);
+    }
+
+    /**
+     * Checks whether an achievement is unlocked.
+     *
+     * @param id the id of the achievement
+     * @return true if it was unlocked
+     */
+    public synchronized boolean isUnlocked(String id) {
+        Integer index = indexById.get(id);
+        return index != null && unlockedDay[index] != NO_DAY;
+    }
+
+    /**
+     * Returns the unlocked achievements in the order they are declared.
+     *
+     * @return the unlocked achievements
+     */
+    public synchronized List<AchievementRule> getUnlocked() {
+        ArrayList<AchievementRule> unlocked = new ArrayList<>();
+        for (int i = 0; i < rules.length; i++) {
+            if (unlockedDay[i] != NO_DAY) {
+                unlocked.add(rules[i]);
+            }
+        }
+        return unlocked;
+    }
+
+    /**
+     * Registers a callback for achievements unlocked from now on.
+     *
+     * @param listener the callback
+     */
+    public void addOnUnlockListener(OnUnlockListener listener) {
+        unlockListeners.add(listener);
+    }
+
+    /**
+     * Removes a callback registered with {@link #addOnUnlockListener(OnUnlockListener)}.
+     *
+     * @param listener the callback
+     */
+    public void removeOnUnlockListener(OnUnlockListener listener) {
+        unlockListeners.remove(listener);
+    }
+
+    /**
+     * Returns the number of events delivered while catching up with the journal.
+     */
+    synchronized int getReplayedEvents() {
+        return replayedEvents;
+    }
+
+    /**
+     * Serializes the state of every rule as of the end of a day.
+     */
+    synchronized String snapshot(int asOfDay) {
+        StringBuilder snapshot = new StringBuilder(SNAPSHOT_VERSION).append(';').append(asOfDay);
+        for (int i = 0; i < rules.length; i++) {
+            snapshot.append(';').append(rules[i].getId()).append(':').append(lastDay[i]).append(',')
+                    .append(progress[i]).append(',').append(best[i]).append(',').append(unlockedDay[i]);
+        }
+        return snapshot.toString();
+    }
+
+    /**
+     * Restores the state saved by {@link #snapshot(int)}.
+     *
+     * @return the first day that still has to be replayed
+     */
+    private int restore(String snapshot) {
+        if (snapshot == null) {
+            return Integer.MIN_VALUE;
+        }
+        String[] parts = snapshot.split(";");
+        if (parts.length != rules.length + 2 || !SNAPSHOT_VERSION.equals(parts[0])) {
+            return Integer.MIN_VALUE;
+        }
+        try {
+            int[][] states = new int[rules.length][];
+            for (int i = 2; i < parts.length; i++) {
+                int colon = parts[i].indexOf(':');
+                Integer index = indexById.get(parts[i].substring(0, Math.max(colon, 0)));
+                String[] values = parts[i].substring(colon + 1).split(",");
+                if (index == null || values.length != 4 || states[index] != null) {
+                    // Written for other rules
+                    return Integer.MIN_VALUE;
+                }
+                states[index] = new int[values.length];
+                for (int v = 0; v < values.length; v++) {
+                    states[index][v] = Integer.parseInt(values[v]);
+                }
+            }
+            for (int i = 0; i < rules.length; i++) {
+                lastDay[i] = states[i][0];
+                progress[i] = states[i][1];
+                best[i] = states[i][2];
+                unlockedDay[i] = states[i][3];
+            }
+            day = Integer.parseInt(parts[1]);
+            return day + 1;
+        } catch (NumberFormatException e) {
+            Arrays.fill(lastDay, NO_DAY);
+            Arrays.fill(progress, 0);
+            Arrays.fill(best, 0);
+            Arrays.fill(unlockedDay, NO_DAY);
+            return Integer.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Advances the rules of a kind by one day or one count.
+     *
+     * @param kind       the kind the event feeds
+     * @param countedDay the day the event counts for
+     * @param eventDay   the day of the event
+     */
+    private void advance(int kind, int countedDay, int eventDay) {
+        for (int index : rulesByKind[kind]) {
+            if (kind == AchievementRule.KIND_WORKOUT_COUNT) {
+                progress[index]++;
+            } else if (countedDay > lastDay[index]) {
+                progress[index] = countedDay == lastDay[index] + 1 ? progress[index] + 1 : 1;
+                lastDay[index] = countedDay;
+            } else {
+                // The same day again
+                continue;
+            }
+            best[index] = Math.max(best[index], progress[index]);
+            if (unlockedDay[index] == NO_DAY && progress[index] >= rules[index].getTarget()) {
+                unlockedDay[index] = eventDay;
+                if (live) {
+                    for (OnUnlockListener listener : unlockListeners) {
+                        listener.onUnlocked(rules[index]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the progress of a rule, taking into account that a streak breaks when a day is missed.
+     */
+    private int currentProgress(int index) {
+        switch (rules[index].getKind()) {
+            case AchievementRule.KIND_CHECK_IN_STREAK:
+                // Still going if the user checked in today or yesterday
+                return lastDay[index] >= clock.today() - 1 ? progress[index] : 0;
+            case AchievementRule.KIND_CALORIE_STREAK:
+                // Yesterday is only judged once today's first event arrives
+                return lastDay[index] >= clock.today() - 2 ? progress[index] : 0;
+            default:
+                return progress[index];
+        }
+    }
+}
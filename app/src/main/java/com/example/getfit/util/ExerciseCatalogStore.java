@@ -0,0 +1,395 @@
+package com.example.getfit.util;
+
+import android.content.Context;
+
+import com.example.getfit.models.Exercise;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The {@link ExerciseCatalogStore} keeps a local copy of the remote exercise catalog together with
+ * a sync cursor, so that returning to the fitness screen doesn't download the whole catalog again.
+ * <p>
+ * The first sync fetches everything. Later syncs send the cursor to the server, receive only the
+ * exercises that were added, changed or deleted since then, and apply them as upserts and
+ * tombstones. A server that ignores the cursor sends the whole catalog again; such a response
+ * replaces the catalog, so exercises missing from it are dropped. The catalog and cursor are persisted to a file in the app's private storage, and
+ * every change is forwarded to the {@link ExerciseSearchIndex}.
+ * </p>
+ * <p>
+ * In memory the catalog is held in an {@link ExerciseColumnStore}, so a large catalog costs a few
+ * primitive arrays instead of one object graph per exercise. Screens read an immutable
+ * {@link #snapshot()} of it, which is copied column by column once per change rather than once per
+ * read, and only materialize the rows they show.
+ * </p>
+ * <p>
+ * Nothing runs on the main thread: the file is loaded and indexed on the catalog's own thread, and
+ * syncs are applied there after it. The snapshot is published through a volatile field, so reading
+ * it never waits for a sync, and the file is rewritten from the published snapshot after the
+ * store's lock is released.
+ * </p>
+ */
+public class ExerciseCatalogStore {
+
+    private static final String CATALOG_FILE = "exercise_catalog.json";
+    private static final String KEY_CURSOR = "cursor";
+    private static final String KEY_EXERCISES = "exercises";
+
+    private static ExerciseCatalogStore instance;
+
+    private final File catalogFile;
+    // Loads the catalog and applies syncs in order
+    private final Executor executor;
+
+    // Guarded by this
+    private final ExerciseColumnStore exercises = new ExerciseColumnStore();
+    private final HashMap<Integer, Integer> rowsById = new HashMap<>();
+    private long syncCursor;
+
+    // Copy of the catalog handed to readers, replaced after every change
+    private volatile ExerciseColumnStore snapshot = new ExerciseColumnStore();
+
+    /**
+     * Callback interface to handle the result of a catalog sync.
+     */
+    public interface SyncCallback {
+        /**
+         * Called when the catalog has been synced.
+         *
+         * @param catalog an immutable snapshot of the updated catalog
+         */
+        void onSuccess(ExerciseColumnStore catalog);
+
+        /**
+         * Called when the changes could not be fetched.
+         *
+         * @param errorMessage the error message describing what went wrong
+         */
+        void onError(String errorMessage);
+    }
+
+    /**
+     * Creates a store backed by the given file and loads any previously synced catalog on the
+     * calling thread. Package-private so tests can use their own files; the app uses
+     * {@link #getInstance(Context)}.
+     *
+     * @param catalogFile the file the catalog and sync cursor are persisted to
+     */
+    ExerciseCatalogStore(File catalogFile) {
+        this(catalogFile, Runnable::run);
+    }
+
+    /**
+     * Creates a store backed by the given file and loads any previously synced catalog on the
+     * executor.
+     *
+     * @param catalogFile the file the catalog and sync cursor are persisted to
+     * @param executor    the thread the catalog is loaded and synced on; must run tasks in order
+     */
+    ExerciseCatalogStore(File catalogFile, Executor executor) {
+        this.catalogFile = catalogFile;
+        this.executor = executor;
+        executor.execute(this::load);
+    }
+
+    /**
+     * Singleton pattern so every screen shares the same local catalog. The stored catalog is
+     * loaded in the background; {@link #read(SyncCallback)} hands it over once it is.
+     *
+     * @param context the context used to locate the app's private storage
+     * @return the singleton instance of ExerciseCatalogStore
+     */
+    public static synchronized ExerciseCatalogStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new ExerciseCatalogStore(new File(context.getApplicationContext().getFilesDir(), CATALOG_FILE),
+                    newCatalogThread());
+        }
+        return instance;
+    }
+
+    /**
+     * Creates the single thread the catalog is loaded, synced and saved on.
+     *
+     * @return the catalog executor
+     */
+    static ExecutorService newCatalogThread() {
+        return Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "exercise-catalog");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns the locally stored catalog as a column store that never changes, so it can be
+     * filtered, ranked and paged on any thread. The catalog is only copied again after it changed.
+     * Lock-free; empty until the stored catalog is loaded.
+     *
+     * @return an immutable snapshot of the catalog; callers must not modify it
+     */
+    public ExerciseColumnStore snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Hands the stored catalog to a callback once it is loaded, without fetching anything. The
+     * callback runs on the catalog's thread.
+     *
+     * @param callback the callback that receives a snapshot of the stored catalog
+     */
+    public void read(final SyncCallback callback) {
+        executor.execute(() -> callback.onSuccess(snapshot));
+    }
+
+    /**
+     * Returns the number of exercises stored locally.
+     *
+     * @return the size of the local catalog
+     */
+    public int size() {
+        return snapshot.size();
+    }
+
+    /**
+     * Returns a page of the locally stored catalog, materializing only the exercises on that page.
+     *
+     * @param offset the index of the first exercise of the page
+     * @param limit  the maximum number of exercises in the page
+     * @return the exercises of the page
+     */
+    public ArrayList<Exercise> getPage(int offset, int limit) {
+        return snapshot.getPage(offset, limit);
+    }
+
+    /**
+     * Returns the cursor that will be sent with the next sync.
+     *
+     * @return the sync cursor, or 0 if the catalog has never been synced
+     */
+    public synchronized long getSyncCursor() {
+        return syncCursor;
+    }
+
+    /**
+     * Fetches the changes since the last sync, applies them and returns the updated catalog. The
+     * cursor is read once the stored catalog is loaded, and the callback runs on the catalog's
+     * thread.
+     *
+     * @param callback the callback that receives a snapshot of the updated catalog
+     */
+    public void sync(final SyncCallback callback) {
+        executor.execute(() -> WorkoutParser.fetchWorkoutsSince(getSyncCursor(), new WorkoutParser.DeltaCallback() {
+            @Override
+            public void onSuccess(WorkoutParser.CatalogDelta delta) {
+                executor.execute(() -> {
+                    applyDelta(delta);
+                    callback.onSuccess(snapshot);
+                });
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                callback.onError(errorMessage);
+            }
+        }));
+    }
+
+    /**
+     * Applies a delta to the local catalog and advances the sync cursor. A full delta also removes
+     * the exercises it doesn't contain. The catalog file is only rewritten when something actually
+     * changed, after the lock is released.
+     *
+     * @param delta the changes returned by the server
+     * @return true if the local catalog changed
+     */
+    boolean applyDelta(WorkoutParser.CatalogDelta delta) {
+        ExerciseColumnStore published;
+        long cursor;
+        synchronized (this) {
+            if (!apply(delta)) {
+                return false;
+            }
+            published = exercises.copy();
+            cursor = syncCursor;
+            snapshot = published;
+        }
+        save(published, cursor);
+        return true;
+    }
+
+    /**
+     * Applies a delta to the catalog in memory. The caller holds this lock.
+     *
+     * @param delta the changes returned by the server
+     * @return true if the local catalog changed
+     */
+    private boolean apply(WorkoutParser.CatalogDelta delta) {
+        boolean changed = false;
+        ExerciseSearchIndex searchIndex = ExerciseSearchIndex.getInstance();
+
+        for (Exercise exercise : delta.upserts) {
+            Integer row = rowsById.get(exercise.getId());
+            if (row == null) {
+                rowsById.put(exercise.getId(), exercises.append(exercise));
+            } else if (!exercises.rowEquals(row, exercise)) {
+                exercises.set(row, exercise);
+            } else {
+                // Servers that ignore the cursor resend unchanged records; don't count those as changes
+                continue;
+            }
+            searchIndex.add(exercise);
+            changed = true;
+        }
+
+        for (Integer id : delta.tombstones) {
+            changed |= remove(id, searchIndex);
+        }
+
+        if (delta.full) {
+            HashSet<Integer> kept = new HashSet<>(delta.upserts.size() * 2);
+            for (Exercise exercise : delta.upserts) {
+                kept.add(exercise.getId());
+            }
+            for (int row = exercises.size() - 1; row >= 0; row--) {
+                int id = exercises.getId(row);
+                if (!kept.contains(id)) {
+                    changed |= remove(id, searchIndex);
+                }
+            }
+        }
+
+        if (delta.cursor > syncCursor) {
+            syncCursor = delta.cursor;
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Removes an exercise from the catalog and the search index.
+     *
+     * @param id          the id of the exercise
+     * @param searchIndex the index the exercise is removed from
+     * @return true if the exercise was in the catalog
+     */
+    private boolean remove(int id, ExerciseSearchIndex searchIndex) {
+        Integer row = rowsById.remove(id);
+        if (row == null) {
+            return false;
+        }
+        // The last row is moved into the hole, so its id now maps to the removed row
+        if (exercises.removeSwap(row) >= 0) {
+            rowsById.put(exercises.getId(row), row);
+        }
+        searchIndex.removeById(id);
+        return true;
+    }
+
+    /**
+     * Loads the catalog and sync cursor from disk and publishes them. A missing or corrupt file
+     * leaves the store empty, which simply causes the next sync to be a full sync.
+     */
+    private void load() {
+        synchronized (this) {
+            loadFile();
+            snapshot = exercises.copy();
+        }
+    }
+
+    /**
+     * Reads the catalog file into the store. The caller holds this lock.
+     */
+    private void loadFile() {
+        if (!catalogFile.exists()) {
+            return;
+        }
+
+        try (JsonReader reader = new JsonReader(new InputStreamReader(
+                new BufferedInputStream(new FileInputStream(catalogFile)), StandardCharsets.UTF_8))) {
+            long cursor = 0;
+            ArrayList<Exercise> loaded = new ArrayList<>();
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (KEY_CURSOR.equals(name)) {
+                    cursor = reader.nextLong();
+                } else if (KEY_EXERCISES.equals(name)) {
+                    loaded = ExerciseJsonCodec.readExercises(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            for (Exercise exercise : loaded) {
+                Integer row = rowsById.get(exercise.getId());
+                if (row == null) {
+                    rowsById.put(exercise.getId(), exercises.append(exercise));
+                } else {
+                    exercises.set(row, exercise);
+                }
+            }
+            syncCursor = cursor;
+            ExerciseSearchIndex.getInstance().addAll(loaded);
+        } catch (Exception e) {
+            e.printStackTrace();
+            exercises.clear();
+            rowsById.clear();
+            syncCursor = 0;
+        }
+    }
+
+    /**
+     * Writes a published snapshot and its sync cursor to disk. The data is written to a temporary
+     * file first and then renamed, so a crash mid-write never leaves a truncated catalog behind.
+     * A snapshot that was already replaced is skipped, since the change that replaced it writes
+     * its own.
+     *
+     * @param catalog the published snapshot
+     * @param cursor  the sync cursor that goes with it
+     */
+    private void save(ExerciseColumnStore catalog, long cursor) {
+        synchronized (catalogFile) {
+            if (catalog != snapshot) {
+                return;
+            }
+            write(catalog, cursor);
+        }
+    }
+
+    private void write(ExerciseColumnStore catalog, long cursor) {
+        File tempFile = new File(catalogFile.getPath() + ".tmp");
+        try {
+            try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(
+                    new BufferedOutputStream(new FileOutputStream(tempFile)), StandardCharsets.UTF_8))) {
+                writer.beginObject();
+                writer.name(KEY_CURSOR).value(cursor);
+                writer.name(KEY_EXERCISES);
+                ExerciseJsonCodec.writeExercises(writer, catalog.asList());
+                writer.endObject();
+            }
+            if (!tempFile.renameTo(catalogFile)) {
+                throw new IOException("Failed to replace " + catalogFile);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,561 @@
+package com.example.getfit.util;
+
+import com.example.getfit.models.Exercise;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The {@link ExerciseColumnStore} holds a list of exercises column by column instead of as
+ * individual {@link Exercise} objects, so that very large catalogs stay small on the heap.
+ * <p>
+ * Ids and sets are kept in primitive arrays. Names are almost always unique, so they are copied
+ * into one shared char buffer and each row only holds an offset and a length. Muscle groups are
+ * dictionary-encoded, so each distinct group is stored once and a row holds an int code. Type and
+ * difficulty come from a handful of values and are stored as short codes into a small dictionary. Reps are stored
+ * as a primitive int; the string form of the reps union (for example "AMRAP") is
+ * dictionary-encoded as a negative code.
+ * </p>
+ * <p>
+ * {@link Exercise} objects are only materialized on demand by {@link #get(int)} or
+ * {@link #getPage(int, int)}, for example for the rows a RecyclerView is about to bind. Filtering,
+ * ranking and search read single fields of a row instead and pass row indexes around; a selection
+ * of rows is copied into a small store of its own with {@link #select(int[])}.
+ * </p>
+ */
+public class ExerciseColumnStore {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int NULL_REPS = Integer.MIN_VALUE;
+
+    private int size;
+    private int modifications;  // Counts changes of any row, so views built over the rows can tell they are stale
+    private int[] ids = new int[INITIAL_CAPACITY];
+    private int[] nameStarts = new int[INITIAL_CAPACITY];
+    private int[] nameLengths = new int[INITIAL_CAPACITY];  // -1 for a null name
+    private int[] muscleGroupCodes = new int[INITIAL_CAPACITY];
+    private short[] typeCodes = new short[INITIAL_CAPACITY];
+    private short[] difficultyCodes = new short[INITIAL_CAPACITY];
+    private int[] sets = new int[INITIAL_CAPACITY];
+    private int[] reps = new int[INITIAL_CAPACITY];  // >= 0: number of reps, < 0: -(code + 1) of a reps label
+
+    private char[] nameChars = new char[INITIAL_CAPACITY * 16];
+    private int nameCharsUsed;
+    private int nameCharsWasted;  // Chars of names that were overwritten or removed
+    private final StringDictionary muscleGroups = new StringDictionary();
+    private final StringDictionary labels = new StringDictionary();  // Types, difficulties and reps labels
+
+    /**
+     * Dictionary that maps each distinct string to a dense int code and back. A null string has code -1.
+     */
+    private static class StringDictionary {
+        private final HashMap<String, Integer> codes = new HashMap<>();
+        private final ArrayList<String> values = new ArrayList<>();
+
+        int encode(String value) {
+            if (value == null) {
+                return -1;
+            }
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = values.size();
+                codes.put(value, code);
+                values.add(value);
+            }
+            return code;
+        }
+
+        String decode(int code) {
+            return code < 0 ? null : values.get(code);
+        }
+
+        /**
+         * Encodes the values of another dictionary in order, so an empty dictionary ends up with
+         * the same codes.
+         */
+        void addAll(StringDictionary other) {
+            for (String value : other.values) {
+                encode(value);
+            }
+        }
+    }
+
+    /**
+     * Builds a store containing the given exercises in iteration order.
+     *
+     * @param exercises the exercises to store
+     * @return a new column store
+     */
+    public static ExerciseColumnStore fromExercises(Collection<Exercise> exercises) {
+        ExerciseColumnStore store = new ExerciseColumnStore();
+        store.ensureCapacity(exercises.size());
+        for (Exercise exercise : exercises) {
+            store.append(exercise);
+        }
+        return store;
+    }
+
+    /**
+     * Copies the store. Only primitive arrays and the dictionaries are copied, so this is cheap
+     * even for a large catalog, and the copy can be read on another thread while this store keeps
+     * changing.
+     *
+     * @return a new column store with the same rows
+     */
+    public ExerciseColumnStore copy() {
+        ExerciseColumnStore copy = new ExerciseColumnStore();
+        copy.size = size;
+        copy.ids = Arrays.copyOf(ids, size);
+        copy.nameStarts = Arrays.copyOf(nameStarts, size);
+        copy.nameLengths = Arrays.copyOf(nameLengths, size);
+        copy.muscleGroupCodes = Arrays.copyOf(muscleGroupCodes, size);
+        copy.typeCodes = Arrays.copyOf(typeCodes, size);
+        copy.difficultyCodes = Arrays.copyOf(difficultyCodes, size);
+        copy.sets = Arrays.copyOf(sets, size);
+        copy.reps = Arrays.copyOf(reps, size);
+        copy.nameChars = Arrays.copyOf(nameChars, nameCharsUsed);
+        copy.nameCharsUsed = nameCharsUsed;
+        copy.nameCharsWasted = nameCharsWasted;
+        copy.muscleGroups.addAll(muscleGroups);
+        copy.labels.addAll(labels);
+        return copy;
+    }
+
+    /**
+     * Copies some rows into a new store, for example the ranked page of a catalog, without
+     * materializing them.
+     *
+     * @param rows the rows to copy, in the order they should have in the new store
+     * @return a new column store holding only those rows
+     */
+    public ExerciseColumnStore select(int[] rows) {
+        ExerciseColumnStore selection = new ExerciseColumnStore();
+        selection.ensureCapacity(rows.length);
+        for (int row : rows) {
+            selection.appendRow(this, row);
+        }
+        return selection;
+    }
+
+    /**
+     * Returns the number of rows in the store.
+     *
+     * @return the number of stored exercises
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Appends an exercise as a new row.
+     *
+     * @param exercise the exercise to append
+     * @return the row the exercise was stored at
+     */
+    public int append(Exercise exercise) {
+        ensureCapacity(size + 1);
+        set(size, exercise);
+        return size++;
+    }
+
+    /**
+     * Appends a row of another store as a new row, without materializing it.
+     *
+     * @param from the store holding the row
+     * @param row  the row to copy
+     * @return the row the copy was stored at
+     */
+    public int appendRow(ExerciseColumnStore from, int row) {
+        ensureCapacity(size + 1);
+        modifications++;
+        ids[size] = from.ids[row];
+        if (from.nameLengths[row] < 0) {
+            nameLengths[size] = -1;
+        } else {
+            storeName(size, from.nameChars, from.nameStarts[row], from.nameLengths[row]);
+        }
+        muscleGroupCodes[size] = muscleGroups.encode(from.muscleGroups.decode(from.muscleGroupCodes[row]));
+        typeCodes[size] = (short) labels.encode(from.labels.decode(from.typeCodes[row]));
+        difficultyCodes[size] = (short) labels.encode(from.labels.decode(from.difficultyCodes[row]));
+        sets[size] = from.sets[row];
+        int repsCode = from.reps[row];
+        if (repsCode < 0 && repsCode != NULL_REPS) {
+            repsCode = -labels.encode(from.labels.decode(-repsCode - 1)) - 1;
+        }
+        reps[size] = repsCode;
+        return size++;
+    }
+
+    /**
+     * Overwrites a row with the values of an exercise.
+     *
+     * @param row      the row to overwrite; must be less than {@link #size()}, or equal to it while appending
+     * @param exercise the exercise whose values are stored
+     */
+    public void set(int row, Exercise exercise) {
+        modifications++;
+        if (row < size && nameLengths[row] > 0) {
+            nameCharsWasted += nameLengths[row];
+            nameLengths[row] = -1;
+        }
+        ids[row] = exercise.getId();
+        storeName(row, exercise.getName());
+        muscleGroupCodes[row] = muscleGroups.encode(exercise.getMuscleGroup());
+        typeCodes[row] = (short) labels.encode(exercise.getType());
+        difficultyCodes[row] = (short) labels.encode(exercise.getDifficulty());
+        sets[row] = exercise.getSets();
+        reps[row] = encodeReps(exercise.getReps());
+    }
+
+    /**
+     * Removes a row by moving the last row into its place, so removal is O(1).
+     *
+     * @param row the row to remove
+     * @return the previous index of the row that was moved into {@code row}, or -1 if the removed
+     *         row was the last one
+     */
+    public int removeSwap(int row) {
+        modifications++;
+        int last = size - 1;
+        size--;
+        nameCharsWasted += Math.max(0, nameLengths[row]);
+        if (row == last) {
+            return -1;
+        }
+
+        ids[row] = ids[last];
+        nameStarts[row] = nameStarts[last];
+        nameLengths[row] = nameLengths[last];
+        muscleGroupCodes[row] = muscleGroupCodes[last];
+        typeCodes[row] = typeCodes[last];
+        difficultyCodes[row] = difficultyCodes[last];
+        sets[row] = sets[last];
+        reps[row] = reps[last];
+        return last;
+    }
+
+    /**
+     * Returns a count that changes whenever a row is added, overwritten or removed.
+     *
+     * @return the number of changes made to the store's rows
+     */
+    int modifications() {
+        return modifications;
+    }
+
+    /**
+     * Returns the id stored in a row without materializing the exercise.
+     *
+     * @param row the row
+     * @return the exercise id
+     */
+    public int getId(int row) {
+        return ids[row];
+    }
+
+    /**
+     * Returns the name stored in a row. Only the name is materialized.
+     *
+     * @param row the row
+     * @return the exercise name, or null
+     */
+    public String getName(int row) {
+        return nameLengths[row] < 0 ? null : new String(nameChars, nameStarts[row], nameLengths[row]);
+    }
+
+    /**
+     * Returns the muscle group stored in a row; the string is shared with every row of that group.
+     *
+     * @param row the row
+     * @return the muscle group, or null
+     */
+    public String getMuscleGroup(int row) {
+        return muscleGroups.decode(muscleGroupCodes[row]);
+    }
+
+    /**
+     * Returns the workout type stored in a row; the string is shared with every row of that type.
+     *
+     * @param row the row
+     * @return the type, or null
+     */
+    public String getType(int row) {
+        return labels.decode(typeCodes[row]);
+    }
+
+    /**
+     * Returns the difficulty stored in a row; the string is shared with every row of that difficulty.
+     *
+     * @param row the row
+     * @return the difficulty, or null
+     */
+    public String getDifficulty(int row) {
+        return labels.decode(difficultyCodes[row]);
+    }
+
+    /**
+     * Returns the identity key of a row, the same {@link WorkoutParser#exerciseKey(Exercise)}
+     * returns for its exercise. The name is only read for rows without an id.
+     *
+     * @param row the row
+     * @return the identity key
+     */
+    public String getKey(int row) {
+        return WorkoutParser.exerciseKey(ids[row], ids[row] != 0 ? null : getName(row));
+    }
+
+    /**
+     * Finds a row by exercise id by scanning the id column.
+     *
+     * @param id the exercise id
+     * @return the first row with that id, or -1
+     */
+    public int indexOfId(int id) {
+        for (int row = 0; row < size; row++) {
+            if (ids[row] == id) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds a row by normalized name, comparing the stored names in place.
+     *
+     * @param normalizedName a name as returned by {@link WorkoutParser#normalizeName(String)}
+     * @return the first row whose name normalizes to it, or -1
+     */
+    public int indexOfNormalizedName(String normalizedName) {
+        for (int row = 0; row < size; row++) {
+            if (nameLengths[row] >= 0
+                    && WorkoutParser.normalizesTo(nameChars, nameStarts[row], nameLengths[row], normalizedName)) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks whether a row holds exactly the values of an exercise, without materializing the row.
+     *
+     * @param row      the row to compare
+     * @param exercise the exercise to compare against
+     * @return true if every field is equal
+     */
+    public boolean rowEquals(int row, Exercise exercise) {
+        return ids[row] == exercise.getId()
+                && sets[row] == exercise.getSets()
+                && reps[row] == encodeReps(exercise.getReps())
+                && nameEquals(row, exercise.getName())
+                && equal(muscleGroups.decode(muscleGroupCodes[row]), exercise.getMuscleGroup())
+                && equal(labels.decode(typeCodes[row]), exercise.getType())
+                && equal(labels.decode(difficultyCodes[row]), exercise.getDifficulty());
+    }
+
+    /**
+     * Materializes the exercise stored in a row.
+     *
+     * @param row the row to materialize
+     * @return a new Exercise holding the row's values
+     */
+    public Exercise get(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+
+        int repsCode = reps[row];
+        Object repsValue;
+        if (repsCode == NULL_REPS) {
+            repsValue = null;
+        } else if (repsCode < 0) {
+            repsValue = labels.decode(-repsCode - 1);
+        } else {
+            repsValue = repsCode;
+        }
+
+        return new Exercise(ids[row], getName(row), muscleGroups.decode(muscleGroupCodes[row]),
+                labels.decode(typeCodes[row]), sets[row], repsValue, labels.decode(difficultyCodes[row]));
+    }
+
+    /**
+     * Materializes a page of rows, for paged loading.
+     *
+     * @param offset the first row of the page
+     * @param limit  the maximum number of rows in the page
+     * @return the materialized exercises of the page; empty if the offset is past the end
+     */
+    public ArrayList<Exercise> getPage(int offset, int limit) {
+        int end = Math.min(size, offset + Math.max(0, limit));
+        ArrayList<Exercise> page = new ArrayList<>(Math.max(0, end - offset));
+        for (int row = Math.max(0, offset); row < end; row++) {
+            page.add(get(row));
+        }
+        return page;
+    }
+
+    /**
+     * Returns a read-only list view of the store that materializes each exercise as it is accessed,
+     * for example to stream the rows to a JSON writer one at a time.
+     *
+     * @return a lazily materializing view of the rows
+     */
+    public List<Exercise> asList() {
+        return new AbstractList<Exercise>() {
+            @Override
+            public Exercise get(int row) {
+                return ExerciseColumnStore.this.get(row);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Removes every row. The dictionaries are kept, since the same strings usually come back.
+     */
+    public void clear() {
+        modifications++;
+        size = 0;
+        nameCharsUsed = 0;
+        nameCharsWasted = 0;
+    }
+
+    /**
+     * Encodes the reps union into a single int.
+     *
+     * @param value an Integer (or other Number), a String, or null
+     * @return the number of reps, a negative label code, or {@link #NULL_REPS}
+     */
+    private int encodeReps(Object value) {
+        if (value == null) {
+            return NULL_REPS;
+        } else if (value instanceof Number && ((Number) value).intValue() >= 0) {
+            return ((Number) value).intValue();
+        }
+        return -labels.encode(value.toString()) - 1;
+    }
+
+    /**
+     * Grows every column so that at least the given number of rows fit.
+     *
+     * @param capacity the required number of rows
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) {
+            return;
+        }
+
+        int newCapacity = Math.max(capacity, ids.length * 2);
+        ids = Arrays.copyOf(ids, newCapacity);
+        nameStarts = Arrays.copyOf(nameStarts, newCapacity);
+        nameLengths = Arrays.copyOf(nameLengths, newCapacity);
+        muscleGroupCodes = Arrays.copyOf(muscleGroupCodes, newCapacity);
+        typeCodes = Arrays.copyOf(typeCodes, newCapacity);
+        difficultyCodes = Arrays.copyOf(difficultyCodes, newCapacity);
+        sets = Arrays.copyOf(sets, newCapacity);
+        reps = Arrays.copyOf(reps, newCapacity);
+    }
+
+    /**
+     * Copies a name into the shared char buffer and points the row at it.
+     *
+     * @param row  the row the name belongs to
+     * @param name the name, or null
+     */
+    private void storeName(int row, String name) {
+        if (name == null) {
+            nameLengths[row] = -1;
+            return;
+        }
+
+        reserveNameChars(name.length());
+        name.getChars(0, name.length(), nameChars, nameCharsUsed);
+        nameStarts[row] = nameCharsUsed;
+        nameLengths[row] = name.length();
+        nameCharsUsed += name.length();
+    }
+
+    /**
+     * Copies a name from another store's char buffer into the shared char buffer and points the
+     * row at it.
+     *
+     * @param row    the row the name belongs to
+     * @param chars  the buffer holding the name
+     * @param start  the offset of the name in the buffer
+     * @param length the length of the name
+     */
+    private void storeName(int row, char[] chars, int start, int length) {
+        reserveNameChars(length);
+        System.arraycopy(chars, start, nameChars, nameCharsUsed, length);
+        nameStarts[row] = nameCharsUsed;
+        nameLengths[row] = length;
+        nameCharsUsed += length;
+    }
+
+    /**
+     * Makes room for a name at the end of the char buffer. The buffer is compacted first if more
+     * than half of it belongs to overwritten or removed names.
+     *
+     * @param length the length of the name
+     */
+    private void reserveNameChars(int length) {
+        if (nameCharsWasted > nameCharsUsed / 2) {
+            compactNames();
+        }
+        if (nameCharsUsed + length > nameChars.length) {
+            nameChars = Arrays.copyOf(nameChars, Math.max(nameCharsUsed + length, nameChars.length * 2));
+        }
+    }
+
+    /**
+     * Rewrites the char buffer so it only contains the names of live rows.
+     */
+    private void compactNames() {
+        char[] compacted = new char[nameChars.length];
+        int used = 0;
+        for (int row = 0; row < size; row++) {
+            if (nameLengths[row] > 0) {
+                System.arraycopy(nameChars, nameStarts[row], compacted, used, nameLengths[row]);
+                nameStarts[row] = used;
+                used += nameLengths[row];
+            }
+        }
+        nameChars = compacted;
+        nameCharsUsed = used;
+        nameCharsWasted = 0;
+    }
+
+    /**
+     * Compares a row's name with a string without materializing the name.
+     *
+     * @param row  the row
+     * @param name the name to compare with, or null
+     * @return true if the names are equal
+     */
+    private boolean nameEquals(int row, String name) {
+        if (name == null || nameLengths[row] < 0) {
+            return name == null && nameLengths[row] < 0;
+        }
+        if (name.length() != nameLengths[row]) {
+            return false;
+        }
+        int start = nameStarts[row];
+        for (int i = 0; i < name.length(); i++) {
+            if (nameChars[start + i] != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
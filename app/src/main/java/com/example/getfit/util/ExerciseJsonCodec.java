@@ -0,0 +1,296 @@
+package com.example.getfit.util;
+
+import com.example.getfit.models.Exercise;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * The {@link ExerciseJsonCodec} reads and writes {@link Exercise} JSON with Gson's streaming
+ * {@link JsonReader} and {@link JsonWriter}, without reflection and without building intermediate
+ * JSONObject trees or maps.
+ * <p>
+ * Fields are decoded straight into local variables as the tokens arrive. The {@code reps} field may
+ * be either a number or a string (for example "AMRAP"); the codec checks the token type and reads
+ * it directly instead of going through a generic {@code get()}. Request bodies are written straight
+ * into the OkHttp sink, so no intermediate JSON {@code String} is created.
+ * </p>
+ */
+public class ExerciseJsonCodec {
+
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    /**
+     * Private constructor; the codec only has static methods.
+     */
+    private ExerciseJsonCodec() {
+    }
+
+    /**
+     * Reads a JSON array of exercises.
+     *
+     * @param in the reader positioned at the start of the array
+     * @return the decoded exercises
+     * @throws IOException if the input is not a valid array of exercises
+     */
+    public static ArrayList<Exercise> readExercises(Reader in) throws IOException {
+        return readExercises(new JsonReader(in));
+    }
+
+    /**
+     * Reads a JSON array of exercises from a reader that is already positioned at the array, for
+     * example inside a larger document.
+     *
+     * @param reader the JSON reader positioned at the start of the array
+     * @return the decoded exercises
+     * @throws IOException if the input is not a valid array of exercises
+     */
+    public static ArrayList<Exercise> readExercises(JsonReader reader) throws IOException {
+        return readDelta(reader, 0).upserts;
+    }
+
+    /**
+     * Reads a JSON array of changed exercises and tombstones ({@code "deleted": true}) returned by a
+     * delta sync. The cursor is advanced to the largest {@code updatedAt} in the array. The delta is
+     * marked {@link WorkoutParser.CatalogDelta#full full} if it was requested without a cursor or
+     * holds a record whose {@code updatedAt} isn't newer than the cursor, which means the server sent
+     * the whole catalog. Records without {@code updatedAt} say nothing about that, so a server that
+     * never sends it never moves the cursor, and every sync of it is a full one.
+     *
+     * @param in     the reader positioned at the start of the array
+     * @param cursor the cursor the request was made with
+     * @return the decoded delta
+     * @throws IOException if the input is not a valid array of exercises
+     */
+    public static WorkoutParser.CatalogDelta readDelta(Reader in, long cursor) throws IOException {
+        return readDelta(new JsonReader(in), cursor);
+    }
+
+    /**
+     * Reads a delta array from a reader that is already positioned at the array.
+     *
+     * @param reader the JSON reader positioned at the start of the array
+     * @param cursor the cursor the request was made with
+     * @return the decoded delta
+     * @throws IOException if the input is not a valid array of exercises
+     */
+    private static WorkoutParser.CatalogDelta readDelta(JsonReader reader, long cursor) throws IOException {
+        WorkoutParser.CatalogDelta delta = new WorkoutParser.CatalogDelta();
+        delta.cursor = cursor;
+        delta.full = cursor <= 0;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            readRecord(reader, delta, cursor);
+        }
+        reader.endArray();
+
+        return delta;
+    }
+
+    /**
+     * Reads a single exercise record and adds it to the delta as an upsert or a tombstone.
+     *
+     * @param reader the reader positioned at the start of the record
+     * @param delta  the delta the record is added to
+     * @param since  the cursor the request was made with
+     * @throws IOException if the record is malformed
+     */
+    private static void readRecord(JsonReader reader, WorkoutParser.CatalogDelta delta, long since)
+            throws IOException {
+        int id = 0;
+        String name = null;
+        String muscleGroup = null;
+        String type = null;
+        int sets = 0;
+        Object reps = null;
+        String difficulty = null;
+        long updatedAt = 0;
+        boolean hasUpdatedAt = false;
+        boolean deleted = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id":
+                    id = reader.nextInt();
+                    break;
+                case "name":
+                    name = nextString(reader);
+                    break;
+                case "muscleGroup":
+                    muscleGroup = nextString(reader);
+                    break;
+                case "type":
+                    type = nextString(reader);
+                    break;
+                case "sets":
+                    sets = reader.nextInt();
+                    break;
+                case "reps":
+                    reps = readReps(reader);
+                    break;
+                case "difficulty":
+                    difficulty = nextString(reader);
+                    break;
+                case "updatedAt":
+                    updatedAt = reader.nextLong();
+                    hasUpdatedAt = true;
+                    break;
+                case "deleted":
+                    deleted = reader.nextBoolean();
+                    break;
+                default:
+                    // Ignore fields this version of the app doesn't know about
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        // Only updatedAt moves the cursor; a record without one can't be asked for by time again
+        if (hasUpdatedAt && updatedAt > delta.cursor) {
+            delta.cursor = updatedAt;
+        }
+        if (hasUpdatedAt && updatedAt <= since) {
+            // A server that filters by the cursor never sends this, so the response is the whole catalog
+            delta.full = true;
+        }
+        if (deleted) {
+            delta.tombstones.add(id);
+        } else {
+            delta.upserts.add(new Exercise(id, name, muscleGroup, type, sets, reps, difficulty));
+        }
+    }
+
+    /**
+     * Reads the {@code reps} union: a whole number of repetitions or a descriptive string. A number
+     * that isn't a whole int, such as {@code 12.5}, is kept as its string label.
+     *
+     * @param reader the reader positioned at the reps value
+     * @return an Integer, a String, or null
+     * @throws IOException if the value is neither a number nor a string
+     */
+    private static Object readReps(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.NUMBER) {
+            String number = reader.nextString();
+            try {
+                return Integer.parseInt(number);
+            } catch (NumberFormatException e) {
+                return number;
+            }
+        } else if (token == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    /**
+     * Reads a string value, allowing JSON null.
+     *
+     * @param reader the reader positioned at the value
+     * @return the string, or null
+     * @throws IOException if the value is not a string
+     */
+    private static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    /**
+     * Writes a JSON array of exercises.
+     *
+     * @param out       the writer to write to; it is flushed but not closed
+     * @param exercises the exercises to write
+     * @throws IOException if writing fails
+     */
+    public static void writeExercises(Writer out, Collection<Exercise> exercises) throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        writeExercises(writer, exercises);
+        writer.flush();
+    }
+
+    /**
+     * Writes a JSON array of exercises to a writer that may be in the middle of a larger document.
+     *
+     * @param writer    the JSON writer
+     * @param exercises the exercises to write
+     * @throws IOException if writing fails
+     */
+    public static void writeExercises(JsonWriter writer, Collection<Exercise> exercises) throws IOException {
+        writer.beginArray();
+        for (Exercise exercise : exercises) {
+            writeExercise(writer, exercise);
+        }
+        writer.endArray();
+    }
+
+    /**
+     * Writes a single exercise as a JSON object.
+     *
+     * @param writer   the JSON writer
+     * @param exercise the exercise to write
+     * @throws IOException if writing fails
+     */
+    public static void writeExercise(JsonWriter writer, Exercise exercise) throws IOException {
+        writer.beginObject();
+        writer.name("id").value(exercise.getId());
+        writer.name("name").value(exercise.getName());
+        writer.name("muscleGroup").value(exercise.getMuscleGroup());
+        writer.name("type").value(exercise.getType());
+        writer.name("sets").value(exercise.getSets());
+
+        Object reps = exercise.getReps();
+        writer.name("reps");
+        if (reps instanceof Number) {
+            writer.value(((Number) reps).longValue());
+        } else if (reps != null) {
+            writer.value(reps.toString());
+        } else {
+            writer.nullValue();
+        }
+
+        writer.name("difficulty").value(exercise.getDifficulty());
+        writer.endObject();
+    }
+
+    /**
+     * Creates an OkHttp request body that encodes the exercise directly into the request sink.
+     *
+     * @param exercise the exercise to send
+     * @return a request body that writes the exercise as JSON
+     */
+    public static RequestBody requestBody(final Exercise exercise) {
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return JSON;
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                // Don't close the writer: closing it would close the sink owned by OkHttp
+                JsonWriter writer = new JsonWriter(new OutputStreamWriter(sink.outputStream(), StandardCharsets.UTF_8));
+                writeExercise(writer, exercise);
+                writer.flush();
+            }
+        };
+    }
+}
@@ -0,0 +1,371 @@
+package com.example.getfit.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.example.getfit.models.Exercise;
+import com.example.getfit.models.User;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * The {@link ExerciseRanker} class orders exercises for a specific user instead of showing every
+ * user with the same intensity and goal the same unordered list.
+ * <p>
+ * Each exercise is scored from the user's completion history (the taps recorded by the
+ * ExerciseAdapter), how recently it was done, how long its muscle group has been neglected and how
+ * well its difficulty fits the user's intensity level. Only the top k exercises are selected with a
+ * bounded min-heap, so only the displayed page is ever sorted, and exercises with equal scores are
+ * ordered by id so the page doesn't reshuffle between refreshes.
+ * </p>
+ * <p>
+ * Recency and neglect change with the time, so every ranking scores each candidate again. To keep
+ * that to a few array reads per row, the ranker remembers for each row of the catalog it ranked
+ * last the history of its exercise, its muscle group and its difficulty, and only rebuilds them
+ * when another catalog is ranked or the catalog changed. A completion updates the history of the
+ * single exercise and muscle group involved, which those rows share, so nothing is rebuilt.
+ * </p>
+ */
+public class ExerciseRanker {
+
+    private static final String KEY_COUNT_PREFIX = "count:";
+    private static final String KEY_LAST_PREFIX = "last:";
+    private static final String KEY_MUSCLE_PREFIX = "muscle:";
+
+    // Weights of the individual score components
+    private static final double WEIGHT_COMPLETIONS = 1.0;
+    private static final double WEIGHT_RECENCY = 1.5;
+    private static final double WEIGHT_NEGLECT = 2.0;
+    private static final double WEIGHT_DIFFICULTY_FIT = 2.5;
+
+    private static final double HOUR_MILLIS = 60 * 60 * 1000;
+    private static final double RECENCY_HALF_LIFE_HOURS = 48;  // Just-finished exercises recover over ~2 days
+    private static final double NEGLECT_CAP_DAYS = 7;           // A muscle group can't be "more neglected" than a week
+
+    private final SharedPreferences sharedPreferences;
+    private final Map<String, History> historyByExercise = new HashMap<>();
+    private final Map<String, MuscleGroup> muscleGroups = new HashMap<>();
+
+    // What each row of the catalog ranked last refers to, so scoring a row builds no keys
+    private ExerciseColumnStore indexedExercises;
+    private int indexedModifications;
+    private History[] historyByRow = new History[0];
+    private MuscleGroup[] muscleGroupByRow = new MuscleGroup[0];
+    private int[] difficultyByRow = new int[0];
+
+    /**
+     * Completion history of a single exercise. The completion component of the score is cached
+     * here and only recomputed when this exercise is completed again.
+     */
+    private static class History {
+        int completions;
+        long lastCompletedAt;
+        double completionScore;
+
+        void recompute() {
+            completionScore = WEIGHT_COMPLETIONS * Math.log1p(completions);
+        }
+
+        boolean isEmpty() {
+            return completions == 0 && lastCompletedAt == 0;
+        }
+    }
+
+    /**
+     * When a muscle group was last trained, 0 if never.
+     */
+    private static class MuscleGroup {
+        long lastTrainedAt;
+    }
+
+    /**
+     * A catalog row paired with its score, used as a heap entry during top-k selection.
+     */
+    private static class ScoredRow {
+        final int row;
+        final int id;
+        final double score;
+
+        ScoredRow(int row, int id, double score) {
+            this.row = row;
+            this.id = id;
+            this.score = score;
+        }
+
+        /**
+         * Orders rows by score, then by ascending id, then by row, so equal scores keep their order.
+         */
+        boolean isBetterThan(ScoredRow other) {
+            if (score != other.score) {
+                return score > other.score;
+            }
+            return id != other.id ? id < other.id : row < other.row;
+        }
+    }
+
+    /**
+     * Creates a ranker over a user's stored history and loads it once. The app uses
+     * {@link #getInstance(Context)}.
+     *
+     * @param sharedPreferences the preferences holding the user's exercise history
+     */
+    ExerciseRanker(SharedPreferences sharedPreferences) {
+        this.sharedPreferences = sharedPreferences;
+        loadHistory();
+    }
+
+    /**
+     * Returns the ranker of the signed in user, so every screen shares the same in-memory history.
+     * Each user's history is kept in their own preferences file, see {@link StatsPartitions}.
+     *
+     * @param context the context used to access SharedPreferences
+     * @return the signed in user's ExerciseRanker
+     */
+    public static ExerciseRanker getInstance(Context context) {
+        return StatsPartitions.getInstance(context).current().getExerciseRanker();
+    }
+
+    /**
+     * Records that the user completed an exercise. Only the history of this exercise and its
+     * muscle group is updated.
+     *
+     * @param exercise the exercise that was completed
+     */
+    public synchronized void recordCompletion(Exercise exercise) {
+        long now = System.currentTimeMillis();
+        String key = WorkoutParser.exerciseKey(exercise);
+
+        History history = historyFor(key);
+        history.completions++;
+        history.lastCompletedAt = now;
+        history.recompute();
+
+        SharedPreferences.Editor editor = sharedPreferences.edit();
+        editor.putInt(KEY_COUNT_PREFIX + key, history.completions);
+        editor.putLong(KEY_LAST_PREFIX + key, now);
+
+        String muscleGroup = normalize(exercise.getMuscleGroup());
+        if (!muscleGroup.isEmpty()) {
+            muscleGroupFor(muscleGroup).lastTrainedAt = now;
+            editor.putLong(KEY_MUSCLE_PREFIX + muscleGroup, now);
+        }
+        editor.apply();
+    }
+
+    /**
+     * Selects the k highest scoring exercises for the user, best first.
+     * <p>
+     * The candidates are scanned once while a min-heap holds the best k seen so far, so the cost is
+     * O(n log k) and only the k selected exercises are sorted.
+     * </p>
+     * <p>
+     * The candidates are rows of the catalog's column store, and each is scored from what the
+     * ranker remembers about its row, so no {@link Exercise} or key is built for the rows that
+     * aren't selected. Equal scores are ordered by ascending id.
+     * </p>
+     *
+     * @param exercises the catalog the rows belong to
+     * @param rows      the candidate rows (for example, already filtered by intensity)
+     * @param user      the user the ranking is personalized for
+     * @param k         the number of exercises to return
+     * @return the rows of at most k exercises ordered from highest to lowest score
+     */
+    public synchronized int[] topK(ExerciseColumnStore exercises, int[] rows, User user, int k) {
+        if (k <= 0 || exercises == null || rows == null || rows.length == 0) {
+            return new int[0];
+        }
+
+        long now = System.currentTimeMillis();
+        int userLevel = intensityOrdinal(user != null ? user.getIntensityLevel() : null);
+        index(exercises);
+
+        // The worst of the best k on top
+        PriorityQueue<ScoredRow> heap = new PriorityQueue<>(k,
+                (a, b) -> a.isBetterThan(b) ? 1 : b.isBetterThan(a) ? -1 : 0);
+
+        for (int row : rows) {
+            ScoredRow scored = new ScoredRow(row, exercises.getId(row), score(row, userLevel, now));
+            if (heap.size() < k) {
+                heap.add(scored);
+            } else if (scored.isBetterThan(heap.peek())) {
+                heap.poll();
+                heap.add(scored);
+            }
+        }
+
+        // Draining the min-heap yields the page in ascending order; fill it from the back for display
+        int[] result = new int[heap.size()];
+        for (int i = result.length - 1; i >= 0; i--) {
+            result[i] = heap.poll().row;
+        }
+        return result;
+    }
+
+    /**
+     * Remembers the history, muscle group and difficulty of every row of a catalog, unless they
+     * were already remembered for this catalog and it didn't change since.
+     *
+     * @param exercises the catalog about to be ranked
+     */
+    private void index(ExerciseColumnStore exercises) {
+        if (exercises == indexedExercises && exercises.modifications() == indexedModifications) {
+            return;
+        }
+        int size = exercises.size();
+        historyByRow = new History[size];
+        muscleGroupByRow = new MuscleGroup[size];
+        difficultyByRow = new int[size];
+        for (int row = 0; row < size; row++) {
+            historyByRow[row] = historyFor(exercises.getKey(row));
+            muscleGroupByRow[row] = muscleGroupFor(normalize(exercises.getMuscleGroup(row)));
+            difficultyByRow[row] = difficultyOrdinal(exercises.getDifficulty(row));
+        }
+        indexedExercises = exercises;
+        indexedModifications = exercises.modifications();
+    }
+
+    /**
+     * Computes the score of a single row of the indexed catalog. The completion component comes
+     * from the cache, the time based components are O(1) lookups.
+     *
+     * @param row       the row to score
+     * @param userLevel the user's intensity ordinal, or -1 if unknown
+     * @param now       the current time in milliseconds
+     * @return the score, higher is better
+     */
+    private double score(int row, int userLevel, long now) {
+        double score = 0;
+
+        // Completion history and recency: favourites rank higher, but not right after being done
+        History history = historyByRow[row];
+        if (!history.isEmpty()) {
+            double hoursSince = Math.max(0, now - history.lastCompletedAt) / HOUR_MILLIS;
+            score += history.completionScore;
+            score += WEIGHT_RECENCY * (1 - Math.pow(0.5, hoursSince / RECENCY_HALF_LIFE_HOURS));
+        } else {
+            score += WEIGHT_RECENCY;
+        }
+
+        // Muscle group neglect: groups that haven't been trained for a while rank higher
+        long lastTrained = muscleGroupByRow[row].lastTrainedAt;
+        double neglectDays = lastTrained == 0 ? NEGLECT_CAP_DAYS
+                : Math.min(NEGLECT_CAP_DAYS, Math.max(0, now - lastTrained) / (24 * HOUR_MILLIS));
+        score += WEIGHT_NEGLECT * neglectDays / NEGLECT_CAP_DAYS;
+
+        // Difficulty fit: exact match scores full weight, one level off scores half
+        int exerciseLevel = difficultyByRow[row];
+        if (userLevel >= 0 && exerciseLevel >= 0) {
+            int distance = Math.abs(userLevel - exerciseLevel);
+            if (distance == 0) {
+                score += WEIGHT_DIFFICULTY_FIT;
+            } else if (distance == 1) {
+                score += WEIGHT_DIFFICULTY_FIT / 2;
+            }
+        }
+
+        return score;
+    }
+
+    /**
+     * Loads the stored completion history into memory. Called once when the ranker is created.
+     */
+    private void loadHistory() {
+        for (Map.Entry<String, ?> entry : sharedPreferences.getAll().entrySet()) {
+            String prefKey = entry.getKey();
+            Object value = entry.getValue();
+
+            if (prefKey.startsWith(KEY_COUNT_PREFIX) && value instanceof Integer) {
+                historyFor(prefKey.substring(KEY_COUNT_PREFIX.length())).completions = (Integer) value;
+            } else if (prefKey.startsWith(KEY_LAST_PREFIX) && value instanceof Long) {
+                historyFor(prefKey.substring(KEY_LAST_PREFIX.length())).lastCompletedAt = (Long) value;
+            } else if (prefKey.startsWith(KEY_MUSCLE_PREFIX) && value instanceof Long) {
+                muscleGroupFor(prefKey.substring(KEY_MUSCLE_PREFIX.length())).lastTrainedAt = (Long) value;
+            }
+        }
+
+        for (History history : historyByExercise.values()) {
+            history.recompute();
+        }
+    }
+
+    /**
+     * Returns the history entry for an exercise key, creating it if needed.
+     *
+     * @param key the exercise key
+     * @return the history entry
+     */
+    private History historyFor(String key) {
+        History history = historyByExercise.get(key);
+        if (history == null) {
+            history = new History();
+            historyByExercise.put(key, history);
+        }
+        return history;
+    }
+
+    /**
+     * Returns the entry of a normalized muscle group, creating it if needed.
+     *
+     * @param muscleGroup the normalized muscle group
+     * @return the muscle group entry
+     */
+    private MuscleGroup muscleGroupFor(String muscleGroup) {
+        MuscleGroup entry = muscleGroups.get(muscleGroup);
+        if (entry == null) {
+            entry = new MuscleGroup();
+            muscleGroups.put(muscleGroup, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Normalizes a string for use as a lookup key.
+     *
+     * @param value the value to normalize, may be null
+     * @return the trimmed, lower-cased value, or an empty string
+     */
+    private static String normalize(String value) {
+        return value == null ? "" : value.trim().toLowerCase(Locale.US);
+    }
+
+    /**
+     * Maps a user's intensity level to an ordinal comparable with {@link #difficultyOrdinal(String)}.
+     *
+     * @param intensityLevel the user's intensity level (Beginner, Moderate, Hard-core)
+     * @return 0, 1 or 2, or -1 if unknown
+     */
+    private static int intensityOrdinal(String intensityLevel) {
+        if (intensityLevel == null) {
+            return -1;
+        } else if (intensityLevel.equalsIgnoreCase("Beginner")) {
+            return 0;
+        } else if (intensityLevel.equalsIgnoreCase("Moderate")) {
+            return 1;
+        } else if (intensityLevel.equalsIgnoreCase("Hard-core")) {
+            return 2;
+        }
+        return -1;
+    }
+
+    /**
+     * Maps an exercise difficulty to an ordinal comparable with {@link #intensityOrdinal(String)}.
+     *
+     * @param difficulty the exercise difficulty (easy, medium, hard)
+     * @return 0, 1 or 2, or -1 if unknown
+     */
+    private static int difficultyOrdinal(String difficulty) {
+        if (difficulty == null) {
+            return -1;
+        } else if (difficulty.equalsIgnoreCase("easy")) {
+            return 0;
+        } else if (difficulty.equalsIgnoreCase("medium")) {
+            return 1;
+        } else if (difficulty.equalsIgnoreCase("hard")) {
+            return 2;
+        }
+        return -1;
+    }
+}
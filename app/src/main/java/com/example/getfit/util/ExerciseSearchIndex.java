@@ -0,0 +1,346 @@
+package com.example.getfit.util;
+
+import com.example.getfit.models.Exercise;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+
+/**
+ * The {@link ExerciseSearchIndex} provides typo-tolerant search over exercise names and muscle groups.
+ * <p>
+ * Every indexed exercise is split into words and each word into padded trigrams (for example
+ * "squat" gives "  s", " sq", "squ", "qua", "uat", "at "). A query is split the same way, and
+ * exercises that share enough trigrams with it become candidates, so misspellings such as
+ * "sqaut" or "dumbell press" still find "Squat" and "Dumbbell Bench Press". The best candidates
+ * are then re-ranked by edit distance between the query words and the exercise words.
+ * </p>
+ * <p>
+ * The index is updated incrementally as exercises are added, changed or removed, so a catalog
+ * sync or a newly added workout never requires a rebuild.
+ * </p>
+ * <p>
+ * Indexed exercises are kept as rows of an {@link ExerciseColumnStore} and referred to by row
+ * everywhere else, so the index holds no {@link Exercise} objects. The words of a row are only
+ * split again for the few candidates that are re-ranked, and only the returned results are
+ * materialized.
+ * </p>
+ */
+public class ExerciseSearchIndex {
+
+    // Number of trigram candidates that are re-ranked by edit distance
+    private static final int MAX_CANDIDATES = 64;
+    // Fraction of the query's trigrams a candidate must share
+    private static final double MIN_TRIGRAM_OVERLAP = 0.3;
+
+    private static ExerciseSearchIndex instance;
+
+    // One row per document; removed documents keep their row until the index is compacted
+    private ExerciseColumnStore documents = new ExerciseColumnStore();
+    private final HashMap<String, Integer> documentByKey = new HashMap<>();
+    private final HashMap<Long, IntList> postings = new HashMap<>();
+    private final BitSet removed = new BitSet();
+    private int removedCount;
+
+    // Scratch space reused between searches so a query doesn't allocate per document
+    private int[] matchCounts = new int[0];
+    private final IntList touched = new IntList();
+
+    /**
+     * Creates an empty index. Package-private so tests can use a fresh index; the app uses
+     * {@link #getInstance()}.
+     */
+    ExerciseSearchIndex() {
+    }
+
+    /**
+     * Growable list of primitive ints, used for posting lists.
+     */
+    private static class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                int[] grown = new int[size * 2];
+                System.arraycopy(values, 0, grown, 0, size);
+                values = grown;
+            }
+            values[size++] = value;
+        }
+    }
+
+    /**
+     * Singleton pattern so the catalog sync, the add-workout screen and the search box all share
+     * the same index.
+     *
+     * @return the singleton instance of ExerciseSearchIndex
+     */
+    public static synchronized ExerciseSearchIndex getInstance() {
+        if (instance == null) {
+            instance = new ExerciseSearchIndex();
+        }
+        return instance;
+    }
+
+    /**
+     * Adds or replaces several exercises in the index.
+     *
+     * @param exercises the exercises to index
+     */
+    public synchronized void addAll(Collection<Exercise> exercises) {
+        for (Exercise exercise : exercises) {
+            add(exercise);
+        }
+    }
+
+    /**
+     * Adds an exercise to the index, replacing any earlier version of the same exercise.
+     *
+     * @param exercise the exercise to index
+     */
+    public synchronized void add(Exercise exercise) {
+        String key = WorkoutParser.exerciseKey(exercise);
+        remove(key);
+        index(key, documents.append(exercise));
+    }
+
+    /**
+     * Posts the trigrams of a document's words.
+     *
+     * @param key      the exercise's identity key
+     * @param document the document's row
+     */
+    private void index(String key, int document) {
+        documentByKey.put(key, document);
+
+        // Each trigram is posted once per document, even if it occurs in several words
+        HashSet<Long> seen = new HashSet<>();
+        for (String word : wordsOf(document)) {
+            for (long trigram : trigramsOf(word)) {
+                if (seen.add(trigram)) {
+                    IntList list = postings.get(trigram);
+                    if (list == null) {
+                        list = new IntList();
+                        postings.put(trigram, list);
+                    }
+                    list.add(document);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes an exercise from the index by id. Used for catalog tombstones.
+     *
+     * @param exerciseId the id of the removed exercise
+     */
+    public synchronized void removeById(int exerciseId) {
+        remove("id:" + exerciseId);
+    }
+
+    /**
+     * Removes an exercise from the index. Removed documents are only marked and skipped; the index
+     * is compacted once more than half of it is removed.
+     *
+     * @param key the exercise's identity key
+     */
+    private void remove(String key) {
+        Integer document = documentByKey.remove(key);
+        if (document == null) {
+            return;
+        }
+
+        removed.set(document);
+        removedCount++;
+        if (removedCount > documents.size() / 2) {
+            compact();
+        }
+    }
+
+    /**
+     * Returns the number of exercises currently in the index.
+     *
+     * @return the number of indexed exercises
+     */
+    public synchronized int size() {
+        return documents.size() - removedCount;
+    }
+
+    /**
+     * Searches exercise names and muscle groups, tolerating typos.
+     *
+     * @param query the text typed by the user
+     * @param limit the maximum number of results
+     * @return the matching exercises, best match first
+     */
+    public synchronized ArrayList<Exercise> search(String query, int limit) {
+        ArrayList<Exercise> results = new ArrayList<>();
+        String normalized = WorkoutParser.normalizeName(query);
+        if (normalized.isEmpty() || limit <= 0) {
+            return results;
+        }
+        String[] queryWords = normalized.split(" ");
+
+        // Collect the query's distinct trigrams
+        HashSet<Long> queryTrigrams = new HashSet<>();
+        for (String word : queryWords) {
+            for (long trigram : trigramsOf(word)) {
+                queryTrigrams.add(trigram);
+            }
+        }
+
+        // Count shared trigrams per document by walking only the matching posting lists
+        if (matchCounts.length < documents.size()) {
+            matchCounts = new int[Math.max(documents.size(), matchCounts.length * 2)];
+        }
+        touched.size = 0;
+        for (long trigram : queryTrigrams) {
+            IntList list = postings.get(trigram);
+            if (list == null) {
+                continue;
+            }
+            for (int i = 0; i < list.size; i++) {
+                int document = list.values[i];
+                if (matchCounts[document]++ == 0) {
+                    touched.add(document);
+                }
+            }
+        }
+
+        // Keep the documents with the most shared trigrams as candidates
+        int threshold = Math.max(1, (int) Math.ceil(queryTrigrams.size() * MIN_TRIGRAM_OVERLAP));
+        PriorityQueue<int[]> candidates = new PriorityQueue<>(MAX_CANDIDATES + 1,
+                (a, b) -> Integer.compare(a[1], b[1]));
+        for (int i = 0; i < touched.size; i++) {
+            int document = touched.values[i];
+            int count = matchCounts[document];
+            matchCounts[document] = 0;
+            if (count < threshold || removed.get(document)) {
+                continue;
+            }
+            if (candidates.size() < MAX_CANDIDATES) {
+                candidates.add(new int[]{document, count});
+            } else if (count > candidates.peek()[1]) {
+                candidates.poll();
+                candidates.add(new int[]{document, count});
+            }
+        }
+
+        // Re-rank the candidates by edit distance, breaking ties by trigram overlap
+        ArrayList<int[]> ranked = new ArrayList<>(candidates.size());
+        for (int[] candidate : candidates) {
+            ranked.add(new int[]{candidate[0], candidate[1], distance(queryWords, wordsOf(candidate[0]))});
+        }
+        Collections.sort(ranked, (a, b) -> a[2] != b[2] ? Integer.compare(a[2], b[2]) : Integer.compare(b[1], a[1]));
+
+        for (int i = 0; i < ranked.size() && results.size() < limit; i++) {
+            results.add(documents.get(ranked.get(i)[0]));
+        }
+        return results;
+    }
+
+    /**
+     * Rebuilds the index without the removed documents.
+     */
+    private void compact() {
+        ExerciseColumnStore live = new ExerciseColumnStore();
+        for (int document = 0; document < documents.size(); document++) {
+            if (!removed.get(document)) {
+                live.appendRow(documents, document);
+            }
+        }
+
+        documents = live;
+        documentByKey.clear();
+        postings.clear();
+        removed.clear();
+        removedCount = 0;
+
+        for (int document = 0; document < live.size(); document++) {
+            index(live.getKey(document), document);
+        }
+    }
+
+    /**
+     * Sums, over the query words, the edit distance to the closest exercise word. A query word is
+     * also compared against the equally long prefix of each exercise word, so partially typed words
+     * match well.
+     *
+     * @param queryWords    the normalized query words
+     * @param documentWords the normalized exercise words
+     * @return the total distance, lower is better
+     */
+    private static int distance(String[] queryWords, String[] documentWords) {
+        int total = 0;
+        for (String queryWord : queryWords) {
+            int best = queryWord.length();
+            for (String documentWord : documentWords) {
+                best = Math.min(best, levenshtein(queryWord, documentWord));
+                if (documentWord.length() > queryWord.length()) {
+                    best = Math.min(best, levenshtein(queryWord, documentWord.substring(0, queryWord.length())));
+                }
+            }
+            total += best;
+        }
+        return total;
+    }
+
+    /**
+     * Computes the Levenshtein edit distance between two strings using two rolling rows.
+     *
+     * @param a the first string
+     * @param b the second string
+     * @return the number of insertions, deletions and substitutions needed to turn a into b
+     */
+    static int levenshtein(String a, String b) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+
+    /**
+     * Splits a document's searchable text (name and muscle group) into normalized words.
+     *
+     * @param document the document's row
+     * @return the words of its name followed by the words of its muscle group
+     */
+    private String[] wordsOf(int document) {
+        String text = (WorkoutParser.normalizeName(documents.getName(document)) + " "
+                + WorkoutParser.normalizeName(documents.getMuscleGroup(document))).trim();
+        return text.isEmpty() ? new String[0] : text.split(" ");
+    }
+
+    /**
+     * Computes the padded trigrams of a single word, each packed into a long (16 bits per char).
+     *
+     * @param word the normalized word
+     * @return the word's trigrams
+     */
+    private static long[] trigramsOf(String word) {
+        String padded = "  " + word + " ";
+        long[] trigrams = new long[padded.length() - 2];
+        for (int i = 0; i < trigrams.length; i++) {
+            trigrams[i] = ((long) padded.charAt(i) << 32) | ((long) padded.charAt(i + 1) << 16) | padded.charAt(i + 2);
+        }
+        return trigrams;
+    }
+}
@@ -3,6 +3,8 @@ package com.example.getfit.util;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.BuildConfig;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreSettings;
+import com.google.firebase.firestore.PersistentCacheSettings;
 import com.firebase.ui.auth.AuthUI;
 
 /**
@@ -12,27 +14,52 @@ import com.firebase.ui.auth.AuthUI;
  * This class ensures that Firebase services are properly initialized and configured to connect
  * either to the Firebase Cloud services or to local Firebase Emulator instances (for development and testing).
  * </p>
+ * <p>
+ * Firestore keeps a persistent local cache of up to {@value #CACHE_SIZE_BYTES} bytes, so documents
+ * read once can be shown again without the network, and the reads of the app are counted in the
+ * {@link FirestoreReadMetrics} returned by {@link #getReadMetrics()}.
+ * </p>
  */
 public class FirebaseUtil {
 
+    /** The size of Firestore's local cache; the least recently used documents are evicted beyond it. */
+    static final long CACHE_SIZE_BYTES = 50L * 1024 * 1024;
+
     /** Flag to use emulators only in debug builds. */
-    private static final boolean sUseEmulators = false;
+    private static boolean sUseEmulators = false;
 
     // Firebase service instances
     private static FirebaseFirestore FIRESTORE;
     private static FirebaseAuth AUTH;
     private static AuthUI AUTH_UI;
+    private static final FirestoreReadMetrics READ_METRICS = new FirestoreReadMetrics();
+
+    /**
+     * Connects the Firebase services to the local Emulator Suite, for example in instrumented tests.
+     * Must be called before any of the services is first used.
+     */
+    public static void useEmulators() {
+        sUseEmulators = true;
+    }
 
     /**
      * Returns the instance of FirebaseFirestore. If not initialized, it creates a new instance.
-     * It also connects to the Firestore emulator if the flag sUseEmulators is true.
+     * It also connects to the Firestore emulator if the flag sUseEmulators is true, and sets up the
+     * persistent local cache.
      *
      * @return the FirebaseFirestore instance
      */
-    public static FirebaseFirestore getFirestore() {
+    public static synchronized FirebaseFirestore getFirestore() {
         if (FIRESTORE == null) {
             FIRESTORE = FirebaseFirestore.getInstance();
 
+            // Settings must be applied before the first read or write
+            FIRESTORE.setFirestoreSettings(new FirebaseFirestoreSettings.Builder(FIRESTORE.getFirestoreSettings())
+                    .setLocalCacheSettings(PersistentCacheSettings.newBuilder()
+                            .setSizeBytes(CACHE_SIZE_BYTES)
+                            .build())
+                    .build());
+
             // Connect to the Cloud Firestore emulator when appropriate
             if (sUseEmulators) {
                 FIRESTORE.useEmulator("10.0.2.2", 8080); // The IP 10.0.2.2 connects to localhost on Android Emulator
@@ -42,6 +69,16 @@ public class FirebaseUtil {
         return FIRESTORE;
     }
 
+    /**
+     * Returns the metrics of the app's Firestore reads: how many were served from the local cache
+     * and from the server, and how long they took.
+     *
+     * @return the read metrics
+     */
+    public static FirestoreReadMetrics getReadMetrics() {
+        return READ_METRICS;
+    }
+
     /**
      * Returns the instance of FirebaseAuth. If not initialized, it creates a new instance.
      * It also connects to the Firebase Auth emulator if the flag sUseEmulators is true.
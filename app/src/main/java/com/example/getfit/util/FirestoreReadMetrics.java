@@ -0,0 +1,86 @@
+package com.example.getfit.util;
+
+import java.util.Locale;
+
+/**
+ * The {@link FirestoreReadMetrics} count the Firestore reads of the app by where they were served
+ * from, the local cache or the server, and how long each took, so the effect of reading from the
+ * cache first can be measured.
+ * <p>
+ * A read is timed from the moment it was issued, for example attaching a snapshot listener, to the
+ * moment its data arrived. A cache-first read usually records twice: once when the cached data is
+ * shown and once when the server confirms or corrects it.
+ * </p>
+ */
+public class FirestoreReadMetrics {
+
+    private static final int CACHE = 0;
+    private static final int SERVER = 1;
+
+    // All guarded by this, indexed by CACHE and SERVER
+    private final int[] counts = new int[2];
+    private final long[] totalMillis = new long[2];
+    private final long[] maxMillis = new long[2];
+
+    /**
+     * Records a read.
+     *
+     * @param fromCache     true if the data came from the local cache, false if from the server
+     * @param latencyMillis how long the read took
+     */
+    public synchronized void record(boolean fromCache, long latencyMillis) {
+        int source = fromCache ? CACHE : SERVER;
+        counts[source]++;
+        totalMillis[source] += latencyMillis;
+        maxMillis[source] = Math.max(maxMillis[source], latencyMillis);
+    }
+
+    /**
+     * Returns the number of reads served from one source.
+     *
+     * @param fromCache true for the local cache, false for the server
+     * @return the number of reads
+     */
+    public synchronized int getReadCount(boolean fromCache) {
+        return counts[fromCache ? CACHE : SERVER];
+    }
+
+    /**
+     * Returns the average latency of the reads served from one source.
+     *
+     * @param fromCache true for the local cache, false for the server
+     * @return the average latency in milliseconds, 0 if there were no such reads
+     */
+    public synchronized double getAverageLatencyMillis(boolean fromCache) {
+        int source = fromCache ? CACHE : SERVER;
+        return counts[source] == 0 ? 0 : (double) totalMillis[source] / counts[source];
+    }
+
+    /**
+     * Returns the longest latency of the reads served from one source.
+     *
+     * @param fromCache true for the local cache, false for the server
+     * @return the longest latency in milliseconds, 0 if there were no such reads
+     */
+    public synchronized long getMaxLatencyMillis(boolean fromCache) {
+        return maxMillis[fromCache ? CACHE : SERVER];
+    }
+
+    /**
+     * Forgets all reads recorded so far.
+     */
+    public synchronized void reset() {
+        for (int source = CACHE; source <= SERVER; source++) {
+            counts[source] = 0;
+            totalMillis[source] = 0;
+            maxMillis[source] = 0;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "cache: %d reads, %.1f ms avg, %d ms max; server: %d reads, %.1f ms avg, %d ms max",
+                counts[CACHE], getAverageLatencyMillis(true), maxMillis[CACHE],
+                counts[SERVER], getAverageLatencyMillis(false), maxMillis[SERVER]);
+    }
+}
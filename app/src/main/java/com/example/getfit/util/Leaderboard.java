@@ -0,0 +1,579 @@
+package com.example.getfit.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.example.getfit.models.User;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.MetadataChanges;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link Leaderboard} lets users compete on points: it publishes the signed in user's total to
+ * Firestore and follows the users with the most points.
+ * <p>
+ * Each user has a small document in the {@value #COLLECTION} collection holding only a display name
+ * and the point total, so the board query reads neither the user documents nor anyone's stats.
+ * Writes are debounced as in {@link StatsSync}: the first points event after a write schedules the
+ * next one {@value #DEBOUNCE_MS} ms later, and only if the total or the name changed.
+ * </p>
+ * <p>
+ * The board is the top {@value #DEFAULT_SIZE} of one query ordered by points and limited to that
+ * size. A snapshot listener keeps it up to date only while a screen shows it, and each snapshot
+ * is applied to the cached board as moves, insertions and removals, so the query is never run
+ * again to refresh it. The board is stored in SharedPreferences after every change and shown from
+ * there when the app starts.
+ * </p>
+ * <p>
+ * Reads are bounded per day: every document the server sends counts against
+ * {@value #READS_PER_DAY} reads, the whole board when a listener starts and each changed entry
+ * after that. Once the budget is spent the listener is removed and the cached board is shown
+ * until the next day, so one user costs at most that many reads a day however long the board is
+ * watched.
+ * </p>
+ */
+public class Leaderboard implements StatsJournal.EventListener {
+
+    private static final String TAG = "Leaderboard";
+    private static final String PREFS_NAME = "leaderboardPrefs";
+    private static final String KEY_BOARD = "board";
+    private static final String KEY_READ_DAY = "readDay";
+    private static final String KEY_READS = "reads";
+    static final String COLLECTION = "leaderboard";
+    static final String FIELD_NAME = "name";
+    static final String FIELD_POINTS = "points";
+    public static final int DEFAULT_SIZE = 10;
+    static final long DEBOUNCE_MS = 60_000;
+    static final int READS_PER_DAY = 100;
+
+    private static Leaderboard instance;
+
+    /**
+     * One user's place on the board.
+     */
+    public static final class Entry {
+        private final String uid;
+        private final String name;
+        private final long points;
+
+        public Entry(String uid, String name, long points) {
+            this.uid = uid;
+            this.name = name;
+            this.points = points;
+        }
+
+        public String getUid() {
+            return uid;
+        }
+
+        /**
+         * Returns the name the user is shown with.
+         *
+         * @return the name, or null if the user's profile wasn't loaded when the points were published
+         */
+        public String getName() {
+            return name;
+        }
+
+        public long getPoints() {
+            return points;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry entry = (Entry) o;
+            return points == entry.points && Objects.equals(uid, entry.uid) && Objects.equals(name, entry.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(uid, name, points);
+        }
+    }
+
+    /**
+     * Listener notified with the whole board whenever it changes, on a background thread.
+     */
+    public interface OnBoardChangedListener {
+        void onBoardChanged(List<Entry> board);
+    }
+
+    private final UserManager userManager;
+    private final FirebaseFirestore db;
+    private final SharedPreferences sharedPreferences;
+    private final StatsClock clock;
+    private final ScheduledExecutorService executor;
+    private final int size;
+    private final long debounceMs;
+    private final int readsPerDay;
+    private final Gson gson = new Gson();
+    private final CopyOnWriteArrayList<OnBoardChangedListener> listeners = new CopyOnWriteArrayList<>();
+
+    // All guarded by this
+    private StatsTotals totals;
+    // The journal whose points events trigger writes; only changed on the executor
+    private StatsJournal journal;
+    private String uid;
+    private ScheduledFuture<?> pendingWrite;
+    private Entry lastWritten;
+    private int writeCount;
+    private ListenerRegistration registration;
+    private boolean firstSnapshot;
+    private boolean firstServerSnapshot;
+    private final ArrayList<Entry> board = new ArrayList<>();
+    private int readDay;
+    private int reads;
+
+    // An unmodifiable copy of the board, for readers on any thread
+    private volatile List<Entry> currentBoard = Collections.emptyList();
+
+    /**
+     * Creates a leaderboard that isn't attached to any user yet, showing the board stored in the
+     * preferences. Package-private so tests can use their own stores and limits; the app uses
+     * {@link #getInstance(Context)}.
+     *
+     * @param totals            the totals the published points are read from, until a partition is followed
+     * @param userManager       the user manager the published name is read from
+     * @param db                the Firestore instance holding the leaderboard
+     * @param sharedPreferences the preferences the board and the day's reads are stored in
+     * @param clock             the clock that decides when a new day's reads start
+     * @param executor          the thread writes are scheduled and snapshots delivered on
+     * @param size              the number of users on the board
+     * @param debounceMs        how long changes are collected before they are written
+     * @param readsPerDay       the number of documents the board may read from the server a day
+     */
+    Leaderboard(StatsTotals totals, UserManager userManager, FirebaseFirestore db, SharedPreferences sharedPreferences,
+                StatsClock clock, ScheduledExecutorService executor, int size, long debounceMs, int readsPerDay) {
+        this.totals = totals;
+        this.userManager = userManager;
+        this.db = db;
+        this.sharedPreferences = sharedPreferences;
+        this.clock = clock;
+        this.executor = executor;
+        this.size = size;
+        this.debounceMs = debounceMs;
+        this.readsPerDay = readsPerDay;
+
+        readDay = sharedPreferences.getInt(KEY_READ_DAY, StatsCounters.NO_DAY);
+        reads = sharedPreferences.getInt(KEY_READS, 0);
+        List<Entry> stored = decodeBoard(sharedPreferences.getString(KEY_BOARD, null));
+        board.addAll(stored.subList(0, Math.min(size, stored.size())));
+        currentBoard = Collections.unmodifiableList(new ArrayList<>(board));
+    }
+
+    /**
+     * Creates the single daemon thread totals are written and board snapshots delivered on.
+     *
+     * @return the leaderboard executor
+     */
+    static ScheduledExecutorService newLeaderboardThread() {
+        return Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "leaderboard");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Singleton pattern so the app publishes one total and runs one board query. The leaderboard
+     * follows the signed in user's {@link StatsPartitions.Partition}: it publishes that user's
+     * points from sign in until sign out.
+     *
+     * @param context the context used to open the preferences and the stats partitions
+     * @return the singleton instance of Leaderboard
+     */
+    public static synchronized Leaderboard getInstance(Context context) {
+        if (instance == null) {
+            Context appContext = context.getApplicationContext();
+            final Leaderboard leaderboard = new Leaderboard(null, UserManager.getInstance(appContext),
+                    FirebaseUtil.getFirestore(), appContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE),
+                    StatsClock.getInstance(appContext), newLeaderboardThread(), DEFAULT_SIZE, DEBOUNCE_MS,
+                    READS_PER_DAY);
+            StatsPartitions.getInstance(appContext).addOnPartitionChangedListener(leaderboard::follow);
+            instance = leaderboard;
+        }
+        return instance;
+    }
+
+    /**
+     * Publishes the points of another user's partition from now on. The previous user's pending
+     * points are written first. The partition is opened in the background, on the executor.
+     *
+     * @param partition the signed in user's partition
+     */
+    void follow(StatsPartitions.Partition partition) {
+        executor.execute(() -> {
+            if (partition.isEvicted()) {
+                // The user switched again since, and the partition that replaced it is followed next
+                return;
+            }
+            StatsJournal next = partition.getJournal();
+            StatsTotals nextTotals = partition.getTotals();
+            StatsJournal previous;
+            synchronized (Leaderboard.this) {
+                flush();
+                previous = journal;
+                journal = next;
+                totals = nextTotals;
+                attach(partition.getUid());
+            }
+            // Outside this lock, which the journal takes while delivering events
+            if (previous != null) {
+                previous.removeListener(this);
+            }
+            // Only events appended from now on; attaching already scheduled a write
+            next.addListener(this, Integer.MAX_VALUE);
+        });
+    }
+
+    /**
+     * Starts publishing a user's points, or stops when no user is signed in.
+     *
+     * @param uid the signed in user's id, or null
+     */
+    public synchronized void attach(String uid) {
+        if (uid == null ? this.uid == null : uid.equals(this.uid)) {
+            return;
+        }
+        if (pendingWrite != null) {
+            pendingWrite.cancel(false);
+            pendingWrite = null;
+        }
+        this.uid = uid;
+        lastWritten = null;
+        if (uid != null) {
+            // Points earned while signed out or before the app was killed
+            scheduleWrite();
+        }
+    }
+
+    /**
+     * Schedules a write of the user's points when they change.
+     */
+    @Override
+    public void onEvent(int type, long timeMillis, int epochDay, int amount, long subject, int detail) {
+        if (type == StatsJournal.EVENT_POINTS || type == StatsJournal.EVENT_POINTS_REMOVED) {
+            scheduleWrite();
+        }
+    }
+
+    /**
+     * Writes the user's points now instead of at the end of the debounce delay.
+     *
+     * @return a Task that completes when the write is acknowledged, or right away if nothing changed
+     */
+    public synchronized Task<Void> flush() {
+        if (pendingWrite != null) {
+            pendingWrite.cancel(false);
+            pendingWrite = null;
+        }
+        return write();
+    }
+
+    /**
+     * Returns the cached board, best first. It may be from an earlier day when the day's reads are
+     * spent or the device is offline.
+     *
+     * @return the board, at most {@value #DEFAULT_SIZE} entries unless the size was changed
+     */
+    public List<Entry> getBoard() {
+        return currentBoard;
+    }
+
+    /**
+     * Registers a listener and delivers the cached board to it right away. The board is only kept
+     * up to date while at least one listener is registered, so screens add theirs in
+     * {@code onResume} and remove it in {@code onPause}.
+     *
+     * @param listener the listener to add
+     */
+    public void addOnBoardChangedListener(OnBoardChangedListener listener) {
+        listeners.add(listener);
+        listener.onBoardChanged(currentBoard);
+        synchronized (this) {
+            startListening();
+        }
+    }
+
+    /**
+     * Unregisters a listener. When the last one is gone the board stops following the server.
+     *
+     * @param listener the listener to remove
+     */
+    public void removeOnBoardChangedListener(OnBoardChangedListener listener) {
+        listeners.remove(listener);
+        synchronized (this) {
+            if (listeners.isEmpty()) {
+                stopListening();
+            }
+        }
+    }
+
+    /**
+     * Checks whether the board follows the server, that is, whether a screen shows it and the day's
+     * reads aren't spent.
+     *
+     * @return true if a snapshot listener is attached
+     */
+    public synchronized boolean isLive() {
+        return registration != null;
+    }
+
+    /**
+     * Returns the number of documents read from the server today.
+     *
+     * @return the number of reads
+     */
+    synchronized int getReadsToday() {
+        return clock.today() == readDay ? reads : 0;
+    }
+
+    /**
+     * Returns the number of writes sent so far.
+     *
+     * @return the number of writes
+     */
+    synchronized int getWriteCount() {
+        return writeCount;
+    }
+
+    /**
+     * Applies one change of the board query to a board, at the positions the snapshot reports.
+     *
+     * @param board    the board as of the previous snapshot
+     * @param type     what happened to the entry
+     * @param oldIndex the entry's position in the previous snapshot, -1 if it was added
+     * @param newIndex the entry's position in this snapshot, -1 if it was removed
+     * @param entry    the entry as of this snapshot
+     */
+    static void applyChange(List<Entry> board, DocumentChange.Type type, int oldIndex, int newIndex, Entry entry) {
+        switch (type) {
+            case ADDED:
+                board.add(newIndex, entry);
+                break;
+            case MODIFIED:
+                if (oldIndex == newIndex) {
+                    board.set(newIndex, entry);
+                } else {
+                    board.remove(oldIndex);
+                    board.add(newIndex, entry);
+                }
+                break;
+            case REMOVED:
+                board.remove(oldIndex);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Returns the documents a snapshot of the board query is billed for. The first snapshot from
+     * the server after a listener starts may read the whole result; later ones only the changed
+     * entries. A query always costs at least one read, even when it matches nothing.
+     *
+     * @param first    whether this is the first snapshot from the server since the listener started
+     * @param size     the number of entries in the snapshot
+     * @param changes  the number of changed entries in the snapshot
+     * @return the number of reads
+     */
+    static int billedReads(boolean first, int size, int changes) {
+        return first ? Math.max(1, size) : changes;
+    }
+
+    /**
+     * Encodes a board for the preferences.
+     */
+    String encodeBoard(List<Entry> board) {
+        return gson.toJson(board);
+    }
+
+    /**
+     * Decodes a board stored by {@link #encodeBoard(List)}.
+     *
+     * @return the board, empty if nothing or something unreadable was stored
+     */
+    List<Entry> decodeBoard(String json) {
+        if (json == null) {
+            return Collections.emptyList();
+        }
+        try {
+            List<Entry> decoded = gson.fromJson(json, new TypeToken<List<Entry>>() {}.getType());
+            return decoded != null ? decoded : Collections.<Entry>emptyList();
+        } catch (JsonParseException e) {
+            // The next snapshot stores a new one
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Schedules a write at the end of the debounce delay, unless one is scheduled already.
+     */
+    private synchronized void scheduleWrite() {
+        if (uid != null && pendingWrite == null) {
+            pendingWrite = executor.schedule(() -> {
+                synchronized (Leaderboard.this) {
+                    pendingWrite = null;
+                    write();
+                }
+            }, debounceMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Merges the user's name and points into their leaderboard document if either changed since
+     * the last write.
+     */
+    private Task<Void> write() {
+        if (uid == null) {
+            return Tasks.forResult(null);
+        }
+        User user = userManager.getCurrentUser();
+        Entry entry = new Entry(uid, user != null ? user.getName() : null, totals.getTotalPoints());
+        if (entry.equals(lastWritten)) {
+            return Tasks.forResult(null);
+        }
+        lastWritten = entry;
+        writeCount++;
+
+        Map<String, Object> data = new HashMap<>();
+        data.put(FIELD_POINTS, entry.getPoints());
+        if (entry.getName() != null) {
+            data.put(FIELD_NAME, entry.getName());
+        }
+        final String writtenUid = uid;
+        return db.collection(COLLECTION).document(writtenUid).set(data, SetOptions.merge())
+                .addOnFailureListener(e -> {
+                    Log.w(TAG, "Failed to publish points", e);
+                    synchronized (Leaderboard.this) {
+                        // Try again with the next change
+                        if (writtenUid.equals(uid)) {
+                            lastWritten = null;
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Attaches the board listener if a screen shows the board and the day's reads allow it.
+     */
+    private void startListening() {
+        if (registration != null || listeners.isEmpty() || !hasReadsLeft()) {
+            return;
+        }
+        firstSnapshot = true;
+        firstServerSnapshot = true;
+        Query query = db.collection(COLLECTION).orderBy(FIELD_POINTS, Query.Direction.DESCENDING).limit(size);
+        final ListenerRegistration[] attached = new ListenerRegistration[1];
+        // Include metadata changes to learn when the server confirms a board served from the cache,
+        // which is billed like any other first server snapshot
+        attached[0] = query.addSnapshotListener(executor, MetadataChanges.INCLUDE,
+                (snapshot, error) -> onSnapshot(attached[0], snapshot, error));
+        registration = attached[0];
+    }
+
+    private void stopListening() {
+        if (registration != null) {
+            registration.remove();
+            registration = null;
+        }
+    }
+
+    /**
+     * Starts a new day's reads if the day changed, and checks whether any are left.
+     */
+    private boolean hasReadsLeft() {
+        int today = clock.today();
+        if (today != readDay) {
+            readDay = today;
+            reads = 0;
+        }
+        return reads < readsPerDay;
+    }
+
+    /**
+     * Applies a snapshot of the board query to the cached board and counts the reads it cost.
+     */
+    private synchronized void onSnapshot(ListenerRegistration from, QuerySnapshot snapshot,
+                                         FirebaseFirestoreException error) {
+        if (error != null) {
+            Log.w(TAG, "Listening to the leaderboard failed", error);
+            return;
+        }
+        if (from != registration || snapshot == null) {
+            // A listener that was already removed
+            return;
+        }
+        boolean first = firstSnapshot;
+        if (firstSnapshot) {
+            // The first snapshot lists the whole board as added
+            board.clear();
+            firstSnapshot = false;
+        }
+        List<DocumentChange> changes = snapshot.getDocumentChanges();
+        for (DocumentChange change : changes) {
+            applyChange(board, change.getType(), change.getOldIndex(), change.getNewIndex(), toEntry(change.getDocument()));
+        }
+        boolean billed = false;
+        if (!snapshot.getMetadata().isFromCache() && !snapshot.getMetadata().hasPendingWrites()) {
+            hasReadsLeft();
+            int billedReads = billedReads(firstServerSnapshot, snapshot.size(), changes.size());
+            reads += billedReads;
+            billed = billedReads > 0;
+            firstServerSnapshot = false;
+            if (reads >= readsPerDay) {
+                Log.i(TAG, "Read " + reads + " leaderboard entries today, showing the cached board until tomorrow");
+                stopListening();
+            }
+        }
+        if (!first && changes.isEmpty() && !billed) {
+            // Only the metadata changed, so there is nothing to store or show
+            return;
+        }
+
+        currentBoard = Collections.unmodifiableList(new ArrayList<>(board));
+        sharedPreferences.edit()
+                .putString(KEY_BOARD, encodeBoard(currentBoard))
+                .putInt(KEY_READ_DAY, readDay)
+                .putInt(KEY_READS, reads)
+                .apply();
+        for (OnBoardChangedListener listener : listeners) {
+            listener.onBoardChanged(currentBoard);
+        }
+    }
+
+    private static Entry toEntry(DocumentSnapshot document) {
+        Long points = document.getLong(FIELD_POINTS);
+        return new Entry(document.getId(), document.getString(FIELD_NAME), points != null ? points : 0);
+    }
+}
@@ -107,9 +107,13 @@ public class MenuParser {
                         JSONObject menuItemObject = menuItemsArray.getJSONObject(j);
                         String name = menuItemObject.getString("name");
                         int totalCal = menuItemObject.getInt("totalCal");
+                        // Not every item reports its macros; missing values count as 0
+                        int totalProtein = menuItemObject.optInt("totalProtein", 0);
+                        int totalCarbs = menuItemObject.optInt("totalCarbs", 0);
+                        int totalFat = menuItemObject.optInt("totalFat", 0);
 
                         // Create MenuItem object and add to the list
-                        MenuItem menuItem = new MenuItem(name, totalCal);
+                        MenuItem menuItem = new MenuItem(name, totalCal, totalProtein, totalCarbs, totalFat);
                         menuItems.add(menuItem);
                     }
                 }
@@ -0,0 +1,226 @@
+package com.example.getfit.util;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The {@link PointsEngine} awards points by evaluating {@link PointsRule}s against the stats events
+ * of the {@link StatsJournal}, so the screens only record what the user did and never decide how
+ * many points it is worth.
+ * <p>
+ * The rules are compiled once into a table indexed by event type. An event recorded through
+ * {@link #record(int, int, long, int)} is looked up in that table and only the rules it triggers
+ * are evaluated, so the cost of an event is the number of rules matching its type. Rules with a
+ * condition ask the {@link Conditions}, for example whether a day's calories are in the goal range.
+ * </p>
+ * <p>
+ * Day-end rules are evaluated for the last day with events once a later day has started, as soon
+ * as the first event of that day reaches the journal, however it was appended. Their points are
+ * awarded on the new day, with the finished day as the subject, and the journal delivers them to
+ * its listeners only after that first event. Days that already ended when the journal is replayed
+ * are not evaluated again.
+ * </p>
+ * <p>
+ * Awards are ordinary points events. The engine also listens to the journal to count each day's
+ * awards per reason, which enforces {@link PointsRule#maxPerDay(int)} and is rebuilt by replaying
+ * the journal after a restart. Rules that pay once per subject go through the {@link PointsLedger}.
+ * The engine's state is only touched while the journal's lock is held, so an event and the
+ * awards it triggers are appended as one atomic step.
+ * </p>
+ */
+public class PointsEngine implements StatsJournal.EventListener {
+
+    private static final int NO_DAY = StatsCounters.NO_DAY;
+
+    /**
+     * Answers the conditions rules can require.
+     */
+    public interface Conditions {
+        /**
+         * Checks whether calories are within the user's daily calorie goal range.
+         *
+         * @param calories the calories of a day
+         * @return true if they are within the range
+         */
+        boolean isWithinCalorieGoalRange(int calories);
+    }
+
+    private final StatsJournal journal;
+    private final StatsTotals totals;
+    private final PointsLedger ledger;
+    private final Conditions conditions;
+    // The rules of each trigger, indexed by event type
+    private final PointsRule[][] rulesByTrigger;
+
+    // Guarded by the journal's lock
+    private int day = NO_DAY;
+    private final int[] awardsByReason;
+    // False while the journal is replayed, so finished days don't earn their points again
+    private boolean live;
+
+    /**
+     * Compiles the rules and keeps the engine up to date with the journal's events.
+     *
+     * @param journal    the journal events and awards are appended to
+     * @param totals     the totals of that journal, which conditions on calories are checked against
+     * @param ledger     the ledger of that journal, for rules that pay once per subject
+     * @param rules      the rules, each with its own reason
+     * @param conditions answers the conditions of the rules
+     * @throws IllegalArgumentException if a trigger or reason is negative, or two rules share a reason
+     */
+    public PointsEngine(StatsJournal journal, StatsTotals totals, PointsLedger ledger, List<PointsRule> rules,
+                        Conditions conditions) {
+        this.journal = journal;
+        this.totals = totals;
+        this.ledger = ledger;
+        this.conditions = conditions;
+        this.rulesByTrigger = compile(rules);
+
+        int maxReason = 0;
+        for (PointsRule rule : rules) {
+            maxReason = Math.max(maxReason, rule.reason);
+        }
+        awardsByReason = new int[maxReason + 1];
+        synchronized (journal) {
+            journal.addListener(this);
+            live = true;
+        }
+    }
+
+    /**
+     * Appends an event and awards the points of the rules it triggers. If this is the first event
+     * of a new day, the day-end rules of the previous day are evaluated as it is appended.
+     *
+     * @param type    one of the {@code StatsJournal.EVENT_} constants
+     * @param amount  the event's amount
+     * @param subject what the event is about, for example an exercise id, or 0
+     * @param detail  the event's detail
+     * @return the points the event's rules awarded, not counting those of the previous day
+     */
+    public int record(int type, int amount, long subject, int detail) {
+        synchronized (journal) {
+            journal.append(type, amount, subject, detail);
+            return evaluate(type, subject, day);
+        }
+    }
+
+    /**
+     * Counts each day's awards per reason, and evaluates the day-end rules of the previous day
+     * when the first event of a new day is appended. Called under the journal's lock.
+     */
+    @Override
+    public void onEvent(int type, long timeMillis, int epochDay, int amount, long subject, int detail) {
+        if (epochDay != day) {
+            int finished = day;
+            day = epochDay;
+            Arrays.fill(awardsByReason, 0);
+            if (live && finished != NO_DAY) {
+                // The journal holds the awards back until every listener saw this event
+                evaluate(PointsRule.TRIGGER_DAY_END, finished, finished);
+            }
+        }
+        switch (type) {
+            case StatsJournal.EVENT_POINTS:
+                if (detail >= 0 && detail < awardsByReason.length) {
+                    awardsByReason[detail]++;
+                }
+                break;
+            case StatsJournal.EVENT_POINTS_REMOVED:
+                // Like the ledger, a reset lets the day's awards be earned again
+                Arrays.fill(awardsByReason, 0);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Returns the rules an event type triggers, in the order they were declared.
+     */
+    PointsRule[] rulesFor(int trigger) {
+        return trigger < rulesByTrigger.length ? rulesByTrigger[trigger] : new PointsRule[0];
+    }
+
+    /**
+     * Awards the points of the rules a trigger matches. The caller holds the journal's lock.
+     *
+     * @param trigger    the event type, or {@link PointsRule#TRIGGER_DAY_END}
+     * @param subject    the subject of the event
+     * @param calorieDay the day conditions on calories are checked for
+     */
+    private int evaluate(int trigger, long subject, int calorieDay) {
+        if (trigger >= rulesByTrigger.length) {
+            return 0;
+        }
+        int points = 0;
+        for (PointsRule rule : rulesByTrigger[trigger]) {
+            if (awardsToday(rule.reason) >= rule.maxPerDay || !holds(rule.condition, calorieDay)) {
+                continue;
+            }
+            if (rule.oncePerSubject) {
+                if (ledger.award(rule.points, rule.reason, subject)) {
+                    points += rule.points;
+                }
+            } else {
+                journal.append(StatsJournal.EVENT_POINTS, rule.points, subject, rule.reason);
+                points += rule.points;
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Returns the awards of a reason today; none if no event was appended today yet.
+     */
+    private int awardsToday(int reason) {
+        return day == journal.getClock().today() ? awardsByReason[reason] : 0;
+    }
+
+    private boolean holds(int condition, int calorieDay) {
+        switch (condition) {
+            case PointsRule.CONDITION_NONE:
+                return true;
+            case PointsRule.CONDITION_CALORIES_IN_GOAL_RANGE:
+                // A day without logged meals says nothing about the diet, even if the range starts at 0
+                int calories = totals.getCalories(calorieDay);
+                return calories > 0 && conditions.isWithinCalorieGoalRange(calories);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Builds the table of rules per trigger.
+     */
+    private static PointsRule[][] compile(List<PointsRule> rules) {
+        int maxTrigger = PointsRule.TRIGGER_DAY_END;
+        boolean[] reasons = new boolean[0];
+        for (PointsRule rule : rules) {
+            if (rule.trigger < 0 || rule.reason < 0) {
+                throw new IllegalArgumentException("Negative trigger or reason: " + rule);
+            }
+            if (rule.reason >= reasons.length) {
+                reasons = Arrays.copyOf(reasons, rule.reason + 1);
+            }
+            if (reasons[rule.reason]) {
+                throw new IllegalArgumentException("Two rules share the reason of " + rule);
+            }
+            reasons[rule.reason] = true;
+            maxTrigger = Math.max(maxTrigger, rule.trigger);
+        }
+
+        int[] counts = new int[maxTrigger + 1];
+        for (PointsRule rule : rules) {
+            counts[rule.trigger]++;
+        }
+        PointsRule[][] table = new PointsRule[maxTrigger + 1][];
+        for (int trigger = 0; trigger <= maxTrigger; trigger++) {
+            table[trigger] = new PointsRule[counts[trigger]];
+            counts[trigger] = 0;
+        }
+        for (PointsRule rule : rules) {
+            table[rule.trigger][counts[rule.trigger]++] = rule;
+        }
+        return table;
+    }
+}
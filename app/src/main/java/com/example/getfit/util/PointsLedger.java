@@ -0,0 +1,224 @@
+package com.example.getfit.util;
+
+import android.content.Context;
+
+import java.util.Arrays;
+
+/**
+ * The {@link PointsLedger} makes point awards idempotent: an award for the same reason and subject
+ * is granted at most once per day, no matter how often the screen that grants it is recreated or
+ * tapped.
+ * <p>
+ * Each award is identified by a key derived from its reason and subject. The keys of the current
+ * day are kept in a compact open-addressing set of longs, so a duplicate is rejected in O(1)
+ * without touching the journal. Since the journal's days never go backwards, only the latest
+ * day's keys are kept; they are rebuilt by replaying the journal when the app starts. A points
+ * reset clears them, so awards can be earned again afterwards.
+ * </p>
+ * <p>
+ * Granted awards are ordinary points events, so {@link StatsTotals} counts them like any other
+ * points and the total never has to be reconciled with the ledger. The set is only touched while
+ * the journal's lock is held, which makes checking for a duplicate and appending the award one
+ * atomic step.
+ * </p>
+ */
+public class PointsLedger implements StatsJournal.EventListener {
+
+    private final StatsJournal journal;
+    // Guarded by the journal's lock
+    private int day = StatsCounters.NO_DAY;
+    private final LongHashSet awarded = new LongHashSet();
+
+    /**
+     * Creates a ledger over a journal and keeps it up to date with the journal's events.
+     *
+     * @param journal the journal awards are appended to
+     */
+    public PointsLedger(StatsJournal journal) {
+        this.journal = journal;
+        journal.addListener(this);
+    }
+
+    /**
+     * Returns the ledger of the signed in user, so every award of that user goes through the same
+     * ledger.
+     *
+     * @param context the context used to open the journal
+     * @return the signed in user's PointsLedger
+     */
+    public static PointsLedger getInstance(Context context) {
+        return StatsPartitions.getInstance(context).current().getLedger();
+    }
+
+    /**
+     * Awards points unless the same award was already granted today.
+     *
+     * @param points  the number of points to award
+     * @param reason  one of the {@code StatsJournal.REASON_} constants
+     * @param subject what the points are awarded for, for example an exercise id, or 0
+     * @return true if the points were awarded, false if this award was already granted today
+     */
+    public boolean award(int points, int reason, long subject) {
+        synchronized (journal) {
+            if (isAwardedToday(reason, subject)) {
+                return false;
+            }
+            journal.append(StatsJournal.EVENT_POINTS, points, subject, reason);
+            return true;
+        }
+    }
+
+    /**
+     * Checks whether an award was already granted today.
+     *
+     * @param reason  one of the {@code StatsJournal.REASON_} constants
+     * @param subject what the points are awarded for, or 0
+     * @return true if the award was granted today
+     */
+    public boolean isAwarded(int reason, long subject) {
+        synchronized (journal) {
+            return isAwardedToday(reason, subject);
+        }
+    }
+
+    /**
+     * Records the awards of each points event. Called under the journal's lock.
+     */
+    @Override
+    public void onEvent(int type, long timeMillis, int epochDay, int amount, long subject, int detail) {
+        if (epochDay != day) {
+            day = epochDay;
+            awarded.clear();
+        }
+        switch (type) {
+            case StatsJournal.EVENT_POINTS:
+                awarded.add(keyOf(detail, subject));
+                break;
+            case StatsJournal.EVENT_POINTS_REMOVED:
+                awarded.clear();
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Looks the award up in today's keys. The caller holds the journal's lock.
+     */
+    private boolean isAwardedToday(int reason, long subject) {
+        // A day after the latest event has no awards yet
+        return journal.getClock().today() <= day && awarded.contains(keyOf(reason, subject));
+    }
+
+    /**
+     * Derives the key of an award. The day isn't part of the key since each day has its own keys.
+     */
+    static long keyOf(int reason, long subject) {
+        // MurmurHash3's 64-bit finalizer spreads reason and subject over all bits
+        long key = subject * 0x9E3779B97F4A7C15L + reason;
+        key ^= key >>> 33;
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= key >>> 33;
+        key *= 0xC4CEB9FE1A85EC53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    /**
+     * A set of longs in one array with linear probing. 0 marks an empty slot, so the key 0 is
+     * tracked separately.
+     */
+    static final class LongHashSet {
+        private static final int INITIAL_CAPACITY = 16;
+
+        private long[] slots = new long[INITIAL_CAPACITY];
+        private int size;
+        private boolean containsZero;
+
+        /**
+         * Adds a key.
+         *
+         * @param key the key
+         * @return true if the key wasn't in the set yet
+         */
+        boolean add(long key) {
+            if (key == 0) {
+                boolean added = !containsZero;
+                containsZero = true;
+                return added;
+            }
+            int mask = slots.length - 1;
+            int slot = (int) key & mask;
+            while (slots[slot] != 0) {
+                if (slots[slot] == key) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = key;
+            // Keep the table at most half full so probe sequences stay short
+            if (++size * 2 > slots.length) {
+                grow();
+            }
+            return true;
+        }
+
+        /**
+         * Checks whether a key is in the set.
+         *
+         * @param key the key
+         * @return true if the key was added since the last clear
+         */
+        boolean contains(long key) {
+            if (key == 0) {
+                return containsZero;
+            }
+            int mask = slots.length - 1;
+            int slot = (int) key & mask;
+            while (slots[slot] != 0) {
+                if (slots[slot] == key) {
+                    return true;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return false;
+        }
+
+        /**
+         * Removes all keys, giving back the memory of an unusually busy day.
+         */
+        void clear() {
+            if (slots.length > INITIAL_CAPACITY) {
+                slots = new long[INITIAL_CAPACITY];
+            } else {
+                Arrays.fill(slots, 0);
+            }
+            size = 0;
+            containsZero = false;
+        }
+
+        /**
+         * Returns the number of keys in the set.
+         *
+         * @return the number of keys
+         */
+        int size() {
+            return size + (containsZero ? 1 : 0);
+        }
+
+        private void grow() {
+            long[] old = slots;
+            slots = new long[old.length * 2];
+            int mask = slots.length - 1;
+            for (long key : old) {
+                if (key != 0) {
+                    int slot = (int) key & mask;
+                    while (slots[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    slots[slot] = key;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.getfit.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link PointsRule} declares when points are awarded: the event that triggers it, the points,
+ * an optional condition and how often it may pay out. Rules are plain data; the
+ * {@link PointsEngine} compiles a list of them into a table indexed by event type.
+ * <p>
+ * The app's rules are {@link #DEFAULT_RULES}. To change how points are earned, change that list
+ * rather than the screens that record the events.
+ * </p>
+ */
+public final class PointsRule {
+
+    /** Pseudo event type of rules evaluated once for a finished day, when the next day starts. */
+    public static final int TRIGGER_DAY_END = 0;
+
+    // Conditions a rule can require
+    public static final int CONDITION_NONE = 0;
+    public static final int CONDITION_CALORIES_IN_GOAL_RANGE = 1;
+
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    /**
+     * The points of the app: 20 for the daily check-in, 1 for each exercise completed (once per
+     * exercise and day), and 30 for a day that ended with logged calories inside the goal range.
+     */
+    public static final List<PointsRule> DEFAULT_RULES = Collections.unmodifiableList(Arrays.asList(
+            on(StatsJournal.EVENT_CHECK_IN, 20, StatsJournal.REASON_CHECK_IN).maxPerDay(1),
+            on(StatsJournal.EVENT_WORKOUT, 1, StatsJournal.REASON_EXERCISE).oncePerSubject(),
+            on(TRIGGER_DAY_END, 30, StatsJournal.REASON_DINING_GOAL).when(CONDITION_CALORIES_IN_GOAL_RANGE)));
+
+    final int trigger;
+    final int points;
+    final int reason;
+    final int maxPerDay;
+    final boolean oncePerSubject;
+    final int condition;
+
+    private PointsRule(int trigger, int points, int reason, int maxPerDay, boolean oncePerSubject, int condition) {
+        this.trigger = trigger;
+        this.points = points;
+        this.reason = reason;
+        this.maxPerDay = maxPerDay;
+        this.oncePerSubject = oncePerSubject;
+        this.condition = condition;
+    }
+
+    /**
+     * Declares a rule that awards points every time an event happens.
+     *
+     * @param trigger one of the {@code StatsJournal.EVENT_} constants, or {@link #TRIGGER_DAY_END}
+     * @param points  the points awarded
+     * @param reason  the {@code StatsJournal.REASON_} the points are recorded with; unique per rule
+     * @return the rule
+     */
+    public static PointsRule on(int trigger, int points, int reason) {
+        return new PointsRule(trigger, points, reason, UNLIMITED, false, CONDITION_NONE);
+    }
+
+    /**
+     * Limits how many times a day the rule pays out.
+     *
+     * @param maxPerDay the maximum number of awards per day
+     * @return a copy of the rule with the limit
+     */
+    public PointsRule maxPerDay(int maxPerDay) {
+        return new PointsRule(trigger, points, reason, maxPerDay, oncePerSubject, condition);
+    }
+
+    /**
+     * Pays out at most once a day for each subject of the triggering event, for example once per
+     * exercise. Day-end rules use the finished day as their subject.
+     *
+     * @return a copy of the rule that pays once per subject
+     */
+    public PointsRule oncePerSubject() {
+        return new PointsRule(trigger, points, reason, maxPerDay, true, condition);
+    }
+
+    /**
+     * Only pays out if a condition holds when the rule is evaluated.
+     *
+     * @param condition one of the CONDITION_ constants
+     * @return a copy of the rule with the condition
+     */
+    public PointsRule when(int condition) {
+        return new PointsRule(trigger, points, reason, maxPerDay, oncePerSubject, condition);
+    }
+
+    @Override
+    public String toString() {
+        return "PointsRule{trigger=" + trigger + ", points=" + points + ", reason=" + reason
+                + ", maxPerDay=" + maxPerDay + ", oncePerSubject=" + oncePerSubject + ", condition=" + condition + "}";
+    }
+}
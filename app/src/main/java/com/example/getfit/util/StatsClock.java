@@ -0,0 +1,185 @@
+package com.example.getfit.util;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The {@link StatsClock} tells the stats code what time it is and which local day that time falls
+ * on. Days are integer epoch days (days since 1970-01-01 in the clock's time zone), so comparing
+ * two days is an int comparison that stays correct across month and year boundaries and over gaps
+ * of several days.
+ * <p>
+ * The bounds of the current day are cached. While the time stays between the last midnight and
+ * the next one, {@link #epochDay(long)} is two long comparisons; the day and its bounds are only
+ * recomputed, with a Calendar so that days shortened or lengthened by daylight saving time come
+ * out right, when a time falls outside them.
+ * </p>
+ * <p>
+ * Tests create their own clock with a fixed or stepping {@link TimeSource} and any time zone; the
+ * app uses {@link #getInstance(Context)}, which follows the system clock and time zone.
+ * </p>
+ */
+public class StatsClock {
+
+    private static StatsClock instance;
+
+    private final TimeSource timeSource;
+    private volatile TimeZone timeZone;
+    // Bounds of the day computed last; replaced as a whole so readers never see a mix of two days
+    private volatile Day cachedDay = new Day(0, 0, 0);
+
+    /**
+     * Supplies the current wall-clock time, so tests can control it.
+     */
+    public interface TimeSource {
+        /**
+         * Returns the current time.
+         *
+         * @return the current time in milliseconds since 1970-01-01 UTC
+         */
+        long currentTimeMillis();
+    }
+
+    /**
+     * The epoch day and the half-open range of times [start, end) it covers.
+     */
+    private static final class Day {
+        final int epochDay;
+        final long start;
+        final long end;
+
+        Day(int epochDay, long start, long end) {
+            this.epochDay = epochDay;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Creates a clock reading times from a time source and assigning them to days in a time zone.
+     *
+     * @param timeSource the source of the current time
+     * @param timeZone   the time zone days start and end in
+     */
+    public StatsClock(TimeSource timeSource, TimeZone timeZone) {
+        this.timeSource = timeSource;
+        this.timeZone = (TimeZone) timeZone.clone();
+    }
+
+    /**
+     * Singleton pattern so every part of the stats code agrees on what day it is. The clock follows
+     * the system time and switches to a new time zone when the device's time zone changes.
+     *
+     * @param context the context used to listen for time zone changes
+     * @return the singleton instance of StatsClock
+     */
+    public static synchronized StatsClock getInstance(Context context) {
+        if (instance == null) {
+            final StatsClock clock = new StatsClock(System::currentTimeMillis, TimeZone.getDefault());
+            context.getApplicationContext().registerReceiver(new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    clock.setTimeZone(TimeZone.getDefault());
+                }
+            }, new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED));
+            instance = clock;
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the current time of the clock's time source.
+     *
+     * @return the current time in milliseconds since 1970-01-01 UTC
+     */
+    public long currentTimeMillis() {
+        return timeSource.currentTimeMillis();
+    }
+
+    /**
+     * Returns today's epoch day.
+     *
+     * @return the number of days since 1970-01-01 in the clock's time zone
+     */
+    public int today() {
+        return epochDay(timeSource.currentTimeMillis());
+    }
+
+    /**
+     * Returns the epoch day a point in time falls on.
+     *
+     * @param timeMillis the wall-clock time
+     * @return the number of days since 1970-01-01 in the clock's time zone
+     */
+    public int epochDay(long timeMillis) {
+        Day day = cachedDay;
+        if (timeMillis < day.end && timeMillis >= day.start) {
+            return day.epochDay;
+        }
+        day = computeDay(timeMillis, timeZone);
+        cachedDay = day;
+        return day.epochDay;
+    }
+
+    /**
+     * Returns the time zone days are counted in.
+     *
+     * @return the time zone
+     */
+    public TimeZone getTimeZone() {
+        return (TimeZone) timeZone.clone();
+    }
+
+    /**
+     * Switches to another time zone, for example after the user travelled. Days are recomputed
+     * on the next read.
+     *
+     * @param timeZone the new time zone
+     */
+    public void setTimeZone(TimeZone timeZone) {
+        this.timeZone = (TimeZone) timeZone.clone();
+        cachedDay = new Day(0, 0, 0);
+    }
+
+    /**
+     * Computes the epoch day containing a time and the bounds of that day.
+     */
+    private static Day computeDay(long timeMillis, TimeZone timeZone) {
+        int epochDay = epochDay(timeMillis, timeZone);
+
+        Calendar calendar = Calendar.getInstance(timeZone, Locale.US);
+        calendar.setTimeInMillis(timeMillis);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        long start = calendar.getTimeInMillis();
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        long end = calendar.getTimeInMillis();
+
+        if (start > timeMillis || end <= timeMillis
+                || epochDay(start, timeZone) != epochDay || epochDay(end - 1, timeZone) != epochDay) {
+            // A transition at midnight left the bounds ambiguous; cache just this millisecond
+            return new Day(epochDay, timeMillis, timeMillis + 1);
+        }
+        return new Day(epochDay, start, end);
+    }
+
+    /**
+     * Computes the epoch day of a point in time in a given time zone, without caching.
+     *
+     * @param timeMillis the wall-clock time
+     * @param timeZone   the time zone
+     * @return the number of days since 1970-01-01 in that time zone
+     */
+    static int epochDay(long timeMillis, TimeZone timeZone) {
+        long localMillis = timeMillis + timeZone.getOffset(timeMillis);
+        return (int) Math.floorDiv(localMillis, StatsJournal.MILLIS_PER_DAY);
+    }
+}
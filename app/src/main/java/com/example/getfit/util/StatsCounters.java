@@ -0,0 +1,241 @@
+package com.example.getfit.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The {@link StatsCounters} are the conflict-free replicated counters that keep points and
+ * calories in sync between a user's devices.
+ * <p>
+ * Every device owns one {@link Entry} and is the only one that writes it: a PN counter for points
+ * (points added and points removed, both only ever growing) and a PN counter for the calories of
+ * the device's latest day. The total is the sum over all devices. Entries are merged by taking the
+ * larger of each counter, and calories of a later day replace those of an earlier day, so merging
+ * is commutative, associative and idempotent: replicas that have seen the same entries agree no
+ * matter in which order, or how many times, they saw them.
+ * </p>
+ * <p>
+ * A reset is recorded by removing the total the device saw, so points another device earned at
+ * the same time survive it. In the user's Firestore document the entries are stored as a map from
+ * device id to {@link Entry#toMap()}, which a new device reads in one go instead of any history.
+ * </p>
+ */
+public class StatsCounters {
+
+    // Keys of an entry in Firestore
+    static final String KEY_POINTS_ADDED = "pointsAdded";
+    static final String KEY_POINTS_REMOVED = "pointsRemoved";
+    static final String KEY_CALORIE_DAY = "calorieDay";
+    static final String KEY_CALORIES_ADDED = "caloriesAdded";
+    static final String KEY_CALORIES_REMOVED = "caloriesRemoved";
+
+    /** Calorie day of an entry that never had calories. */
+    public static final int NO_DAY = Integer.MIN_VALUE;
+
+    private final HashMap<String, Entry> entries = new HashMap<>();
+
+    /**
+     * The counters of one device. Entries are immutable; merging returns a new entry.
+     */
+    public static final class Entry {
+        public static final Entry EMPTY = new Entry(0, 0, NO_DAY, 0, 0);
+
+        final long pointsAdded;
+        final long pointsRemoved;
+        final int calorieDay;
+        final long caloriesAdded;
+        final long caloriesRemoved;
+
+        /**
+         * Creates an entry.
+         *
+         * @param pointsAdded     all points the device ever added
+         * @param pointsRemoved   all points the device ever removed
+         * @param calorieDay      the latest epoch day the device added or removed calories on
+         * @param caloriesAdded   the calories the device added on that day
+         * @param caloriesRemoved the calories the device removed on that day
+         */
+        public Entry(long pointsAdded, long pointsRemoved, int calorieDay, long caloriesAdded, long caloriesRemoved) {
+            this.pointsAdded = pointsAdded;
+            this.pointsRemoved = pointsRemoved;
+            this.calorieDay = calorieDay;
+            this.caloriesAdded = caloriesAdded;
+            this.caloriesRemoved = caloriesRemoved;
+        }
+
+        /**
+         * Returns the least entry that contains both this entry and another one.
+         *
+         * @param other another state of the same device's entry
+         * @return the merged entry
+         */
+        public Entry merge(Entry other) {
+            int day = Math.max(calorieDay, other.calorieDay);
+            return new Entry(Math.max(pointsAdded, other.pointsAdded),
+                    Math.max(pointsRemoved, other.pointsRemoved),
+                    day,
+                    Math.max(calorieDay == day ? caloriesAdded : 0, other.calorieDay == day ? other.caloriesAdded : 0),
+                    Math.max(calorieDay == day ? caloriesRemoved : 0, other.calorieDay == day ? other.caloriesRemoved : 0));
+        }
+
+        /**
+         * Returns the device's contribution to the point total.
+         *
+         * @return the points added minus the points removed
+         */
+        public long getPoints() {
+            return pointsAdded - pointsRemoved;
+        }
+
+        /**
+         * Returns the device's contribution to the calories of a day.
+         *
+         * @param epochDay the day
+         * @return the calories added minus removed on that day, or 0 if the entry is about another day
+         */
+        public long getCalories(int epochDay) {
+            return calorieDay == epochDay ? caloriesAdded - caloriesRemoved : 0;
+        }
+
+        /**
+         * Returns the latest day the device changed calories on.
+         *
+         * @return the epoch day, or {@link #NO_DAY}
+         */
+        public int getCalorieDay() {
+            return calorieDay;
+        }
+
+        /**
+         * Converts the entry into the map stored in Firestore.
+         *
+         * @return a map of the counters
+         */
+        public Map<String, Object> toMap() {
+            HashMap<String, Object> map = new HashMap<>();
+            map.put(KEY_POINTS_ADDED, pointsAdded);
+            map.put(KEY_POINTS_REMOVED, pointsRemoved);
+            map.put(KEY_CALORIE_DAY, (long) calorieDay);
+            map.put(KEY_CALORIES_ADDED, caloriesAdded);
+            map.put(KEY_CALORIES_REMOVED, caloriesRemoved);
+            return map;
+        }
+
+        /**
+         * Reads an entry from the map stored in Firestore. Missing or malformed counters read as 0.
+         *
+         * @param map the stored map
+         * @return the entry
+         */
+        public static Entry fromMap(Map<?, ?> map) {
+            long day = longOf(map.get(KEY_CALORIE_DAY), NO_DAY);
+            return new Entry(longOf(map.get(KEY_POINTS_ADDED), 0), longOf(map.get(KEY_POINTS_REMOVED), 0),
+                    (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, day)),
+                    longOf(map.get(KEY_CALORIES_ADDED), 0), longOf(map.get(KEY_CALORIES_REMOVED), 0));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry entry = (Entry) o;
+            return pointsAdded == entry.pointsAdded && pointsRemoved == entry.pointsRemoved
+                    && calorieDay == entry.calorieDay && caloriesAdded == entry.caloriesAdded
+                    && caloriesRemoved == entry.caloriesRemoved;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Long.hashCode(pointsAdded);
+            result = 31 * result + Long.hashCode(pointsRemoved);
+            result = 31 * result + calorieDay;
+            result = 31 * result + Long.hashCode(caloriesAdded);
+            return 31 * result + Long.hashCode(caloriesRemoved);
+        }
+
+        private static long longOf(Object value, long fallback) {
+            return value instanceof Number ? ((Number) value).longValue() : fallback;
+        }
+    }
+
+    /**
+     * Merges one device's entry into these counters.
+     *
+     * @param deviceId the device the entry belongs to
+     * @param entry    the entry, possibly older than the one already known
+     */
+    public synchronized void merge(String deviceId, Entry entry) {
+        Entry known = entries.get(deviceId);
+        entries.put(deviceId, known == null ? entry : known.merge(entry));
+    }
+
+    /**
+     * Merges every entry of the map stored in Firestore, except the one of a given device.
+     *
+     * @param stored          the stored map from device id to entry map, or null
+     * @param excludeDeviceId a device whose stored entry is skipped, usually this device, or null
+     */
+    public synchronized void mergeAll(Map<?, ?> stored, String excludeDeviceId) {
+        if (stored == null) {
+            return;
+        }
+        for (Map.Entry<?, ?> device : stored.entrySet()) {
+            if (device.getKey() instanceof String && device.getValue() instanceof Map
+                    && !device.getKey().equals(excludeDeviceId)) {
+                merge((String) device.getKey(), Entry.fromMap((Map<?, ?>) device.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Returns the known entry of a device.
+     *
+     * @param deviceId the device
+     * @return its entry, or {@link Entry#EMPTY}
+     */
+    public synchronized Entry get(String deviceId) {
+        Entry entry = entries.get(deviceId);
+        return entry == null ? Entry.EMPTY : entry;
+    }
+
+    /**
+     * Sums the points of all devices.
+     *
+     * @return the point total
+     */
+    public synchronized long getPoints() {
+        long points = 0;
+        for (Entry entry : entries.values()) {
+            points += entry.getPoints();
+        }
+        return points;
+    }
+
+    /**
+     * Returns the latest day any device changed calories on.
+     *
+     * @return the epoch day, or {@link #NO_DAY}
+     */
+    public synchronized int getLatestCalorieDay() {
+        int day = NO_DAY;
+        for (Entry entry : entries.values()) {
+            day = Math.max(day, entry.calorieDay);
+        }
+        return day;
+    }
+
+    /**
+     * Sums the calories of all devices on a day.
+     *
+     * @param epochDay the day
+     * @return the calorie total of that day
+     */
+    public synchronized long getCalories(int epochDay) {
+        long calories = 0;
+        for (Entry entry : entries.values()) {
+            calories += entry.getCalories(epochDay);
+        }
+        return calories;
+    }
+}
@@ -0,0 +1,473 @@
+package com.example.getfit.util;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The {@link StatsJournal} is an append-only log of everything that changes the user's stats:
+ * calories added, points earned, check-ins and resets.
+ * <p>
+ * Events are stored as fixed-width 32 byte records in memory-mapped segment files of
+ * {@value #DEFAULT_SEGMENT_RECORDS} records each. Appending writes the fields straight into the
+ * mapped pages with absolute puts, so it is O(1) and allocates nothing. The type byte of a record
+ * is written last and an all-zero record marks the end of the journal, so a record that was only
+ * partly written when the process died is simply overwritten by the next append. Since the pages
+ * belong to the kernel's page cache, appended records survive the app being killed without an
+ * explicit flush.
+ * </p>
+ * <p>
+ * Records are in append order and their epoch day never goes backwards, so a day range is found by
+ * binary search and then read sequentially. Views of the stats register an {@link EventListener}
+ * and are kept up to date as events are appended. The day of each event comes from the journal's
+ * {@link StatsClock}.
+ * </p>
+ * <p>
+ * A listener may append events of its own, for example points an event earned. Those are stored
+ * right away but delivered only after every listener saw the event that caused them, so all
+ * listeners see the events in the order they are stored.
+ * </p>
+ */
+public class StatsJournal {
+
+    // Event types
+    public static final int EVENT_CALORIES = 1;
+    public static final int EVENT_POINTS = 2;
+    public static final int EVENT_CHECK_IN = 3;
+    // Remove the amount, usually the total seen across all devices, so that a reset syncs
+    public static final int EVENT_CALORIES_REMOVED = 4;
+    public static final int EVENT_POINTS_REMOVED = 5;
+    // The user completed an exercise; the subject is the exercise's id, or subjectOf its key if it has none
+    public static final int EVENT_WORKOUT = 6;
+    // The user logged their weight; the amount is in grams
+    public static final int EVENT_WEIGHT = 7;
+
+    // Reasons points are awarded for
+    public static final int REASON_OTHER = 0;
+    public static final int REASON_CHECK_IN = 1;
+    public static final int REASON_DINING_GOAL = 2;
+    public static final int REASON_EXERCISE = 3;
+    public static final int REASON_MIGRATED = 4;
+
+    // Calorie events carry the item's macros in the detail field, 10 bits (0 to 1023 g) each
+    private static final int MACRO_BITS = 10;
+    private static final int MACRO_MASK = (1 << MACRO_BITS) - 1;
+
+    static final int RECORD_BYTES = 32;
+    static final int DEFAULT_SEGMENT_RECORDS = 32 * 1024;  // 1 MiB segments
+
+    // Record layout
+    private static final int OFFSET_TIME = 0;
+    private static final int OFFSET_EPOCH_DAY = 8;
+    private static final int OFFSET_AMOUNT = 12;
+    private static final int OFFSET_SUBJECT = 16;
+    private static final int OFFSET_DETAIL = 24;
+    private static final int OFFSET_TYPE = 28;
+
+    static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private final File directory;
+    private final int segmentRecords;
+    private final ArrayList<MappedByteBuffer> segments = new ArrayList<>();
+    // Copied on change and iterated by index, so delivering an event allocates no iterator
+    private volatile EventListener[] listeners = new EventListener[0];
+    private final StatsClock clock;
+    private long size;
+    private int lastEpochDay;
+    private boolean closed;
+    // Events before this one reached every listener; later ones wait while one is delivered
+    private long delivered;
+    private boolean delivering;
+
+    /**
+     * Receives journal events, either while the journal is replayed or scanned, or as they are
+     * appended. All arguments are primitives so delivering an event allocates nothing.
+     */
+    public interface EventListener {
+        /**
+         * Called for each event.
+         *
+         * @param type       one of the EVENT_ constants
+         * @param timeMillis the wall-clock time the event was recorded at
+         * @param epochDay   the local day of the event, in days since 1970-01-01
+         * @param amount     the calories or points of the event, 0 for other events
+         * @param subject    what the event is about, for example a menu item or exercise, or 0
+         * @param detail     one of the REASON_ constants for points, the packed macros for calories
+         *                   (see {@link #proteinOf(int)}), 0 for other events
+         */
+        void onEvent(int type, long timeMillis, int epochDay, int amount, long subject, int detail);
+    }
+
+    /**
+     * Opens the journal stored in the given directory, creating it if needed, with a clock that
+     * follows the system time in the device's current time zone.
+     *
+     * @param directory      the directory holding the segment files
+     * @param segmentRecords the number of records per segment file
+     * @throws IOException if the segments can't be mapped
+     */
+    StatsJournal(File directory, int segmentRecords) throws IOException {
+        this(directory, segmentRecords, new StatsClock(System::currentTimeMillis, TimeZone.getDefault()));
+    }
+
+    /**
+     * Opens the journal stored in the given directory, creating it if needed.
+     *
+     * @param directory      the directory holding the segment files
+     * @param segmentRecords the number of records per segment file
+     * @param clock          the clock that assigns appended events to days
+     * @throws IOException if the segments can't be mapped
+     */
+    StatsJournal(File directory, int segmentRecords, StatsClock clock) throws IOException {
+        this.directory = directory;
+        this.segmentRecords = segmentRecords;
+        this.clock = clock;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create " + directory);
+        }
+
+        for (int segment = 0; segmentFile(segment).exists(); segment++) {
+            segments.add(map(segment));
+        }
+        if (segments.isEmpty()) {
+            segments.add(map(0));
+        }
+
+        // Full segments are dense; in the last one the first empty record marks the end
+        MappedByteBuffer last = segments.get(segments.size() - 1);
+        int low = 0;
+        int high = segmentRecords;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (last.get(mid * RECORD_BYTES + OFFSET_TYPE) != 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        size = (long) (segments.size() - 1) * segmentRecords + low;
+        if (size > 0) {
+            lastEpochDay = epochDayAt(size - 1);
+        }
+        delivered = size;
+    }
+
+    /**
+     * Returns the journal of the signed in user, so every part of the app appends to the same
+     * journal. Each user has their own, see {@link StatsPartitions}.
+     *
+     * @param context the context used to locate the app's private storage
+     * @return the signed in user's StatsJournal
+     */
+    public static StatsJournal getInstance(Context context) {
+        return StatsPartitions.getInstance(context).current().getJournal();
+    }
+
+    /**
+     * Returns the clock that assigns appended events to days.
+     *
+     * @return the journal's clock
+     */
+    public StatsClock getClock() {
+        return clock;
+    }
+
+    /**
+     * Derives a stable subject id from a name, for subjects that don't have a numeric id, such as
+     * menu items.
+     *
+     * @param name the subject's name
+     * @return a 64-bit FNV-1a hash of the lowercased, trimmed name
+     */
+    public static long subjectOf(String name) {
+        long hash = 0xcbf29ce484222325L;
+        String normalized = name == null ? "" : name.trim().toLowerCase(Locale.ROOT);
+        for (int i = 0; i < normalized.length(); i++) {
+            hash ^= normalized.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Packs the macros of a calorie event into its detail field.
+     *
+     * @param proteinGrams the grams of protein, clamped to 0..1023
+     * @param carbsGrams   the grams of carbohydrates, clamped to 0..1023
+     * @param fatGrams     the grams of fat, clamped to 0..1023
+     * @return the packed macros
+     */
+    public static int packMacros(int proteinGrams, int carbsGrams, int fatGrams) {
+        return clampMacro(proteinGrams) | clampMacro(carbsGrams) << MACRO_BITS | clampMacro(fatGrams) << (2 * MACRO_BITS);
+    }
+
+    /**
+     * Unpacks the grams of protein from a calorie event's detail field.
+     *
+     * @param detail the packed macros
+     * @return the grams of protein
+     */
+    public static int proteinOf(int detail) {
+        return detail & MACRO_MASK;
+    }
+
+    /**
+     * Unpacks the grams of carbohydrates from a calorie event's detail field.
+     *
+     * @param detail the packed macros
+     * @return the grams of carbohydrates
+     */
+    public static int carbsOf(int detail) {
+        return (detail >>> MACRO_BITS) & MACRO_MASK;
+    }
+
+    /**
+     * Unpacks the grams of fat from a calorie event's detail field.
+     *
+     * @param detail the packed macros
+     * @return the grams of fat
+     */
+    public static int fatOf(int detail) {
+        return (detail >>> (2 * MACRO_BITS)) & MACRO_MASK;
+    }
+
+    private static int clampMacro(int grams) {
+        return Math.max(0, Math.min(MACRO_MASK, grams));
+    }
+
+    /**
+     * Returns the number of records in the journal.
+     *
+     * @return the number of appended events
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Appends an event that happens now, according to the journal's clock.
+     *
+     * @param type    one of the EVENT_ constants
+     * @param amount  the calories or points of the event, 0 for other events
+     * @param subject what the event is about, or 0
+     * @param detail  one of the REASON_ constants for points, the packed macros for calories, 0 for
+     *                other events
+     * @return the epoch day the event was recorded on
+     */
+    public int append(int type, int amount, long subject, int detail) {
+        return append(type, clock.currentTimeMillis(), amount, subject, detail);
+    }
+
+    /**
+     * Appends an event. A device clock that moved backwards across midnight doesn't move the
+     * event's day backwards; it is recorded on the latest day seen so far.
+     *
+     * @param type       one of the EVENT_ constants
+     * @param timeMillis the wall-clock time of the event
+     * @param amount     the calories or points of the event, 0 for other events
+     * @param subject    what the event is about, or 0
+     * @param detail     one of the REASON_ constants for points, the packed macros for calories
+     *                   (see {@link #packMacros(int, int, int)}), 0 for other events
+     * @return the epoch day the event was recorded on
+     * @throws IllegalStateException if the journal was closed
+     */
+    public synchronized int append(int type, long timeMillis, int amount, long subject, int detail) {
+        if (closed) {
+            throw new IllegalStateException("The stats journal in " + directory + " is closed");
+        }
+        int epochDay = Math.max(lastEpochDay, clock.epochDay(timeMillis));
+
+        int segment = (int) (size / segmentRecords);
+        if (segment == segments.size()) {
+            try {
+                segments.add(map(segment));
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to grow the stats journal", e);
+            }
+        }
+        MappedByteBuffer buffer = segments.get(segment);
+        int offset = (int) (size % segmentRecords) * RECORD_BYTES;
+
+        buffer.putLong(offset + OFFSET_TIME, timeMillis);
+        buffer.putInt(offset + OFFSET_EPOCH_DAY, epochDay);
+        buffer.putInt(offset + OFFSET_AMOUNT, amount);
+        buffer.putLong(offset + OFFSET_SUBJECT, subject);
+        buffer.putInt(offset + OFFSET_DETAIL, detail);
+        // The type is written last: a record without a type is treated as the end of the journal
+        buffer.put(offset + OFFSET_TYPE, (byte) type);
+
+        size++;
+        lastEpochDay = epochDay;
+
+        if (!delivering) {
+            deliver();
+        }
+        return epochDay;
+    }
+
+    /**
+     * Delivers the stored events that no listener saw yet, including those the listeners append
+     * meanwhile, each to every listener before the next one. The caller holds this lock.
+     */
+    private void deliver() {
+        delivering = true;
+        try {
+            while (delivered < size) {
+                long record = delivered++;
+                MappedByteBuffer buffer = segments.get((int) (record / segmentRecords));
+                int offset = (int) (record % segmentRecords) * RECORD_BYTES;
+                int type = buffer.get(offset + OFFSET_TYPE);
+                long timeMillis = buffer.getLong(offset + OFFSET_TIME);
+                int epochDay = buffer.getInt(offset + OFFSET_EPOCH_DAY);
+                int amount = buffer.getInt(offset + OFFSET_AMOUNT);
+                long subject = buffer.getLong(offset + OFFSET_SUBJECT);
+                int detail = buffer.getInt(offset + OFFSET_DETAIL);
+
+                EventListener[] current = listeners;
+                for (int i = 0; i < current.length; i++) {
+                    current[i].onEvent(type, timeMillis, epochDay, amount, subject, detail);
+                }
+            }
+        } finally {
+            delivering = false;
+        }
+    }
+
+    /**
+     * Replays the whole journal into a listener and then keeps it up to date with every appended
+     * event. Both happen under the journal's lock, so the listener sees every event exactly once.
+     *
+     * @param listener the listener to register
+     */
+    public synchronized void addListener(EventListener listener) {
+        addListener(listener, Integer.MIN_VALUE);
+    }
+
+    /**
+     * Replays the journal from a day on into a listener and then keeps it up to date with every
+     * appended event. For views that restored their state up to the day before from a snapshot.
+     *
+     * @param listener     the listener to register
+     * @param fromEpochDay the first day to replay
+     */
+    public synchronized void addListener(EventListener listener, int fromEpochDay) {
+        scanDays(fromEpochDay, Integer.MAX_VALUE, listener);
+        EventListener[] grown = Arrays.copyOf(listeners, listeners.length + 1);
+        grown[grown.length - 1] = listener;
+        listeners = grown;
+    }
+
+    /**
+     * Stops delivering appended events to a listener.
+     *
+     * @param listener the listener to remove
+     */
+    public synchronized void removeListener(EventListener listener) {
+        ArrayList<EventListener> remaining = new ArrayList<>(Arrays.asList(listeners));
+        remaining.remove(listener);
+        listeners = remaining.toArray(new EventListener[0]);
+    }
+
+    /**
+     * Replays every event in the journal, oldest first.
+     *
+     * @param listener the listener that receives the events
+     */
+    public void replay(EventListener listener) {
+        scanDays(Integer.MIN_VALUE, Integer.MAX_VALUE, listener);
+    }
+
+    /**
+     * Replays the events of a range of days, oldest first.
+     *
+     * @param fromEpochDay the first day of the range, inclusive
+     * @param toEpochDay   the last day of the range, inclusive
+     * @param listener     the listener that receives the events
+     */
+    public synchronized void scanDays(int fromEpochDay, int toEpochDay, EventListener listener) {
+        // Binary search for the first record on or after the first day
+        long low = 0;
+        long high = size;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (epochDayAt(mid) < fromEpochDay) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        for (long record = low; record < size; record++) {
+            MappedByteBuffer buffer = segments.get((int) (record / segmentRecords));
+            int offset = (int) (record % segmentRecords) * RECORD_BYTES;
+            int epochDay = buffer.getInt(offset + OFFSET_EPOCH_DAY);
+            if (epochDay > toEpochDay) {
+                break;
+            }
+            listener.onEvent(buffer.get(offset + OFFSET_TYPE), buffer.getLong(offset + OFFSET_TIME), epochDay,
+                    buffer.getInt(offset + OFFSET_AMOUNT), buffer.getLong(offset + OFFSET_SUBJECT),
+                    buffer.getInt(offset + OFFSET_DETAIL));
+        }
+    }
+
+    /**
+     * Stops accepting appends, once the journal's directory may be opened again by another
+     * instance. Reading the events that are already there still works.
+     */
+    public synchronized void close() {
+        closed = true;
+    }
+
+    /**
+     * Asks the kernel to write the mapped pages to storage. Appends already survive the process
+     * being killed; this only matters for a device losing power.
+     */
+    public synchronized void force() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Reads the epoch day of a record.
+     *
+     * @param record the index of the record
+     * @return the record's epoch day
+     */
+    private int epochDayAt(long record) {
+        MappedByteBuffer buffer = segments.get((int) (record / segmentRecords));
+        return buffer.getInt((int) (record % segmentRecords) * RECORD_BYTES + OFFSET_EPOCH_DAY);
+    }
+
+    /**
+     * Returns the file of a segment.
+     *
+     * @param segment the segment number
+     * @return the segment file
+     */
+    private File segmentFile(int segment) {
+        return new File(directory, String.format(Locale.ROOT, "segment-%05d.bin", segment));
+    }
+
+    /**
+     * Maps a segment file into memory, creating and zero-filling it if it doesn't exist.
+     *
+     * @param segment the segment number
+     * @return the mapped segment
+     * @throws IOException if the file can't be mapped
+     */
+    private MappedByteBuffer map(int segment) throws IOException {
+        // The mapping stays valid after the file and its channel are closed
+        try (RandomAccessFile file = new RandomAccessFile(segmentFile(segment), "rw")) {
+            return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long) segmentRecords * RECORD_BYTES);
+        }
+    }
+}
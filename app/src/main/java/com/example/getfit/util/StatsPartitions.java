@@ -0,0 +1,525 @@
+package com.example.getfit.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.example.getfit.models.UserStats;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * The {@link StatsPartitions} keep the local stats of every account that signs in on this device
+ * apart: each Firebase uid has its own {@link Partition} with its own journal, stats store,
+ * exercise history and the views built on them.
+ * <p>
+ * The {@code getInstance(Context)} methods of the stats classes, such as
+ * {@link UserStats#getInstance(Context)} or {@link StatsJournal#getInstance(Context)}, return the
+ * instance of the partition of the signed in user. Switching accounts swaps one pointer to a
+ * partition that is already open or is created unopened; nothing is reset, copied or migrated.
+ * A partition opens its stores the first time one of them is used.
+ * </p>
+ * <p>
+ * Only the {@value #MAX_OPEN_PARTITIONS} most recently used accounts keep their partition in
+ * memory, so switching back and forth between two accounts never reopens anything, even when the
+ * user signs out in between. The signed out partition doesn't count towards that limit and is
+ * never evicted. Older ones are evicted: their pending changes are written and their sync
+ * detached in the background, and they are opened again from disk when their user returns.
+ * An evicted partition's journal is closed right away, so code that kept hold of its objects
+ * fails on the next append instead of writing next to the partition that replaces it; callers
+ * resolve {@link #current()} on each use rather than keeping its objects.
+ * </p>
+ */
+public class StatsPartitions {
+
+    private static final String TAG = "StatsPartitions";
+    private static final String PREFS_NAME = "statsPartitionsPrefs";
+    // Set once the stats from before partitions were handed to the first user who signed in
+    private static final String KEY_ADOPTED = "adoptedUnpartitionedStats";
+
+    // The partition used while nobody is signed in
+    static final String SIGNED_OUT = "signed_out";
+    // Accounts kept in memory, besides the signed out partition
+    static final int MAX_OPEN_PARTITIONS = 2;
+    private static final String PARTITIONS_DIRECTORY = "stats_partitions";
+    private static final String EXERCISE_HISTORY_PREFS_NAME = "exerciseHistoryPrefs";
+
+    private static StatsPartitions instance;
+
+    /**
+     * Creates the partition of a user without opening it.
+     */
+    interface Factory {
+        Partition create(String uid);
+    }
+
+    /**
+     * Listener notified, on the thread that switched, whenever another user's partition becomes
+     * the current one.
+     */
+    public interface OnPartitionChangedListener {
+        void onPartitionChanged(Partition partition);
+    }
+
+    /**
+     * The local stats of one user. Its stores are opened on first use and its views are built
+     * from the journal the first time they are asked for.
+     */
+    public static final class Partition {
+        private final String uid;
+        private final File journalDirectory;
+        private final SharedPreferences statsPreferences;
+        private final SharedPreferences exercisePreferences;
+        private final StatsClock clock;
+        private final ScheduledExecutorService executor;
+        private final FirebaseFirestore db;
+        private final String deviceId;
+        // Completes once the stats from before partitions were copied into this one, or null
+        private final Future<?> adoption;
+
+        // All guarded by this, null until first used
+        private StatsStore store;
+        private StatsJournal journal;
+        private StatsTotals totals;
+        private PointsLedger ledger;
+        private StatsSync sync;
+        private UserStats userStats;
+        private Achievements achievements;
+        private StatsTrends trends;
+        private StatsRollups rollups;
+        private ExerciseRanker exerciseRanker;
+        private boolean evicted;
+
+        /**
+         * Creates a partition without opening any of its stores.
+         *
+         * @param uid                 the user's id, or null for the signed out partition
+         * @param journalDirectory    the directory of the user's journal
+         * @param statsPreferences    the preferences behind the user's stats store
+         * @param exercisePreferences the preferences holding the user's exercise history
+         * @param clock               the clock that assigns events to days
+         * @param executor            the thread store writes and sync work run on
+         * @param db                  the Firestore instance stats are synced through, or null not to sync
+         * @param deviceId            the id this device publishes its counters under
+         */
+        Partition(String uid, File journalDirectory, SharedPreferences statsPreferences,
+                  SharedPreferences exercisePreferences, StatsClock clock, ScheduledExecutorService executor,
+                  FirebaseFirestore db, String deviceId) {
+            this(uid, journalDirectory, statsPreferences, exercisePreferences, clock, executor, db, deviceId, null);
+        }
+
+        /**
+         * Creates a partition without opening any of its stores, whose preferences are still being
+         * filled with the stats kept before partitions existed.
+         *
+         * @param adoption completes once the preferences were filled; the stores aren't opened before
+         */
+        Partition(String uid, File journalDirectory, SharedPreferences statsPreferences,
+                  SharedPreferences exercisePreferences, StatsClock clock, ScheduledExecutorService executor,
+                  FirebaseFirestore db, String deviceId, Future<?> adoption) {
+            this.uid = uid;
+            this.journalDirectory = journalDirectory;
+            this.statsPreferences = statsPreferences;
+            this.exercisePreferences = exercisePreferences;
+            this.clock = clock;
+            this.executor = executor;
+            this.db = db;
+            this.deviceId = deviceId;
+            this.adoption = adoption;
+        }
+
+        /**
+         * Returns the id of the user the partition belongs to.
+         *
+         * @return the uid, or null for the partition used while nobody is signed in
+         */
+        public String getUid() {
+            return uid;
+        }
+
+        public synchronized StatsStore getStore() {
+            open();
+            return store;
+        }
+
+        public synchronized StatsJournal getJournal() {
+            open();
+            return journal;
+        }
+
+        public synchronized StatsTotals getTotals() {
+            open();
+            return totals;
+        }
+
+        public synchronized PointsLedger getLedger() {
+            open();
+            return ledger;
+        }
+
+        public synchronized UserStats getUserStats() {
+            open();
+            if (userStats == null) {
+                userStats = new UserStats(store, journal, totals, sync, ledger);
+            }
+            return userStats;
+        }
+
+        public synchronized Achievements getAchievements() {
+            open();
+            if (achievements == null) {
+                achievements = new Achievements(journal, store, AchievementRule.DEFAULT_RULES);
+            }
+            return achievements;
+        }
+
+        public synchronized StatsTrends getTrends() {
+            open();
+            if (trends == null) {
+                trends = new StatsTrends(clock);
+                journal.addListener(trends);
+            }
+            return trends;
+        }
+
+        public synchronized StatsRollups getRollups() {
+            open();
+            if (rollups == null) {
+                rollups = new StatsRollups();
+                journal.addListener(rollups);
+            }
+            return rollups;
+        }
+
+        public synchronized ExerciseRanker getExerciseRanker() {
+            if (exerciseRanker == null) {
+                awaitAdoption();
+                exerciseRanker = new ExerciseRanker(exercisePreferences);
+            }
+            return exerciseRanker;
+        }
+
+        /**
+         * Checks whether the partition's stores were opened.
+         *
+         * @return true once any of the stats stores was used
+         */
+        synchronized boolean isOpen() {
+            return journal != null;
+        }
+
+        /**
+         * Checks whether the partition was dropped from memory, after which it can't be opened.
+         *
+         * @return true once the partition was evicted
+         */
+        synchronized boolean isEvicted() {
+            return evicted;
+        }
+
+        /**
+         * Opens the journal and the stats store and builds the totals, the ledger and the sync.
+         * Totals kept in the preferences by versions before the journal are moved into an empty
+         * journal, as they always were. This runs on the thread that first uses the partition,
+         * usually the main thread through {@link UserStats#getInstance(Context)}; mapping the
+         * journal is cheap, and the adoption it may wait for was started when the partition was
+         * created.
+         *
+         * @throws IllegalStateException if the partition was evicted before it was opened
+         */
+        private void open() {
+            if (journal != null) {
+                return;
+            }
+            if (evicted) {
+                // Two journals on one directory would overwrite each other's appends
+                throw new IllegalStateException("The partition was evicted; use StatsPartitions.current()");
+            }
+            awaitAdoption();
+            try {
+                journal = new StatsJournal(journalDirectory, StatsJournal.DEFAULT_SEGMENT_RECORDS, clock);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to open the stats journal", e);
+            }
+            store = new StatsStore(statsPreferences, executor, StatsStore.FLUSH_DELAY_MS);
+            if (journal.size() == 0) {
+                StatsTotals.migrate(store, journal);
+            }
+            totals = new StatsTotals();
+            journal.addListener(totals);
+            ledger = new PointsLedger(journal);
+            if (uid != null && db != null) {
+                sync = new StatsSync(totals, db, deviceId, executor, StatsSync.DEBOUNCE_MS);
+                journal.addListener(sync);
+                sync.attach(uid);
+            }
+        }
+
+        /**
+         * Waits until the stats from before partitions are in this partition's preferences. The copy
+         * runs on the writer thread as soon as the partition is created, so it is usually done by
+         * the time the partition is first used. The stores are opened anyway if it failed.
+         */
+        private void awaitAdoption() {
+            if (adoption == null) {
+                return;
+            }
+            try {
+                adoption.get();
+            } catch (ExecutionException e) {
+                Log.w(TAG, "Failed to adopt the stats from before partitions", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Writes pending store changes on the calling thread.
+         */
+        synchronized void flushNow() {
+            if (store != null) {
+                store.flushNow();
+            }
+        }
+
+        /**
+         * Marks the partition as dropped from memory and closes its journal, before the same user's
+         * partition may be created again.
+         */
+        synchronized void evict() {
+            evicted = true;
+            if (journal != null) {
+                journal.close();
+            }
+        }
+
+        /**
+         * Writes what is pending and stops syncing, after the partition was dropped from memory.
+         */
+        synchronized void close() {
+            if (sync != null) {
+                sync.flush();
+                sync.attach(null);
+            }
+            flushNow();
+        }
+    }
+
+    private final Factory factory;
+    private final Executor closer;
+    private final int maxOpenPartitions;
+    private final CopyOnWriteArrayList<OnPartitionChangedListener> listeners = new CopyOnWriteArrayList<>();
+
+    // The partitions in memory, least recently used first; guarded by this
+    private final LinkedHashMap<String, Partition> partitions = new LinkedHashMap<>(4, 0.75f, true);
+    private volatile Partition current;
+
+    /**
+     * Creates partitions with nobody signed in. Package-private so tests can keep partitions in
+     * temporary directories; the app uses {@link #getInstance(Context)}.
+     *
+     * @param factory           creates the partition of a user the first time they sign in
+     * @param closer            the executor evicted partitions are closed on
+     * @param maxOpenPartitions the number of accounts whose partitions are kept in memory
+     */
+    StatsPartitions(Factory factory, Executor closer, int maxOpenPartitions) {
+        this.factory = factory;
+        this.closer = closer;
+        this.maxOpenPartitions = maxOpenPartitions;
+        switchTo(null);
+    }
+
+    /**
+     * Singleton pattern so the whole app agrees on whose stats are current. The partitions follow
+     * the signed in user.
+     *
+     * @param context the context used to locate the app's private storage and preferences
+     * @return the singleton instance of StatsPartitions
+     */
+    public static synchronized StatsPartitions getInstance(Context context) {
+        if (instance == null) {
+            final Context appContext = context.getApplicationContext();
+            final StatsClock clock = StatsClock.getInstance(appContext);
+            final ScheduledExecutorService executor = StatsStore.newWriterThread();
+            final String deviceId = StatsSync.deviceId(appContext);
+            final SharedPreferences partitionsPreferences = appContext.getSharedPreferences(PREFS_NAME,
+                    Context.MODE_PRIVATE);
+            // Whether the first user to sign in still has to adopt the old stats; guarded by the partitions
+            final boolean[] adoptionPending = {!partitionsPreferences.getBoolean(KEY_ADOPTED, false)};
+            final StatsPartitions partitions = new StatsPartitions(uid -> {
+                String key = keyOf(uid);
+                File journalDirectory = new File(new File(appContext.getFilesDir(), PARTITIONS_DIRECTORY), key);
+                SharedPreferences statsPreferences = appContext.getSharedPreferences(
+                        StatsStore.PREFS_NAME + "_" + key, Context.MODE_PRIVATE);
+                SharedPreferences exercisePreferences = appContext.getSharedPreferences(
+                        EXERCISE_HISTORY_PREFS_NAME + "_" + key, Context.MODE_PRIVATE);
+                Future<?> adoption = null;
+                if (uid != null && adoptionPending[0]) {
+                    adoptionPending[0] = false;
+                    // Reading and committing the preferences is disk work, so it stays off the switch
+                    adoption = executor.submit(() -> {
+                        adoptUnpartitionedStats(appContext, statsPreferences, exercisePreferences);
+                        partitionsPreferences.edit().putBoolean(KEY_ADOPTED, true).commit();
+                    });
+                }
+                return new Partition(uid, journalDirectory, statsPreferences, exercisePreferences, clock, executor,
+                        FirebaseUtil.getFirestore(), deviceId, adoption);
+            }, executor, MAX_OPEN_PARTITIONS);
+
+            FirebaseUser user = FirebaseUtil.getAuth().getCurrentUser();
+            partitions.switchTo(user != null ? user.getUid() : null);
+            FirebaseUtil.getAuth().addAuthStateListener(auth -> {
+                FirebaseUser signedIn = auth.getCurrentUser();
+                partitions.switchTo(signedIn != null ? signedIn.getUid() : null);
+            });
+
+            instance = partitions;
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the partition of the signed in user. Lock-free.
+     *
+     * @return the current partition, the signed out one if nobody is signed in
+     */
+    public Partition current() {
+        return current;
+    }
+
+    /**
+     * Makes a user's partition the current one, creating it unopened if it isn't in memory, and
+     * evicts the least recently used accounts' partitions beyond {@link #MAX_OPEN_PARTITIONS}.
+     *
+     * @param uid the signed in user's id, or null if nobody is signed in
+     * @return the user's partition
+     */
+    public Partition switchTo(String uid) {
+        Partition partition;
+        List<Partition> evicted = new ArrayList<>();
+        synchronized (this) {
+            String key = keyOf(uid);
+            partition = partitions.get(key);
+            if (partition != null && partition == current) {
+                return partition;
+            }
+            if (partition == null) {
+                partition = factory.create(uid);
+                partitions.put(key, partition);
+            }
+            current = partition;
+
+            Iterator<Map.Entry<String, Partition>> leastRecentlyUsed = partitions.entrySet().iterator();
+            int accounts = accountCount();
+            while (accounts > maxOpenPartitions && leastRecentlyUsed.hasNext()) {
+                Map.Entry<String, Partition> candidate = leastRecentlyUsed.next();
+                // Signing out passes through the signed out partition, so it would push out an account
+                if (candidate.getValue() != partition && !SIGNED_OUT.equals(candidate.getKey())) {
+                    leastRecentlyUsed.remove();
+                    candidate.getValue().evict();
+                    evicted.add(candidate.getValue());
+                    accounts--;
+                }
+            }
+        }
+        for (Partition candidate : evicted) {
+            closer.execute(candidate::close);
+        }
+        for (OnPartitionChangedListener listener : listeners) {
+            listener.onPartitionChanged(partition);
+        }
+        return partition;
+    }
+
+    /**
+     * Registers a listener and delivers the current partition to it right away.
+     *
+     * @param listener the listener to add
+     */
+    public void addOnPartitionChangedListener(OnPartitionChangedListener listener) {
+        listeners.add(listener);
+        listener.onPartitionChanged(current);
+    }
+
+    /**
+     * Unregisters a listener.
+     *
+     * @param listener the listener to remove
+     */
+    public void removeOnPartitionChangedListener(OnPartitionChangedListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the number of accounts whose partitions are in memory.
+     *
+     * @return the number of partitions, not counting the signed out one
+     */
+    synchronized int getPartitionCount() {
+        return accountCount();
+    }
+
+    /**
+     * Counts the partitions in memory that belong to an account. The caller holds this lock.
+     */
+    private int accountCount() {
+        return partitions.size() - (partitions.containsKey(SIGNED_OUT) ? 1 : 0);
+    }
+
+    private static String keyOf(String uid) {
+        return uid != null ? uid : SIGNED_OUT;
+    }
+
+    /**
+     * Hands the stats that were kept for the whole device before they were partitioned to the
+     * first user who signs in after the update, most likely the one who built them up. The
+     * preferences are copied once, on the writer thread, then the unpartitioned ones are gone and
+     * a flag keeps later users from looking for them again; their totals move into the user's
+     * journal when it is first opened.
+     */
+    private static void adoptUnpartitionedStats(Context context, SharedPreferences statsPreferences,
+                                                SharedPreferences exercisePreferences) {
+        adoptPreferences(context.getSharedPreferences(StatsStore.PREFS_NAME, Context.MODE_PRIVATE), statsPreferences);
+        adoptPreferences(context.getSharedPreferences(EXERCISE_HISTORY_PREFS_NAME, Context.MODE_PRIVATE),
+                exercisePreferences);
+    }
+
+    /**
+     * Copies all values of unpartitioned preferences into a partition's empty preferences and
+     * clears them.
+     */
+    private static void adoptPreferences(SharedPreferences from, SharedPreferences to) {
+        Map<String, ?> values = from.getAll();
+        if (values.isEmpty() || !to.getAll().isEmpty()) {
+            return;
+        }
+        SharedPreferences.Editor editor = to.edit();
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Integer) {
+                editor.putInt(entry.getKey(), (Integer) value);
+            } else if (value instanceof Long) {
+                editor.putLong(entry.getKey(), (Long) value);
+            } else if (value instanceof String) {
+                editor.putString(entry.getKey(), (String) value);
+            } else if (value instanceof Boolean) {
+                editor.putBoolean(entry.getKey(), (Boolean) value);
+            }
+        }
+        editor.commit();
+        from.edit().clear().commit();
+    }
+}
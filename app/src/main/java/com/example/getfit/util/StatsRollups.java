@@ -0,0 +1,223 @@
+package com.example.getfit.util;
+
+import android.content.Context;
+
+import java.util.HashMap;
+
+/**
+ * The {@link StatsRollups} is a time-series view of the {@link StatsJournal} for charts: per-day
+ * aggregates (calories, protein, carbs, fat, points and completed workouts) together with weekly
+ * and monthly rollups of the same values.
+ * <p>
+ * Every journal event updates its day, its week (weeks start on Monday) and its month in O(1), so
+ * the rollups are always current. A range query is answered from the coarsest records that fit
+ * inside it: whole months first, then whole weeks within a month, then single days at the edges. A
+ * one-year chart therefore reads about 12 monthly records plus a few edge weeks and days instead
+ * of every event.
+ * </p>
+ * <p>
+ * The rollups are kept in memory and rebuilt by replaying the journal when the app starts.
+ * </p>
+ */
+public class StatsRollups implements StatsJournal.EventListener {
+
+    // Indexes into an aggregate
+    public static final int CALORIES = 0;
+    public static final int PROTEIN = 1;
+    public static final int CARBS = 2;
+    public static final int FAT = 3;
+    public static final int POINTS = 4;
+    public static final int WORKOUTS = 5;
+    public static final int FIELD_COUNT = 6;
+
+    private final HashMap<Integer, long[]> days = new HashMap<>();
+    private final HashMap<Integer, long[]> weeks = new HashMap<>();
+    private final HashMap<Integer, long[]> months = new HashMap<>();
+
+    // Number of records the last query read, for tests and benchmarks
+    private int lastQueryRecords;
+
+    /**
+     * Creates empty rollups. Package-private so tests can feed events directly; the app uses
+     * {@link #getInstance(Context)}.
+     */
+    StatsRollups() {
+    }
+
+    /**
+     * Returns the rollups of the signed in user, so every chart reads the same rollups. The
+     * rollups are built from the user's journal on first use and then follow every appended event.
+     *
+     * @param context the context used to open the journal
+     * @return the signed in user's StatsRollups
+     */
+    public static StatsRollups getInstance(Context context) {
+        return StatsPartitions.getInstance(context).current().getRollups();
+    }
+
+    /**
+     * Adds one journal event to its day, week and month.
+     */
+    @Override
+    public synchronized void onEvent(int type, long timeMillis, int epochDay, int amount, long subject, int detail) {
+        switch (type) {
+            case StatsJournal.EVENT_CALORIES:
+                add(epochDay, CALORIES, amount);
+                add(epochDay, PROTEIN, StatsJournal.proteinOf(detail));
+                add(epochDay, CARBS, StatsJournal.carbsOf(detail));
+                add(epochDay, FAT, StatsJournal.fatOf(detail));
+                break;
+            case StatsJournal.EVENT_POINTS:
+                add(epochDay, POINTS, amount);
+                if (detail == StatsJournal.REASON_EXERCISE) {
+                    add(epochDay, WORKOUTS, 1);
+                }
+                break;
+            case StatsJournal.EVENT_CALORIES_REMOVED:
+                // UserStats starts today's calories again, so the day's intake on this device is taken back out
+                long[] day = days.get(epochDay);
+                if (day != null) {
+                    add(epochDay, CALORIES, -day[CALORIES]);
+                    add(epochDay, PROTEIN, -day[PROTEIN]);
+                    add(epochDay, CARBS, -day[CARBS]);
+                    add(epochDay, FAT, -day[FAT]);
+                }
+                break;
+            default:
+                // Removed points, check-ins and workouts (counted by the points they earned) don't change
+                // the history of what was earned or eaten
+                break;
+        }
+    }
+
+    /**
+     * Returns the aggregate of a single day.
+     *
+     * @param epochDay the day
+     * @return a copy of the day's values, indexed by the field constants; all zero for days without events
+     */
+    public synchronized long[] getDay(int epochDay) {
+        long[] day = days.get(epochDay);
+        return day == null ? new long[FIELD_COUNT] : day.clone();
+    }
+
+    /**
+     * Sums the aggregates over a range of days, reading monthly and weekly rollups wherever they
+     * fit entirely inside the range.
+     *
+     * @param fromEpochDay the first day of the range, inclusive
+     * @param toEpochDay   the last day of the range, inclusive
+     * @return the summed values, indexed by the field constants
+     */
+    public synchronized long[] query(int fromEpochDay, int toEpochDay) {
+        long[] total = new long[FIELD_COUNT];
+        int records = 0;
+
+        int day = fromEpochDay;
+        while (day <= toEpochDay) {
+            int month = monthOf(day);
+            int monthEnd = firstDayOfMonth(month + 1) - 1;
+            if (day == firstDayOfMonth(month) && monthEnd <= toEpochDay) {
+                addInto(total, months.get(month));
+                day = monthEnd + 1;
+            } else if (Math.floorMod(day - 4, 7) == 0 && day + 6 <= Math.min(toEpochDay, monthEnd)) {
+                // Epoch day 4 (1970-01-05) was a Monday. Weeks never cross into the next month, so
+                // the query stays aligned to pick up whole months there
+                addInto(total, weeks.get(weekOf(day)));
+                day += 7;
+            } else {
+                addInto(total, days.get(day));
+                day++;
+            }
+            records++;
+        }
+
+        lastQueryRecords = records;
+        return total;
+    }
+
+    /**
+     * Returns the number of day, week and month records the last query read.
+     *
+     * @return the number of records read
+     */
+    synchronized int getLastQueryRecords() {
+        return lastQueryRecords;
+    }
+
+    /**
+     * Adds a value to a field of a day and of the week and month containing it.
+     */
+    private void add(int epochDay, int field, long value) {
+        if (value == 0) {
+            return;
+        }
+        aggregate(days, epochDay)[field] += value;
+        aggregate(weeks, weekOf(epochDay))[field] += value;
+        aggregate(months, monthOf(epochDay))[field] += value;
+    }
+
+    private static long[] aggregate(HashMap<Integer, long[]> rollup, int key) {
+        long[] values = rollup.get(key);
+        if (values == null) {
+            values = new long[FIELD_COUNT];
+            rollup.put(key, values);
+        }
+        return values;
+    }
+
+    private static void addInto(long[] total, long[] values) {
+        if (values != null) {
+            for (int i = 0; i < FIELD_COUNT; i++) {
+                total[i] += values[i];
+            }
+        }
+    }
+
+    /**
+     * Returns the Monday-based week an epoch day belongs to.
+     *
+     * @param epochDay the day
+     * @return the week number, counted from the week of 1970-01-05
+     */
+    static int weekOf(int epochDay) {
+        return Math.floorDiv(epochDay - 4, 7);
+    }
+
+    /**
+     * Returns the month an epoch day belongs to, without allocating a Calendar.
+     *
+     * @param epochDay the day
+     * @return the month as {@code year * 12 + (month - 1)}
+     */
+    static int monthOf(int epochDay) {
+        // Civil-from-days conversion on the proleptic Gregorian calendar, with years starting in March
+        long z = epochDay + 719468L;
+        long era = Math.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        long month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return (int) (year * 12 + month - 1);
+    }
+
+    /**
+     * Returns the first epoch day of a month.
+     *
+     * @param month the month as {@code year * 12 + (month - 1)}
+     * @return the epoch day of the first of that month
+     */
+    static int firstDayOfMonth(int month) {
+        // Days-from-civil conversion, the inverse of monthOf
+        long year = Math.floorDiv(month, 12);
+        long monthOfYear = Math.floorMod(month, 12) + 1;
+        year -= monthOfYear <= 2 ? 1 : 0;
+        long era = Math.floorDiv(year, 400);
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (monthOfYear > 2 ? monthOfYear - 3 : monthOfYear + 9) + 2) / 5;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return (int) (era * 146097 + dayOfEra - 719468);
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.getfit.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@link StatsStore} keeps the values behind {@link com.example.getfit.models.UserStats} in
+ * memory and writes them to SharedPreferences behind the caller's back.
+ * <p>
+ * All values are loaded once, the first time the store is created; after that reads never touch
+ * the preferences. Updates go to atomic in-memory values and only mark the key as dirty. A single
+ * background thread writes the dirty keys in one batch a short delay after the first change, so a
+ * burst of taps costs one preferences write instead of one full-file rewrite per tap.
+ * </p>
+ * <p>
+ * Pending changes are flushed when an activity pauses ({@link #flush()}) and when the process
+ * shuts down normally.
+ * </p>
+ */
+public class StatsStore {
+
+    public static final String PREFS_NAME = "userStatsPrefs";
+    // Time changes are collected before they are written as one batch
+    static final long FLUSH_DELAY_MS = 500;
+
+    private final SharedPreferences sharedPreferences;
+    private final ScheduledExecutorService writer;
+    private final long flushDelayMs;
+
+    private final ConcurrentHashMap<String, AtomicInteger> ints = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicLong> longs = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> strings = new ConcurrentHashMap<>();
+    private final Set<String> dirtyKeys = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    /**
+     * Creates a store over the given preferences and loads all of their values.
+     *
+     * @param sharedPreferences the preferences the values are persisted to
+     * @param writer            the single background thread batches are written on
+     * @param flushDelayMs      how long changes are collected before they are written
+     */
+    StatsStore(SharedPreferences sharedPreferences, ScheduledExecutorService writer, long flushDelayMs) {
+        this.sharedPreferences = sharedPreferences;
+        this.writer = writer;
+        this.flushDelayMs = flushDelayMs;
+
+        for (Map.Entry<String, ?> entry : sharedPreferences.getAll().entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Integer) {
+                ints.put(entry.getKey(), new AtomicInteger((Integer) value));
+            } else if (value instanceof Long) {
+                longs.put(entry.getKey(), new AtomicLong((Long) value));
+            } else if (value instanceof String) {
+                strings.put(entry.getKey(), (String) value);
+            }
+        }
+    }
+
+    /**
+     * Returns the store of the signed in user, so every UserStats of that user shares the same
+     * in-memory values. Each user's values are kept in their own preferences file, see
+     * {@link StatsPartitions}.
+     *
+     * @param context the context used to access SharedPreferences
+     * @return the signed in user's StatsStore
+     */
+    public static StatsStore getInstance(Context context) {
+        return StatsPartitions.getInstance(context).current().getStore();
+    }
+
+    /**
+     * Creates the single daemon thread batches are written on.
+     *
+     * @return the writer executor
+     */
+    static ScheduledExecutorService newWriterThread() {
+        return Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stats-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns an int value.
+     *
+     * @param key          the key of the value
+     * @param defaultValue the value returned if the key was never set
+     * @return the current value
+     */
+    public int getInt(String key, int defaultValue) {
+        AtomicInteger value = ints.get(key);
+        return value == null ? defaultValue : value.get();
+    }
+
+    /**
+     * Sets an int value.
+     *
+     * @param key   the key of the value
+     * @param value the new value
+     */
+    public void putInt(String key, int value) {
+        intValue(key).set(value);
+        markDirty(key);
+    }
+
+    /**
+     * Atomically adds to an int value. Values that were never set start at 0.
+     *
+     * @param key   the key of the value
+     * @param delta the amount to add
+     * @return the value after the addition
+     */
+    public int addInt(String key, int delta) {
+        int result = intValue(key).addAndGet(delta);
+        markDirty(key);
+        return result;
+    }
+
+    /**
+     * Returns a long value.
+     *
+     * @param key          the key of the value
+     * @param defaultValue the value returned if the key was never set
+     * @return the current value
+     */
+    public long getLong(String key, long defaultValue) {
+        AtomicLong value = longs.get(key);
+        return value == null ? defaultValue : value.get();
+    }
+
+    /**
+     * Sets a long value.
+     *
+     * @param key   the key of the value
+     * @param value the new value
+     */
+    public void putLong(String key, long value) {
+        AtomicLong current = longs.get(key);
+        if (current == null) {
+            current = longs.computeIfAbsent(key, k -> new AtomicLong());
+        }
+        current.set(value);
+        markDirty(key);
+    }
+
+    /**
+     * Returns a string value.
+     *
+     * @param key          the key of the value
+     * @param defaultValue the value returned if the key was never set
+     * @return the current value
+     */
+    public String getString(String key, String defaultValue) {
+        String value = strings.get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Sets a string value.
+     *
+     * @param key   the key of the value
+     * @param value the new value, not null
+     */
+    public void putString(String key, String value) {
+        strings.put(key, value);
+        markDirty(key);
+    }
+
+    /**
+     * Writes pending changes on the background thread right away instead of waiting for the
+     * batch delay. Called when an activity pauses, since the process may be killed afterwards.
+     */
+    public void flush() {
+        if (!dirtyKeys.isEmpty()) {
+            writer.execute(this::flushNow);
+        }
+    }
+
+    /**
+     * Writes all pending changes in a single preferences commit on the calling thread.
+     */
+    synchronized void flushNow() {
+        // Clear the flag first so a change made during this write schedules another batch
+        flushScheduled.set(false);
+        if (dirtyKeys.isEmpty()) {
+            return;
+        }
+
+        SharedPreferences.Editor editor = sharedPreferences.edit();
+        for (String key : dirtyKeys) {
+            dirtyKeys.remove(key);
+            if (ints.containsKey(key)) {
+                editor.putInt(key, ints.get(key).get());
+            } else if (longs.containsKey(key)) {
+                editor.putLong(key, longs.get(key).get());
+            } else if (strings.containsKey(key)) {
+                editor.putString(key, strings.get(key));
+            }
+        }
+        editor.commit();
+    }
+
+    /**
+     * Returns the atomic holder of an int value, creating it at 0 if needed.
+     *
+     * @param key the key of the value
+     * @return the holder
+     */
+    private AtomicInteger intValue(String key) {
+        AtomicInteger value = ints.get(key);
+        if (value == null) {
+            value = ints.computeIfAbsent(key, k -> new AtomicInteger());
+        }
+        return value;
+    }
+
+    /**
+     * Marks a key as changed and schedules a batch write unless one is already pending.
+     *
+     * @param key the changed key
+     */
+    private void markDirty(String key) {
+        dirtyKeys.add(key);
+        if (flushScheduled.compareAndSet(false, true)) {
+            writer.schedule(this::flushNow, flushDelayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.getfit.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.SetOptions;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link StatsSync} keeps points and calories in sync between the devices a user signs in on,
+ * through the user's Firestore document.
+ * <p>
+ * Each device publishes its own {@link StatsCounters.Entry} under its device id in the
+ * {@value #FIELD_STATS_COUNTERS} map of the document and never touches the entries of other
+ * devices, so concurrent writes can't conflict. A snapshot listener merges the other devices'
+ * entries and hands their sums to {@link StatsTotals}. A device that signs in for the first time
+ * only reads these few counters, not the history behind them.
+ * </p>
+ * <p>
+ * Writes are debounced: the first journal event after a write schedules the next one
+ * {@value #DEBOUNCE_MS} ms later, and everything that happens until then goes out as a single
+ * merge of the latest counters. {@link #flush()} writes right away, for {@code onPause}.
+ * </p>
+ */
+public class StatsSync implements StatsJournal.EventListener {
+
+    private static final String TAG = "StatsSync";
+    private static final String PREFS_NAME = "statsSyncPrefs";
+    private static final String KEY_DEVICE_ID = "deviceId";
+    static final String FIELD_STATS_COUNTERS = "statsCounters";
+    static final long DEBOUNCE_MS = 5_000;
+
+    private final StatsTotals totals;
+    private final FirebaseFirestore db;
+    private final String deviceId;
+    private final ScheduledExecutorService executor;
+    private final long debounceMs;
+
+    // All guarded by this
+    private String uid;
+    private ListenerRegistration registration;
+    private StatsCounters remote = new StatsCounters();
+    private ScheduledFuture<?> pendingWrite;
+    private StatsCounters.Entry lastWritten;
+    private int writeCount;
+
+    /**
+     * Creates a sync that isn't attached to any user yet. Package-private so tests can run several
+     * devices in one process; in the app each user's {@link StatsPartitions.Partition} creates one
+     * over its own totals and attaches it to the user.
+     *
+     * @param totals     the totals this device's counters are read from and remote sums go to
+     * @param db         the Firestore instance holding the user documents
+     * @param deviceId   the id this device publishes its counters under
+     * @param executor   the thread writes are scheduled and snapshots delivered on
+     * @param debounceMs how long changes are collected before they are written
+     */
+    StatsSync(StatsTotals totals, FirebaseFirestore db, String deviceId, ScheduledExecutorService executor,
+              long debounceMs) {
+        this.totals = totals;
+        this.db = db;
+        this.deviceId = deviceId;
+        this.executor = executor;
+        this.debounceMs = debounceMs;
+    }
+
+    /**
+     * Returns the id of this installation, creating it on first use. Every user's sync publishes
+     * under the same id, each in their own document.
+     *
+     * @param context the context used to open the device id preferences
+     * @return the device id
+     */
+    static String deviceId(Context context) {
+        SharedPreferences sharedPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String deviceId = sharedPreferences.getString(KEY_DEVICE_ID, null);
+        if (deviceId == null) {
+            deviceId = UUID.randomUUID().toString();
+            sharedPreferences.edit().putString(KEY_DEVICE_ID, deviceId).apply();
+        }
+        return deviceId;
+    }
+
+    /**
+     * Starts syncing with a user's document, or stops syncing when no user is signed in. The other
+     * devices' counters of the previous user are dropped.
+     *
+     * @param uid the signed in user's id, or null
+     */
+    public synchronized void attach(String uid) {
+        if (uid == null ? this.uid == null : uid.equals(this.uid)) {
+            return;
+        }
+        if (registration != null) {
+            registration.remove();
+            registration = null;
+        }
+        this.uid = uid;
+        remote = new StatsCounters();
+        lastWritten = null;
+        totals.setRemote(0, StatsCounters.NO_DAY, 0);
+
+        if (uid != null) {
+            registration = document(uid).addSnapshotListener(executor,
+                    (snapshot, error) -> onSnapshot(uid, snapshot, error));
+            scheduleWrite();
+        }
+    }
+
+    /**
+     * Schedules a write of this device's counters when the journal changes.
+     */
+    @Override
+    public void onEvent(int type, long timeMillis, int epochDay, int amount, long subject, int detail) {
+        scheduleWrite();
+    }
+
+    /**
+     * Writes this device's counters now instead of at the end of the debounce delay.
+     *
+     * @return a Task that completes when the write is acknowledged, or right away if nothing changed
+     */
+    public synchronized Task<Void> flush() {
+        if (pendingWrite != null) {
+            pendingWrite.cancel(false);
+            pendingWrite = null;
+        }
+        return write();
+    }
+
+    /**
+     * Returns the number of writes sent so far.
+     *
+     * @return the number of writes
+     */
+    synchronized int getWriteCount() {
+        return writeCount;
+    }
+
+    /**
+     * Schedules a write at the end of the debounce delay, unless one is scheduled already.
+     */
+    private synchronized void scheduleWrite() {
+        if (uid != null && pendingWrite == null) {
+            pendingWrite = executor.schedule(() -> {
+                synchronized (StatsSync.this) {
+                    pendingWrite = null;
+                    write();
+                }
+            }, debounceMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Merges this device's counters into the user's document if they changed since the last write.
+     */
+    private Task<Void> write() {
+        StatsCounters.Entry entry = totals.getLocalEntry();
+        if (uid == null || entry.equals(lastWritten)) {
+            return Tasks.forResult(null);
+        }
+        lastWritten = entry;
+        writeCount++;
+
+        final String writtenUid = uid;
+        Map<String, Object> data = Collections.singletonMap(FIELD_STATS_COUNTERS,
+                Collections.singletonMap(deviceId, entry.toMap()));
+        return document(writtenUid).set(data, SetOptions.merge())
+                .addOnFailureListener(e -> {
+                    Log.w(TAG, "Failed to write stats counters", e);
+                    synchronized (StatsSync.this) {
+                        // Try again with the next change
+                        if (writtenUid.equals(uid)) {
+                            lastWritten = null;
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Merges the other devices' counters from a snapshot of the user's document.
+     */
+    private synchronized void onSnapshot(String snapshotUid, DocumentSnapshot snapshot, FirebaseFirestoreException error) {
+        if (error != null) {
+            Log.w(TAG, "Listening to stats counters failed", error);
+            return;
+        }
+        if (!snapshotUid.equals(uid) || snapshot == null || !snapshot.exists()) {
+            return;
+        }
+        Object stored = snapshot.get(FIELD_STATS_COUNTERS);
+        if (stored instanceof Map) {
+            remote.mergeAll((Map<?, ?>) stored, deviceId);
+            int day = remote.getLatestCalorieDay();
+            totals.setRemote(remote.getPoints(), day, remote.getCalories(day));
+        }
+    }
+
+    private DocumentReference document(String uid) {
+        return db.collection("users").document(uid);
+    }
+}
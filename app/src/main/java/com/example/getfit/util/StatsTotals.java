@@ -0,0 +1,250 @@
+package com.example.getfit.util;
+
+import android.content.Context;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * The {@link StatsTotals} is the view of the {@link StatsJournal} that
+ * {@link com.example.getfit.models.UserStats} reads from: the point total, today's calories and the
+ * day of the last check-in.
+ * <p>
+ * It is built by replaying the journal once and then updated by every appended event, so reading a
+ * total is a field read. Calories only count for the day they were added on.
+ * </p>
+ * <p>
+ * This device's events are kept as its {@link StatsCounters.Entry}: points and calories added and
+ * removed. {@link StatsSync} publishes that entry and hands back what the user's other devices
+ * contributed through {@link #setRemote(long, int, long)}; the totals read by UserStats include
+ * both.
+ * </p>
+ * <p>
+ * Updates are serialized on this object, while reads come from any thread without locking. Each
+ * total is therefore kept in a single volatile field; today's calories are packed together with
+ * their day into one long, so a reader can't pair a new day with the previous day's count. The
+ * previous day's calories are kept the same way, so the day-end rules can still judge a day
+ * after the first calories of the next one came in.
+ * </p>
+ */
+public class StatsTotals implements StatsJournal.EventListener {
+
+    // Keys the totals were kept under before the journal existed
+    private static final String KEY_LEGACY_TOTAL_CALORIES = "totalCalories";
+    private static final String KEY_LEGACY_LAST_RESET_TIMESTAMP = "lastResetTimestamp";
+    private static final String KEY_LEGACY_POINTS = "total_points";
+    private static final String KEY_LEGACY_LAST_CHECK_IN_DATE = "last_check_in_date";
+
+    private static final int NO_DAY = StatsCounters.NO_DAY;
+
+    // This device's counters and the other devices' sums, guarded by this
+    private long pointsAdded;
+    private long pointsRemoved;
+    private int calorieDay = NO_DAY;
+    private long caloriesAdded;
+    private long caloriesRemoved;
+    private long remotePoints;
+    private int remoteCalorieDay = NO_DAY;
+    private long remoteCalories;
+
+    private volatile int totalPoints;
+    // The day calories were last added or reset on in the upper 32 bits, their sum in the lower 32
+    private volatile long dayCalories = packDayCalories(NO_DAY, 0);
+    // The same for the day before dayCalories moved to its current day
+    private volatile long previousDayCalories = packDayCalories(NO_DAY, 0);
+    private volatile int lastCheckInDay = NO_DAY;
+
+    /**
+     * Creates empty totals. Package-private so tests can replay a journal into fresh totals; the
+     * app uses {@link #getInstance(Context)}.
+     */
+    StatsTotals() {
+    }
+
+    /**
+     * Returns the totals of the signed in user, so every UserStats of that user reads the same
+     * totals. When a user's journal is first opened and still empty, totals that were stored in
+     * SharedPreferences by earlier versions of the app are moved into it.
+     *
+     * @param context the context used to open the journal and the preferences
+     * @return the signed in user's StatsTotals
+     */
+    public static StatsTotals getInstance(Context context) {
+        return StatsPartitions.getInstance(context).current().getTotals();
+    }
+
+    /**
+     * Appends events to an empty journal that reproduce the totals kept in SharedPreferences.
+     *
+     * @param statsStore the store holding the legacy values
+     * @param journal    the empty journal
+     */
+    static void migrate(StatsStore statsStore, StatsJournal journal) {
+        StatsClock clock = journal.getClock();
+        long now = clock.currentTimeMillis();
+        int today = clock.today();
+
+        int points = statsStore.getInt(KEY_LEGACY_POINTS, 0);
+        if (points != 0) {
+            journal.append(StatsJournal.EVENT_POINTS, now, points, 0, StatsJournal.REASON_MIGRATED);
+        }
+
+        int calories = statsStore.getInt(KEY_LEGACY_TOTAL_CALORIES, 0);
+        long lastAdded = statsStore.getLong(KEY_LEGACY_LAST_RESET_TIMESTAMP, 0);
+        if (calories != 0 && lastAdded != 0 && clock.epochDay(lastAdded) == today) {
+            journal.append(StatsJournal.EVENT_CALORIES, now, calories, 0, 0);
+        }
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+        dateFormat.setTimeZone(clock.getTimeZone());
+        String todayDate = dateFormat.format(new Date(now));
+        if (todayDate.equals(statsStore.getString(KEY_LEGACY_LAST_CHECK_IN_DATE, ""))) {
+            journal.append(StatsJournal.EVENT_CHECK_IN, now, 0, 0, 0);
+        }
+    }
+
+    /**
+     * Applies one journal event to the totals.
+     */
+    @Override
+    public synchronized void onEvent(int type, long timeMillis, int epochDay, int amount, long subject, int detail) {
+        switch (type) {
+            case StatsJournal.EVENT_CALORIES:
+                startCalorieDay(epochDay);
+                if (amount >= 0) {
+                    caloriesAdded += amount;
+                } else {
+                    caloriesRemoved -= amount;
+                }
+                break;
+            case StatsJournal.EVENT_CALORIES_REMOVED:
+                startCalorieDay(epochDay);
+                if (amount >= 0) {
+                    caloriesRemoved += amount;
+                } else {
+                    caloriesAdded -= amount;
+                }
+                break;
+            case StatsJournal.EVENT_POINTS:
+                if (amount >= 0) {
+                    pointsAdded += amount;
+                } else {
+                    pointsRemoved -= amount;
+                }
+                break;
+            case StatsJournal.EVENT_POINTS_REMOVED:
+                if (amount >= 0) {
+                    pointsRemoved += amount;
+                } else {
+                    pointsAdded -= amount;
+                }
+                // A reset also allows checking in again, as it did before the journal existed
+                lastCheckInDay = NO_DAY;
+                break;
+            case StatsJournal.EVENT_CHECK_IN:
+                lastCheckInDay = epochDay;
+                break;
+            default:
+                break;
+        }
+        publish();
+    }
+
+    /**
+     * Replaces what the user's other devices contributed to the totals.
+     *
+     * @param points      the points of all other devices
+     * @param calorieDay  the latest day any other device changed calories on
+     * @param calories    the calories of all other devices on that day
+     */
+    public synchronized void setRemote(long points, int calorieDay, long calories) {
+        remotePoints = points;
+        remoteCalorieDay = calorieDay;
+        remoteCalories = calories;
+        publish();
+    }
+
+    /**
+     * Returns this device's counters, as they are published to the other devices.
+     *
+     * @return this device's entry
+     */
+    public synchronized StatsCounters.Entry getLocalEntry() {
+        return new StatsCounters.Entry(pointsAdded, pointsRemoved, calorieDay, caloriesAdded, caloriesRemoved);
+    }
+
+    /**
+     * Returns the points earned on all of the user's devices since the last points reset.
+     *
+     * @return the total points
+     */
+    public int getTotalPoints() {
+        return totalPoints;
+    }
+
+    /**
+     * Returns the calories added on a day since the last calorie reset.
+     *
+     * @param epochDay the day, usually today
+     * @return the calories of that day, or 0 if calories were added on a later day since
+     */
+    public int getCalories(int epochDay) {
+        long current = dayCalories;
+        if (dayOf(current) == epochDay) {
+            return caloriesOf(current);
+        }
+        long previous = previousDayCalories;
+        return dayOf(previous) == epochDay ? caloriesOf(previous) : 0;
+    }
+
+    /**
+     * Checks whether the user checked in on a day.
+     *
+     * @param epochDay the day, usually today
+     * @return true if the last check-in was on that day
+     */
+    public boolean hasCheckedIn(int epochDay) {
+        return lastCheckInDay == epochDay;
+    }
+
+    /**
+     * Moves this device's calorie counters to a new day.
+     */
+    private void startCalorieDay(int epochDay) {
+        if (calorieDay != epochDay) {
+            calorieDay = epochDay;
+            caloriesAdded = 0;
+            caloriesRemoved = 0;
+        }
+    }
+
+    /**
+     * Recomputes the totals that readers see from the local and remote counters.
+     */
+    private void publish() {
+        totalPoints = (int) (pointsAdded - pointsRemoved + remotePoints);
+        int day = Math.max(calorieDay, remoteCalorieDay);
+        long calories = (calorieDay == day ? caloriesAdded - caloriesRemoved : 0)
+                + (remoteCalorieDay == day ? remoteCalories : 0);
+        if (day != dayOf(dayCalories)) {
+            previousDayCalories = dayCalories;
+        }
+        dayCalories = packDayCalories(day, (int) calories);
+    }
+
+    /**
+     * Packs a day and the calories added on it into one value for {@link #dayCalories}.
+     */
+    private static long packDayCalories(int epochDay, int calories) {
+        return ((long) epochDay << 32) | (calories & 0xFFFFFFFFL);
+    }
+
+    private static int dayOf(long dayCalories) {
+        return (int) (dayCalories >> 32);
+    }
+
+    private static int caloriesOf(long dayCalories) {
+        return (int) dayCalories;
+    }
+}
@@ -0,0 +1,292 @@
+package com.example.getfit.util;
+
+import android.content.Context;
+
+import java.util.Arrays;
+
+/**
+ * The {@link StatsTrends} are the rolling averages and trends of the {@link StatsJournal}: the
+ * average daily calories of the last 7 and 30 days, a smoothed calorie trend and the weight trend.
+ * <p>
+ * Each window is a ring of daily buckets with a running sum of the complete days in it. An event
+ * adds to the current day's bucket in O(1); when a day is over, its bucket joins the sum and the
+ * day that falls out of the window is subtracted, so the sums are never recomputed. Averages count
+ * the days calories were logged on, so days without the app don't pull the average to zero, and
+ * the current day only counts once it is complete.
+ * </p>
+ * <p>
+ * The trends are exponentially weighted moving averages. Each complete day with logged calories
+ * moves the calorie trend a quarter of the way, like a 7-day EMA. The weight trend moves 10% of the
+ * way per day since the previous weigh-in, so a gap of several days counts like several days of
+ * smoothing; logging the weight again on the same day replaces that day's entry.
+ * </p>
+ * <p>
+ * Everything is kept in memory and rebuilt by replaying the journal when the app starts, so reads
+ * never touch the disk and are cheap enough for the UI thread. The calories are those journaled on
+ * this device.
+ * </p>
+ */
+public class StatsTrends implements StatsJournal.EventListener {
+
+    public static final int WEEK = 7;
+    public static final int MONTH = 30;
+
+    // Each complete day moves the calorie trend by 2 / (7 + 1)
+    static final double CALORIE_ALPHA = 2.0 / (WEEK + 1);
+    // Each day since the last weigh-in moves the weight trend by 10% of the difference
+    static final double WEIGHT_DAILY_ALPHA = 0.1;
+
+    private static final int NO_DAY = StatsCounters.NO_DAY;
+
+    private final StatsClock clock;
+
+    // Guarded by this
+    private final RollingWindow week = new RollingWindow(WEEK);
+    private final RollingWindow month = new RollingWindow(MONTH);
+    private int calorieDay = NO_DAY;
+    private long dayCalories;
+    private double calorieTrend = Double.NaN;
+    private int weightDay = NO_DAY;
+    private int previousWeightDay = NO_DAY;
+    private double previousWeightTrend = Double.NaN;
+    private double weightTrend = Double.NaN;
+    private double latestWeight = Double.NaN;
+
+    /**
+     * Creates empty trends. Package-private so tests can feed events directly; the app uses
+     * {@link #getInstance(Context)}.
+     *
+     * @param clock the clock that decides which days are complete
+     */
+    StatsTrends(StatsClock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the trends of the signed in user, so every screen reads the same trends. They are
+     * built from the user's journal on first use and then follow every appended event.
+     *
+     * @param context the context used to open the journal
+     * @return the signed in user's StatsTrends
+     */
+    public static StatsTrends getInstance(Context context) {
+        return StatsPartitions.getInstance(context).current().getTrends();
+    }
+
+    /**
+     * Adds one journal event to the windows and trends.
+     */
+    @Override
+    public synchronized void onEvent(int type, long timeMillis, int epochDay, int amount, long subject, int detail) {
+        switch (type) {
+            case StatsJournal.EVENT_CALORIES:
+                addCalories(epochDay, amount);
+                break;
+            case StatsJournal.EVENT_CALORIES_REMOVED:
+                // As in the rollups, a reset takes this device's intake of the day back out
+                advanceTo(epochDay);
+                addCalories(epochDay, calorieDay == epochDay ? -dayCalories : 0);
+                break;
+            case StatsJournal.EVENT_WEIGHT:
+                addWeight(epochDay, amount / 1000.0);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Returns the average calories per logged day over the complete days of a window.
+     *
+     * @param windowDays {@link #WEEK} or {@link #MONTH}
+     * @return the average of the days before today, 0 if no calories were logged on them
+     * @throws IllegalArgumentException for another window
+     */
+    public synchronized double getAverageCalories(int windowDays) {
+        advanceTo(clock.today());
+        return window(windowDays).average();
+    }
+
+    /**
+     * Returns the number of days calories were logged on in the complete days of a window.
+     *
+     * @param windowDays {@link #WEEK} or {@link #MONTH}
+     * @return the number of days the average is over
+     * @throws IllegalArgumentException for another window
+     */
+    public synchronized int getLoggedDays(int windowDays) {
+        advanceTo(clock.today());
+        return window(windowDays).loggedDays;
+    }
+
+    /**
+     * Returns the smoothed calories per day, over the complete days calories were logged on.
+     *
+     * @return the calorie trend, or NaN before the first complete day
+     */
+    public synchronized double getCalorieTrend() {
+        advanceTo(clock.today());
+        return calorieTrend;
+    }
+
+    /**
+     * Returns the smoothed weight.
+     *
+     * @return the weight trend in kilograms, or NaN if no weight was logged
+     */
+    public synchronized double getWeightTrend() {
+        return weightTrend;
+    }
+
+    /**
+     * Returns the last logged weight.
+     *
+     * @return the weight in kilograms, or NaN if no weight was logged
+     */
+    public synchronized double getLatestWeight() {
+        return latestWeight;
+    }
+
+    private void addCalories(int epochDay, long calories) {
+        advanceTo(epochDay);
+        if (epochDay != calorieDay) {
+            // An event from before the latest day; days never go backwards in the journal
+            return;
+        }
+        dayCalories += calories;
+        week.add(epochDay, calories);
+        month.add(epochDay, calories);
+    }
+
+    private void addWeight(int epochDay, double kilograms) {
+        if (epochDay > weightDay) {
+            previousWeightDay = weightDay;
+            previousWeightTrend = weightTrend;
+            weightDay = epochDay;
+        }
+        // The day's latest weigh-in replaces its earlier ones
+        if (previousWeightDay == NO_DAY) {
+            weightTrend = kilograms;
+        } else {
+            double alpha = 1 - Math.pow(1 - WEIGHT_DAILY_ALPHA, weightDay - previousWeightDay);
+            weightTrend = previousWeightTrend + alpha * (kilograms - previousWeightTrend);
+        }
+        latestWeight = kilograms;
+    }
+
+    /**
+     * Completes the days before a day: folds the last day's calories into the trend and moves the
+     * windows forward.
+     */
+    private void advanceTo(int epochDay) {
+        if (epochDay <= calorieDay) {
+            return;
+        }
+        if (calorieDay != NO_DAY && dayCalories > 0) {
+            calorieTrend = Double.isNaN(calorieTrend)
+                    ? dayCalories : calorieTrend + CALORIE_ALPHA * (dayCalories - calorieTrend);
+        }
+        calorieDay = epochDay;
+        dayCalories = 0;
+        week.advanceTo(epochDay);
+        month.advanceTo(epochDay);
+    }
+
+    private RollingWindow window(int windowDays) {
+        switch (windowDays) {
+            case WEEK:
+                return week;
+            case MONTH:
+                return month;
+            default:
+                throw new IllegalArgumentException("No " + windowDays + "-day window");
+        }
+    }
+
+    /**
+     * The sum of daily values over the complete days of a window, in a ring of one bucket per day
+     * of the window plus one for the current day.
+     */
+    static final class RollingWindow {
+        private final long[] buckets;
+        private int head = NO_DAY;
+        private long sum;
+        private int loggedDays;
+
+        /**
+         * Creates an empty window.
+         *
+         * @param days the number of complete days the window covers
+         */
+        RollingWindow(int days) {
+            buckets = new long[days + 1];
+        }
+
+        /**
+         * Adds to a day's value. Days before the current day are ignored.
+         *
+         * @param epochDay the day
+         * @param value    the amount to add
+         */
+        void add(int epochDay, long value) {
+            advanceTo(epochDay);
+            if (epochDay == head) {
+                buckets[slot(head)] += value;
+            }
+        }
+
+        /**
+         * Makes a day the current day, completing the days before it.
+         *
+         * @param epochDay the new current day
+         */
+        void advanceTo(int epochDay) {
+            if (head == NO_DAY || epochDay - head > buckets.length) {
+                // Nothing logged within the window
+                Arrays.fill(buckets, 0);
+                sum = 0;
+                loggedDays = 0;
+                head = epochDay;
+                return;
+            }
+            while (head < epochDay) {
+                long completed = buckets[slot(head)];
+                sum += completed;
+                if (completed != 0) {
+                    loggedDays++;
+                }
+                head++;
+                // The slot of the new day held the day that just left the window
+                int slot = slot(head);
+                long left = buckets[slot];
+                sum -= left;
+                if (left != 0) {
+                    loggedDays--;
+                }
+                buckets[slot] = 0;
+            }
+        }
+
+        /**
+         * Returns the average of the complete days with a value.
+         *
+         * @return the average, 0 if no day has a value
+         */
+        double average() {
+            return loggedDays == 0 ? 0 : (double) sum / loggedDays;
+        }
+
+        /**
+         * Returns the sum of the complete days.
+         *
+         * @return the sum
+         */
+        long sum() {
+            return sum;
+        }
+
+        private int slot(int epochDay) {
+            return Math.floorMod(epochDay, buckets.length);
+        }
+    }
+}
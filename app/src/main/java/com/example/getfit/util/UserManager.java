@@ -1,13 +1,29 @@
 package com.example.getfit.util;
 
 import android.content.Context;
+import android.util.Log;
 
 import com.example.getfit.models.User;
 import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
 import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.MetadataChanges;
+import com.google.firebase.firestore.SetOptions;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Utility class responsible for managing user data in Firebase.
@@ -16,21 +32,123 @@ import com.google.firebase.firestore.FirebaseFirestore;
  * It also handles user authentication using Firebase Auth. The class follows the singleton pattern
  * to ensure only one instance exists and to cache the current user.
  * </p>
+ * <p>
+ * The cache is kept up to date by one long-lived snapshot listener on the signed in user's
+ * document, attached on the first fetch or sign in and detached on sign out. Its first snapshot
+ * answers the first {@link #fetchUserData()}; every later fetch is answered from the cache without
+ * a round trip, and screens that want to follow changes register an {@link OnUserChangedListener}.
+ * Concurrent fetches on a cache miss share one pending Task.
+ * </p>
+ * <p>
+ * Reads are cache-first: the listener's first snapshot usually comes from Firestore's local cache,
+ * so the user data is shown without waiting for the network, and the server's copy follows as soon
+ * as it arrives. When each of them arrived is recorded in the {@link FirestoreReadMetrics} of
+ * {@link FirebaseUtil#getReadMetrics()}.
+ * </p>
+ * <p>
+ * The cached data is an immutable {@link User} in a volatile {@link UserSnapshot}, so it can be read
+ * from any thread without locking. Every snapshot is numbered in the order its data was read or
+ * written, and a snapshot only replaces an older one: a write that completes after the listener
+ * delivered newer data doesn't put its stale copy back into the cache.
+ * </p>
+ * <p>
+ * Updates only send the fields that differ from the cached data, with {@code update()} instead of
+ * rewriting the whole document. Edits made within {@value #COALESCE_MS} ms of each other go out as
+ * one write, and edits that change nothing aren't written at all.
+ * </p>
  */
 public class UserManager {
+    private static final String TAG = "UserManager";
+    static final long COALESCE_MS = 300;
+
+    // The fields of the user document
+    static final String FIELD_NAME = "name";
+    static final String FIELD_EMAIL = "email";
+    static final String FIELD_HEIGHT = "height";
+    static final String FIELD_WEIGHT = "weight";
+    static final String FIELD_INTENSITY_LEVEL = "intensityLevel";
+    static final String FIELD_TARGET_WEIGHT = "targetWeight";
+
+    /**
+     * Callback for changes to the signed in user's data.
+     */
+    public interface OnUserChangedListener {
+        /**
+         * Called with the latest user data, on the main thread.
+         *
+         * @param user the user data
+         */
+        void onUserChanged(User user);
+    }
+
+    /**
+     * The cached data of a user, numbered in the order it was read or written.
+     */
+    static final class UserSnapshot {
+        final String uid;
+        final long version;
+        final User user;
+
+        UserSnapshot(String uid, long version, User user) {
+            this.uid = uid;
+            this.version = version;
+            this.user = user;
+        }
+    }
+
     private static UserManager instance;
     private FirebaseAuth mAuth;
     private FirebaseFirestore db;
-    private User currentUser;  // Cache the user data
+    private final ScheduledExecutorService executor;
+    private final long coalesceMs;
+    private final CopyOnWriteArrayList<OnUserChangedListener> listeners = new CopyOnWriteArrayList<>();
+
+    // Cache the user data; read without locking, replaced under this
+    private volatile UserSnapshot currentUser;
+
+    // All guarded by this
+    private String uid;  // The user the cache and the listener belong to
+    private long nextVersion;
+    private ListenerRegistration registration;
+    private TaskCompletionSource<User> pendingFetch;  // Fetches waiting for the listener's first snapshot
+    private int fetchCount;
+    private long attachedAtNanos;  // When the listener was attached, to time its first snapshots
+    private boolean readFromCache;
+    private boolean readFromServer;
+    private final Map<String, Object> pendingChanges = new HashMap<>();  // Edits waiting to be written
+    private String pendingWriteUid;
+    private ScheduledFuture<?> pendingWrite;
+    private TaskCompletionSource<Void> pendingWriteDone;
+    private int writeCount;
+    private Map<String, Object> lastWrittenFields;
 
     /**
-     * Private constructor for initializing Firebase Auth and Firestore instances.
+     * Constructor for initializing Firebase Auth and Firestore instances. Package-private so tests
+     * can use their own instances; the app uses {@link #getInstance(Context)}.
      *
-     * @param context The context used to initialize Firebase services.
+     * @param auth       The Firebase Auth instance the signed in user is read from.
+     * @param db         The Firestore instance holding the user documents.
+     * @param executor   The thread coalesced edits are written on.
+     * @param coalesceMs How long edits are collected before they are written.
+     */
+    UserManager(FirebaseAuth auth, FirebaseFirestore db, ScheduledExecutorService executor, long coalesceMs) {
+        mAuth = auth;
+        this.db = db;
+        this.executor = executor;
+        this.coalesceMs = coalesceMs;
+    }
+
+    /**
+     * Creates the single daemon thread coalesced edits of the user document are written on.
+     *
+     * @return the write executor
      */
-    private UserManager(Context context) {
-        mAuth = FirebaseAuth.getInstance();
-        db = FirebaseFirestore.getInstance();
+    static ScheduledExecutorService newWriteThread() {
+        return Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "user-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     /**
@@ -41,16 +159,24 @@ public class UserManager {
      */
     public static synchronized UserManager getInstance(Context context) {
         if (instance == null) {
-            instance = new UserManager(context.getApplicationContext());
+            final UserManager userManager = new UserManager(FirebaseUtil.getAuth(), FirebaseUtil.getFirestore(),
+                    newWriteThread(), COALESCE_MS);
+            // Follow the signed in user, so a sign out drops the cache and another account starts fresh
+            userManager.mAuth.addAuthStateListener(auth -> {
+                FirebaseUser user = auth.getCurrentUser();
+                userManager.attach(user != null ? user.getUid() : null);
+            });
+            instance = userManager;
         }
         return instance;
     }
 
     /**
-     * Fetches user data from Firestore for the currently authenticated user.
+     * Fetches user data for the currently authenticated user.
      * <p>
-     * This method retrieves the user's name, email, height, weight, intensity level, and target weight
-     * from Firestore and caches the data in the `currentUser` field.
+     * This method returns the user's name, email, height, weight, intensity level, and target weight
+     * from the cache. Only on a cache miss it attaches the snapshot listener to the user's document
+     * and resolves with its first snapshot, which then keeps the `currentUser` field up to date.
      * </p>
      *
      * @return A Task that will resolve with the `User` object containing the user data, or an exception if there is no user signed in.
@@ -59,37 +185,23 @@ public class UserManager {
         String userId = mAuth.getCurrentUser() != null ? mAuth.getCurrentUser().getUid() : null;
 
         if (userId != null) {
-            return db.collection("users").document(userId).get()
-                    .continueWith(task -> {
-                        if (task.isSuccessful()) {
-                            DocumentSnapshot document = task.getResult();
-                            if (document != null && document.exists()) {
-                                // Retrieve fields individually
-                                String name = document.getString("name");
-                                String email = document.getString("email");
-                                String intensityLevel = document.getString("intensityLevel");
-
-                                int height = document.getLong("height") != null
-                                        ? document.getLong("height").intValue() : 0;
-
-                                int weight = document.getLong("weight") != null
-                                        ? document.getLong("weight").intValue() : 0;
-
-                                int targetWeight = document.getLong("targetWeight") != null
-                                        ? document.getLong("targetWeight").intValue() : 0;
-
-                                User user = new User(name, email, height, weight, intensityLevel,
-                                        targetWeight);
-
-                                currentUser = user;
-                                return currentUser;
-                            } else {
-                                throw new Exception("No such user document");
-                            }
-                        } else {
-                            throw task.getException();
-                        }
-                    });
+            UserSnapshot cached = currentUser;
+            if (cached != null && cached.uid.equals(userId)) {
+                return Tasks.forResult(cached.user);
+            }
+            synchronized (this) {
+                // The auth state listener may not have run yet after a sign in
+                attach(userId);
+                cached = currentUser;
+                if (cached != null) {
+                    return Tasks.forResult(cached.user);
+                }
+                // Every fetch until the first snapshot waits on the same Task
+                if (pendingFetch == null) {
+                    pendingFetch = new TaskCompletionSource<>();
+                }
+                return pendingFetch.getTask();
+            }
         } else {
             return Tasks.forException(new Exception("No user is signed in"));
         }
@@ -104,77 +216,399 @@ public class UserManager {
      * @return The cached `User` object, or null if no user data has been fetched yet.
      */
     public User getCurrentUser() {
-        return currentUser;
+        UserSnapshot cached = currentUser;
+        return cached != null ? cached.user : null;
     }
 
     /**
-     * Updates the user's bio data (name, height, weight, target weight, and intensity level) in Firestore.
+     * Registers a callback for changes to the user data. If the user data is cached already, the
+     * callback is called with it right away.
+     *
+     * @param listener The callback.
+     */
+    public void addOnUserChangedListener(OnUserChangedListener listener) {
+        listeners.add(listener);
+        User user = getCurrentUser();
+        if (user != null) {
+            listener.onUserChanged(user);
+        }
+    }
+
+    /**
+     * Removes a callback registered with {@link #addOnUserChangedListener(OnUserChangedListener)}.
+     *
+     * @param listener The callback.
+     */
+    public void removeOnUserChangedListener(OnUserChangedListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the number of times the user document was read from Firestore, that is, how often the
+     * snapshot listener was attached.
+     */
+    synchronized int getFetchCount() {
+        return fetchCount;
+    }
+
+    /**
+     * Returns the version the next read or write of the user data is numbered with.
+     */
+    synchronized long nextVersion() {
+        return nextVersion++;
+    }
+
+    /**
+     * Caches a snapshot of the signed in user's data and tells the callbacks about it, unless it
+     * belongs to another user or a newer snapshot is cached already.
+     *
+     * @param snapshot The snapshot.
+     * @return true if the snapshot is now cached.
+     */
+    boolean publish(UserSnapshot snapshot) {
+        synchronized (this) {
+            UserSnapshot cached = currentUser;
+            if (!snapshot.uid.equals(uid) || (cached != null && cached.version >= snapshot.version)) {
+                return false;
+            }
+            currentUser = snapshot;
+            if (pendingFetch != null) {
+                pendingFetch.trySetResult(snapshot.user);
+                pendingFetch = null;
+            }
+        }
+        for (OnUserChangedListener listener : listeners) {
+            listener.onUserChanged(snapshot.user);
+        }
+        return true;
+    }
+
+    /**
+     * Starts listening to a user's document, or stops listening when no user is signed in. The
+     * cached data of the previous user is dropped.
+     *
+     * @param userId The signed in user's id, or null.
+     */
+    synchronized void attach(String userId) {
+        if (userId == null ? uid == null : userId.equals(uid)) {
+            return;
+        }
+        if (registration != null) {
+            registration.remove();
+            registration = null;
+        }
+        if (pendingFetch != null) {
+            pendingFetch.trySetException(new Exception("No user is signed in"));
+            pendingFetch = null;
+        }
+        uid = userId;
+        currentUser = null;
+
+        if (userId != null) {
+            fetchCount++;
+            attachedAtNanos = System.nanoTime();
+            readFromCache = false;
+            readFromServer = false;
+            // Include metadata changes to learn when the server confirms the cached data
+            registration = db.collection("users").document(userId)
+                    .addSnapshotListener(MetadataChanges.INCLUDE, (snapshot, error) -> onSnapshot(userId, snapshot, error));
+        }
+    }
+
+    /**
+     * Caches the user data of a snapshot and hands it to the waiting fetches and the callbacks.
+     */
+    private void onSnapshot(String snapshotUid, DocumentSnapshot snapshot, FirebaseFirestoreException error) {
+        UserSnapshot cached;
+        User user;
+        long version;
+        synchronized (this) {
+            if (!snapshotUid.equals(uid)) {
+                // Delivered after the user signed out
+                return;
+            }
+            if (error != null) {
+                Log.w(TAG, "Listening to the user document failed", error);
+                // The listener is gone; the next fetch attaches a new one
+                registration = null;
+                uid = null;
+                failPendingFetch(error);
+                return;
+            }
+            if (snapshot != null) {
+                recordRead(snapshot.getMetadata().isFromCache());
+            }
+            if (snapshot == null || !snapshot.exists()) {
+                // Wait for the server before deciding that the document is missing
+                if (snapshot == null || !snapshot.getMetadata().isFromCache()) {
+                    failPendingFetch(new Exception("No such user document"));
+                }
+                return;
+            }
+            cached = currentUser;
+            user = toUser(snapshot);
+            if (cached != null && cached.user.equals(user)) {
+                // Only the metadata changed, for example the server confirmed the cached data
+                return;
+            }
+            version = nextVersion();
+        }
+        publish(new UserSnapshot(snapshotUid, version, user));
+    }
+
+    /**
+     * Records the first snapshot from the cache and the first from the server since the listener
+     * was attached. Called under this.
+     */
+    private void recordRead(boolean fromCache) {
+        if (fromCache ? readFromCache : readFromServer) {
+            return;
+        }
+        if (fromCache) {
+            readFromCache = true;
+        } else {
+            readFromServer = true;
+        }
+        long latencyMillis = (System.nanoTime() - attachedAtNanos) / 1_000_000;
+        FirebaseUtil.getReadMetrics().record(fromCache, latencyMillis);
+        Log.d(TAG, "User data read from the " + (fromCache ? "cache" : "server") + " in " + latencyMillis + " ms");
+    }
+
+    private void failPendingFetch(Exception e) {
+        if (pendingFetch != null) {
+            pendingFetch.trySetException(e);
+            pendingFetch = null;
+        }
+    }
+
+    /**
+     * Reads the user data from the user's document.
+     *
+     * @param document The user's document.
+     * @return The user data, with 0 for missing numbers.
+     */
+    static User toUser(DocumentSnapshot document) {
+        // Retrieve fields individually
+        String name = document.getString(FIELD_NAME);
+        String email = document.getString(FIELD_EMAIL);
+        String intensityLevel = document.getString(FIELD_INTENSITY_LEVEL);
+
+        int height = document.getLong(FIELD_HEIGHT) != null
+                ? document.getLong(FIELD_HEIGHT).intValue() : 0;
+
+        int weight = document.getLong(FIELD_WEIGHT) != null
+                ? document.getLong(FIELD_WEIGHT).intValue() : 0;
+
+        int targetWeight = document.getLong(FIELD_TARGET_WEIGHT) != null
+                ? document.getLong(FIELD_TARGET_WEIGHT).intValue() : 0;
+
+        return new User(name, email, height, weight, intensityLevel, targetWeight);
+    }
+
+    /**
+     * Stores the data of a user who just signed up in a new user document.
      * <p>
-     * This method creates an updated `User` object with the new values and stores it in the Firestore
-     * database under the current user's document.
+     * The fields are merged into the document, so counters the stats sync may already have
+     * written for the new account are kept.
+     * </p>
+     *
+     * @param userId The id of the new user.
+     * @param user   The user's data.
+     * @return A Task that will complete when the write is finished.
+     */
+    public Task<Void> createUserDocument(String userId, User user) {
+        return db.collection("users").document(userId).set(user, SetOptions.merge());
+    }
+
+    /**
+     * Updates the user's bio data (height, weight, target weight, and intensity level) in Firestore.
+     * <p>
+     * Only the fields that differ from the cached user data are written, together with any other
+     * edits made within {@value #COALESCE_MS} ms; nothing is written if no field changed.
      * </p>
      *
-     * @param name        The user's name.
      * @param height      The user's height.
      * @param weight      The user's weight.
      * @param targetWeight The user's target weight.
      * @param intensityLevel The user's intensity level.
      * @return A Task that will complete when the update is finished. It resolves to `null` on success.
      */
-    public Task<Void> updateUserBioData(String name, int height, int weight, int targetWeight, String intensityLevel) {
-        String userId = mAuth.getCurrentUser() != null ? mAuth.getCurrentUser().getUid() : null;
-
-        if (userId != null) {
-            // Create a map of the new data to update
-            User updatedUser = new User(mAuth.getCurrentUser().getDisplayName(), mAuth.getCurrentUser().getEmail(), height, weight, intensityLevel, targetWeight);
-
-            // Create a Map to set the fields
-            return db.collection("users").document(userId).set(updatedUser)
-                    .continueWith(task -> {
-                        if (task.isSuccessful()) {
-                            currentUser = updatedUser;  // Update the currentUser cache
-                            return null;
-                        } else {
-                            throw task.getException();  // Return any exceptions if the update fails
-                        }
-                    });
-        } else {
-            return Tasks.forException(new Exception("No user is signed in"));
-        }
+    public Task<Void> updateUserBioData(int height, int weight, int targetWeight, String intensityLevel) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(FIELD_HEIGHT, height);
+        fields.put(FIELD_WEIGHT, weight);
+        fields.put(FIELD_TARGET_WEIGHT, targetWeight);
+        fields.put(FIELD_INTENSITY_LEVEL, intensityLevel);
+        return updateFields(fields);
     }
 
     /**
-     * Updates the user's settings data (name, height, weight, target weight, and intensity level) in Firestore.
+     * Updates the user's settings data (name, weight, target weight, and intensity level) in Firestore.
      * <p>
-     * This method allows for updating the settings-related user information (excluding the display name).
+     * Only the fields that differ from the cached user data are written, together with any other
+     * edits made within {@value #COALESCE_MS} ms; nothing is written if no field changed.
      * </p>
      *
      * @param name        The user's name.
-     * @param height      The user's height.
      * @param weight      The user's weight.
      * @param targetWeight The user's target weight.
      * @param intensityLevel The user's intensity level.
      * @return A Task that will complete when the update is finished. It resolves to `null` on success.
      */
-    public Task<Void> updateUserSettingsData(String name, int height, int weight, int targetWeight, String intensityLevel) {
+    public Task<Void> updateUserSettingsData(String name, int weight, int targetWeight, String intensityLevel) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(FIELD_NAME, name);
+        fields.put(FIELD_WEIGHT, weight);
+        fields.put(FIELD_TARGET_WEIGHT, targetWeight);
+        fields.put(FIELD_INTENSITY_LEVEL, intensityLevel);
+        return updateFields(fields);
+    }
+
+    /**
+     * Queues edits of the user's document. Edits queued within {@value #COALESCE_MS} ms of the first
+     * one are written together, later values of a field replacing earlier ones.
+     *
+     * @param fields The new values by field name.
+     * @return A Task that completes when the write with these edits is finished, or an exception if
+     * there is no user signed in.
+     */
+    public synchronized Task<Void> updateFields(Map<String, Object> fields) {
         String userId = mAuth.getCurrentUser() != null ? mAuth.getCurrentUser().getUid() : null;
 
         if (userId != null) {
-            // Create a map of the new data to update
-            User updatedUser = new User(name, mAuth.getCurrentUser().getEmail(), currentUser.getHeight(), weight, intensityLevel, targetWeight);
-
-            // Create a Map to set the fields
-            return db.collection("users").document(userId).set(updatedUser)
-                    .continueWith(task -> {
-                        if (task.isSuccessful()) {
-                            currentUser = updatedUser;  // Update the currentUser cache
-                            return null;
-                        } else {
-                            throw task.getException();  // Return any exceptions if the update fails
-                        }
-                    });
+            if (pendingWrite != null && !userId.equals(pendingWriteUid)) {
+                // Edits of the previous user go out right away
+                pendingWrite.cancel(false);
+                writePendingChanges();
+            }
+            pendingChanges.putAll(fields);
+            if (pendingWrite == null) {
+                pendingWriteUid = userId;
+                pendingWriteDone = new TaskCompletionSource<>();
+                pendingWrite = executor.schedule(() -> {
+                    synchronized (UserManager.this) {
+                        writePendingChanges();
+                    }
+                }, coalesceMs, TimeUnit.MILLISECONDS);
+            }
+            return pendingWriteDone.getTask();
         } else {
             return Tasks.forException(new Exception("No user is signed in"));
         }
     }
+
+    /**
+     * Returns the number of writes sent so far.
+     */
+    synchronized int getWriteCount() {
+        return writeCount;
+    }
+
+    /**
+     * Returns the fields sent by the latest write.
+     */
+    synchronized Map<String, Object> getLastWrittenFields() {
+        return lastWrittenFields;
+    }
+
+    /**
+     * Writes the fields of the queued edits that differ from the cached user data with a single
+     * update. Called under this.
+     */
+    private void writePendingChanges() {
+        if (pendingWriteDone == null) {
+            // Written already by a flush that raced with the scheduled write
+            return;
+        }
+        final String userId = pendingWriteUid;
+        final TaskCompletionSource<Void> done = pendingWriteDone;
+        UserSnapshot cached = currentUser;
+        final Map<String, Object> changed = diff(cached != null && cached.uid.equals(userId) ? cached.user : null,
+                pendingChanges);
+        pendingChanges.clear();
+        pendingWrite = null;
+        pendingWriteUid = null;
+        pendingWriteDone = null;
+
+        if (changed.isEmpty()) {
+            // Nothing to write
+            done.trySetResult(null);
+            return;
+        }
+        writeCount++;
+        lastWrittenFields = changed;
+        final long version = nextVersion();
+        db.collection("users").document(userId).update(changed)
+                .addOnCompleteListener(task -> {
+                    if (task.isSuccessful()) {
+                        // Update the cache, unless a newer snapshot arrived while the write was in flight
+                        UserSnapshot base = currentUser;
+                        if (base != null && base.uid.equals(userId)) {
+                            publish(new UserSnapshot(userId, version, apply(base.user, changed)));
+                        }
+                        done.trySetResult(null);
+                    } else {
+                        Log.w(TAG, "Failed to update the user document", task.getException());
+                        done.trySetException(task.getException());
+                    }
+                });
+    }
+
+    /**
+     * Returns the edits that change the user data.
+     *
+     * @param user    The current user data, or null if it isn't known.
+     * @param changes The new values by field name.
+     * @return The changes to fields whose value differs, or all of them if the user data isn't known.
+     */
+    static Map<String, Object> diff(User user, Map<String, Object> changes) {
+        Map<String, Object> changed = new HashMap<>();
+        for (Map.Entry<String, Object> change : changes.entrySet()) {
+            if (user == null || !Objects.equals(valueOf(user, change.getKey()), change.getValue())) {
+                changed.put(change.getKey(), change.getValue());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the user data with edits applied.
+     *
+     * @param user    The user data.
+     * @param changes The new values by field name.
+     * @return A new User with the changed fields.
+     */
+    static User apply(User user, Map<String, Object> changes) {
+        return new User(
+                changes.containsKey(FIELD_NAME) ? (String) changes.get(FIELD_NAME) : user.getName(),
+                changes.containsKey(FIELD_EMAIL) ? (String) changes.get(FIELD_EMAIL) : user.getEmail(),
+                changes.containsKey(FIELD_HEIGHT) ? (Integer) changes.get(FIELD_HEIGHT) : user.getHeight(),
+                changes.containsKey(FIELD_WEIGHT) ? (Integer) changes.get(FIELD_WEIGHT) : user.getWeight(),
+                changes.containsKey(FIELD_INTENSITY_LEVEL)
+                        ? (String) changes.get(FIELD_INTENSITY_LEVEL) : user.getIntensityLevel(),
+                changes.containsKey(FIELD_TARGET_WEIGHT)
+                        ? (Integer) changes.get(FIELD_TARGET_WEIGHT) : user.getTargetWeight());
+    }
+
+    /**
+     * Returns the value of a field of the user data, or null for a field the User doesn't hold.
+     */
+    private static Object valueOf(User user, String field) {
+        switch (field) {
+            case FIELD_NAME:
+                return user.getName();
+            case FIELD_EMAIL:
+                return user.getEmail();
+            case FIELD_HEIGHT:
+                return user.getHeight();
+            case FIELD_WEIGHT:
+                return user.getWeight();
+            case FIELD_INTENSITY_LEVEL:
+                return user.getIntensityLevel();
+            case FIELD_TARGET_WEIGHT:
+                return user.getTargetWeight();
+            default:
+                return null;
+        }
+    }
 }
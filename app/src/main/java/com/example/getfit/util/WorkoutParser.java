@@ -1,16 +1,25 @@
 package com.example.getfit.util;
 
+import android.content.Context;
+import android.util.Log;
+
 import com.example.getfit.models.Exercise;
 import com.example.getfit.models.User;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import okhttp3.Callback;
-import okhttp3.MediaType;
+import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
@@ -23,18 +32,28 @@ import okhttp3.Response;
  */
 public class WorkoutParser {
 
-    // Local list to store user-added exercises
-    private static ArrayList<Exercise> localExerciseList = new ArrayList<>();
+    private static final String TAG = "WorkoutParser";
+
+    // Endpoint serving the remote exercise catalog
+    private static final String EXERCISE_URL = "https://9879705f-b245-492c-8986-8a8535a7e1b4.mock.pstmn.io/exercise";
+
+    // Local list to store user-added exercises; written from OkHttp threads and read from any thread
+    private static final CopyOnWriteArrayList<Exercise> localExerciseList = new CopyOnWriteArrayList<>();
+
+    // Ids and normalized names of the last catalog snapshot merged, reused until the snapshot changes
+    private static volatile CatalogKeys catalogKeys;
 
     /**
-     * Filters the list of exercises based on the user's intensity level and workout type (strength or cardio).
+     * Filters a catalog based on the user's intensity level and workout type (strength or cardio).
+     * Only the type and difficulty of each row are read; no exercise is materialized.
      *
-     * @param exercises the list of exercises to be filtered
+     * @param exercises the catalog to be filtered
      * @param user      the user whose preferences will be used for filtering
-     * @return a filtered list of exercises that match the user's intensity level and workout type
+     * @return the rows of the exercises that match the user's intensity level and workout type, in catalog order
      */
-    public static ArrayList<Exercise> filterByIntensity(ArrayList<Exercise> exercises, User user) {
-        ArrayList<Exercise> filteredList = new ArrayList<>();
+    public static int[] filterByIntensity(ExerciseColumnStore exercises, User user) {
+        int[] rows = new int[exercises.size()];
+        int count = 0;
 
         // Get the user's selected intensity level (Beginner, Moderate, Hard-core)
         String userIntensityLevel = user.getIntensityLevel();
@@ -42,97 +61,310 @@ public class WorkoutParser {
         // Determine whether the user needs to bulk or lose weight based on their target weight
         String workoutType = getWorkoutTypeBasedOnWeight(user);
 
-        // Loop through the exercises and filter them based on intensity level and workout type
-        for (Exercise exercise : exercises) {
-            // Filter by intensity level first
-            if (exercise.getDifficulty().equalsIgnoreCase("easy") && userIntensityLevel.equalsIgnoreCase("Beginner")) {
-                filteredList.add(exercise);
-            } else if (exercise.getDifficulty().equalsIgnoreCase("medium") && userIntensityLevel.equalsIgnoreCase("Moderate")) {
-                filteredList.add(exercise);
-            } else if (exercise.getDifficulty().equalsIgnoreCase("hard") && userIntensityLevel.equalsIgnoreCase("Hard-core")) {
-                filteredList.add(exercise);
+        // Keep the rows whose difficulty fits the intensity level and whose type fits the weight goal
+        for (int row = 0; row < exercises.size(); row++) {
+            if (fitsIntensity(exercises.getDifficulty(row), userIntensityLevel)
+                    && workoutType.equalsIgnoreCase(exercises.getType(row))) {
+                rows[count++] = row;
             }
+        }
 
-            // Filter by workout type (strength or cardio) based on weight goals
-            if (!exercise.getType().equalsIgnoreCase(workoutType)) {
-                filteredList.remove(exercise);  // Remove exercises that don't match the type (strength or cardio)
-            }
+        return Arrays.copyOf(rows, count);
+    }
+
+    /**
+     * Checks whether an exercise difficulty matches a user's intensity level.
+     *
+     * @param difficulty         the exercise difficulty (easy, medium, hard)
+     * @param userIntensityLevel the user's intensity level (Beginner, Moderate, Hard-core)
+     * @return true if they match
+     */
+    private static boolean fitsIntensity(String difficulty, String userIntensityLevel) {
+        if (difficulty == null || userIntensityLevel == null) {
+            return false;
         }
+        return difficulty.equalsIgnoreCase("easy") && userIntensityLevel.equalsIgnoreCase("Beginner")
+                || difficulty.equalsIgnoreCase("medium") && userIntensityLevel.equalsIgnoreCase("Moderate")
+                || difficulty.equalsIgnoreCase("hard") && userIntensityLevel.equalsIgnoreCase("Hard-core");
+    }
+
+    /**
+     * Retrieves all exercises, merging the synced remote catalog with the locally added exercises.
+     * <p>
+     * The remote catalog is synced in the background and merged with the local exercises exactly
+     * once, with duplicates removed by id and by normalized name. The returned Task resolves with an
+     * immutable column store snapshot that is safe to read from any thread; its listeners run on the
+     * main thread unless an executor is given, so callers never have to block or hop threads
+     * themselves.
+     * </p>
+     *
+     * @param context the context used to access the local exercise catalog
+     * @return a Task that resolves with the merged, deduplicated exercises
+     */
+    public static Task<ExerciseColumnStore> getAllExercises(Context context) {
+        final TaskCompletionSource<ExerciseColumnStore> taskSource = new TaskCompletionSource<>();
 
-        return filteredList;
+        ExerciseCatalogStore.getInstance(context).sync(mergingInto(taskSource));
+
+        return taskSource.getTask();
     }
 
     /**
-     * Retrieves a list of all exercises, including both remote and locally stored exercises.
+     * Retrieves the last synced catalog merged with the locally added exercises, without fetching
+     * anything. The catalog file is loaded and merged in the background, so this can be called
+     * from the main thread to show something before the sync finishes.
      *
-     * @return an ArrayList of all exercises, both from the server and locally stored
+     * @param context the context used to access the local exercise catalog
+     * @return a Task that resolves with the merged, deduplicated exercises stored on the device
      */
-    public static ArrayList<Exercise> getAllExercises() {
-        // Add mock exercises from the server
-        ArrayList<Exercise> allExercises = new ArrayList<>();
-        fetchWorkouts(new WorkoutCallback() {
+    public static Task<ExerciseColumnStore> getStoredExercises(Context context) {
+        final TaskCompletionSource<ExerciseColumnStore> taskSource = new TaskCompletionSource<>();
+
+        ExerciseCatalogStore.getInstance(context).read(mergingInto(taskSource));
+
+        return taskSource.getTask();
+    }
+
+    /**
+     * Creates a catalog callback that merges the catalog with the local exercises and completes
+     * the task with the result.
+     *
+     * @param taskSource the task to complete
+     * @return the callback
+     */
+    private static ExerciseCatalogStore.SyncCallback mergingInto(
+            final TaskCompletionSource<ExerciseColumnStore> taskSource) {
+        return new ExerciseCatalogStore.SyncCallback() {
             @Override
-            public void onSuccess(ArrayList<Exercise> exercises) {
-                allExercises.addAll(exercises);
+            public void onSuccess(ExerciseColumnStore catalog) {
+                taskSource.setResult(mergeWithLocal(catalog));
             }
 
             @Override
             public void onError(String errorMessage) {
-                // Handle error (you could show a toast here if needed)
+                taskSource.setException(new IOException(errorMessage));
             }
-        });
+        };
+    }
+
+    /**
+     * Merges a snapshot of the remote catalog with the locally added exercises.
+     * <p>
+     * Remote exercises take precedence; the catalog already holds each id once. A local exercise
+     * is dropped if an exercise with the same non-zero id or the same normalized name is already
+     * in the catalog or was added before it. The catalog's ids and normalized names are collected
+     * into hash sets once per snapshot, so each local exercise is checked in constant time, and the
+     * snapshot is only copied if a local exercise is added to it.
+     * </p>
+     *
+     * @param catalog an immutable snapshot of the remote catalog
+     * @return the catalog itself if no local exercise is added, otherwise a copy with the local exercises appended
+     */
+    public static ExerciseColumnStore mergeWithLocal(ExerciseColumnStore catalog) {
+        if (localExerciseList.isEmpty()) {
+            return catalog;
+        }
+
+        CatalogKeys keys = catalogKeys;
+        if (keys == null || keys.catalog != catalog) {
+            keys = new CatalogKeys(catalog);
+            catalogKeys = keys;
+        }
 
-        // Add locally stored exercises to the list
-        allExercises.addAll(localExerciseList);
-        return allExercises;
+        ExerciseColumnStore merged = catalog;
+        HashSet<Integer> addedIds = new HashSet<>();
+        HashSet<String> addedNames = new HashSet<>();
+        for (Exercise exercise : localExerciseList) {
+            int id = exercise.getId();
+            if (id != 0 && (keys.ids.contains(id) || addedIds.contains(id))) {
+                continue;
+            }
+            String name = normalizeName(exercise.getName());
+            if (!name.isEmpty() && (keys.names.contains(name) || addedNames.contains(name))) {
+                continue;
+            }
+            if (merged == catalog) {
+                merged = catalog.copy();
+            }
+            merged.append(exercise);
+            addedIds.add(id);
+            addedNames.add(name);
+        }
+        return merged;
     }
 
     /**
-     * Fetches workout data from a remote server and returns it via a callback.
+     * The ids and normalized names of a catalog snapshot.
+     */
+    private static final class CatalogKeys {
+        final ExerciseColumnStore catalog;
+        final HashSet<Integer> ids;
+        final HashSet<String> names;
+
+        CatalogKeys(ExerciseColumnStore catalog) {
+            this.catalog = catalog;
+            ids = new HashSet<>(catalog.size() * 2);
+            names = new HashSet<>(catalog.size() * 2);
+            for (int row = 0; row < catalog.size(); row++) {
+                ids.add(catalog.getId(row));
+                String name = normalizeName(catalog.getName(row));
+                if (!name.isEmpty()) {
+                    names.add(name);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds a stable identity key for an exercise. Server exercises are keyed by id, user-added
+     * exercises (which have id 0) by their normalized name.
      *
-     * @param callback the callback to handle the result of the API request
+     * @param exercise the exercise
+     * @return the identity key
      */
-    public static void fetchWorkouts(final WorkoutCallback callback) {
-        // Create an OkHttpClient instance
+    public static String exerciseKey(Exercise exercise) {
+        return exerciseKey(exercise.getId(), exercise.getName());
+    }
+
+    /**
+     * Builds the identity key of an exercise from its id and name, see {@link #exerciseKey(Exercise)}.
+     *
+     * @param id   the exercise id, 0 for a user-added exercise
+     * @param name the exercise name; only used if the id is 0
+     * @return the identity key
+     */
+    public static String exerciseKey(int id, String name) {
+        if (id != 0) {
+            return "id:" + id;
+        }
+        return "name:" + normalizeName(name);
+    }
+
+    /**
+     * Normalizes an exercise name so that names differing only in case, spacing or punctuation
+     * (for example "Bench Press" and "bench-press ") compare equal.
+     *
+     * @param name the exercise name, may be null
+     * @return the lower-cased name with every run of non-alphanumeric characters collapsed to one space
+     */
+    public static String normalizeName(String name) {
+        if (name == null) {
+            return "";
+        }
+
+        StringBuilder normalized = new StringBuilder(name.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (pendingSpace && normalized.length() > 0) {
+                    normalized.append(' ');
+                }
+                normalized.append(Character.toLowerCase(c));
+                pendingSpace = false;
+            } else {
+                pendingSpace = true;
+            }
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Checks whether a name stored in a char buffer normalizes to a given name, without building
+     * the normalized string. Follows the same rules as {@link #normalizeName(String)}.
+     *
+     * @param chars      the buffer holding the name
+     * @param start      the offset of the name in the buffer
+     * @param length     the length of the name
+     * @param normalized a name as returned by {@link #normalizeName(String)}
+     * @return true if the name normalizes to it
+     */
+    static boolean normalizesTo(char[] chars, int start, int length, String normalized) {
+        int matched = 0;
+        boolean pendingSpace = false;
+        for (int i = start; i < start + length; i++) {
+            char c = chars[i];
+            if (Character.isLetterOrDigit(c)) {
+                if (pendingSpace && matched > 0) {
+                    if (matched == normalized.length() || normalized.charAt(matched) != ' ') {
+                        return false;
+                    }
+                    matched++;
+                }
+                if (matched == normalized.length() || normalized.charAt(matched) != Character.toLowerCase(c)) {
+                    return false;
+                }
+                matched++;
+                pendingSpace = false;
+            } else {
+                pendingSpace = true;
+            }
+        }
+        return matched == normalized.length();
+    }
+
+    /**
+     * Fetches only the exercises that were added, changed or deleted after the given sync cursor.
+     * <p>
+     * The cursor is the largest {@code updatedAt} seen by the previous sync and is sent as the
+     * {@code since} query parameter. A cursor of 0 requests the whole catalog. Deleted exercises
+     * come back as tombstones ({@code "deleted": true}). A server that ignores {@code since} sends
+     * the whole catalog instead, which the delta marks as {@link CatalogDelta#full full}.
+     * </p>
+     *
+     * @param cursor   the sync cursor returned by the previous sync, or 0 for a full sync
+     * @param callback the callback to handle the resulting delta
+     */
+    public static void fetchWorkoutsSince(long cursor, final DeltaCallback callback) {
+        fetchWorkoutsSince(EXERCISE_URL, cursor, callback);
+    }
+
+    /**
+     * Fetches a catalog delta from the given endpoint. Split out so tests can point it at a local server.
+     *
+     * @param url      the exercise catalog endpoint
+     * @param cursor   the sync cursor returned by the previous sync, or 0 for a full sync
+     * @param callback the callback to handle the resulting delta
+     */
+    static void fetchWorkoutsSince(String url, long cursor, final DeltaCallback callback) {
         OkHttpClient client = new OkHttpClient();
-        String API_URL = "https://9879705f-b245-492c-8986-8a8535a7e1b4.mock.pstmn.io/exercise";
 
-        // Build the request to the API
+        HttpUrl.Builder urlBuilder = HttpUrl.get(url).newBuilder();
+        if (cursor > 0) {
+            urlBuilder.addQueryParameter("since", String.valueOf(cursor));
+        }
+
         Request request = new Request.Builder()
-                .url(API_URL) // Set the URL
+                .url(urlBuilder.build())
                 .build();
 
-        // Execute the request asynchronously (to avoid blocking the main thread)
-        client.newCall(request).enqueue(new okhttp3.Callback() {
+        client.newCall(request).enqueue(new Callback() {
             @Override
             public void onFailure(okhttp3.Call call, IOException e) {
-                // Handle failure (e.g., network issues)
                 e.printStackTrace();
                 callback.onError(e.getMessage());
             }
 
             @Override
             public void onResponse(okhttp3.Call call, Response response) throws IOException {
-                // Check if the response is successful
-                if (response.isSuccessful()) {
-                    // Get the response body as a string
-                    String responseBody = response.body().string();
+                try (Response r = response) {
+                    if (!r.isSuccessful()) {
+                        callback.onError("Error: " + r.code());
+                        return;
+                    }
 
+                    CountingInputStream body = new CountingInputStream(r.body().byteStream());
+                    CatalogDelta delta;
                     try {
-                        // Parse the response into a JSON array
-                        JSONArray jsonResponse = new JSONArray(responseBody);
-                        // Process the JSON data (parse exercises into an ArrayList)
-                        ArrayList<Exercise> exercises = parseExercises(jsonResponse);
-                        // Pass the resulting list of exercises to the callback
-                        callback.onSuccess(exercises);
+                        delta = ExerciseJsonCodec.readDelta(
+                                new InputStreamReader(body, StandardCharsets.UTF_8), cursor);
                     } catch (Exception e) {
                         e.printStackTrace();
                         callback.onError("Failed to parse data.");
+                        return;
                     }
-                } else {
-                    // Handle unsuccessful response (e.g., server error)
-                    System.out.println("Error: " + response.code());
-                    callback.onError("Error: " + response.code());
+                    delta.bytesTransferred = body.count;
+                    callback.onSuccess(delta);
                 }
             }
         });
@@ -154,35 +386,6 @@ public class WorkoutParser {
         }
     }
 
-    /**
-     * Parses a JSON array into a list of {@link Exercise} objects.
-     *
-     * @param jsonResponse the JSON array containing exercise data
-     * @return an ArrayList of parsed {@link Exercise} objects
-     */
-    private static ArrayList<Exercise> parseExercises(JSONArray jsonResponse) {
-        ArrayList<Exercise> exercisesList = new ArrayList<>();
-        try {
-            for (int i = 0; i < jsonResponse.length(); i++) {
-                JSONObject jsonObj = jsonResponse.getJSONObject(i);
-                int id = jsonObj.getInt("id");
-                String name = jsonObj.getString("name");
-                String muscleGroup = jsonObj.getString("muscleGroup");
-                String type = jsonObj.getString("type");
-                int sets = jsonObj.getInt("sets");
-                Object reps = jsonObj.get("reps");
-                String difficulty = jsonObj.getString("difficulty");
-
-                Exercise exercise = new Exercise(id, name, muscleGroup, type, sets, reps, difficulty);
-                exercisesList.add(exercise);
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
-        return exercisesList;
-    }
-
     /**
      * Adds a new exercise to the remote server.
      *
@@ -193,28 +396,11 @@ public class WorkoutParser {
         // Define the API URL for adding an exercise
         String API_URL = "https://9879705f-b245-492c-8986-8a8535a7e1b4.mock.pstmn.io/addExercise";
 
-        // Convert the Exercise object to a JSON object
-        JSONObject exerciseJson = new JSONObject();
-        try {
-            exerciseJson.put("id", exercise.getId());
-            exerciseJson.put("name", exercise.getName());
-            exerciseJson.put("muscleGroup", exercise.getMuscleGroup());
-            exerciseJson.put("type", exercise.getType());
-            exerciseJson.put("sets", exercise.getSets());
-            exerciseJson.put("reps", exercise.getReps());
-            exerciseJson.put("difficulty", exercise.getDifficulty());
-        } catch (Exception e) {
-            e.printStackTrace();
-            callback.onError("Failed to create JSON for exercise.");
-            return;
-        }
-
         // Create an OkHttpClient instance
         OkHttpClient client = new OkHttpClient();
 
-        // Create the request body
-        MediaType JSON = MediaType.parse("application/json; charset=utf-8");
-        RequestBody body = RequestBody.create(exerciseJson.toString(), JSON);
+        // Create the request body; the exercise is encoded straight into the request sink
+        RequestBody body = ExerciseJsonCodec.requestBody(exercise);
 
         // Build the request to the API (POST request)
         Request request = new Request.Builder()
@@ -234,11 +420,14 @@ public class WorkoutParser {
             @Override
             public void onResponse(okhttp3.Call call, Response response) throws IOException {
                 if (response.isSuccessful()) {
+                    // Keep the new exercise locally so it shows up in the merged catalog
+                    localExerciseList.add(exercise);
+                    ExerciseSearchIndex.getInstance().add(exercise);
                     // Handle successful response
                     callback.onSuccess(null);  // You can pass null or an empty list since no data is returned
                 } else {
                     // Handle unsuccessful response
-                    System.out.println("Error: " + response.code());
+                    Log.w(TAG, "Adding an exercise failed with HTTP " + response.code());
                     callback.onError("Error: " + response.code());
                 }
             }
@@ -263,5 +452,75 @@ public class WorkoutParser {
          */
         void onError(String errorMessage);
     }
-}
 
+    /**
+     * The changes returned by a delta sync: exercises to insert or replace, ids to delete and the
+     * cursor to send with the next sync. A full delta is the whole catalog, so exercises missing
+     * from it were deleted.
+     */
+    public static class CatalogDelta {
+        public final ArrayList<Exercise> upserts = new ArrayList<>();
+        public final ArrayList<Integer> tombstones = new ArrayList<>();
+        public long cursor;
+        public boolean full;
+        public long bytesTransferred;
+
+        /**
+         * Checks whether the delta contains any changes.
+         *
+         * @return true if there is nothing to apply
+         */
+        public boolean isEmpty() {
+            return upserts.isEmpty() && tombstones.isEmpty();
+        }
+    }
+
+    /**
+     * Callback interface to handle the result of a delta sync request.
+     */
+    public interface DeltaCallback {
+        /**
+         * Called when the delta has been fetched and parsed.
+         *
+         * @param delta the changes since the requested cursor
+         */
+        void onSuccess(CatalogDelta delta);
+
+        /**
+         * Called when the delta could not be fetched or parsed.
+         *
+         * @param errorMessage the error message describing what went wrong
+         */
+        void onError(String errorMessage);
+    }
+
+    /**
+     * Input stream wrapper that counts the bytes read through it, used to report how much data a
+     * sync transferred without buffering the whole response.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.getfit.util;
+
+import com.example.getfit.models.UserStats;
+
+import org.junit.After;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link Achievements} follows streaks and counts as events arrive, announces unlocks
+ * once, and that a cold start from its snapshot ends in the same state as replaying the whole
+ * journal while reading only the days after the snapshot.
+ */
+public class AchievementsTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ScheduledExecutorService writer = StatsStore.newWriterThread();
+    private volatile long now = 19_700 * DAY + DAY / 2;
+    private final StatsClock clock = new StatsClock(() -> now, TimeZone.getTimeZone("UTC"));
+
+    /**
+     * The stats of one app start: a journal, its totals and the achievements following it. The
+     * store stands for the preferences, which outlive the process.
+     */
+    private class App {
+        final StatsJournal journal;
+        final StatsStore store;
+        final UserStats userStats;
+        final Achievements achievements;
+
+        App(File directory) throws Exception {
+            this(directory, new StatsStore(new FilePreferences(new File(directory, "stats.xml")), writer, 10_000));
+        }
+
+        App(File directory, StatsStore store) throws Exception {
+            this.store = store;
+            journal = new StatsJournal(directory, 4 * 1024, clock);
+            StatsTotals totals = new StatsTotals();
+            journal.addListener(totals);
+            userStats = new UserStats(store, journal, totals);
+            achievements = new Achievements(journal, store, AchievementRule.DEFAULT_RULES);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        writer.shutdownNow();
+    }
+
+    @Test
+    public void checkInStreak_countsConsecutiveDays() throws Exception {
+        App app = new App(folder.newFolder("app"));
+        ArrayList<String> unlocked = new ArrayList<>();
+        app.achievements.addOnUnlockListener(achievement -> unlocked.add(achievement.getId()));
+
+        for (int i = 0; i < 6; i++) {
+            app.userStats.checkIn();
+            now += DAY;
+        }
+        assertEquals(6, app.achievements.getStreak(AchievementRule.KIND_CHECK_IN_STREAK));
+        assertFalse(app.achievements.isUnlocked("check_in_7"));
+
+        app.userStats.checkIn();
+        assertTrue(app.achievements.isUnlocked("check_in_7"));
+        assertEquals(7, app.achievements.getProgress("check_in_7"));
+
+        // Missing a day breaks the streak, the best streak and the badge stay
+        now += 2 * DAY;
+        assertEquals(0, app.achievements.getStreak(AchievementRule.KIND_CHECK_IN_STREAK));
+        app.userStats.checkIn();
+        for (int i = 0; i < 7; i++) {
+            now += DAY;
+            app.userStats.checkIn();
+        }
+        assertEquals(8, app.achievements.getProgress("check_in_7"));
+        assertEquals(8, app.achievements.getBest("check_in_7"));
+
+        // Unlocked once, although the second streak reached 7 again
+        assertEquals(1, unlocked.size());
+        assertEquals("check_in_7", unlocked.get(0));
+    }
+
+    @Test
+    public void calorieStreak_followsDayEndPoints() throws Exception {
+        App app = new App(folder.newFolder("app"));
+        app.userStats.saveDailyCalorieGoalRange(1_500, 2_500);
+
+        for (int i = 0; i < 5; i++) {
+            app.userStats.addCalories(2_000);
+            now += DAY;
+        }
+        // The fifth day is judged by the first event of the sixth
+        assertFalse(app.achievements.isUnlocked("calories_5"));
+        app.userStats.addCalories(3_000);
+        assertTrue(app.achievements.isUnlocked("calories_5"));
+        assertEquals(5, app.achievements.getStreak(AchievementRule.KIND_CALORIE_STREAK));
+
+        // The sixth day ended out of range, so the streak is over on the day after
+        now += DAY;
+        app.userStats.addCalories(2_000);
+        now += DAY;
+        assertEquals(0, app.achievements.getStreak(AchievementRule.KIND_CALORIE_STREAK));
+    }
+
+    @Test
+    public void workoutCount_countsRewardedWorkouts() throws Exception {
+        App app = new App(folder.newFolder("app"));
+        for (int day = 0; day < 2; day++) {
+            for (int exercise = 0; exercise < 5; exercise++) {
+                app.userStats.completeWorkout(exercise);
+            }
+            // Repeating an exercise on the same day doesn't count
+            app.userStats.completeWorkout(0);
+            now += DAY;
+        }
+        assertEquals(10, app.achievements.getProgress("workouts_10"));
+        assertTrue(app.achievements.isUnlocked("workouts_10"));
+        assertEquals(1, app.achievements.getUnlocked().size());
+    }
+
+    @Test
+    public void coldStart_matchesFullReplay() throws Exception {
+        File directory = folder.newFolder("app");
+        App app = new App(directory);
+        Random random = new Random(7);
+        for (int day = 0; day < 400; day++) {
+            app.userStats.saveDailyCalorieGoalRange(1_000, 2_000);
+            for (int i = 0; i < 50; i++) {
+                int action = random.nextInt(10);
+                if (action == 0 && random.nextInt(5) != 0) {
+                    app.userStats.checkIn();
+                } else if (action < 4) {
+                    app.userStats.completeWorkout(random.nextInt(40));
+                } else {
+                    app.userStats.addCalories(random.nextInt(100));
+                }
+            }
+            now += DAY;
+        }
+        app.userStats.checkIn();
+        int today = clock.today();
+        String expected = app.achievements.snapshot(today);
+
+        // A restart restores yesterday's snapshot and only replays today
+        App restarted = new App(directory, app.store);
+        assertEquals(expected, restarted.achievements.snapshot(today));
+        assertTrue("replayed " + restarted.achievements.getReplayedEvents(),
+                restarted.achievements.getReplayedEvents() < 10);
+
+        // Without a snapshot the whole journal is replayed and ends in the same state
+        app.store.putString(Achievements.KEY_SNAPSHOT, "");
+        App replayed = new App(directory, app.store);
+        assertEquals(expected, replayed.achievements.snapshot(today));
+        assertEquals(replayed.journal.size(), replayed.achievements.getReplayedEvents());
+    }
+
+    @Test
+    public void changedRules_ignoreTheSnapshot() throws Exception {
+        File directory = folder.newFolder("app");
+        App app = new App(directory);
+        for (int i = 0; i < 3; i++) {
+            app.userStats.checkIn();
+            now += DAY;
+        }
+        app.userStats.checkIn();
+
+        ArrayList<AchievementRule> rules = new ArrayList<>(AchievementRule.DEFAULT_RULES);
+        rules.add(new AchievementRule("check_in_3", "3-day check-in streak", AchievementRule.KIND_CHECK_IN_STREAK, 3));
+        Achievements achievements = new Achievements(app.journal, app.store, rules);
+        assertEquals(app.journal.size(), achievements.getReplayedEvents());
+        assertTrue(achievements.isUnlocked("check_in_3"));
+        assertEquals(4, achievements.getStreak(AchievementRule.KIND_CHECK_IN_STREAK));
+    }
+
+    @Ignore("Benchmark; run it by hand")
+    @Test
+    public void benchmark_coldStart() throws Exception {
+        File directory = folder.newFolder("app");
+        App app = new App(directory);
+        // About three years of a busy user
+        for (int day = 0; day < 1_000; day++) {
+            app.userStats.checkIn();
+            for (int i = 0; i < 200; i++) {
+                app.userStats.addCalories(5);
+            }
+            now += DAY;
+        }
+        app.userStats.checkIn();
+
+        long begin = System.nanoTime();
+        Achievements fromSnapshot = new Achievements(app.journal, app.store, AchievementRule.DEFAULT_RULES);
+        long snapshotNanos = System.nanoTime() - begin;
+
+        begin = System.nanoTime();
+        Achievements fromJournal = new Achievements(app.journal, new StatsStore(
+                new FilePreferences(folder.newFile("empty.xml")), writer, 10_000), AchievementRule.DEFAULT_RULES);
+        long journalNanos = System.nanoTime() - begin;
+
+        System.out.println(String.format("cold start of %d events: %.2f ms from the snapshot (%d replayed), "
+                        + "%.2f ms replaying the journal", app.journal.size(), snapshotNanos / 1e6,
+                fromSnapshot.getReplayedEvents(), journalNanos / 1e6));
+        assertEquals(fromJournal.snapshot(clock.today()), fromSnapshot.snapshot(clock.today()));
+        assertEquals(1_001, fromSnapshot.getStreak(AchievementRule.KIND_CHECK_IN_STREAK));
+    }
+}
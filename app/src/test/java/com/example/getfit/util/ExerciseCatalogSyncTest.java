@@ -0,0 +1,197 @@
+package com.example.getfit.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the exercise catalog sync against a local stand-in server and reports the bytes transferred
+ * and apply time of a full sync versus a delta sync for catalogs of increasing size, and checks that
+ * a server ignoring the cursor still leaves the catalog exact.
+ */
+public class ExerciseCatalogSyncTest {
+
+    private static final int[] CATALOG_SIZES = {100, 1_000, 10_000};
+    private static final int CHANGES_PER_SYNC = 10;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void deltaSync_transfersOnlyChanges() throws Exception {
+        for (int size : CATALOG_SIZES) {
+            File catalogFile = new File(tempFolder.getRoot(), "catalog-" + size + ".json");
+            ExerciseCatalogStore store = new ExerciseCatalogStore(catalogFile);
+
+            // First sync downloads the whole catalog
+            server.enqueue(new MockResponse().setBody(exercisesJson(1, size)));
+            WorkoutParser.CatalogDelta full = fetch(store.getSyncCursor());
+            RecordedRequest fullRequest = server.takeRequest();
+            long fullApplyNanos = timeApply(store, full);
+
+            assertNull(fullRequest.getRequestUrl().queryParameter("since"));
+            assertTrue(full.full);
+            assertEquals(size, store.size());
+            assertEquals(size, store.getSyncCursor());
+
+            // Second sync only receives new exercises and tombstones for deleted ones
+            server.enqueue(new MockResponse().setBody(deltaJson(size)));
+            WorkoutParser.CatalogDelta delta = fetch(store.getSyncCursor());
+            RecordedRequest deltaRequest = server.takeRequest();
+            long deltaApplyNanos = timeApply(store, delta);
+
+            assertEquals(String.valueOf(size), deltaRequest.getRequestUrl().queryParameter("since"));
+            assertEquals(CHANGES_PER_SYNC, delta.upserts.size());
+            assertEquals(CHANGES_PER_SYNC, delta.tombstones.size());
+            assertFalse(delta.full);
+            assertEquals(size, store.size());
+            assertEquals(size + 2 * CHANGES_PER_SYNC, store.getSyncCursor());
+            assertTrue(delta.bytesTransferred < full.bytesTransferred);
+
+            // The catalog and cursor survive a reload
+            ExerciseCatalogStore reloaded = new ExerciseCatalogStore(catalogFile);
+            assertEquals(store.getSyncCursor(), reloaded.getSyncCursor());
+            assertEquals(store.size(), reloaded.size());
+
+            System.out.println(String.format(
+                    "catalog=%d full: %d bytes, %.2f ms apply | delta: %d bytes, %.2f ms apply",
+                    size, full.bytesTransferred, fullApplyNanos / 1e6,
+                    delta.bytesTransferred, deltaApplyNanos / 1e6));
+        }
+    }
+
+    @Test
+    public void serverIgnoringTheCursor_replacesTheCatalog() throws Exception {
+        ExerciseCatalogStore store = new ExerciseCatalogStore(new File(tempFolder.getRoot(), "catalog.json"));
+        server.enqueue(new MockResponse().setBody(exercisesJson(1, 100)));
+        store.applyDelta(fetch(store.getSyncCursor()));
+
+        // The whole catalog comes back without the first ten, which were deleted on the server
+        server.enqueue(new MockResponse().setBody(exercisesJson(CHANGES_PER_SYNC + 1, 100)));
+        WorkoutParser.CatalogDelta delta = fetch(store.getSyncCursor());
+
+        assertTrue(delta.full);
+        assertTrue(store.applyDelta(delta));
+        assertEquals(100 - CHANGES_PER_SYNC, store.size());
+        assertEquals(100, store.getSyncCursor());
+        for (int row = 0; row < store.size(); row++) {
+            assertTrue(store.getPage(row, 1).get(0).getId() > CHANGES_PER_SYNC);
+        }
+
+        // Sent again unchanged, it changes nothing
+        server.enqueue(new MockResponse().setBody(exercisesJson(CHANGES_PER_SYNC + 1, 100)));
+        assertFalse(store.applyDelta(fetch(store.getSyncCursor())));
+    }
+
+    @Test
+    public void recordsWithoutUpdatedAt_keepTheDeltaPartial() throws Exception {
+        ExerciseCatalogStore store = new ExerciseCatalogStore(new File(tempFolder.getRoot(), "catalog.json"));
+        server.enqueue(new MockResponse().setBody(exercisesJson(1, 100)));
+        store.applyDelta(fetch(store.getSyncCursor()));
+
+        // A bare tombstone has no updatedAt; it must not be taken for the whole catalog
+        server.enqueue(new MockResponse().setBody("[{\"id\":1,\"deleted\":true}]"));
+        WorkoutParser.CatalogDelta delta = fetch(store.getSyncCursor());
+
+        assertFalse(delta.full);
+        assertEquals(100, delta.cursor);
+        assertTrue(store.applyDelta(delta));
+        assertEquals(99, store.size());
+        assertEquals(100, store.getSyncCursor());
+    }
+
+    /**
+     * Fetches a delta from the local server and waits for the asynchronous callback.
+     */
+    private WorkoutParser.CatalogDelta fetch(long cursor) throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<WorkoutParser.CatalogDelta> result = new AtomicReference<>();
+        AtomicReference<String> error = new AtomicReference<>();
+
+        WorkoutParser.fetchWorkoutsSince(server.url("/exercise").toString(), cursor, new WorkoutParser.DeltaCallback() {
+            @Override
+            public void onSuccess(WorkoutParser.CatalogDelta delta) {
+                result.set(delta);
+                latch.countDown();
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                error.set(errorMessage);
+                latch.countDown();
+            }
+        });
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertNull(error.get());
+        return result.get();
+    }
+
+    private static long timeApply(ExerciseCatalogStore store, WorkoutParser.CatalogDelta delta) {
+        long start = System.nanoTime();
+        store.applyDelta(delta);
+        return System.nanoTime() - start;
+    }
+
+    private static String exercisesJson(int firstId, int lastId) {
+        StringBuilder json = new StringBuilder("[");
+        for (int id = firstId; id <= lastId; id++) {
+            if (id > firstId) {
+                json.append(',');
+            }
+            appendExercise(json, id);
+        }
+        return json.append(']').toString();
+    }
+
+    private static String deltaJson(int size) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 1; i <= CHANGES_PER_SYNC; i++) {
+            appendExercise(json, size + i);
+            json.append(',');
+        }
+        for (int i = 1; i <= CHANGES_PER_SYNC; i++) {
+            json.append("{\"id\":").append(i)
+                    .append(",\"deleted\":true,\"updatedAt\":").append(size + CHANGES_PER_SYNC + i).append('}');
+            if (i < CHANGES_PER_SYNC) {
+                json.append(',');
+            }
+        }
+        return json.append(']').toString();
+    }
+
+    private static void appendExercise(StringBuilder json, int id) {
+        json.append("{\"id\":").append(id)
+                .append(",\"updatedAt\":").append(id)
+                .append(",\"name\":\"Exercise ").append(id)
+                .append("\",\"muscleGroup\":\"Chest\",\"type\":\"strength\",\"sets\":3,\"reps\":")
+                .append(id % 2 == 0 ? "12" : "\"AMRAP\"")
+                .append(",\"difficulty\":\"medium\"}");
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.getfit.util;
+
+import com.example.getfit.models.Exercise;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link ExerciseColumnStore} stores and materializes exercises faithfully and measures
+ * its retained heap against an {@code ArrayList<Exercise>} holding the same catalog.
+ */
+public class ExerciseColumnStoreTest {
+
+    private static final int[] CATALOG_SIZES = {1_000, 10_000, 100_000};
+
+    @Test
+    public void get_materializesStoredValues() {
+        ArrayList<Exercise> exercises = catalog(100);
+        exercises.add(new Exercise(101, null, null, null, 0, null, null));
+        ExerciseColumnStore store = ExerciseColumnStore.fromExercises(exercises);
+
+        assertEquals(exercises.size(), store.size());
+        for (int row = 0; row < exercises.size(); row++) {
+            assertEquals(exercises.get(row).toString(), store.get(row).toString());
+            assertTrue(store.rowEquals(row, exercises.get(row)));
+        }
+        assertEquals("AMRAP", store.get(2).getReps());
+        assertEquals(9, store.get(0).getReps());
+    }
+
+    @Test
+    public void removeSwap_movesLastRowIntoHole() {
+        ExerciseColumnStore store = ExerciseColumnStore.fromExercises(catalog(5));
+
+        assertEquals(4, store.removeSwap(1));
+        assertEquals(4, store.size());
+        assertEquals(5, store.getId(1));
+        assertEquals(-1, store.removeSwap(3));
+        assertEquals(3, store.size());
+    }
+
+    @Test
+    public void getPage_clampsToSize() {
+        ExerciseColumnStore store = ExerciseColumnStore.fromExercises(catalog(45));
+
+        assertEquals(20, store.getPage(0, 20).size());
+        assertEquals(5, store.getPage(40, 20).size());
+        assertEquals(41, store.getPage(40, 20).get(0).getId());
+        assertTrue(store.getPage(60, 20).isEmpty());
+    }
+
+    @Test
+    public void selectCopyAndAppendRow_keepRowValues() {
+        ExerciseColumnStore store = ExerciseColumnStore.fromExercises(catalog(10));
+
+        ExerciseColumnStore selected = store.select(new int[]{7, 2, 4});
+        assertEquals(3, selected.size());
+        assertEquals(store.get(7).toString(), selected.get(0).toString());
+        assertEquals(store.get(2).toString(), selected.get(1).toString());
+
+        // A copy doesn't follow later changes to the original
+        ExerciseColumnStore copy = store.copy();
+        store.removeSwap(0);
+        assertEquals(10, copy.size());
+        assertEquals(1, copy.getId(0));
+
+        ExerciseColumnStore appended = new ExerciseColumnStore();
+        assertEquals(0, appended.appendRow(copy, 9));
+        assertTrue(appended.rowEquals(0, copy.get(9)));
+    }
+
+    @Test
+    public void indexOf_findsRowsByIdAndNormalizedName() {
+        ArrayList<Exercise> exercises = catalog(5);
+        exercises.add(new Exercise(0, "  Wall  SIT ", "Legs", "strength", 3, 30, "easy"));
+        ExerciseColumnStore store = ExerciseColumnStore.fromExercises(exercises);
+
+        assertEquals(2, store.indexOfId(3));
+        assertEquals(-1, store.indexOfId(42));
+        assertEquals(5, store.indexOfNormalizedName("wall sit"));
+        assertEquals(-1, store.indexOfNormalizedName("wall"));
+        assertEquals(WorkoutParser.exerciseKey(exercises.get(5)), store.getKey(5));
+        assertEquals(WorkoutParser.exerciseKey(exercises.get(0)), store.getKey(0));
+    }
+
+    @Ignore("Benchmark; run it by hand")
+    @Test
+    public void benchmark_retainedHeap() {
+        for (int size : CATALOG_SIZES) {
+            ArrayList<Exercise> source = catalog(size);
+
+            long before = usedHeap();
+            // Every exercise in the list owns its own strings, as it would after a JSON decode
+            ArrayList<Exercise> list = copyOf(source);
+            long listBytes = usedHeap() - before;
+
+            before = usedHeap();
+            // The store is built from a fresh copy too, so it retains its own dictionary strings
+            ExerciseColumnStore store = ExerciseColumnStore.fromExercises(copyOf(source));
+            long storeBytes = usedHeap() - before;
+
+            System.out.println(String.format("exercises=%d ArrayList<Exercise> %.1f KB, ExerciseColumnStore %.1f KB (%.1fx)",
+                    size, listBytes / 1024.0, storeBytes / 1024.0, listBytes / (double) Math.max(1, storeBytes)));
+            assertEquals(list.size(), store.size());
+        }
+    }
+
+    private static ArrayList<Exercise> catalog(int size) {
+        ArrayList<Exercise> exercises = new ArrayList<>(size);
+        for (int id = 1; id <= size; id++) {
+            Object reps = id % 3 == 0 ? "AMRAP" : Integer.valueOf(8 + id % 5);
+            exercises.add(new Exercise(id, "Exercise " + id, "Group " + (id % 8), id % 2 == 0 ? "strength" : "cardio",
+                    3, reps, id % 3 == 0 ? "hard" : "medium"));
+        }
+        return exercises;
+    }
+
+    /**
+     * Deep-copies the exercises with fresh strings, the way a JSON decode produces them.
+     */
+    private static ArrayList<Exercise> copyOf(ArrayList<Exercise> exercises) {
+        ArrayList<Exercise> copy = new ArrayList<>(exercises.size());
+        for (Exercise exercise : exercises) {
+            Object reps = exercise.getReps() instanceof String ? new String((String) exercise.getReps()) : exercise.getReps();
+            copy.add(new Exercise(exercise.getId(), new String(exercise.getName()), new String(exercise.getMuscleGroup()),
+                    new String(exercise.getType()), exercise.getSets(), reps, new String(exercise.getDifficulty())));
+        }
+        return copy;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.getfit.util;
+
+import com.example.getfit.models.Exercise;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link ExerciseJsonCodec} round-trips exercises (including both forms of the
+ * {@code reps} union) and compares its decode/encode time with the previous JSONObject based path
+ * for catalogs from 100 to 100k exercises.
+ */
+public class ExerciseJsonCodecBenchmarkTest {
+
+    private static final int[] CATALOG_SIZES = {100, 1_000, 10_000, 100_000};
+    private static final int ITERATIONS = 5;
+
+    @Test
+    public void readExercises_handlesIntAndStringReps() throws Exception {
+        String json = "[{\"id\":1,\"name\":\"Squat\",\"muscleGroup\":\"Legs\",\"type\":\"strength\","
+                + "\"sets\":3,\"reps\":12,\"difficulty\":\"easy\",\"unknownField\":{\"a\":[1,2]}},"
+                + "{\"id\":2,\"name\":\"Plank\",\"muscleGroup\":\"Core\",\"type\":\"strength\","
+                + "\"sets\":3,\"reps\":\"AMRAP\",\"difficulty\":\"medium\"}]";
+
+        ArrayList<Exercise> exercises = ExerciseJsonCodec.readExercises(new StringReader(json));
+
+        assertEquals(2, exercises.size());
+        assertEquals(12, exercises.get(0).getReps());
+        assertEquals("AMRAP", exercises.get(1).getReps());
+        assertEquals("Core", exercises.get(1).getMuscleGroup());
+    }
+
+    @Test
+    public void readExercises_keepsDecimalRepsAsLabel() throws Exception {
+        String json = "[{\"id\":1,\"name\":\"Run\",\"reps\":12.5},{\"id\":2,\"name\":\"Row\",\"reps\":8.0}]";
+
+        ArrayList<Exercise> exercises = ExerciseJsonCodec.readExercises(new StringReader(json));
+
+        assertEquals("12.5", exercises.get(0).getReps());
+        assertEquals("8.0", exercises.get(1).getReps());
+    }
+
+    @Test
+    public void writeExercises_roundTrips() throws Exception {
+        ArrayList<Exercise> exercises = catalog(50);
+
+        StringWriter out = new StringWriter();
+        ExerciseJsonCodec.writeExercises(out, exercises);
+        ArrayList<Exercise> decoded = ExerciseJsonCodec.readExercises(new StringReader(out.toString()));
+
+        assertEquals(exercises.size(), decoded.size());
+        for (int i = 0; i < exercises.size(); i++) {
+            assertEquals(exercises.get(i).toString(), decoded.get(i).toString());
+        }
+    }
+
+    @Ignore("Benchmark; run it by hand")
+    @Test
+    public void benchmark_codecVersusJsonObject() throws Exception {
+        for (int size : CATALOG_SIZES) {
+            ArrayList<Exercise> exercises = catalog(size);
+            StringWriter out = new StringWriter();
+            ExerciseJsonCodec.writeExercises(out, exercises);
+            String json = out.toString();
+
+            long codecDecode = Long.MAX_VALUE;
+            long legacyDecode = Long.MAX_VALUE;
+            long codecEncode = Long.MAX_VALUE;
+            long legacyEncode = Long.MAX_VALUE;
+
+            for (int i = 0; i < ITERATIONS; i++) {
+                long start = System.nanoTime();
+                assertEquals(size, ExerciseJsonCodec.readExercises(new StringReader(json)).size());
+                codecDecode = Math.min(codecDecode, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                assertEquals(size, legacyParse(json).size());
+                legacyDecode = Math.min(legacyDecode, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                ExerciseJsonCodec.writeExercises(new StringWriter(json.length()), exercises);
+                codecEncode = Math.min(codecEncode, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                legacyEncode(exercises);
+                legacyEncode = Math.min(legacyEncode, System.nanoTime() - start);
+            }
+
+            System.out.println(String.format(
+                    "exercises=%d decode: codec %.2f ms, JSONObject %.2f ms | encode: codec %.2f ms, JSONObject %.2f ms",
+                    size, codecDecode / 1e6, legacyDecode / 1e6, codecEncode / 1e6, legacyEncode / 1e6));
+        }
+    }
+
+    private static ArrayList<Exercise> catalog(int size) {
+        ArrayList<Exercise> exercises = new ArrayList<>(size);
+        for (int id = 1; id <= size; id++) {
+            Object reps = id % 3 == 0 ? "AMRAP" : Integer.valueOf(8 + id % 5);
+            exercises.add(new Exercise(id, "Exercise " + id, "Group " + (id % 8), id % 2 == 0 ? "strength" : "cardio",
+                    3, reps, id % 3 == 0 ? "hard" : "medium"));
+        }
+        return exercises;
+    }
+
+    /**
+     * The JSONArray/JSONObject decode path WorkoutParser used before the codec.
+     */
+    private static ArrayList<Exercise> legacyParse(String json) throws Exception {
+        JSONArray jsonResponse = new JSONArray(json);
+        ArrayList<Exercise> exercisesList = new ArrayList<>();
+        for (int i = 0; i < jsonResponse.length(); i++) {
+            JSONObject jsonObj = jsonResponse.getJSONObject(i);
+            exercisesList.add(new Exercise(jsonObj.getInt("id"), jsonObj.getString("name"),
+                    jsonObj.getString("muscleGroup"), jsonObj.getString("type"), jsonObj.getInt("sets"),
+                    jsonObj.get("reps"), jsonObj.getString("difficulty")));
+        }
+        return exercisesList;
+    }
+
+    /**
+     * The JSONObject encode path WorkoutParser.addExercise used before the codec, applied to every exercise.
+     */
+    private static String legacyEncode(ArrayList<Exercise> exercises) throws Exception {
+        JSONArray array = new JSONArray();
+        for (Exercise exercise : exercises) {
+            JSONObject exerciseJson = new JSONObject();
+            exerciseJson.put("id", exercise.getId());
+            exerciseJson.put("name", exercise.getName());
+            exerciseJson.put("muscleGroup", exercise.getMuscleGroup());
+            exerciseJson.put("type", exercise.getType());
+            exerciseJson.put("sets", exercise.getSets());
+            exerciseJson.put("reps", exercise.getReps());
+            exerciseJson.put("difficulty", exercise.getDifficulty());
+            array.put(exerciseJson);
+        }
+        return array.toString();
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.getfit.util;
+
+import com.example.getfit.models.Exercise;
+import com.example.getfit.models.User;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link ExerciseRanker} selects the best k rows in a stable order, fits the user's
+ * intensity, moves just completed exercises and muscle groups down, keeps that history across
+ * restarts and notices when the catalog changes.
+ */
+public class ExerciseRankerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final User beginner = new User("Ann", "ann@example.com", 170, 70, "Beginner", 65);
+
+    @Test
+    public void equalScores_areOrderedById() throws Exception {
+        ExerciseRanker ranker = new ExerciseRanker(new FilePreferences(folder.newFile("history.xml")));
+        ExerciseColumnStore exercises = ExerciseColumnStore.fromExercises(Arrays.asList(
+                exercise(5, "Squat", "legs", "easy"),
+                exercise(2, "Lunge", "legs", "easy"),
+                exercise(9, "Step Up", "legs", "easy"),
+                exercise(1, "Wall Sit", "legs", "easy")));
+
+        assertArrayEquals(new int[]{3, 1, 0}, ranker.topK(exercises, allRows(exercises), beginner, 3));
+        assertArrayEquals(new int[]{3, 1, 0, 2}, ranker.topK(exercises, allRows(exercises), beginner, 10));
+    }
+
+    @Test
+    public void difficulty_followsTheUsersIntensity() throws Exception {
+        ExerciseRanker ranker = new ExerciseRanker(new FilePreferences(folder.newFile("history.xml")));
+        ExerciseColumnStore exercises = ExerciseColumnStore.fromExercises(Arrays.asList(
+                exercise(1, "Burpee", "full body", "hard"),
+                exercise(2, "Push Up", "chest", "medium"),
+                exercise(3, "Plank", "core", "easy")));
+
+        assertArrayEquals(new int[]{2, 1, 0}, ranker.topK(exercises, allRows(exercises), beginner, 3));
+    }
+
+    @Test
+    public void completion_movesItsExerciseAndMuscleGroupDown() throws Exception {
+        FilePreferences history = new FilePreferences(folder.newFile("history.xml"));
+        ExerciseRanker ranker = new ExerciseRanker(history);
+        ExerciseColumnStore exercises = ExerciseColumnStore.fromExercises(Arrays.asList(
+                exercise(1, "Bench Press", "chest", "easy"),
+                exercise(2, "Push Up", "chest", "easy"),
+                exercise(3, "Squat", "legs", "easy")));
+        assertArrayEquals(new int[]{0, 1, 2}, ranker.topK(exercises, allRows(exercises), beginner, 3));
+
+        // Ranked once already, so this also checks that the remembered rows see the completion
+        ranker.recordCompletion(exercises.get(0));
+        assertArrayEquals(new int[]{2, 1, 0}, ranker.topK(exercises, allRows(exercises), beginner, 3));
+
+        // The history is stored, so a ranker recreated from the same preferences agrees
+        ExerciseRanker restarted = new ExerciseRanker(history);
+        assertArrayEquals(new int[]{2, 1, 0}, restarted.topK(exercises, allRows(exercises), beginner, 3));
+    }
+
+    @Test
+    public void changedCatalog_isScoredByItsNewRows() throws Exception {
+        ExerciseRanker ranker = new ExerciseRanker(new FilePreferences(folder.newFile("history.xml")));
+        ExerciseColumnStore exercises = ExerciseColumnStore.fromExercises(Arrays.asList(
+                exercise(1, "Bench Press", "chest", "hard"),
+                exercise(2, "Squat", "legs", "easy")));
+        assertArrayEquals(new int[]{1, 0}, ranker.topK(exercises, allRows(exercises), beginner, 2));
+
+        // The same store, changed in place: the first row now fits and the second doesn't
+        exercises.set(0, exercise(1, "Bench Press", "chest", "easy"));
+        exercises.set(1, exercise(2, "Squat", "legs", "hard"));
+        assertArrayEquals(new int[]{0, 1}, ranker.topK(exercises, allRows(exercises), beginner, 2));
+    }
+
+    @Test
+    public void subsetOfRows_onlyRanksThoseRows() throws Exception {
+        ExerciseRanker ranker = new ExerciseRanker(new FilePreferences(folder.newFile("history.xml")));
+        ArrayList<Exercise> catalog = new ArrayList<>();
+        for (int id = 1; id <= 50; id++) {
+            catalog.add(exercise(id, "Exercise " + id, "group " + (id % 5), id % 2 == 0 ? "easy" : "hard"));
+        }
+        ExerciseColumnStore exercises = ExerciseColumnStore.fromExercises(catalog);
+
+        int[] ranked = ranker.topK(exercises, new int[]{40, 3, 17, 8}, beginner, 10);
+        assertArrayEquals(new int[]{3, 17, 8, 40}, ranked);
+        assertEquals(0, ranker.topK(exercises, new int[0], beginner, 10).length);
+        assertEquals(0, ranker.topK(exercises, allRows(exercises), beginner, 0).length);
+    }
+
+    private static Exercise exercise(int id, String name, String muscleGroup, String difficulty) {
+        return new Exercise(id, name, muscleGroup, "strength", 3, 10, difficulty);
+    }
+
+    private static int[] allRows(ExerciseColumnStore exercises) {
+        int[] rows = new int[exercises.size()];
+        for (int row = 0; row < rows.length; row++) {
+            rows[row] = row;
+        }
+        return rows;
+    }
+}
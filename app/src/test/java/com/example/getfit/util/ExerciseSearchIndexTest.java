@@ -0,0 +1,95 @@
+package com.example.getfit.util;
+
+import com.example.getfit.models.Exercise;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests typo tolerance and incremental updates of {@link ExerciseSearchIndex}, and reports its query
+ * latency on a large catalog.
+ */
+public class ExerciseSearchIndexTest {
+
+    private static final String[] MUSCLE_GROUPS = {"Chest", "Back", "Legs", "Shoulders", "Arms", "Core"};
+    private static final String[] MOVES = {"Press", "Row", "Curl", "Raise", "Fly", "Extension", "Pulldown", "Lunge"};
+    private static final String[] EQUIPMENT = {"Barbell", "Dumbbell", "Cable", "Machine", "Kettlebell", "Band"};
+    private static final int MEASURED_RUNS = 7;
+
+    @Test
+    public void search_toleratesTypos() {
+        ExerciseSearchIndex index = new ExerciseSearchIndex();
+        index.addAll(Arrays.asList(
+                exercise(1, "Squat", "Legs"),
+                exercise(2, "Dumbbell Bench Press", "Chest"),
+                exercise(3, "Barbell Row", "Back"),
+                exercise(4, "Plank", "Core")));
+
+        assertEquals("Squat", index.search("sqaut", 5).get(0).getName());
+        assertEquals("Dumbbell Bench Press", index.search("dumbell press", 5).get(0).getName());
+        assertEquals("Barbell Row", index.search("back", 5).get(0).getName());
+        assertTrue(index.search("", 5).isEmpty());
+    }
+
+    @Test
+    public void addAndRemove_updateIncrementally() {
+        ExerciseSearchIndex index = new ExerciseSearchIndex();
+        index.add(exercise(1, "Squat", "Legs"));
+        index.add(exercise(0, "Goblet Squat", "Legs"));
+        assertEquals(2, index.search("squat", 5).size());
+
+        // Re-adding the same id replaces the old version
+        index.add(exercise(1, "Front Squat", "Legs"));
+        assertEquals(2, index.size());
+        assertEquals("Front Squat", index.search("front squat", 5).get(0).getName());
+
+        index.removeById(1);
+        ArrayList<Exercise> results = index.search("squat", 5);
+        assertEquals(1, results.size());
+        assertEquals("Goblet Squat", results.get(0).getName());
+    }
+
+    @Test
+    public void search_findsMatchesOnLargeCatalog() {
+        ExerciseSearchIndex index = new ExerciseSearchIndex();
+        int id = 1;
+        while (id <= 50_000) {
+            String name = EQUIPMENT[id % EQUIPMENT.length] + " " + MOVES[(id / 7) % MOVES.length] + " " + id;
+            index.add(exercise(id, name, MUSCLE_GROUPS[id % MUSCLE_GROUPS.length]));
+            id++;
+        }
+
+        String[] queries = {"dumbell press", "sqaut", "kettlebel curl", "cable fly chest", "shoulders"};
+        // Warm up before measuring
+        for (int i = 0; i < 20; i++) {
+            for (String query : queries) {
+                index.search(query, 20);
+            }
+        }
+
+        // Each query's median run is reported, so a single GC pause doesn't skew it
+        long worstNanos = 0;
+        long[] runs = new long[MEASURED_RUNS];
+        for (String query : queries) {
+            for (int run = 0; run < MEASURED_RUNS; run++) {
+                long start = System.nanoTime();
+                index.search(query, 20);
+                runs[run] = System.nanoTime() - start;
+            }
+            Arrays.sort(runs);
+            worstNanos = Math.max(worstNanos, runs[MEASURED_RUNS / 2]);
+        }
+
+        assertFalse(index.search("dumbell press", 20).isEmpty());
+        assertEquals(20, index.search("kettlebel curl", 20).size());
+        System.out.println(String.format("50k exercises: slowest query %.2f ms", worstNanos / 1e6));
+    }
+
+    private static Exercise exercise(int id, String name, String muscleGroup) {
+        return new Exercise(id, name, muscleGroup, "strength", 3, 10, "medium");
+    }
+}
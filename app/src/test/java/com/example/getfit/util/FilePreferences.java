@@ -0,0 +1,182 @@
+package com.example.getfit.util;
+
+import android.content.SharedPreferences;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link SharedPreferences} stand-in for JVM tests. Like the Android implementation it keeps all
+ * values in memory and rewrites the whole backing file on every commit or apply; {@link #writes}
+ * counts those file rewrites.
+ */
+class FilePreferences implements SharedPreferences {
+
+    final AtomicInteger writes = new AtomicInteger();
+
+    private final File file;
+    private final HashMap<String, Object> values = new HashMap<>();
+
+    FilePreferences(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public synchronized Map<String, ?> getAll() {
+        return new HashMap<>(values);
+    }
+
+    @Override
+    public synchronized String getString(String key, String defValue) {
+        Object value = values.get(key);
+        return value == null ? defValue : (String) value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized Set<String> getStringSet(String key, Set<String> defValues) {
+        Object value = values.get(key);
+        return value == null ? defValues : (Set<String>) value;
+    }
+
+    @Override
+    public synchronized int getInt(String key, int defValue) {
+        Object value = values.get(key);
+        return value == null ? defValue : (Integer) value;
+    }
+
+    @Override
+    public synchronized long getLong(String key, long defValue) {
+        Object value = values.get(key);
+        return value == null ? defValue : (Long) value;
+    }
+
+    @Override
+    public synchronized float getFloat(String key, float defValue) {
+        Object value = values.get(key);
+        return value == null ? defValue : (Float) value;
+    }
+
+    @Override
+    public synchronized boolean getBoolean(String key, boolean defValue) {
+        Object value = values.get(key);
+        return value == null ? defValue : (Boolean) value;
+    }
+
+    @Override
+    public synchronized boolean contains(String key) {
+        return values.containsKey(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new FileEditor();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+    }
+
+    /**
+     * Applies an editor's changes and rewrites the whole file.
+     */
+    private synchronized boolean write(Map<String, Object> changes, boolean clear) {
+        if (clear) {
+            values.clear();
+        }
+        for (Map.Entry<String, Object> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                values.remove(change.getKey());
+            } else {
+                values.put(change.getKey(), change.getValue());
+            }
+        }
+
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            out.write("<map>\n");
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                out.write("  <entry name=\"" + entry.getKey() + "\" value=\"" + entry.getValue() + "\" />\n");
+            }
+            out.write("</map>\n");
+        } catch (IOException e) {
+            return false;
+        }
+        writes.incrementAndGet();
+        return true;
+    }
+
+    private class FileEditor implements Editor {
+        private final HashMap<String, Object> changes = new HashMap<>();
+        private boolean clear;
+
+        @Override
+        public Editor putString(String key, String value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            changes.put(key, values);
+            return this;
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            changes.put(key, null);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            clear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            return write(changes, clear);
+        }
+
+        @Override
+        public void apply() {
+            write(changes, clear);
+        }
+    }
+}
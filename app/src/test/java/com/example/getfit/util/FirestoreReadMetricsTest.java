@@ -0,0 +1,38 @@
+package com.example.getfit.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link FirestoreReadMetrics} keeps the reads from the cache and from the server
+ * apart, and their average and longest latencies.
+ */
+public class FirestoreReadMetricsTest {
+
+    @Test
+    public void reads_areCountedPerSource() {
+        FirestoreReadMetrics metrics = new FirestoreReadMetrics();
+        metrics.record(true, 4);
+        metrics.record(true, 8);
+        metrics.record(false, 900);
+
+        assertEquals(2, metrics.getReadCount(true));
+        assertEquals(1, metrics.getReadCount(false));
+        assertEquals(6, metrics.getAverageLatencyMillis(true), 1e-9);
+        assertEquals(900, metrics.getAverageLatencyMillis(false), 1e-9);
+        assertEquals(8, metrics.getMaxLatencyMillis(true));
+        assertEquals(900, metrics.getMaxLatencyMillis(false));
+    }
+
+    @Test
+    public void reset_forgetsAllReads() {
+        FirestoreReadMetrics metrics = new FirestoreReadMetrics();
+        metrics.record(false, 120);
+        metrics.reset();
+
+        assertEquals(0, metrics.getReadCount(false));
+        assertEquals(0, metrics.getAverageLatencyMillis(false), 1e-9);
+        assertEquals(0, metrics.getMaxLatencyMillis(false));
+    }
+}
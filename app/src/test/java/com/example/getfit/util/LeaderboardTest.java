@@ -0,0 +1,113 @@
+package com.example.getfit.util;
+
+import com.google.firebase.firestore.DocumentChange;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link Leaderboard} keeps its cached board in order from the changes of the board
+ * query alone, that the board and the day's reads survive a restart, and that reads are counted as
+ * Firestore bills them.
+ */
+public class LeaderboardTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ScheduledExecutorService executor = StatsStore.newWriterThread();
+    private volatile long now = 19_500 * DAY + DAY / 2;
+    private final StatsClock clock = new StatsClock(() -> now, TimeZone.getTimeZone("UTC"));
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void changes_keepTheBoardInOrder() {
+        Leaderboard.Entry ann = new Leaderboard.Entry("a", "Ann", 100);
+        Leaderboard.Entry bo = new Leaderboard.Entry("b", "Bo", 80);
+        Leaderboard.Entry cy = new Leaderboard.Entry("c", "Cy", 50);
+        List<Leaderboard.Entry> board = new ArrayList<>();
+
+        // The first snapshot adds the whole board
+        Leaderboard.applyChange(board, DocumentChange.Type.ADDED, -1, 0, ann);
+        Leaderboard.applyChange(board, DocumentChange.Type.ADDED, -1, 1, bo);
+        Leaderboard.applyChange(board, DocumentChange.Type.ADDED, -1, 2, cy);
+        assertEquals(Arrays.asList(ann, bo, cy), board);
+
+        // Bo overtakes Ann
+        Leaderboard.Entry bo120 = new Leaderboard.Entry("b", "Bo", 120);
+        Leaderboard.applyChange(board, DocumentChange.Type.MODIFIED, 1, 0, bo120);
+        assertEquals(Arrays.asList(bo120, ann, cy), board);
+
+        // Di pushes Cy off the board
+        Leaderboard.Entry di = new Leaderboard.Entry("d", "Di", 90);
+        Leaderboard.applyChange(board, DocumentChange.Type.REMOVED, 2, -1, cy);
+        Leaderboard.applyChange(board, DocumentChange.Type.ADDED, -1, 2, di);
+        assertEquals(Arrays.asList(bo120, ann, di), board);
+
+        // Ann earns points without changing places
+        Leaderboard.Entry ann110 = new Leaderboard.Entry("a", "Ann", 110);
+        Leaderboard.applyChange(board, DocumentChange.Type.MODIFIED, 1, 1, ann110);
+        assertEquals(Arrays.asList(bo120, ann110, di), board);
+    }
+
+    @Test
+    public void storedBoard_isShownAfterRestart() throws Exception {
+        FilePreferences preferences = new FilePreferences(folder.newFile("leaderboard.xml"));
+        Leaderboard first = newLeaderboard(preferences, 10);
+        List<Leaderboard.Entry> board = Arrays.asList(new Leaderboard.Entry("a", "Ann", 100),
+                new Leaderboard.Entry("b", null, 80));
+        preferences.edit().putString("board", first.encodeBoard(board)).apply();
+
+        assertEquals(board, newLeaderboard(preferences, 10).getBoard());
+        // A smaller board shows the best entries only
+        assertEquals(board.subList(0, 1), newLeaderboard(preferences, 1).getBoard());
+    }
+
+    @Test
+    public void unreadableStoredBoard_isDropped() throws Exception {
+        FilePreferences preferences = new FilePreferences(folder.newFile("leaderboard.xml"));
+        preferences.edit().putString("board", "{not a board").apply();
+
+        assertTrue(newLeaderboard(preferences, 10).getBoard().isEmpty());
+    }
+
+    @Test
+    public void readsToday_startOverTheNextDay() throws Exception {
+        FilePreferences preferences = new FilePreferences(folder.newFile("leaderboard.xml"));
+        preferences.edit().putInt("readDay", clock.today()).putInt("reads", 42).apply();
+        Leaderboard leaderboard = newLeaderboard(preferences, 10);
+
+        assertEquals(42, leaderboard.getReadsToday());
+        now += DAY;
+        assertEquals(0, leaderboard.getReadsToday());
+    }
+
+    @Test
+    public void billedReads_countTheWholeBoardOnlyOnce() {
+        assertEquals(10, Leaderboard.billedReads(true, 10, 10));
+        // An empty result still costs one read
+        assertEquals(1, Leaderboard.billedReads(true, 0, 0));
+        assertEquals(2, Leaderboard.billedReads(false, 10, 2));
+    }
+
+    private Leaderboard newLeaderboard(FilePreferences preferences, int size) {
+        // Neither publishes nor listens, so it needs no Firestore
+        return new Leaderboard(null, null, null, preferences, clock, executor, size, 0, 100);
+    }
+}
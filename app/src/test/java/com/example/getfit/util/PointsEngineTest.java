@@ -0,0 +1,244 @@
+package com.example.getfit.util;
+
+import com.example.getfit.models.UserStats;
+
+import org.junit.After;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link PointsEngine} awards what the {@link PointsRule}s declare: the app's check-in,
+ * workout and day-end dining rules, daily limits that survive a restart, and a table that only
+ * evaluates the rules of an event's type. Also measures bursts of thousands of events.
+ */
+public class PointsEngineTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ScheduledExecutorService writer = StatsStore.newWriterThread();
+    private volatile long now = 19_600 * DAY + DAY / 2;
+    private final StatsClock clock = new StatsClock(() -> now, TimeZone.getTimeZone("UTC"));
+
+    @After
+    public void tearDown() {
+        writer.shutdownNow();
+    }
+
+    @Test
+    public void checkIn_earnsPointsOncePerDay() throws Exception {
+        UserStats userStats = newUserStats(folder.newFolder("journal"));
+
+        assertEquals(20, userStats.checkIn());
+        assertEquals(0, userStats.checkIn());
+        assertTrue(userStats.hasCheckedInToday());
+
+        now += DAY;
+        assertFalse(userStats.hasCheckedInToday());
+        assertEquals(20, userStats.checkIn());
+        assertEquals(40, userStats.getTotalPoints());
+    }
+
+    @Test
+    public void workout_earnsPointsOncePerExerciseAndDay() throws Exception {
+        UserStats userStats = newUserStats(folder.newFolder("journal"));
+
+        assertEquals(1, userStats.completeWorkout(7));
+        assertEquals(0, userStats.completeWorkout(7));
+        assertEquals(1, userStats.completeWorkout(8));
+
+        now += DAY;
+        assertEquals(1, userStats.completeWorkout(7));
+        assertEquals(3, userStats.getTotalPoints());
+    }
+
+    @Test
+    public void dayEnd_awardsDiningPointsForTheFinishedDay() throws Exception {
+        UserStats userStats = newUserStats(folder.newFolder("journal"));
+        userStats.saveDailyCalorieGoalRange(1_500, 2_500);
+
+        // Within the range at some point of the day isn't enough, only the total at its end counts
+        userStats.addCalories(2_000);
+        userStats.addCalories(1_000);
+        now += DAY;
+        userStats.addCalories(2_000);
+        assertEquals(0, userStats.getTotalPoints());
+
+        // The first event of the next day awards the points of the day that ended in range
+        now += DAY;
+        assertEquals(20, userStats.checkIn());
+        assertEquals(50, userStats.getTotalPoints());
+
+        // Only once, even though more events follow on the same day
+        userStats.addCalories(100);
+        assertEquals(50, userStats.getTotalPoints());
+    }
+
+    @Test
+    public void dayEnd_followsEventsAppendedOutsideTheEngine() throws Exception {
+        File directory = folder.newFolder("journal");
+        List<PointsRule> rules = Arrays.asList(PointsRule.on(PointsRule.TRIGGER_DAY_END, 30,
+                StatsJournal.REASON_DINING_GOAL).when(PointsRule.CONDITION_CALORIES_IN_GOAL_RANGE));
+        StatsJournal journal = newJournal(directory);
+        StatsTotals totals = newTotals(journal);
+        new PointsEngine(journal, totals, new PointsLedger(journal), rules, calories -> calories >= 1_500);
+
+        // The next day starts with calories synced in from elsewhere, not with a recorded event
+        journal.append(StatsJournal.EVENT_CALORIES, 2_000, 0, 0);
+        now += DAY;
+        journal.append(StatsJournal.EVENT_CALORIES, 100, 0, 0);
+        assertEquals(30, totals.getTotalPoints());
+        assertEquals(100, totals.getCalories(clock.today()));
+
+        // Replaying the journal after a restart doesn't pay the finished day again
+        journal = newJournal(directory);
+        totals = newTotals(journal);
+        new PointsEngine(journal, totals, new PointsLedger(journal), rules, calories -> calories >= 1_500);
+        assertEquals(30, totals.getTotalPoints());
+    }
+
+    @Test
+    public void dayEnd_awardReachesLaterListenersAfterItsEvent() throws Exception {
+        List<PointsRule> rules = Arrays.asList(PointsRule.on(PointsRule.TRIGGER_DAY_END, 30,
+                StatsJournal.REASON_DINING_GOAL).when(PointsRule.CONDITION_CALORIES_IN_GOAL_RANGE));
+        StatsJournal journal = newJournal(folder.newFolder("journal"));
+        StatsTotals totals = newTotals(journal);
+        new PointsEngine(journal, totals, new PointsLedger(journal), rules, calories -> calories >= 1_500);
+        List<Integer> seen = new ArrayList<>();
+        journal.addListener((type, timeMillis, epochDay, amount, subject, detail) -> seen.add(type));
+
+        journal.append(StatsJournal.EVENT_CALORIES, 2_000, 0, 0);
+        now += DAY;
+        journal.append(StatsJournal.EVENT_CHECK_IN, 0, 0, 0);
+
+        // Listeners registered after the engine see the check-in that ended the day before its award
+        assertEquals(Arrays.asList(StatsJournal.EVENT_CALORIES, StatsJournal.EVENT_CHECK_IN, StatsJournal.EVENT_POINTS),
+                seen);
+        seen.clear();
+        journal.replay((type, timeMillis, epochDay, amount, subject, detail) -> seen.add(type));
+        assertEquals(Arrays.asList(StatsJournal.EVENT_CALORIES, StatsJournal.EVENT_CHECK_IN, StatsJournal.EVENT_POINTS),
+                seen);
+        assertEquals(30, totals.getTotalPoints());
+    }
+
+    @Test
+    public void maxPerDay_limitsAwardsAndSurvivesRestart() throws Exception {
+        File directory = folder.newFolder("journal");
+        List<PointsRule> rules = Arrays.asList(
+                PointsRule.on(StatsJournal.EVENT_CALORIES, 5, StatsJournal.REASON_OTHER).maxPerDay(3));
+        StatsJournal journal = newJournal(directory);
+        StatsTotals totals = newTotals(journal);
+        PointsEngine engine = new PointsEngine(journal, totals, new PointsLedger(journal), rules, calories -> true);
+
+        assertEquals(5, engine.record(StatsJournal.EVENT_CALORIES, 100, 0, 0));
+        assertEquals(5, engine.record(StatsJournal.EVENT_CALORIES, 100, 0, 0));
+
+        // After a restart the day's awards are counted again from the journal
+        journal = newJournal(directory);
+        totals = newTotals(journal);
+        engine = new PointsEngine(journal, totals, new PointsLedger(journal), rules, calories -> true);
+        assertEquals(5, engine.record(StatsJournal.EVENT_CALORIES, 100, 0, 0));
+        assertEquals(0, engine.record(StatsJournal.EVENT_CALORIES, 100, 0, 0));
+        assertEquals(15, totals.getTotalPoints());
+
+        now += DAY;
+        assertEquals(5, engine.record(StatsJournal.EVENT_CALORIES, 100, 0, 0));
+        assertEquals(20, totals.getTotalPoints());
+    }
+
+    @Test
+    public void rules_areIndexedByTrigger() throws Exception {
+        StatsJournal journal = newJournal(folder.newFolder("journal"));
+        PointsRule workout = PointsRule.on(StatsJournal.EVENT_WORKOUT, 1, 10);
+        PointsRule secondWorkout = PointsRule.on(StatsJournal.EVENT_WORKOUT, 2, 11);
+        PointsRule checkIn = PointsRule.on(StatsJournal.EVENT_CHECK_IN, 3, 12);
+        PointsEngine engine = new PointsEngine(journal, newTotals(journal), new PointsLedger(journal),
+                Arrays.asList(workout, checkIn, secondWorkout), calories -> true);
+
+        assertArrayEquals(new PointsRule[]{workout, secondWorkout}, engine.rulesFor(StatsJournal.EVENT_WORKOUT));
+        assertArrayEquals(new PointsRule[]{checkIn}, engine.rulesFor(StatsJournal.EVENT_CHECK_IN));
+        assertEquals(0, engine.rulesFor(StatsJournal.EVENT_CALORIES).length);
+        assertEquals(0, engine.rulesFor(100).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rules_withTheSameReason_areRejected() throws Exception {
+        StatsJournal journal = newJournal(folder.newFolder("journal"));
+        new PointsEngine(journal, newTotals(journal), new PointsLedger(journal), Arrays.asList(
+                PointsRule.on(StatsJournal.EVENT_WORKOUT, 1, StatsJournal.REASON_EXERCISE),
+                PointsRule.on(StatsJournal.EVENT_CHECK_IN, 1, StatsJournal.REASON_EXERCISE)), calories -> true);
+    }
+
+    @Ignore("Benchmark; run it by hand")
+    @Test
+    public void benchmark_burstsOfEvents() throws Exception {
+        UserStats userStats = newUserStats(folder.newFolder("journal"));
+        userStats.saveDailyCalorieGoalRange(0, Integer.MAX_VALUE);
+        Random random = new Random(6);
+        HashSet<String> paid = new HashSet<>();
+        int expected = 0;
+        int events = 0;
+        long nanos = 0;
+
+        for (int burst = 0; burst < 20; burst++) {
+            // Each burst is a new day, so the previous one ends within the (unbounded) range
+            if (burst > 0) {
+                now += DAY;
+                expected += 30;
+            }
+            long begin = System.nanoTime();
+            for (int i = 0; i < 5_000; i++) {
+                int action = random.nextInt(10);
+                if (action < 5) {
+                    long exercise = random.nextInt(500);
+                    userStats.completeWorkout(exercise);
+                    expected += paid.add(burst + "/workout/" + exercise) ? 1 : 0;
+                } else if (action < 9) {
+                    userStats.addCalories(1);
+                } else {
+                    userStats.checkIn();
+                    expected += paid.add(burst + "/checkIn") ? 20 : 0;
+                }
+            }
+            nanos += System.nanoTime() - begin;
+            events += 5_000;
+        }
+        System.out.println(String.format("%d events evaluated in %.1f ms, %.2f us per event",
+                events, nanos / 1e6, nanos / 1e3 / events));
+
+        // Each day pays 20 for the check-in, one point per distinct exercise and 30 once it ended
+        assertEquals(expected, userStats.getTotalPoints());
+    }
+
+    private StatsJournal newJournal(File directory) throws Exception {
+        return new StatsJournal(directory, 4 * 1024, clock);
+    }
+
+    private static StatsTotals newTotals(StatsJournal journal) {
+        StatsTotals totals = new StatsTotals();
+        journal.addListener(totals);
+        return totals;
+    }
+
+    private UserStats newUserStats(File directory) throws Exception {
+        StatsJournal journal = newJournal(directory);
+        StatsTotals totals = newTotals(journal);
+        StatsStore statsStore = new StatsStore(new FilePreferences(new File(directory, "stats.xml")), writer, 10_000);
+        return new UserStats(statsStore, journal, totals);
+    }
+}
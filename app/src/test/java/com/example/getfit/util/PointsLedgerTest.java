@@ -0,0 +1,196 @@
+package com.example.getfit.util;
+
+import com.example.getfit.models.UserStats;
+
+import org.junit.After;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link PointsLedger} grants each award once per day, also after the app restarts,
+ * that the point total always matches the granted awards, that concurrent duplicates are rejected,
+ * and measures the cost of rejecting a duplicate.
+ */
+public class PointsLedgerTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ScheduledExecutorService writer = StatsStore.newWriterThread();
+    private volatile long now = 19_500 * DAY + DAY / 2;
+    private final StatsClock clock = new StatsClock(() -> now, TimeZone.getTimeZone("UTC"));
+
+    @After
+    public void tearDown() {
+        writer.shutdownNow();
+    }
+
+    @Test
+    public void award_isGrantedOncePerDay() throws Exception {
+        Stats stats = newStats(folder.newFolder("journal"));
+
+        assertTrue(stats.ledger.award(20, StatsJournal.REASON_CHECK_IN, 0));
+        assertFalse(stats.ledger.award(20, StatsJournal.REASON_CHECK_IN, 0));
+        assertTrue(stats.ledger.award(1, StatsJournal.REASON_EXERCISE, 7));
+        assertFalse(stats.ledger.award(1, StatsJournal.REASON_EXERCISE, 7));
+        assertTrue(stats.ledger.award(1, StatsJournal.REASON_EXERCISE, 8));
+        assertEquals(22, stats.userStats.getTotalPoints());
+
+        now += DAY;
+        assertTrue(stats.ledger.award(20, StatsJournal.REASON_CHECK_IN, 0));
+        assertEquals(42, stats.userStats.getTotalPoints());
+    }
+
+    @Test
+    public void award_survivesRestart() throws Exception {
+        File directory = folder.newFolder("journal");
+        Stats stats = newStats(directory);
+        assertTrue(stats.ledger.award(30, StatsJournal.REASON_DINING_GOAL, 0));
+
+        // The screen is recreated, or the app restarts, and awards the points again
+        Stats recreated = newStats(directory);
+        assertFalse(recreated.ledger.award(30, StatsJournal.REASON_DINING_GOAL, 0));
+        assertEquals(30, recreated.userStats.getTotalPoints());
+    }
+
+    @Test
+    public void reset_allowsAwardsAgain() throws Exception {
+        Stats stats = newStats(folder.newFolder("journal"));
+        assertTrue(stats.ledger.award(20, StatsJournal.REASON_CHECK_IN, 0));
+        stats.userStats.resetPoints();
+        assertTrue(stats.ledger.award(20, StatsJournal.REASON_CHECK_IN, 0));
+        assertEquals(20, stats.userStats.getTotalPoints());
+    }
+
+    @Test
+    public void total_matchesGrantedAwards() throws Exception {
+        Stats stats = newStats(folder.newFolder("journal"));
+        Random random = new Random(4);
+        HashSet<String> granted = new HashSet<>();
+        int expected = 0;
+
+        for (int i = 0; i < 50_000; i++) {
+            if (random.nextInt(2_000) == 0) {
+                now += DAY;
+            }
+            int reason = 1 + random.nextInt(3);
+            long subject = random.nextInt(300);
+            int points = 1 + random.nextInt(30);
+            boolean fresh = granted.add(clock.today() + "/" + reason + "/" + subject);
+            assertEquals(fresh, stats.ledger.award(points, reason, subject));
+            if (fresh) {
+                expected += points;
+            }
+            assertEquals(expected, stats.userStats.getTotalPoints());
+        }
+    }
+
+    @Test
+    public void concurrentDuplicates_areGrantedOnce() throws Exception {
+        Stats stats = newStats(folder.newFolder("journal"));
+        AtomicInteger grantedCount = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ArrayList<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int subject = 0; subject < 10_000; subject++) {
+                    if (stats.ledger.award(1, StatsJournal.REASON_EXERCISE, subject)) {
+                        grantedCount.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(10_000, grantedCount.get());
+        assertEquals(10_000, stats.userStats.getTotalPoints());
+    }
+
+    @Ignore("Benchmark; run it by hand")
+    @Test
+    public void benchmark_rejectDuplicate() throws Exception {
+        Stats stats = newStats(folder.newFolder("journal"));
+        int exercises = 1_000;
+        for (int subject = 0; subject < exercises; subject++) {
+            stats.ledger.award(1, StatsJournal.REASON_EXERCISE, subject);
+        }
+
+        int rounds = 2_000;
+        long begin = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (int subject = 0; subject < exercises; subject++) {
+                assertFalse(stats.ledger.award(1, StatsJournal.REASON_EXERCISE, subject));
+            }
+        }
+        long nanos = System.nanoTime() - begin;
+        System.out.println(String.format("duplicate award rejected in %.1f ns with %d awards today",
+                (double) nanos / ((long) rounds * exercises), exercises));
+        assertEquals(exercises, stats.userStats.getTotalPoints());
+    }
+
+    @Test
+    public void longHashSet_behavesLikeASet() {
+        PointsLedger.LongHashSet set = new PointsLedger.LongHashSet();
+        HashSet<Long> expected = new HashSet<>();
+        Random random = new Random(5);
+        for (int i = 0; i < 100_000; i++) {
+            long key = random.nextInt(20) == 0 ? 0 : random.nextLong() % 50_000;
+            assertEquals(expected.add(key), set.add(key));
+            long probe = random.nextLong() % 50_000;
+            assertEquals(expected.contains(probe), set.contains(probe));
+        }
+        assertEquals(expected.size(), set.size());
+        set.clear();
+        assertEquals(0, set.size());
+        assertFalse(set.contains(0));
+    }
+
+    /**
+     * A user's stats together with the ledger they award through.
+     */
+    private static class Stats {
+        final UserStats userStats;
+        final PointsLedger ledger;
+
+        Stats(UserStats userStats, PointsLedger ledger) {
+            this.userStats = userStats;
+            this.ledger = ledger;
+        }
+    }
+
+    private Stats newStats(File directory) throws Exception {
+        StatsJournal journal = new StatsJournal(directory, 4 * 1024, clock);
+        StatsTotals totals = new StatsTotals();
+        journal.addListener(totals);
+        StatsStore statsStore = new StatsStore(new FilePreferences(new File(directory, "stats.xml")), writer, 10_000);
+        PointsLedger ledger = new PointsLedger(journal);
+        return new Stats(new UserStats(statsStore, journal, totals, null, ledger), ledger);
+    }
+}
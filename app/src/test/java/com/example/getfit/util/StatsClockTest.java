@@ -0,0 +1,194 @@
+package com.example.getfit.util;
+
+import com.example.getfit.models.UserStats;
+
+import org.junit.After;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.TimeZone;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link StatsClock} assigns times to the same local days as java.time in time zones
+ * with daylight saving time, half-hour offsets and skipped days, that {@link UserStats} starts a new
+ * day at local midnight, over New Year and after several days away, and measures the cost of
+ * asking for today.
+ */
+public class StatsClockTest {
+
+    private static final long MINUTE = 60L * 1000;
+    private static final long HOUR = 60 * MINUTE;
+
+    private static final String[] ZONES = {
+            "UTC",
+            "America/New_York",
+            "Europe/London",
+            "Australia/Lord_Howe",  // half-hour daylight saving shift
+            "America/Santiago",     // clocks change at midnight
+            "Asia/Kolkata",
+            "America/St_Johns",
+            "Pacific/Apia",         // skipped 2011-12-30 entirely
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ScheduledExecutorService writer = StatsStore.newWriterThread();
+
+    @After
+    public void tearDown() {
+        writer.shutdownNow();
+    }
+
+    /**
+     * A time source the test moves by hand.
+     */
+    private static class ManualTime implements StatsClock.TimeSource {
+        long now;
+
+        ManualTime(long now) {
+            this.now = now;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    @Test
+    public void epochDay_matchesLocalDateInEveryZone() {
+        long from = Instant.parse("2010-01-01T00:00:00Z").toEpochMilli();
+        long to = Instant.parse("2026-01-01T00:00:00Z").toEpochMilli();
+        for (String zone : ZONES) {
+            ManualTime time = new ManualTime(from);
+            StatsClock clock = new StatsClock(time, TimeZone.getTimeZone(zone));
+            ZoneId zoneId = ZoneId.of(zone);
+            // 37 minutes doesn't divide an hour, so every minute offset within a day gets visited
+            for (time.now = from; time.now < to; time.now += 37 * MINUTE) {
+                long expected = Instant.ofEpochMilli(time.now).atZone(zoneId).toLocalDate().toEpochDay();
+                assertEquals(zone + " at " + Instant.ofEpochMilli(time.now), expected, clock.today());
+            }
+        }
+    }
+
+    @Test
+    public void daylightSavingDays_changeAtLocalMidnight() {
+        ZoneId zone = ZoneId.of("America/New_York");
+        StatsClock clock = new StatsClock(new ManualTime(0), TimeZone.getTimeZone(zone));
+        // 23 and 25 hour days, and the days after them
+        for (String date : new String[]{"2024-03-10", "2024-03-11", "2024-11-03", "2024-11-04"}) {
+            LocalDate day = LocalDate.parse(date);
+            long start = day.atStartOfDay(zone).toInstant().toEpochMilli();
+            long end = day.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+
+            assertEquals(day.toEpochDay() - 1, clock.epochDay(start - 1));
+            assertEquals(day.toEpochDay(), clock.epochDay(start));
+            assertEquals(day.toEpochDay(), clock.epochDay(end - 1));
+            assertEquals(day.toEpochDay() + 1, clock.epochDay(end));
+        }
+    }
+
+    @Test
+    public void userStats_startsNewDayAtMidnight() throws Exception {
+        ZoneId zone = ZoneId.of("Europe/Berlin");
+        ManualTime time = new ManualTime(millis("2023-12-31T23:59", zone));
+        StatsClock clock = new StatsClock(time, TimeZone.getTimeZone(zone));
+        UserStats userStats = newUserStats(clock);
+
+        userStats.addCalories(800);
+        userStats.checkIn();
+        assertEquals(800, userStats.getTotalCalories());
+        assertTrue(userStats.hasCheckedInToday());
+
+        // New Year: the day of the year drops from 365 to 1, the epoch day still goes up by one
+        time.now = millis("2024-01-01T00:00", zone);
+        assertEquals(0, userStats.getTotalCalories());
+        assertFalse(userStats.hasCheckedInToday());
+        userStats.addCalories(300);
+        userStats.checkIn();
+
+        // Several days away, arriving back at the same time of day
+        time.now = millis("2024-01-04T00:00", zone);
+        assertEquals(0, userStats.getTotalCalories());
+        assertFalse(userStats.hasCheckedInToday());
+        userStats.addCalories(200);
+        time.now += 23 * HOUR;
+        assertEquals(200, userStats.getTotalCalories());
+    }
+
+    @Test
+    public void userStats_followsTimeZoneChange() throws Exception {
+        ManualTime time = new ManualTime(millis("2024-06-01T23:30", ZoneId.of("Europe/London")));
+        StatsClock clock = new StatsClock(time, TimeZone.getTimeZone("Europe/London"));
+        UserStats userStats = newUserStats(clock);
+        userStats.addCalories(500);
+
+        // Flying east: it is already tomorrow in Berlin, so the day starts over
+        clock.setTimeZone(TimeZone.getTimeZone("Europe/Berlin"));
+        assertEquals(0, userStats.getTotalCalories());
+        clock.setTimeZone(TimeZone.getTimeZone("Europe/London"));
+        assertEquals(500, userStats.getTotalCalories());
+    }
+
+    @Ignore("Benchmark; run it by hand")
+    @Test
+    public void benchmark_today() {
+        ManualTime time = new ManualTime(millis("2024-03-10T12:00", ZoneId.of("America/New_York")));
+        StatsClock clock = new StatsClock(time, TimeZone.getTimeZone("America/New_York"));
+        int calls = 10_000_000;
+
+        long sum = 0;
+        for (int i = 0; i < calls; i++) {
+            sum += clock.today();
+        }
+
+        long allocatedBefore = allocatedBytes();
+        long begin = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            time.now += 1;
+            sum += clock.today();
+        }
+        long nanos = System.nanoTime() - begin;
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        System.out.println(String.format("today(): %.2f ns/call, %d bytes allocated (%d)",
+                (double) nanos / calls, allocated, sum));
+        // Only crossing a midnight computes and allocates anything
+        assertTrue(allocated < 10_000);
+    }
+
+    private UserStats newUserStats(StatsClock clock) throws Exception {
+        StatsJournal journal = new StatsJournal(folder.newFolder("journal"), 64, clock);
+        StatsTotals totals = new StatsTotals();
+        journal.addListener(totals);
+        StatsStore statsStore = new StatsStore(new FilePreferences(folder.newFile("stats.xml")), writer, 10_000);
+        return new UserStats(statsStore, journal, totals);
+    }
+
+    private static long millis(String localDateTime, ZoneId zone) {
+        return LocalDateTime.parse(localDateTime).atZone(zone).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Returns the bytes allocated by this thread so far, or 0 if the JVM can't tell.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
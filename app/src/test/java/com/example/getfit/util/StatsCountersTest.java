@@ -0,0 +1,201 @@
+package com.example.getfit.util;
+
+import com.example.getfit.models.UserStats;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link StatsCounters} entries merge as a CRDT and that devices exchanging them through
+ * a simulated user document converge on the same totals, whatever order, delay or duplication the
+ * snapshots arrive with, and that a reset keeps the points another device earned concurrently.
+ */
+public class StatsCountersTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ScheduledExecutorService writer = StatsStore.newWriterThread();
+    private long now = 19_000 * DAY + DAY / 2;
+
+    @After
+    public void tearDown() {
+        writer.shutdownNow();
+    }
+
+    /**
+     * One simulated device: its journal, totals and the counters it received from other devices.
+     */
+    private class Device {
+        final String id;
+        final StatsTotals totals = new StatsTotals();
+        final StatsCounters remote = new StatsCounters();
+        final UserStats userStats;
+
+        Device(String id) throws Exception {
+            this.id = id;
+            StatsClock clock = new StatsClock(() -> now, TimeZone.getTimeZone("UTC"));
+            StatsJournal journal = new StatsJournal(folder.newFolder(id), 256, clock);
+            journal.addListener(totals);
+            userStats = new UserStats(new StatsStore(new FilePreferences(folder.newFile(id + ".xml")), writer, 10_000),
+                    journal, totals);
+        }
+
+        /** Does what StatsSync does when a write is due: merges its own entry into the document. */
+        void publish(Map<String, Object> document) {
+            document.put(id, totals.getLocalEntry().toMap());
+        }
+
+        /** Does what StatsSync does with a snapshot of the document. */
+        void receive(Map<String, Object> document) {
+            remote.mergeAll(document, id);
+            int day = remote.getLatestCalorieDay();
+            totals.setRemote(remote.getPoints(), day, remote.getCalories(day));
+        }
+    }
+
+    @Test
+    public void merge_isCommutativeAssociativeAndIdempotent() {
+        Random random = new Random(1);
+        for (int i = 0; i < 10_000; i++) {
+            StatsCounters.Entry a = randomEntry(random);
+            StatsCounters.Entry b = randomEntry(random);
+            StatsCounters.Entry c = randomEntry(random);
+            assertEquals(a.merge(b), b.merge(a));
+            assertEquals(a.merge(b).merge(c), a.merge(b.merge(c)));
+            assertEquals(a, a.merge(a));
+            assertEquals(a, StatsCounters.Entry.fromMap(a.toMap()));
+        }
+    }
+
+    @Test
+    public void devices_convergeOnExactSums() throws Exception {
+        Device[] devices = {new Device("phone"), new Device("tablet"), new Device("web")};
+        Random random = new Random(2);
+        int expectedPoints = 0;
+        int expectedCalories = 0;
+        ArrayList<Map<String, Object>> snapshots = new ArrayList<>();
+        HashMap<String, Object> document = new HashMap<>();
+
+        for (int step = 0; step < 20_000; step++) {
+            Device device = devices[random.nextInt(devices.length)];
+            int points = random.nextInt(30);
+            int calories = random.nextInt(800);
+            device.userStats.addPoints(points);
+            device.userStats.addCalories(calories);
+            expectedPoints += points;
+            expectedCalories += calories;
+            deliverRandomly(devices, random, document, snapshots);
+        }
+        syncAll(devices, document);
+
+        for (Device device : devices) {
+            assertEquals(expectedPoints, device.userStats.getTotalPoints());
+            assertEquals(expectedCalories, device.userStats.getTotalCalories());
+        }
+    }
+
+    @Test
+    public void devices_convergeWithResetsAndNewDays() throws Exception {
+        Device[] devices = {new Device("phone"), new Device("tablet"), new Device("web")};
+        Random random = new Random(3);
+        ArrayList<Map<String, Object>> snapshots = new ArrayList<>();
+        HashMap<String, Object> document = new HashMap<>();
+
+        for (int step = 0; step < 20_000; step++) {
+            Device device = devices[random.nextInt(devices.length)];
+            int action = random.nextInt(100);
+            if (action == 0) {
+                device.userStats.resetPoints();
+            } else if (action == 1) {
+                device.userStats.resetCalories();
+            } else if (action == 2) {
+                now += DAY;
+            } else {
+                device.userStats.addPoints(random.nextInt(30));
+                device.userStats.addCalories(random.nextInt(800));
+            }
+            deliverRandomly(devices, random, document, snapshots);
+        }
+        syncAll(devices, document);
+
+        long points = 0;
+        long calories = 0;
+        int today = (int) Math.floorDiv(now, DAY);
+        for (Device device : devices) {
+            points += device.totals.getLocalEntry().getPoints();
+            calories += device.totals.getLocalEntry().getCalories(today);
+        }
+        for (Device device : devices) {
+            assertEquals(points, device.userStats.getTotalPoints());
+            assertEquals(calories, device.userStats.getTotalCalories());
+        }
+    }
+
+    @Test
+    public void reset_keepsConcurrentPointsOfOtherDevices() throws Exception {
+        Device phone = new Device("phone");
+        Device tablet = new Device("tablet");
+        HashMap<String, Object> document = new HashMap<>();
+
+        phone.userStats.addPoints(50);
+        tablet.userStats.addPoints(30);
+        syncAll(new Device[]{phone, tablet}, document);
+        assertEquals(80, phone.userStats.getTotalPoints());
+
+        // The phone resets what it has seen while the tablet earns points it hasn't seen yet
+        phone.userStats.resetPoints();
+        tablet.userStats.addPoints(10);
+        assertEquals(0, phone.userStats.getTotalPoints());
+        syncAll(new Device[]{phone, tablet}, document);
+
+        assertEquals(10, phone.userStats.getTotalPoints());
+        assertEquals(10, tablet.userStats.getTotalPoints());
+    }
+
+    /**
+     * Lets a random device publish, and delivers a random, possibly stale or repeated, snapshot of
+     * the document to a random device.
+     */
+    private static void deliverRandomly(Device[] devices, Random random, HashMap<String, Object> document,
+                                        ArrayList<Map<String, Object>> snapshots) {
+        if (random.nextInt(4) == 0) {
+            devices[random.nextInt(devices.length)].publish(document);
+            snapshots.add(new HashMap<>(document));
+        }
+        if (!snapshots.isEmpty() && random.nextInt(3) == 0) {
+            devices[random.nextInt(devices.length)].receive(snapshots.get(random.nextInt(snapshots.size())));
+        }
+    }
+
+    /**
+     * Publishes every device's entry and delivers the resulting document to every device.
+     */
+    private static void syncAll(Device[] devices, HashMap<String, Object> document) {
+        for (Device device : devices) {
+            device.publish(document);
+        }
+        for (Device device : devices) {
+            device.receive(document);
+        }
+    }
+
+    private static StatsCounters.Entry randomEntry(Random random) {
+        return new StatsCounters.Entry(random.nextInt(100), random.nextInt(100),
+                random.nextInt(3) == 0 ? StatsCounters.NO_DAY : 100 + random.nextInt(3),
+                random.nextInt(1000), random.nextInt(1000));
+    }
+}
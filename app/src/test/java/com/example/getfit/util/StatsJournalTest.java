@@ -0,0 +1,162 @@
+package com.example.getfit.util;
+
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link StatsJournal} persists events across reopening, ignores a partly written
+ * record, scans day ranges and grows across segments, that {@link StatsTotals} computes the
+ * UserStats totals from it, and measures append and replay throughput.
+ */
+public class StatsJournalTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final int EVENTS = 1_000_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void append_survivesReopen() throws Exception {
+        File directory = folder.newFolder("journal");
+        StatsJournal journal = new StatsJournal(directory, 16);
+        for (int i = 0; i < 40; i++) {
+            journal.append(StatsJournal.EVENT_POINTS, 1_000 + i, 1, i, StatsJournal.REASON_EXERCISE);
+        }
+
+        StatsJournal reopened = new StatsJournal(directory, 16);
+        assertEquals(40, reopened.size());
+        final long[] sum = new long[2];
+        reopened.replay((type, timeMillis, epochDay, amount, subject, reason) -> {
+            assertEquals(StatsJournal.EVENT_POINTS, type);
+            assertEquals(StatsJournal.REASON_EXERCISE, reason);
+            sum[0] += amount;
+            sum[1] += subject;
+        });
+        assertEquals(40, sum[0]);
+        assertEquals(40 * 39 / 2, sum[1]);
+    }
+
+    @Test
+    public void partlyWrittenRecord_isOverwritten() throws Exception {
+        File directory = folder.newFolder("journal");
+        StatsJournal journal = new StatsJournal(directory, 16);
+        journal.append(StatsJournal.EVENT_CALORIES, 1_000, 500, 7, 0);
+
+        // Simulate a crash after the fields but before the type byte of the second record
+        try (RandomAccessFile file = new RandomAccessFile(new File(directory, "segment-00000.bin"), "rw")) {
+            file.seek(StatsJournal.RECORD_BYTES);
+            file.writeLong(2_000);
+            file.writeInt(0);
+            file.writeInt(999);
+        }
+
+        StatsJournal reopened = new StatsJournal(directory, 16);
+        assertEquals(1, reopened.size());
+        reopened.append(StatsJournal.EVENT_CALORIES, 3_000, 200, 8, 0);
+        StatsTotals totals = new StatsTotals();
+        reopened.replay(totals);
+        assertEquals(700, totals.getCalories(reopened.getClock().epochDay(3_000)));
+    }
+
+    @Test
+    public void scanDays_returnsOnlyTheRange() throws Exception {
+        StatsJournal journal = new StatsJournal(folder.newFolder("journal"), 64);
+        long start = 100 * DAY;
+        for (int day = 0; day < 30; day++) {
+            for (int i = 0; i < 5; i++) {
+                journal.append(StatsJournal.EVENT_CALORIES, start + day * DAY + i * 60_000 + DAY / 2, 100, 0, 0);
+            }
+        }
+
+        int first = journal.getClock().epochDay(start + 10 * DAY + DAY / 2);
+        final int[] count = new int[1];
+        journal.scanDays(first, first + 6, (type, timeMillis, epochDay, amount, subject, reason) -> {
+            assertTrue(epochDay >= first && epochDay <= first + 6);
+            count[0]++;
+        });
+        assertEquals(35, count[0]);
+    }
+
+    @Test
+    public void totals_followResetsAndDays() throws Exception {
+        StatsJournal journal = new StatsJournal(folder.newFolder("journal"), 64);
+        StatsTotals totals = new StatsTotals();
+        journal.addListener(totals);
+        long today = 200 * DAY + DAY / 2;
+        int todayDay = journal.getClock().epochDay(today);
+
+        journal.append(StatsJournal.EVENT_CALORIES, today - DAY, 900, 0, 0);
+        journal.append(StatsJournal.EVENT_CALORIES, today, 400, 0, 0);
+        journal.append(StatsJournal.EVENT_POINTS, today, 20, 0, StatsJournal.REASON_CHECK_IN);
+        journal.append(StatsJournal.EVENT_CHECK_IN, today, 0, 0, 0);
+        assertEquals(400, totals.getCalories(todayDay));
+        assertEquals(0, totals.getCalories(todayDay + 1));
+        assertEquals(20, totals.getTotalPoints());
+        assertTrue(totals.hasCheckedIn(todayDay));
+
+        journal.append(StatsJournal.EVENT_POINTS_REMOVED, today, 20, 0, 0);
+        journal.append(StatsJournal.EVENT_CALORIES_REMOVED, today, 400, 0, 0);
+        assertEquals(0, totals.getTotalPoints());
+        assertEquals(0, totals.getCalories(todayDay));
+        assertFalse(totals.hasCheckedIn(todayDay));
+
+        // A view built later by replaying the journal reaches the same totals
+        StatsTotals replayed = new StatsTotals();
+        journal.replay(replayed);
+        assertEquals(totals.getTotalPoints(), replayed.getTotalPoints());
+        assertEquals(totals.getCalories(todayDay), replayed.getCalories(todayDay));
+    }
+
+    @Ignore("Benchmark; run it by hand")
+    @Test
+    public void benchmark_appendAndReplay() throws Exception {
+        StatsJournal journal = new StatsJournal(folder.newFolder("journal"), StatsJournal.DEFAULT_SEGMENT_RECORDS);
+        long start = 300 * DAY;
+
+        // Warm up, so segment mapping and JIT compilation don't count as per-append cost
+        for (int i = 0; i < 10_000; i++) {
+            journal.append(StatsJournal.EVENT_POINTS, start, 1, i, StatsJournal.REASON_EXERCISE);
+        }
+
+        long allocatedBefore = allocatedBytes();
+        long begin = System.nanoTime();
+        for (int i = 0; i < EVENTS; i++) {
+            journal.append(StatsJournal.EVENT_CALORIES, start + i * 1_000L, 100, i, 0);
+        }
+        long appendNanos = System.nanoTime() - begin;
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        final long[] sum = new long[1];
+        begin = System.nanoTime();
+        journal.replay((type, timeMillis, epochDay, amount, subject, reason) -> sum[0] += amount);
+        long replayNanos = System.nanoTime() - begin;
+
+        System.out.println(String.format(
+                "events=%d append: %.1f M events/s, %d bytes allocated (mapping new segments) | replay: %.1f M events/s",
+                EVENTS, EVENTS / (appendNanos / 1e3), allocated, journal.size() / (replayNanos / 1e3)));
+        assertEquals(10_000 + 100L * EVENTS, sum[0]);
+        // Appends themselves allocate nothing; only mapping a new segment every 32k records does
+        assertTrue(allocated < EVENTS);
+    }
+
+    /**
+     * Returns the bytes allocated by this thread so far, or 0 if the JVM can't tell.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.getfit.util;
+
+import com.example.getfit.models.UserStats;
+
+import org.junit.After;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.TimeZone;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link StatsPartitions} keeps every account's stats apart without resetting
+ * anything, opens a partition only when its stats are used, evicts the least recently used
+ * accounts' partitions with their changes written but never for signing out, and measures the
+ * cost of switching accounts.
+ */
+public class StatsPartitionsTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ScheduledExecutorService executor = StatsStore.newWriterThread();
+    private final StatsClock clock = new StatsClock(() -> 19_500 * DAY + DAY / 2, TimeZone.getTimeZone("UTC"));
+    // Like Android, one preferences object per name for the whole process
+    private final HashMap<String, FilePreferences> preferences = new HashMap<>();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void accounts_keepTheirOwnStats() throws Exception {
+        StatsPartitions partitions = newPartitions(StatsPartitions.MAX_OPEN_PARTITIONS);
+
+        UserStats alice = partitions.switchTo("alice").getUserStats();
+        alice.addPoints(10);
+        alice.addCalories(500);
+
+        // A new account starts from zero, without a reset
+        UserStats bob = partitions.switchTo("bob").getUserStats();
+        assertEquals(0, bob.getTotalPoints());
+        assertEquals(0, bob.getTotalCalories());
+        bob.addPoints(5);
+
+        // Switching back finds the same stats in memory
+        assertSame(alice, partitions.switchTo("alice").getUserStats());
+        assertEquals(10, alice.getTotalPoints());
+        assertEquals(500, alice.getTotalCalories());
+        assertEquals(5, bob.getTotalPoints());
+    }
+
+    @Test
+    public void switching_opensNothingUntilUsed() throws Exception {
+        StatsPartitions partitions = newPartitions(StatsPartitions.MAX_OPEN_PARTITIONS);
+
+        StatsPartitions.Partition carol = partitions.switchTo("carol");
+        assertSame(carol, partitions.current());
+        assertFalse(carol.isOpen());
+        assertFalse(new File(folder.getRoot(), "carol").exists());
+
+        carol.getTotals();
+        assertTrue(carol.isOpen());
+    }
+
+    @Test
+    public void inactivePartitions_areEvictedAndReopenedFromDisk() throws Exception {
+        StatsPartitions partitions = newPartitions(2);
+        StatsPartitions.Partition alice = partitions.switchTo("alice");
+        alice.getUserStats().addPoints(10);
+        alice.getUserStats().saveDailyCalorieGoalRange(1800, 2200);
+
+        partitions.switchTo("bob").getUserStats().addPoints(5);
+        partitions.switchTo("carol");
+        assertEquals(2, partitions.getPartitionCount());
+
+        // Alice's partition was closed with its changes written, and opens again from disk
+        StatsPartitions.Partition reopened = partitions.switchTo("alice");
+        assertNotSame(alice, reopened);
+        assertEquals(10, reopened.getUserStats().getTotalPoints());
+        assertArrayEquals(new int[]{1800, 2200}, reopened.getUserStats().getDailyCalorieGoalRange());
+        assertEquals(2, partitions.getPartitionCount());
+    }
+
+    @Test
+    public void signingOut_keepsBothAccountsInMemory() throws Exception {
+        StatsPartitions partitions = newPartitions(2);
+        StatsPartitions.Partition alice = partitions.switchTo("alice");
+        alice.getUserStats().addPoints(10);
+
+        // Signing out in between doesn't take one of the two places
+        partitions.switchTo(null);
+        partitions.switchTo("bob").getUserStats().addPoints(5);
+        partitions.switchTo(null);
+        assertSame(alice, partitions.switchTo("alice"));
+        assertEquals(10, alice.getUserStats().getTotalPoints());
+        assertEquals(2, partitions.getPartitionCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void evictedPartition_refusesAppends() throws Exception {
+        StatsPartitions partitions = newPartitions(1);
+        UserStats alice = partitions.switchTo("alice").getUserStats();
+        partitions.switchTo("bob");
+
+        // Alice's stats were kept past the eviction; they must not write next to her reopened journal
+        alice.addPoints(10);
+    }
+
+    @Ignore("Benchmark; run it by hand")
+    @Test
+    public void benchmark_switchAccounts() throws Exception {
+        StatsPartitions partitions = newPartitions(StatsPartitions.MAX_OPEN_PARTITIONS);
+        for (int i = 0; i < 1_000; i++) {
+            partitions.switchTo("alice").getUserStats().addPoints(1);
+        }
+        partitions.switchTo("bob").getUserStats().addPoints(1);
+
+        int switches = 1_000_000;
+        long begin = System.nanoTime();
+        for (int i = 0; i < switches; i++) {
+            partitions.switchTo((i & 1) == 0 ? "alice" : "bob");
+        }
+        long nanos = System.nanoTime() - begin;
+        System.out.println(String.format("account switch in %.1f ns with %d events in the journal",
+                (double) nanos / switches, partitions.switchTo("alice").getJournal().size()));
+        assertEquals(1_000, partitions.current().getUserStats().getTotalPoints());
+    }
+
+    private StatsPartitions newPartitions(int maxOpenPartitions) {
+        // Evicted partitions are closed right away, so the test sees what they wrote
+        return new StatsPartitions(uid -> {
+            String key = uid != null ? uid : StatsPartitions.SIGNED_OUT;
+            return new StatsPartitions.Partition(uid, new File(folder.getRoot(), key), preferences("stats-" + key),
+                    preferences("exercises-" + key), clock, executor, null, null);
+        }, Runnable::run, maxOpenPartitions);
+    }
+
+    private FilePreferences preferences(String name) {
+        return preferences.computeIfAbsent(name, n -> {
+            try {
+                return new FilePreferences(folder.newFile(n + ".xml"));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+}
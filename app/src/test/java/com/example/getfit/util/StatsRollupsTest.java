@@ -0,0 +1,128 @@
+package com.example.getfit.util;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link StatsRollups} answers range queries exactly like summing every day, reads
+ * only monthly and weekly rollups plus edge days, and measures query time for a one-year chart.
+ */
+public class StatsRollupsTest {
+
+    private static final int FIRST_DAY = (int) LocalDate.of(2023, 1, 1).toEpochDay();
+    private static final int DAYS = 800;
+
+    @Test
+    public void monthOf_matchesCalendar() {
+        for (int day = -1_000; day < 40_000; day++) {
+            LocalDate date = LocalDate.ofEpochDay(day);
+            int month = date.getYear() * 12 + date.getMonthValue() - 1;
+            assertEquals(month, StatsRollups.monthOf(day));
+            if (date.getDayOfMonth() == 1) {
+                assertEquals(day, StatsRollups.firstDayOfMonth(month));
+            }
+        }
+    }
+
+    @Test
+    public void query_matchesDailySums() {
+        StatsRollups rollups = new StatsRollups();
+        long[][] daily = feed(rollups, new Random(7));
+
+        Random random = new Random(11);
+        for (int i = 0; i < 2_000; i++) {
+            int from = FIRST_DAY + random.nextInt(DAYS);
+            int to = Math.min(FIRST_DAY + DAYS - 1, from + random.nextInt(400));
+            long[] expected = new long[StatsRollups.FIELD_COUNT];
+            for (int day = from; day <= to; day++) {
+                for (int field = 0; field < StatsRollups.FIELD_COUNT; field++) {
+                    expected[field] += daily[day - FIRST_DAY][field];
+                }
+            }
+            long[] actual = rollups.query(from, to);
+            for (int field = 0; field < StatsRollups.FIELD_COUNT; field++) {
+                assertEquals(expected[field], actual[field]);
+            }
+        }
+    }
+
+    @Test
+    public void query_readsCoarsestRecords() {
+        StatsRollups rollups = new StatsRollups();
+        feed(rollups, new Random(3));
+
+        int from = (int) LocalDate.of(2023, 3, 17).toEpochDay();
+        int to = (int) LocalDate.of(2024, 3, 16).toEpochDay();
+        rollups.query(from, to);
+        // 11 whole months; each partial edge month needs at most 6 days, 3 weeks and 6 days
+        assertTrue(rollups.getLastQueryRecords() <= 11 + 2 * (6 + 3 + 6));
+    }
+
+    @Test
+    public void caloriesReset_removesTheDaysIntake() {
+        StatsRollups rollups = new StatsRollups();
+        rollups.onEvent(StatsJournal.EVENT_CALORIES, 0, FIRST_DAY, 700, 0, StatsJournal.packMacros(30, 80, 20));
+        rollups.onEvent(StatsJournal.EVENT_POINTS, 0, FIRST_DAY, 5, 0, StatsJournal.REASON_EXERCISE);
+        rollups.onEvent(StatsJournal.EVENT_CALORIES_REMOVED, 0, FIRST_DAY, 700, 0, 0);
+
+        long[] day = rollups.getDay(FIRST_DAY);
+        assertEquals(0, day[StatsRollups.CALORIES]);
+        assertEquals(0, day[StatsRollups.PROTEIN]);
+        assertEquals(5, day[StatsRollups.POINTS]);
+        assertEquals(1, rollups.query(FIRST_DAY, FIRST_DAY + 40)[StatsRollups.WORKOUTS]);
+    }
+
+    @Ignore("Benchmark; run it by hand")
+    @Test
+    public void benchmark_oneYearQuery() {
+        StatsRollups rollups = new StatsRollups();
+        feed(rollups, new Random(5));
+
+        int from = FIRST_DAY + 45;
+        int to = from + 364;
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 1_000; i++) {
+            long start = System.nanoTime();
+            rollups.query(from, to);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.println(String.format("one-year query: %d records read, %.1f us",
+                rollups.getLastQueryRecords(), best / 1e3));
+    }
+
+    /**
+     * Feeds random calorie and point events for every day and returns the expected daily sums.
+     */
+    private static long[][] feed(StatsRollups rollups, Random random) {
+        long[][] daily = new long[DAYS][StatsRollups.FIELD_COUNT];
+        for (int offset = 0; offset < DAYS; offset++) {
+            int day = FIRST_DAY + offset;
+            for (int meal = random.nextInt(5); meal > 0; meal--) {
+                int calories = 100 + random.nextInt(900);
+                int protein = random.nextInt(60);
+                int carbs = random.nextInt(120);
+                int fat = random.nextInt(40);
+                rollups.onEvent(StatsJournal.EVENT_CALORIES, 0, day, calories, 0, StatsJournal.packMacros(protein, carbs, fat));
+                daily[offset][StatsRollups.CALORIES] += calories;
+                daily[offset][StatsRollups.PROTEIN] += protein;
+                daily[offset][StatsRollups.CARBS] += carbs;
+                daily[offset][StatsRollups.FAT] += fat;
+            }
+            for (int workout = random.nextInt(3); workout > 0; workout--) {
+                rollups.onEvent(StatsJournal.EVENT_POINTS, 0, day, 1, workout, StatsJournal.REASON_EXERCISE);
+                daily[offset][StatsRollups.POINTS] += 1;
+                daily[offset][StatsRollups.WORKOUTS] += 1;
+            }
+            if (random.nextInt(4) == 0) {
+                rollups.onEvent(StatsJournal.EVENT_POINTS, 0, day, 20, 0, StatsJournal.REASON_CHECK_IN);
+                daily[offset][StatsRollups.POINTS] += 20;
+            }
+        }
+        return daily;
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.getfit.util;
+
+import android.content.SharedPreferences;
+
+import org.junit.After;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link StatsStore} coalesces writes and persists them on flush, and compares the
+ * update rate of the write-behind store with the previous read-modify-write through
+ * SharedPreferences, where every update rewrote the preferences file.
+ */
+public class StatsStoreBenchmarkTest {
+
+    private static final int UPDATES = 20_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ScheduledExecutorService writer = StatsStore.newWriterThread();
+
+    @After
+    public void tearDown() {
+        writer.shutdownNow();
+    }
+
+    @Test
+    public void updates_areCoalescedAndPersisted() throws Exception {
+        FilePreferences prefs = new FilePreferences(folder.newFile("stats.xml"));
+        StatsStore store = new StatsStore(prefs, writer, 10_000);
+
+        for (int i = 0; i < 1_000; i++) {
+            store.addInt("total_points", 1);
+            store.addInt("totalCalories", 10);
+        }
+        store.putString("last_check_in_date", "2024-01-01");
+        assertEquals(1_000, store.getInt("total_points", 0));
+        assertEquals(0, prefs.writes.get());
+
+        store.flushNow();
+        assertEquals(1, prefs.writes.get());
+
+        // A new store over the same preferences sees the flushed values
+        StatsStore reloaded = new StatsStore(prefs, writer, 10_000);
+        assertEquals(1_000, reloaded.getInt("total_points", 0));
+        assertEquals(10_000, reloaded.getInt("totalCalories", 0));
+        assertEquals("2024-01-01", reloaded.getString("last_check_in_date", ""));
+    }
+
+    @Test
+    public void flush_writesOnBackgroundThread() throws Exception {
+        FilePreferences prefs = new FilePreferences(folder.newFile("stats.xml"));
+        StatsStore store = new StatsStore(prefs, writer, 10_000);
+
+        store.addInt("total_points", 20);
+        store.flush();
+        writer.submit(() -> { }).get();  // Wait for the writer thread to drain
+
+        assertEquals(1, prefs.writes.get());
+        assertEquals(20, prefs.getInt("total_points", 0));
+    }
+
+    @Ignore("Benchmark; run it by hand")
+    @Test
+    public void benchmark_writesPerSecond() throws Exception {
+        // Before: every update is a getInt, a new Editor and a full-file write
+        FilePreferences legacyPrefs = new FilePreferences(folder.newFile("legacy.xml"));
+        long start = System.nanoTime();
+        for (int i = 0; i < UPDATES; i++) {
+            int current = legacyPrefs.getInt("total_points", 0);
+            SharedPreferences.Editor editor = legacyPrefs.edit();
+            editor.putInt("total_points", current + 1);
+            editor.apply();
+        }
+        long legacyNanos = System.nanoTime() - start;
+
+        // After: in-memory atomic updates, written behind in batches
+        FilePreferences prefs = new FilePreferences(folder.newFile("stats.xml"));
+        StatsStore store = new StatsStore(prefs, writer, 50);
+        start = System.nanoTime();
+        for (int i = 0; i < UPDATES; i++) {
+            store.addInt("total_points", 1);
+        }
+        long storeNanos = System.nanoTime() - start;
+        store.flushNow();
+
+        System.out.println(String.format(
+                "updates=%d read-modify-write: %.0f updates/s, %d file writes | StatsStore: %.0f updates/s, %d file writes",
+                UPDATES, UPDATES / (legacyNanos / 1e9), legacyPrefs.writes.get(),
+                UPDATES / (storeNanos / 1e9), prefs.writes.get()));
+        assertEquals(UPDATES, legacyPrefs.getInt("total_points", 0));
+        assertEquals(UPDATES, prefs.getInt("total_points", 0));
+        assertTrue(prefs.writes.get() < legacyPrefs.writes.get());
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.getfit.util;
+
+import com.example.getfit.models.UserStats;
+
+import org.junit.After;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the rolling windows of {@link StatsTrends} against sums recomputed from scratch, the
+ * averages, the calorie and weight trends, that replaying the journal rebuilds them, and measures
+ * the cost of an event and of a read.
+ */
+public class StatsTrendsTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final int FIRST_DAY = 19_800;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ScheduledExecutorService writer = StatsStore.newWriterThread();
+    private volatile long now = FIRST_DAY * DAY + DAY / 2;
+    private final StatsClock clock = new StatsClock(() -> now, TimeZone.getTimeZone("UTC"));
+
+    @After
+    public void tearDown() {
+        writer.shutdownNow();
+    }
+
+    @Test
+    public void rollingWindow_matchesRecomputedSums() {
+        StatsTrends.RollingWindow window = new StatsTrends.RollingWindow(7);
+        HashMap<Integer, Long> daily = new HashMap<>();
+        Random random = new Random(8);
+        int day = FIRST_DAY;
+
+        for (int i = 0; i < 100_000; i++) {
+            int step = random.nextInt(50);
+            if (step < 3) {
+                day += step == 0 ? 1 + random.nextInt(12) : 1;
+            }
+            long value = random.nextInt(10) == 0 ? -random.nextInt(100) : random.nextInt(500);
+            window.add(day, value);
+            daily.merge(day, value, Long::sum);
+
+            long expectedSum = 0;
+            int expectedDays = 0;
+            for (int d = day - 7; d < day; d++) {
+                long dayValue = daily.getOrDefault(d, 0L);
+                expectedSum += dayValue;
+                expectedDays += dayValue != 0 ? 1 : 0;
+            }
+            assertEquals(expectedSum, window.sum());
+            assertEquals(expectedDays == 0 ? 0 : (double) expectedSum / expectedDays, window.average(), 1e-9);
+        }
+    }
+
+    @Test
+    public void averages_countCompleteLoggedDays() {
+        StatsTrends trends = new StatsTrends(clock);
+        // 2000 a day for ten days, a day without the app, and 1000 today
+        for (int day = 0; day < 10; day++) {
+            trends.onEvent(StatsJournal.EVENT_CALORIES, 0, FIRST_DAY + day, 2_000, 0, 0);
+        }
+        now = (FIRST_DAY + 11) * DAY;
+        trends.onEvent(StatsJournal.EVENT_CALORIES, 0, FIRST_DAY + 11, 1_000, 0, 0);
+
+        assertEquals(2_000, trends.getAverageCalories(StatsTrends.WEEK), 1e-9);
+        assertEquals(6, trends.getLoggedDays(StatsTrends.WEEK));
+        assertEquals(10, trends.getLoggedDays(StatsTrends.MONTH));
+
+        // Today counts once it is over, and the week moves past another day of 2000
+        now += DAY;
+        assertEquals((5 * 2_000 + 1_000) / 6.0, trends.getAverageCalories(StatsTrends.WEEK), 1e-9);
+        assertEquals((10 * 2_000 + 1_000) / 11.0, trends.getAverageCalories(StatsTrends.MONTH), 1e-9);
+
+        // A month later nothing is left in either window
+        now += 31 * DAY;
+        assertEquals(0, trends.getAverageCalories(StatsTrends.MONTH), 1e-9);
+        assertEquals(0, trends.getLoggedDays(StatsTrends.MONTH));
+    }
+
+    @Test
+    public void calorieTrend_isAnExponentialAverageOfLoggedDays() {
+        StatsTrends trends = new StatsTrends(clock);
+        Random random = new Random(9);
+        double expected = Double.NaN;
+        for (int day = 0; day < 200; day++) {
+            now = (FIRST_DAY + day) * DAY;
+            if (random.nextInt(5) == 0) {
+                continue;
+            }
+            int calories = 1_500 + random.nextInt(1_000);
+            trends.onEvent(StatsJournal.EVENT_CALORIES, 0, FIRST_DAY + day, calories, 0, 0);
+            // The day being logged is only folded in when it is complete
+            assertEquals(expected, trends.getCalorieTrend(), 1e-6);
+            expected = Double.isNaN(expected) ? calories : expected + StatsTrends.CALORIE_ALPHA * (calories - expected);
+        }
+    }
+
+    @Test
+    public void weightTrend_smoothsPerDayAndReplacesSameDayEntries() {
+        StatsTrends trends = new StatsTrends(clock);
+        assertTrue(Double.isNaN(trends.getWeightTrend()));
+
+        trends.onEvent(StatsJournal.EVENT_WEIGHT, 0, FIRST_DAY, 80_000, 0, 0);
+        assertEquals(80, trends.getWeightTrend(), 1e-9);
+
+        // Three days later 10% per day of the difference: 1 - 0.9^3 = 27.1%
+        trends.onEvent(StatsJournal.EVENT_WEIGHT, 0, FIRST_DAY + 3, 70_000, 0, 0);
+        assertEquals(80 - 10 * 0.271, trends.getWeightTrend(), 1e-9);
+
+        // A correction on the same day replaces that day's entry
+        trends.onEvent(StatsJournal.EVENT_WEIGHT, 0, FIRST_DAY + 3, 78_000, 0, 0);
+        assertEquals(80 - 2 * 0.271, trends.getWeightTrend(), 1e-9);
+        assertEquals(78, trends.getLatestWeight(), 1e-9);
+    }
+
+    @Test
+    public void replay_rebuildsTheTrends() throws Exception {
+        File directory = folder.newFolder("journal");
+        StatsJournal journal = new StatsJournal(directory, 4 * 1024, clock);
+        StatsTotals totals = new StatsTotals();
+        journal.addListener(totals);
+        StatsTrends live = new StatsTrends(clock);
+        journal.addListener(live);
+        UserStats userStats = new UserStats(new StatsStore(new FilePreferences(new File(directory, "stats.xml")),
+                writer, 10_000), journal, totals);
+
+        Random random = new Random(10);
+        for (int day = 0; day < 90; day++) {
+            for (int meal = 0; meal < 3; meal++) {
+                userStats.addCalories(300 + random.nextInt(500));
+            }
+            if (random.nextInt(10) == 0) {
+                userStats.resetCalories();
+            }
+            if (day % 4 == 0) {
+                userStats.logWeight(75 + random.nextInt(5));
+            }
+            now += DAY;
+        }
+
+        StatsTrends replayed = new StatsTrends(clock);
+        new StatsJournal(directory, 4 * 1024, clock).addListener(replayed);
+        assertEquals(live.getAverageCalories(StatsTrends.WEEK), replayed.getAverageCalories(StatsTrends.WEEK), 1e-9);
+        assertEquals(live.getAverageCalories(StatsTrends.MONTH), replayed.getAverageCalories(StatsTrends.MONTH), 1e-9);
+        assertEquals(live.getCalorieTrend(), replayed.getCalorieTrend(), 1e-9);
+        assertEquals(live.getWeightTrend(), replayed.getWeightTrend(), 1e-9);
+        assertTrue(live.getAverageCalories(StatsTrends.MONTH) > 900);
+    }
+
+    @Ignore("Benchmark; run it by hand")
+    @Test
+    public void benchmark_eventsAndReads() {
+        StatsTrends trends = new StatsTrends(clock);
+        int events = 2_000_000;
+        long begin = System.nanoTime();
+        for (int i = 0; i < events; i++) {
+            // About 40 events a day
+            trends.onEvent(StatsJournal.EVENT_CALORIES, 0, FIRST_DAY + i / 40, 50, 0, 0);
+        }
+        long eventNanos = System.nanoTime() - begin;
+        now = (FIRST_DAY + events / 40) * DAY;
+
+        int reads = 2_000_000;
+        double sink = 0;
+        begin = System.nanoTime();
+        for (int i = 0; i < reads; i++) {
+            sink += trends.getAverageCalories((i & 1) == 0 ? StatsTrends.WEEK : StatsTrends.MONTH);
+        }
+        long readNanos = System.nanoTime() - begin;
+
+        System.out.println(String.format("event: %.1f ns, read: %.1f ns (%.0f)",
+                (double) eventNanos / events, (double) readNanos / reads, sink));
+        assertEquals(2_000, trends.getAverageCalories(StatsTrends.MONTH), 1e-9);
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.getfit.util;
+
+import com.example.getfit.models.UserStats;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hammers one shared {@link UserStats} from many threads and checks that no update is lost, that
+ * readers only ever see totals that grow, and that the calorie goal range is never read half
+ * written.
+ */
+public class UserStatsConcurrencyTest {
+
+    private static final int WRITERS = 8;
+    private static final int READERS = 2;
+    private static final int UPDATES_PER_WRITER = 100_000;
+    private static final long NOON = 20_000L * 24 * 60 * 60 * 1000 + 12 * 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ScheduledExecutorService writer = StatsStore.newWriterThread();
+
+    @After
+    public void tearDown() {
+        writer.shutdownNow();
+    }
+
+    @Test
+    public void concurrentUpdates_areNeverLost() throws Exception {
+        StatsClock clock = new StatsClock(() -> NOON, TimeZone.getTimeZone("UTC"));
+        StatsJournal journal = new StatsJournal(folder.newFolder("journal"), 4 * 1024, clock);
+        StatsTotals totals = new StatsTotals();
+        journal.addListener(totals);
+        StatsRollups rollups = new StatsRollups();
+        journal.addListener(rollups);
+        UserStats userStats = new UserStats(
+                new StatsStore(new FilePreferences(folder.newFile("stats.xml")), writer, 10_000), journal, totals);
+        userStats.saveDailyCalorieGoalRange(0, 100);
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicBoolean done = new AtomicBoolean();
+        CountDownLatch start = new CountDownLatch(1);
+        ArrayList<Thread> threads = new ArrayList<>();
+
+        for (int w = 0; w < WRITERS; w++) {
+            final int id = w;
+            threads.add(new Thread(() -> run(failure, start, () -> {
+                for (int i = 0; i < UPDATES_PER_WRITER; i++) {
+                    userStats.addCalories(3);
+                    userStats.addPoints(2, StatsJournal.REASON_EXERCISE, id);
+                    if (id == 0 && i % 100 == 0) {
+                        // Both bounds move together; readers check they always belong to the same save
+                        userStats.saveDailyCalorieGoalRange(i, i + 100);
+                    }
+                }
+            })));
+        }
+        for (int r = 0; r < READERS; r++) {
+            threads.add(new Thread(() -> run(failure, start, () -> {
+                int lastCalories = 0;
+                int lastPoints = 0;
+                while (!done.get()) {
+                    int calories = userStats.getTotalCalories();
+                    int points = userStats.getTotalPoints();
+                    assertTrue("calories went back from " + lastCalories + " to " + calories, calories >= lastCalories);
+                    assertTrue("points went back from " + lastPoints + " to " + points, points >= lastPoints);
+                    int[] range = userStats.getDailyCalorieGoalRange();
+                    assertEquals(100, range[1] - range[0]);
+                    lastCalories = calories;
+                    lastPoints = points;
+                }
+            })));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (int i = 0; i < WRITERS; i++) {
+            threads.get(i).join();
+        }
+        long nanos = System.nanoTime() - begin;
+        done.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        long updates = 2L * WRITERS * UPDATES_PER_WRITER;
+        System.out.println(String.format("%d threads: %.1f M updates/s", WRITERS, updates / (nanos / 1e3)));
+        assertEquals(3 * WRITERS * UPDATES_PER_WRITER, userStats.getTotalCalories());
+        assertEquals(2 * WRITERS * UPDATES_PER_WRITER, userStats.getTotalPoints());
+        assertEquals(updates, journal.size());
+
+        // The rollups saw the same events, in the same order, as the totals
+        long[] day = rollups.getDay(clock.today());
+        assertEquals(userStats.getTotalCalories(), day[StatsRollups.CALORIES]);
+        assertEquals(WRITERS * UPDATES_PER_WRITER, day[StatsRollups.WORKOUTS]);
+    }
+
+    /**
+     * Waits for the start signal and runs a task, recording the first failure of any thread.
+     */
+    private static void run(AtomicReference<Throwable> failure, CountDownLatch start, Runnable task) {
+        try {
+            start.await();
+            task.run();
+        } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+        }
+    }
+}